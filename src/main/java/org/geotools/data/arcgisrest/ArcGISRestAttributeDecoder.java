@@ -0,0 +1,341 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Decoder of JSON feature properties compiled from a feature type: it maps
+ * property names to attribute indexes and reads values straight into the
+ * binding of their attribute, so that they can be written into the values
+ * array of a feature without intermediate maps or conversions.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestAttributeDecoder {
+
+  // Type of the decoded features
+  protected SimpleFeatureType featureType;
+
+  // Attribute index by property name (the geometry attribute is not included)
+  protected Map<String, Integer> indexes;
+
+  // Attribute bindings by attribute index
+  protected Class<?>[] bindings;
+
+  // Index of the geometry attribute (-1 if there is none)
+  protected int geometryIndex = -1;
+
+  /**
+   * Constructor
+   *
+   * @param featureTypeIn
+   *          the feature type to compile the decoder from
+   */
+  public ArcGISRestAttributeDecoder(SimpleFeatureType featureTypeIn) {
+
+    this.featureType = featureTypeIn;
+    this.indexes = new HashMap<String, Integer>(
+        featureTypeIn.getAttributeCount() * 2);
+    this.bindings = new Class<?>[featureTypeIn.getAttributeCount()];
+
+    GeometryDescriptor geomDesc = featureTypeIn.getGeometryDescriptor();
+    for (int i = 0; i < this.bindings.length; i++) {
+      AttributeDescriptor attr = featureTypeIn.getDescriptor(i);
+      this.bindings[i] = attr.getType().getBinding();
+      if (geomDesc != null
+          && geomDesc.getLocalName().equals(attr.getLocalName())) {
+        this.geometryIndex = i;
+      } else {
+        this.indexes.put(attr.getLocalName(), i);
+      }
+    }
+  }
+
+  /**
+   * Returns the feature type the decoder was compiled from
+   *
+   * @return the feature type
+   */
+  public SimpleFeatureType getFeatureType() {
+    return this.featureType;
+  }
+
+  /**
+   * Returns the number of attributes (that is, the size of the values array)
+   *
+   * @return number of attributes
+   */
+  public int getAttributeCount() {
+    return this.bindings.length;
+  }
+
+  /**
+   * Returns the index of the geometry attribute
+   *
+   * @return index of the geometry attribute, -1 if there is none
+   */
+  public int getGeometryIndex() {
+    return this.geometryIndex;
+  }
+
+  /**
+   * Returns the index of the attribute of a property
+   *
+   * @param name
+   *          name of the property
+   * @return index of the attribute, -1 if the property is not an attribute
+   */
+  public int getIndex(String name) {
+    Integer index = this.indexes.get(name);
+    return index != null ? index : -1;
+  }
+
+  /**
+   * Reads the next value and converts it to the binding of an attribute
+   *
+   * @param reader
+   *          the reader positioned on the value
+   * @param index
+   *          index of the attribute
+   * @return the value (null if it is null or it cannot be converted)
+   * @throws IOException,
+   *           JsonSyntaxException
+   */
+  public Object decode(JsonReader reader, int index)
+      throws JsonSyntaxException, IOException {
+
+    Class<?> binding = this.bindings[index];
+
+    switch (reader.peek()) {
+
+    case NULL:
+      reader.nextNull();
+      return null;
+
+    case NUMBER:
+      return this.decodeNumber(reader, binding);
+
+    case STRING:
+      return this.decodeString(reader.nextString(), binding);
+
+    case BOOLEAN:
+      boolean bool = reader.nextBoolean();
+      if (binding == Boolean.class) {
+        return bool;
+      }
+      return Converters.convert(bool, binding);
+
+    default:
+      throw (new JsonSyntaxException("Value expected"));
+    }
+  }
+
+  /**
+   * Converts a value decoded from a binary response to the binding of an
+   * attribute
+   *
+   * @param value
+   *          the value (a Number, a String or a Boolean)
+   * @param index
+   *          index of the attribute
+   * @return the converted value (null if it is null or it cannot be
+   *         converted)
+   */
+  public Object convert(Object value, int index) {
+
+    Class<?> binding = this.bindings[index];
+    if (value == null || binding.isInstance(value)) {
+      return value;
+    }
+
+    if (value instanceof Number) {
+      Number number = (Number) value;
+      if (binding == Integer.class) {
+        return number.intValue();
+      }
+      if (binding == Long.class) {
+        return number.longValue();
+      }
+      if (binding == Double.class) {
+        return number.doubleValue();
+      }
+      if (binding == Float.class) {
+        return number.floatValue();
+      }
+      if (binding == Short.class) {
+        return number.shortValue();
+      }
+      if (binding == Byte.class) {
+        return number.byteValue();
+      }
+      if (binding == String.class) {
+        return number.toString();
+      }
+      // Dates are expressed as milliseconds since the epoch
+      if (Date.class.isAssignableFrom(binding)) {
+        return this.convertDate(new Date(number.longValue()), binding);
+      }
+    }
+
+    if (value instanceof String) {
+      return this.decodeString((String) value, binding);
+    }
+
+    return Converters.convert(value, binding);
+  }
+
+  /**
+   * Helper method to read a number as an instance of the given binding
+   *
+   * @param reader
+   *          the reader positioned on the number
+   * @param binding
+   *          the binding to convert the number to
+   * @return the converted number
+   * @throws IOException
+   */
+  protected Object decodeNumber(JsonReader reader, Class<?> binding)
+      throws IOException {
+
+    // Integer values are read without going through doubles, non-integer
+    // ones are truncated (the lexeme is still buffered when nextInt or
+    // nextLong throw)
+    if (binding == Integer.class || binding == Short.class
+        || binding == Byte.class) {
+      int value;
+      try {
+        value = reader.nextInt();
+      } catch (NumberFormatException e) {
+        value = (int) reader.nextDouble();
+      }
+      if (binding == Short.class) {
+        return (short) value;
+      }
+      if (binding == Byte.class) {
+        return (byte) value;
+      }
+      return value;
+    }
+
+    // Dates are expressed as milliseconds since the epoch
+    if (binding == Long.class || Date.class.isAssignableFrom(binding)) {
+      long value;
+      try {
+        value = reader.nextLong();
+      } catch (NumberFormatException e) {
+        value = (long) reader.nextDouble();
+      }
+      if (binding == Long.class) {
+        return value;
+      }
+      return this.convertDate(new Date(value), binding);
+    }
+
+    if (binding == Double.class || binding == Number.class
+        || binding == Object.class) {
+      return reader.nextDouble();
+    }
+    if (binding == Float.class) {
+      return (float) reader.nextDouble();
+    }
+    if (binding == String.class) {
+      return reader.nextString();
+    }
+    if (binding == BigDecimal.class) {
+      return new BigDecimal(reader.nextString());
+    }
+    if (binding == BigInteger.class) {
+      return new BigDecimal(reader.nextString()).toBigInteger();
+    }
+    if (binding == Boolean.class) {
+      return reader.nextDouble() != 0;
+    }
+
+    return Converters.convert(reader.nextDouble(), binding);
+  }
+
+  /**
+   * Helper method to convert a string to the given binding
+   *
+   * @param value
+   *          the string
+   * @param binding
+   *          the binding to convert the string to
+   * @return the converted value (null if it cannot be converted)
+   */
+  protected Object decodeString(String value, Class<?> binding) {
+
+    if (binding == String.class || binding == Object.class) {
+      return value;
+    }
+
+    // ISO 8601 instants are the most common string dates
+    if (Date.class.isAssignableFrom(binding)) {
+      try {
+        return this.convertDate(Date.from(Instant.parse(value)), binding);
+      } catch (DateTimeParseException e) {
+        return Converters.convert(value, binding);
+      }
+    }
+
+    return Converters.convert(value, binding);
+  }
+
+  /**
+   * Helper method to convert a date to the given Date subclass
+   *
+   * @param value
+   *          the date
+   * @param binding
+   *          the binding (Date or one of its subclasses)
+   * @return the converted date
+   */
+  protected Object convertDate(Date value, Class<?> binding) {
+
+    if (binding == Date.class) {
+      return value;
+    }
+    if (binding == java.sql.Timestamp.class) {
+      return new java.sql.Timestamp(value.getTime());
+    }
+    if (binding == java.sql.Date.class) {
+      return new java.sql.Date(value.getTime());
+    }
+
+    return Converters.convert(value, binding);
+  }
+
+}
@@ -18,20 +18,29 @@
 
 package org.geotools.data.arcgisrest;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -41,7 +50,6 @@ import org.geotools.data.arcgisrest.schema.catalog.Catalog;
 import org.geotools.data.arcgisrest.schema.catalog.Dataset;
 import org.geotools.data.arcgisrest.schema.catalog.Distribution;
 import org.geotools.data.arcgisrest.schema.webservice.Webservice;
-import org.geotools.data.arcgisrest.schema.catalog.Error_;
 import org.geotools.data.arcgisrest.schema.services.feature.Featureserver;
 
 import org.geotools.data.store.ContentDataStore;
@@ -52,15 +60,22 @@ import org.geotools.feature.NameImpl;
 import org.geotools.util.UnsupportedImplementationException;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
 import sun.misc.IOUtils;
@@ -83,17 +98,91 @@ public class ArcGISRestDataStore extends ContentDataStore {
   public static final String FORMAT_PARAM = "f";
   public static final String ATTRIBUTES_PARAM = "outFields";
   public static final String WITHGEOMETRY_PARAM = "returnGeometry";
+  public static final String RESULTOFFSET_PARAM = "resultOffset";
+  public static final String RESULTRECORDCOUNT_PARAM = "resultRecordCount";
+  public static final String ORDERBY_PARAM = "orderByFields";
+  public static final String IDSONLY_PARAM = "returnIdsOnly";
+  public static final String OBJECTIDS_PARAM = "objectIds";
+  public static final String WHERE_PARAM = "where";
+  public static final String SPATIALREL_PARAM = "spatialRel";
+  public static final String INSR_PARAM = "inSR";
+  public static final String OUTSR_PARAM = "outSR";
+  public static final String OUTSTATISTICS_PARAM = "outStatistics";
+  public static final String GROUPBY_PARAM = "groupByFieldsForStatistics";
+  public static final String DISTINCT_PARAM = "returnDistinctValues";
+  public static final String EXTENTONLY_PARAM = "returnExtentOnly";
+  public static final String QUANTIZATION_PARAM = "quantizationParameters";
+  public static final String MAXALLOWABLEOFFSET_PARAM = "maxAllowableOffset";
+  public static final String GEOMETRYPRECISION_PARAM = "geometryPrecision";
 
   // Parameter values
   public static final String FORMAT_JSON = "json";
   public static final String FORMAT_GEOJSON = "geojson";
+  public static final String FORMAT_PBF = "pbf";
+  public static final String FORMAT_AUTO = "auto";
   public static final String FORMAT_ESRIREST = "Esri REST";
   public static final String CAPABILITIES_QUERY = "Query";
+  public static final String QUANTIZATION_MODE_EDIT = "edit";
+  public static final String QUANTIZATION_MODE_VIEW = "view";
+  public static final String QUANTIZATION_ORIGIN_UPPERLEFT = "upperLeft";
+
+  // Statistic types, and name of the field holding the statistic
+  public static final String STATISTIC_COUNT = "count";
+  public static final String STATISTIC_SUM = "sum";
+  public static final String STATISTIC_MIN = "min";
+  public static final String STATISTIC_MAX = "max";
+  public static final String STATISTIC_AVG = "avg";
+  public static final String STATISTIC_FIELD = "statisticValue";
 
   // Request parameters
   protected static final int REQUEST_THREADS = 5;
   protected static final int REQUEST_TIMEOUT = 60;
 
+  // Connection pool parameters
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+  public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+  public static final int DEFAULT_IDLE_CONNECTION_TIMEOUT = 60;
+
+  // Seconds a request waits for a connection of an exhausted pool
+  protected static final int CONNECTION_MANAGER_TIMEOUT = 60;
+
+  // Feature fetching parameters
+  public static final int DEFAULT_PAGE_FETCH_THREADS = 1;
+  public static final int PAGE_BUFFER_SIZE = 1000;
+  public static final int DEFAULT_OBJECTID_BATCH_SIZE = 1000;
+
+  // Pipelined download parameters (a queue depth of 0 disables pipelining)
+  public static final int DEFAULT_PIPELINE_QUEUE_DEPTH = 0;
+  public static final int DEFAULT_PIPELINE_BUFFER_SIZE = 64 * 1024;
+
+  // Number of query extents cached per feature source
+  public static final int BOUNDS_CACHE_SIZE = 100;
+
+  // Size in megabytes of the tile cache (0 disables it), time in seconds its
+  // tiles are valid for, number of tiles along the larger side of the layer
+  // extent, and maximum number of tiles a query is read from
+  public static final int DEFAULT_TILE_CACHE_SIZE = 0;
+  public static final int DEFAULT_TILE_CACHE_TTL = 300;
+  public static final int TILE_GRID_SIZE = 64;
+  public static final int TILE_MAX_PER_QUERY = 16;
+
+  // Maximum number of features of layers mirrored because of their size (0
+  // mirrors the listed layers only), and time in seconds between checks for
+  // changes of mirrored layers
+  public static final int DEFAULT_MIRROR_MAX_FEATURES = 0;
+  public static final int DEFAULT_MIRROR_REFRESH_INTERVAL = 3600;
+
+  // Number of cells of the grid quantized coordinates are snapped to, along
+  // the larger side of the layer extent
+  public static final double QUANTIZATION_GRID_SIZE = 1 << 30;
+
+  // Resolution (meters per pixel) of level 0 of the Web Mercator tiling
+  // scheme multi-scale geometries are generalized for, and the IDs of Web
+  // Mercator
+  public static final double WEBMERCATOR_LEVEL0_RESOLUTION = 156543.03392804097;
+  public static final int WKID_WEBMERCATOR = 3857;
+  public static final int WKID_WEBMERCATOR_ESRI = 102100;
+
   // Default request parameter values
   public static Map<String, Object> DEFAULT_PARAMS = new HashMap<String, Object>();
 
@@ -106,12 +195,22 @@ public class ArcGISRestDataStore extends ContentDataStore {
   // ArcGIS Server parameters
   public static String FEATURESERVER_SERVICE = "FeatureServer";
 
+  // Gson instance shared by all data stores (it is thread-safe), binding
+  // service metadata with streaming adapters
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapterFactory(new ArcGISRestMetadataAdapterFactory())
+      .create();
+
   // Cache of feature sources
   protected Map<Name, ArcGISRestFeatureSource> featureSources = new HashMap<Name, ArcGISRestFeatureSource>();
 
   // Default feature type geometry attribute
   public static final String GEOMETRY_ATTR = "geometry";
 
+  // Attributes of the records in JSON responses
+  public static final String ATTRIBUTES_ATTR = "attributes";
+  public static final String EXTENT_ATTR = "extent";
+
   protected URL namespace;
   protected URL apiUrl;
   protected boolean opendataFlag = false;
@@ -120,10 +219,84 @@ public class ArcGISRestDataStore extends ContentDataStore {
   protected Catalog catalog;
   protected Map<Name, Dataset> datasets = new HashMap<Name, Dataset>();
 
+  // Descriptions of the layers, shared by their feature sources
+  protected Map<Name, ArcGISRestLayerDescriptor> layerDescriptors = new ConcurrentHashMap<Name, ArcGISRestLayerDescriptor>();
+
+  // Connection pool shared by all the data stores of the JVM (if requested)
+  protected static MultiThreadedHttpConnectionManager sharedConnectionManager;
+  protected static IdleConnectionTimeoutThread sharedIdleConnectionThread;
+  protected static int sharedMaxConnectionsPerHost;
+  protected static int sharedIdleConnectionTimeout;
+
+  // Connection pool used by this data store
+  protected HttpConnectionManager connectionManager;
+  protected IdleConnectionTimeoutThread idleConnectionThread;
+  protected boolean sharedConnectionPool = false;
+  protected HttpClientParams clientParams;
+
+  // Threads running requests in the background (such as page pre-fetching)
+  protected ExecutorService executor;
+
+  // Number of pages of a query requested concurrently
+  protected int pageFetchThreads = DEFAULT_PAGE_FETCH_THREADS;
+
+  // Whether features are always read in batches of object IDs
+  protected boolean objectIdPartitioning = false;
+
+  // Format features are requested in (auto, GeoJSON, Esri JSON or PBF)
+  protected String wireFormat = FORMAT_AUTO;
+
+  // Number of chunks a response is downloaded ahead of its parsing, and
+  // their size
+  protected int pipelineQueueDepth = DEFAULT_PIPELINE_QUEUE_DEPTH;
+  protected int pipelineBufferSize = DEFAULT_PIPELINE_BUFFER_SIZE;
+
+  // Persistent cache of service metadata (null if metadata are always
+  // downloaded)
+  protected ArcGISRestMetadataCache metadataCache;
+
+  // Cache of the features of query tiles (null if features are always
+  // downloaded), and time in seconds its tiles (and the cached query
+  // extents) are valid for
+  protected ArcGISRestTileCache tileCache;
+  protected int tileCacheTTL = DEFAULT_TILE_CACHE_TTL;
+
+  // Layers downloaded whole and queried in memory: the listed ones, and
+  // those with at most mirrorMaxFeatures features
+  protected Set<String> mirrorLayers = Collections.emptySet();
+  protected int mirrorMaxFeatures = DEFAULT_MIRROR_MAX_FEATURES;
+  protected int mirrorRefreshInterval = DEFAULT_MIRROR_REFRESH_INTERVAL;
+  protected Map<Name, ArcGISRestLayerMirror> layerMirrors = new ConcurrentHashMap<Name, ArcGISRestLayerMirror>();
+
+  // Thread running the refreshes of mirrored layers
+  protected ScheduledExecutorService scheduler;
+
   public ArcGISRestDataStore(String namespaceIn, String apiEndpoint,
       boolean opendataFlagIn, String user, String password)
       throws MalformedURLException, JsonSyntaxException, IOException {
 
+    this(namespaceIn, apiEndpoint, opendataFlagIn, user, password,
+        DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_CONNECTION_TIMEOUT,
+        false);
+  }
+
+  public ArcGISRestDataStore(String namespaceIn, String apiEndpoint,
+      boolean opendataFlagIn, String user, String password,
+      int maxConnectionsPerHost, int idleConnectionTimeout,
+      boolean sharedConnectionPoolIn)
+      throws MalformedURLException, JsonSyntaxException, IOException {
+
+    this(namespaceIn, apiEndpoint, opendataFlagIn, user, password,
+        maxConnectionsPerHost, idleConnectionTimeout, sharedConnectionPoolIn,
+        null);
+  }
+
+  public ArcGISRestDataStore(String namespaceIn, String apiEndpoint,
+      boolean opendataFlagIn, String user, String password,
+      int maxConnectionsPerHost, int idleConnectionTimeout,
+      boolean sharedConnectionPoolIn, File metadataCacheDirectory)
+      throws MalformedURLException, JsonSyntaxException, IOException {
+
     super();
 
     try {
@@ -144,73 +317,88 @@ public class ArcGISRestDataStore extends ContentDataStore {
     this.password = password;
     this.opendataFlag = opendataFlagIn;
 
-    // Retrieves the catalog JSON document
-    String response = null;
-    Error_ err;
-    try {
-      response = ArcGISRestDataStore.InputStreamToString(
-          this.retrieveJSON("GET", apiUrl, DEFAULT_PARAMS));
-    } catch (IOException e) {
-      LOGGER.log(Level.SEVERE, "Error during retrieval of service '" + apiUrl
-          + "' " + e.getMessage(), e);
-      throw (e);
+    // Sets up the pool of connections all requests go through
+    this.sharedConnectionPool = sharedConnectionPoolIn;
+    if (this.sharedConnectionPool == true) {
+      this.connectionManager = ArcGISRestDataStore.getSharedConnectionManager(
+          maxConnectionsPerHost, idleConnectionTimeout);
+    } else {
+      MultiThreadedHttpConnectionManager manager = ArcGISRestDataStore
+          .createConnectionManager(maxConnectionsPerHost);
+      this.idleConnectionThread = ArcGISRestDataStore
+          .createIdleConnectionThread(manager, idleConnectionTimeout);
+      this.connectionManager = manager;
     }
 
-    // Gets the catalog of web services in either the Open Data catalog, or
-    // the ArcGIS Server list of services
+    // Requests fail when they wait too long for a connection, rather than
+    // blocking forever when the pool is exhausted
+    this.clientParams = new HttpClientParams();
+    this.clientParams
+        .setConnectionManagerTimeout(CONNECTION_MANAGER_TIMEOUT * 1000L);
 
-    // If this is the Open Data catalog, it loads it
-    if (this.opendataFlag == true) {
-      this.catalog = (new Gson()).fromJson(response, Catalog.class);
-      if (this.catalog == null) {
-        throw (new JsonSyntaxException("Malformed JSON"));
+    // The connection pool (unless shared) and the metadata cache are
+    // released if the data store cannot be created, since it will not be
+    // disposed
+    try {
+      // Metadata are read from the cache, if any, while they are revalidated
+      if (metadataCacheDirectory != null) {
+        this.metadataCache = new ArcGISRestMetadataCache(metadataCacheDirectory,
+            LOGGER);
       }
 
-      // It it is an ArcGIS Server, cycles through the services list to
-      // retrieve the web services URL of the FeautreServers
-    } else {
-      this.catalog = new Catalog();
+      // Gets the catalog of web services in either the Open Data catalog, or
+      // the ArcGIS Server list of services
 
-      Featureserver featureServer = null;
+      // If this is the Open Data catalog, it loads it
+      if (this.opendataFlag == true) {
+        this.catalog = this.retrieveCatalogMetadata(apiUrl, Catalog.class);
 
-      try {
-        featureServer = (new Gson()).fromJson(response, Featureserver.class);
-        if (featureServer == null) {
-          throw (new JsonSyntaxException("Malformed JSON"));
+        // It it is an ArcGIS Server, cycles through the services list to
+        // retrieve the web services URL of the FeautreServers
+      } else {
+        this.catalog = new Catalog();
+
+        Featureserver featureServer = null;
+
+        try {
+          featureServer = this.retrieveCatalogMetadata(apiUrl,
+              Featureserver.class);
+        } catch (JsonSyntaxException e) {
+          // The message is the ArcGIS error message, if any
+          LOGGER.log(Level.SEVERE,
+              "Error during retrieval of feature server " + e.getMessage(), e);
+          return;
         }
-      } catch (JsonSyntaxException e) {
-        // Checks whether we have an ArcGIS error message
-        Error_ errWS = (new Gson()).fromJson(response, Error_.class);
-        LOGGER.log(Level.SEVERE, "Error during retrieval of feature server "
-            + errWS.getCode() + " " + errWS.getMessage(), e);
-        return;
-      }
 
-      // Checks API version and output format of the endpoint
-      if (featureServer.getCurrentVersion() < MINIMUM_API_VERSION
-          || featureServer.getSupportedQueryFormats().toString().toLowerCase()
-              .contains(FORMAT_JSON.toLowerCase()) == false) {
-        UnsupportedImplementationException e = new UnsupportedImplementationException(
-            "FeatureServer " + apiEndpoint
-                + " does not support either the minimum API version required, or the GeoJSON format");
-        LOGGER.log(Level.SEVERE, e.getMessage());
-        throw (e);
-      }
+        // Checks API version and output format of the endpoint
+        if (featureServer.getCurrentVersion() < MINIMUM_API_VERSION
+            || featureServer.getSupportedQueryFormats().toString().toLowerCase()
+                .contains(FORMAT_JSON.toLowerCase()) == false) {
+          UnsupportedImplementationException e = new UnsupportedImplementationException(
+              "FeatureServer " + apiEndpoint
+                  + " does not support either the minimum API version required, or the GeoJSON format");
+          LOGGER.log(Level.SEVERE, e.getMessage());
+          throw (e);
+        }
 
-      try {
-        String featureServerURLString = apiUrl.toString();
-        featureServer.getLayers().forEach(layer -> {
-          Dataset ds = new Dataset();
-          ds.setWebService(featureServerURLString + "/" + layer.getId());
-          this.catalog.getDataset().add(ds);
-        });
-      } catch (JsonSyntaxException e) {
-        // Checks whether we have an AercGIS error message
-        err = (new Gson()).fromJson(response, Error_.class);
-        LOGGER.log(Level.SEVERE,
-            "JSON syntax error " + err.getCode() + " " + err.getMessage(), e);
-        throw (e);
+        try {
+          String featureServerURLString = apiUrl.toString();
+          featureServer.getLayers().forEach(layer -> {
+            Dataset ds = new Dataset();
+            ds.setWebService(featureServerURLString + "/" + layer.getId());
+            this.catalog.getDataset().add(ds);
+          });
+        } catch (JsonSyntaxException e) {
+          LOGGER.log(Level.SEVERE, "JSON syntax error " + e.getMessage(), e);
+          throw (e);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      if (this.metadataCache != null) {
+        this.metadataCache.dispose();
       }
+      this.releaseConnectionPool();
+      throw (e);
     }
   }
 
@@ -271,33 +459,21 @@ public class ArcGISRestDataStore extends ContentDataStore {
       public WsCallResult call() throws Exception {
 
         Webservice ws = null;
-        InputStream responseWs = null;
-        String responseWSString = null;
 
+        // The metadata are bound as they are read, skipping the members that
+        // are not used (or taken from the metadata cache)
         try {
-          responseWSString = ArcGISRestDataStore
-              .InputStreamToString(retrieveJSON("GET",
-                  new URL(this.dataset.getWebService().toString()),
-                  ArcGISRestDataStore.DEFAULT_PARAMS));
+          ws = retrieveMetadata(
+              new URL(this.dataset.getWebService().toString()),
+              Webservice.class);
         } catch (IOException e) {
           LOGGER.log(Level.SEVERE, "Error during retrieval of dataset '"
               + this.dataset.getWebService() + "' " + e.getMessage(), e);
           return null;
-        }
-
-        try {
-          ws = (new Gson()).fromJson(responseWSString, Webservice.class);
-          if (ws == null || ws.getCurrentVersion() == null) {
-            throw (new JsonSyntaxException("Malformed JSON"));
-          }
         } catch (JsonSyntaxException e) {
-          // Checks whether we have an ArcGIS error message
-          Error_ errWS = (new Gson()).fromJson(responseWSString, Error_.class);
-          LOGGER.log(Level.SEVERE,
-              "Error during retrieval of dataset "
-                  + this.dataset.getWebService() + " " + errWS.getCode() + " "
-                  + errWS.getMessage(),
-              e);
+          // The message is the ArcGIS error message, if any
+          LOGGER.log(Level.SEVERE, "Error during retrieval of dataset "
+              + this.dataset.getWebService() + " " + e.getMessage(), e);
           return null;
         }
 
@@ -346,6 +522,8 @@ public class ArcGISRestDataStore extends ContentDataStore {
               result.webservice.getName());
           ContentEntry entry = new ContentEntry(this, dsName);
           this.datasets.put(dsName, result.dataset);
+          this.layerDescriptors.put(dsName,
+              new ArcGISRestLayerDescriptor(result.dataset, result.webservice));
           this.entries.put(dsName, entry);
         }
       }
@@ -360,6 +538,41 @@ public class ArcGISRestDataStore extends ContentDataStore {
     return new ArrayList<Name>(this.entries.keySet());
   }
 
+  /**
+   * Returns the description of a layer, retrieving its metadata if they have
+   * not been retrieved when listing the type names
+   * 
+   * @param name
+   *          Name of the layer
+   * @return the layer description
+   * @throws IOException
+   */
+  public ArcGISRestLayerDescriptor getLayerDescriptor(Name name)
+      throws IOException {
+
+    ArcGISRestLayerDescriptor layer = this.layerDescriptors.get(name);
+    if (layer != null) {
+      return layer;
+    }
+
+    Dataset ds = this.getDataset(name);
+    if (ds == null) {
+      throw new IOException("Type name " + name + " not found");
+    }
+    try {
+      layer = new ArcGISRestLayerDescriptor(ds, this.retrieveMetadata(
+          new URL(ds.getWebService().toString()), Webservice.class));
+    } catch (JsonSyntaxException e) {
+      throw new IOException(
+          "Type name " + name + " could not be retrieved: " + e.getMessage(),
+          e);
+    }
+
+    ArcGISRestLayerDescriptor previous = this.layerDescriptors
+        .putIfAbsent(name, layer);
+    return previous != null ? previous : layer;
+  }
+
   @Override
   protected ContentFeatureSource createFeatureSource(ContentEntry entry)
       throws IOException {
@@ -378,15 +591,523 @@ public class ArcGISRestDataStore extends ContentDataStore {
     return namespace;
   }
 
-  // TODO: ?
+  /**
+   * Returns the pool of HTTP connections used by this data store
+   * 
+   * @return HttpConnectionManager
+   */
+  public HttpConnectionManager getConnectionManager() {
+    return this.connectionManager;
+  }
+
+  /**
+   * Returns the number of pages of a query requested concurrently
+   * 
+   * @return number of pages
+   */
+  public int getPageFetchThreads() {
+    return this.pageFetchThreads;
+  }
+
+  /**
+   * Sets the number of pages of a query requested concurrently (1 means pages
+   * are requested one after the other)
+   * 
+   * @param pageFetchThreads
+   *          number of pages
+   */
+  public void setPageFetchThreads(int pageFetchThreads) {
+    this.pageFetchThreads = Math.max(1, pageFetchThreads);
+  }
+
+  /**
+   * Returns whether features are read in batches of object IDs even when the
+   * layer supports pagination
+   * 
+   * @return true if object IDs partitioning is always used
+   */
+  public boolean isObjectIdPartitioning() {
+    return this.objectIdPartitioning;
+  }
+
+  /**
+   * Sets whether features are read in batches of object IDs even when the
+   * layer supports pagination (layers without pagination are always read
+   * this way)
+   * 
+   * @param objectIdPartitioning
+   *          true to always use object IDs partitioning
+   */
+  public void setObjectIdPartitioning(boolean objectIdPartitioning) {
+    this.objectIdPartitioning = objectIdPartitioning;
+  }
+
+  /**
+   * Returns the format features are requested in
+   * 
+   * @return one of FORMAT_AUTO, FORMAT_GEOJSON, FORMAT_JSON or FORMAT_PBF
+   */
+  public String getWireFormat() {
+    return this.wireFormat;
+  }
+
+  /**
+   * Sets the format features are requested in. Esri JSON and PBF allow
+   * coordinates to be quantized by layers that support it, which shrinks
+   * responses; FORMAT_AUTO picks PBF when the layer supports it, GeoJSON
+   * otherwise.
+   * 
+   * @param wireFormat
+   *          one of FORMAT_AUTO, FORMAT_GEOJSON, FORMAT_JSON or FORMAT_PBF
+   *          (FORMAT_AUTO is used when it is none of them)
+   */
+  public void setWireFormat(String wireFormat) {
+    String format = wireFormat != null ? wireFormat.toLowerCase() : null;
+    if (FORMAT_GEOJSON.equals(format) || FORMAT_JSON.equals(format)
+        || FORMAT_PBF.equals(format)) {
+      this.wireFormat = format;
+    } else {
+      this.wireFormat = FORMAT_AUTO;
+    }
+  }
+
+  /**
+   * Returns the number of chunks a response of features is downloaded ahead
+   * of its parsing
+   * 
+   * @return number of chunks (0 if downloads are not pipelined)
+   */
+  public int getPipelineQueueDepth() {
+    return this.pipelineQueueDepth;
+  }
+
+  /**
+   * Sets the number of chunks a response of features is downloaded ahead of
+   * its parsing, by a background thread (0 means the response is parsed
+   * while it is being read from the connection)
+   * 
+   * @param pipelineQueueDepth
+   *          number of chunks
+   */
+  public void setPipelineQueueDepth(int pipelineQueueDepth) {
+    this.pipelineQueueDepth = Math.max(0, pipelineQueueDepth);
+  }
+
+  /**
+   * Returns the size of the chunks responses are downloaded in
+   * 
+   * @return size in bytes
+   */
+  public int getPipelineBufferSize() {
+    return this.pipelineBufferSize;
+  }
+
+  /**
+   * Sets the size of the chunks responses are downloaded in, when downloads
+   * are pipelined
+   * 
+   * @param pipelineBufferSize
+   *          size in bytes
+   */
+  public void setPipelineBufferSize(int pipelineBufferSize) {
+    this.pipelineBufferSize = Math.max(1024, pipelineBufferSize);
+  }
+
+  /**
+   * Returns a response of features, downloading it in the background when
+   * downloads are pipelined
+   * 
+   * @param response
+   *          the response as returned by retrieveJSON
+   * @return the stream to parse
+   */
+  public InputStream pipeline(InputStream response) {
+
+    if (this.pipelineQueueDepth <= 0) {
+      return response;
+    }
+
+    return new ArcGISRestPipelinedInputStream(response, this.getExecutor(),
+        this.pipelineQueueDepth, this.pipelineBufferSize, this.LOGGER);
+  }
+
+  /**
+   * Returns the persistent cache of service metadata
+   * 
+   * @return the cache (null if metadata are always downloaded)
+   */
+  public ArcGISRestMetadataCache getMetadataCache() {
+    return this.metadataCache;
+  }
+
+  /**
+   * Returns the cache of the features of query tiles
+   * 
+   * @return the cache (null if features are always downloaded)
+   */
+  public ArcGISRestTileCache getTileCache() {
+    return this.tileCache;
+  }
+
+  /**
+   * Sets the size of the cache of the features of query tiles: bounding box
+   * queries are then split along a grid laid over the layer extent, and only
+   * the tiles not cached yet are downloaded
+   * 
+   * @param tileCacheSize
+   *          size in megabytes (0 disables the cache)
+   */
+  public void setTileCacheSize(int tileCacheSize) {
+    this.tileCache = tileCacheSize > 0
+        ? new ArcGISRestTileCache(tileCacheSize * 1024L * 1024L) : null;
+  }
+
+  /**
+   * Returns the time tiles and query extents are cached for
+   * 
+   * @return time in seconds (0 if tiles do not expire)
+   */
+  public int getTileCacheTTL() {
+    return this.tileCacheTTL;
+  }
+
+  /**
+   * Sets the time tiles and query extents are cached for (the ones of layers
+   * with static data never expire)
+   * 
+   * @param tileCacheTTL
+   *          time in seconds (0 if tiles do not expire)
+   */
+  public void setTileCacheTTL(int tileCacheTTL) {
+    this.tileCacheTTL = Math.max(0, tileCacheTTL);
+  }
+
+  /**
+   * Returns the names of the layers that are always mirrored
+   * 
+   * @return the layer names
+   */
+  public Set<String> getMirrorLayers() {
+    return this.mirrorLayers;
+  }
+
+  /**
+   * Sets the layers that are downloaded whole the first time they are
+   * queried, and queried in memory afterwards
+   * 
+   * @param mirrorLayers
+   *          comma-separated layer names (null or empty if none)
+   */
+  public void setMirrorLayers(String mirrorLayers) {
+    Set<String> names = new TreeSet<String>();
+    if (mirrorLayers != null) {
+      for (String name : mirrorLayers.split(",")) {
+        if (name.trim().isEmpty() == false) {
+          names.add(name.trim());
+        }
+      }
+    }
+    this.mirrorLayers = Collections.unmodifiableSet(names);
+  }
+
+  /**
+   * Returns the maximum number of features of the layers mirrored because of
+   * their size
+   * 
+   * @return number of features (0 if only the listed layers are mirrored)
+   */
+  public int getMirrorMaxFeatures() {
+    return this.mirrorMaxFeatures;
+  }
+
+  /**
+   * Sets the maximum number of features of the layers mirrored because of
+   * their size, besides the listed layers
+   * 
+   * @param mirrorMaxFeatures
+   *          number of features (0 if only the listed layers are mirrored)
+   */
+  public void setMirrorMaxFeatures(int mirrorMaxFeatures) {
+    this.mirrorMaxFeatures = Math.max(0, mirrorMaxFeatures);
+  }
+
+  /**
+   * Returns the time between checks for changes of mirrored layers
+   * 
+   * @return time in seconds (0 if mirrored layers are not refreshed)
+   */
+  public int getMirrorRefreshInterval() {
+    return this.mirrorRefreshInterval;
+  }
+
+  /**
+   * Sets the time between checks for changes of mirrored layers (layers are
+   * downloaded again only when their last edit date changed, or when they do
+   * not report it)
+   * 
+   * @param mirrorRefreshInterval
+   *          time in seconds (0 if mirrored layers are not refreshed)
+   */
+  public void setMirrorRefreshInterval(int mirrorRefreshInterval) {
+    this.mirrorRefreshInterval = Math.max(0, mirrorRefreshInterval);
+  }
+
+  /**
+   * Returns the mirror of a layer, if the layer may be mirrored (it is then
+   * up to the feature source to download it, or to reject it because of its
+   * size)
+   * 
+   * @param name
+   *          name of the layer
+   * @return the mirror (null if the layer is always read from the server)
+   */
+  public ArcGISRestLayerMirror getLayerMirror(Name name) {
+
+    if (this.mirrorMaxFeatures <= 0
+        && this.mirrorLayers.contains(name.getLocalPart()) == false) {
+      return null;
+    }
+
+    return this.layerMirrors.computeIfAbsent(name,
+        (key) -> new ArcGISRestLayerMirror(key.getLocalPart()));
+  }
+
+  /**
+   * Schedules the refresh of a mirrored layer, unless mirrored layers are not
+   * refreshed
+   * 
+   * @param mirror
+   *          the mirror of the layer
+   * @param task
+   *          checks the layer for changes, and downloads it again if needed
+   */
+  public void scheduleMirrorRefresh(ArcGISRestLayerMirror mirror,
+      Runnable task) {
+
+    if (this.mirrorRefreshInterval <= 0) {
+      return;
+    }
+
+    synchronized (this) {
+      if (this.scheduler == null) {
+        this.scheduler = Executors
+            .newSingleThreadScheduledExecutor((runnable) -> {
+              Thread thread = new Thread(runnable, "ArcGISRestMirrorRefresh");
+              thread.setDaemon(true);
+              return thread;
+            });
+      }
+      mirror.setRefresh(this.scheduler.scheduleWithFixedDelay(task,
+          this.mirrorRefreshInterval, this.mirrorRefreshInterval,
+          TimeUnit.SECONDS));
+    }
+  }
+
+  /**
+   * Returns the metadata of a service (such as a layer), taking them from the
+   * metadata cache if they are cached, and downloading them otherwise
+   * 
+   * @param url
+   *          the endpoint of the service
+   * @param clazz
+   *          class to bind the metadata to
+   * @return the metadata
+   * @throws IOException
+   * @throws JsonSyntaxException
+   *           if the metadata are malformed, or an error is returned instead
+   */
+  public <T> T retrieveMetadata(URL url, Class<T> clazz) throws IOException {
+
+    ArcGISRestMetadataCache.Loader<T> loader = () -> {
+      T metadata = ArcGISRestDataStore
+          .readJSON(this.retrieveJSON("GET", url, DEFAULT_PARAMS), clazz);
+      if (metadata == null
+          || (metadata instanceof Webservice
+              && ((Webservice) metadata).getCurrentVersion() == null)
+          || (metadata instanceof Featureserver
+              && ((Featureserver) metadata).getCurrentVersion() == null)) {
+        throw (new JsonSyntaxException("Malformed JSON"));
+      }
+      return metadata;
+    };
+
+    return this.metadataCache != null
+        ? this.metadataCache.retrieve(url.toString(), clazz, loader)
+        : loader.load();
+  }
+
+  /**
+   * Helper method to return the metadata of the catalog, logging the errors
+   * raised when retrieving it
+   * 
+   * @param url
+   *          the endpoint of the catalog
+   * @param clazz
+   *          class to bind the metadata to
+   * @return the metadata
+   * @throws IOException
+   */
+  protected <T> T retrieveCatalogMetadata(URL url, Class<T> clazz)
+      throws IOException {
+    try {
+      return this.retrieveMetadata(url, clazz);
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Error during retrieval of service '" + url
+          + "' " + e.getMessage(), e);
+      throw (e);
+    }
+  }
+
+  /**
+   * Returns the executor used to run requests in the background, creating it
+   * on first use
+   * 
+   * @return ExecutorService
+   */
+  public synchronized ExecutorService getExecutor() {
+    if (this.executor == null) {
+      this.executor = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "ArcGISRestRequest");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return this.executor;
+  }
+
+  /**
+   * Releases the background threads and the connection pool, unless it is
+   * shared with other data stores
+   */
   @Override
   public void dispose() {
     super.dispose();
+
+    synchronized (this) {
+      if (this.executor != null) {
+        this.executor.shutdownNow();
+        this.executor = null;
+      }
+    }
+    if (this.metadataCache != null) {
+      this.metadataCache.dispose();
+    }
+    if (this.tileCache != null) {
+      this.tileCache.clear();
+    }
+    for (ArcGISRestLayerMirror mirror : this.layerMirrors.values()) {
+      mirror.dispose();
+    }
+    synchronized (this) {
+      if (this.scheduler != null) {
+        this.scheduler.shutdownNow();
+        this.scheduler = null;
+      }
+    }
+
+    this.releaseConnectionPool();
+  }
+
+  /**
+   * Helper method to shut down the connection pool and its eviction thread,
+   * unless the pool is shared with other data stores
+   */
+  protected void releaseConnectionPool() {
+
+    if (this.sharedConnectionPool == false) {
+      if (this.idleConnectionThread != null) {
+        this.idleConnectionThread.shutdown();
+      }
+      if (this.connectionManager instanceof MultiThreadedHttpConnectionManager) {
+        ((MultiThreadedHttpConnectionManager) this.connectionManager)
+            .shutdown();
+      }
+    }
+  }
+
+  /**
+   * Helper method to create a pool of keep-alive connections
+   * 
+   * @param maxConnectionsPerHost
+   *          Maximum number of connections opened to a single host
+   * @return the connection manager
+   */
+  protected static MultiThreadedHttpConnectionManager createConnectionManager(
+      int maxConnectionsPerHost) {
+
+    MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+    HttpConnectionManagerParams params = manager.getParams();
+    params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    params.setMaxTotalConnections(
+        Math.max(maxConnectionsPerHost, DEFAULT_MAX_TOTAL_CONNECTIONS));
+    params.setStaleCheckingEnabled(true);
+    return manager;
+  }
+
+  /**
+   * Helper method to start the thread that evicts idle connections from a
+   * pool
+   * 
+   * @param manager
+   *          Connection pool to evict connections from
+   * @param idleConnectionTimeout
+   *          Seconds a connection can stay idle before being closed
+   * @return the (started) eviction thread
+   */
+  protected static IdleConnectionTimeoutThread createIdleConnectionThread(
+      HttpConnectionManager manager, int idleConnectionTimeout) {
+
+    IdleConnectionTimeoutThread thread = new IdleConnectionTimeoutThread();
+    thread.setName("ArcGISRestIdleConnectionTimeout");
+    thread.setConnectionTimeout(idleConnectionTimeout * 1000L);
+    thread.setTimeoutInterval(
+        Math.max(1000L, Math.min(idleConnectionTimeout * 1000L, 30000L)));
+    thread.addConnectionManager(manager);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Returns the pool of connections shared by all data stores of the JVM,
+   * creating it (with the given settings) if it does not exist yet (otherwise
+   * the given settings are ignored)
+   * 
+   * @param maxConnectionsPerHost
+   *          Maximum number of connections opened to a single host
+   * @param idleConnectionTimeout
+   *          Seconds a connection can stay idle before being closed
+   * @return the shared connection manager
+   */
+  protected static synchronized MultiThreadedHttpConnectionManager getSharedConnectionManager(
+      int maxConnectionsPerHost, int idleConnectionTimeout) {
+
+    if (sharedConnectionManager == null) {
+      sharedConnectionManager = ArcGISRestDataStore
+          .createConnectionManager(maxConnectionsPerHost);
+      sharedIdleConnectionThread = ArcGISRestDataStore
+          .createIdleConnectionThread(sharedConnectionManager,
+              idleConnectionTimeout);
+      sharedMaxConnectionsPerHost = maxConnectionsPerHost;
+      sharedIdleConnectionTimeout = idleConnectionTimeout;
+    } else if (sharedMaxConnectionsPerHost != maxConnectionsPerHost
+        || sharedIdleConnectionTimeout != idleConnectionTimeout) {
+      LOGGER.log(Level.WARNING,
+          "The shared connection pool has already been created with "
+              + sharedMaxConnectionsPerHost + " connections per host and "
+              + sharedIdleConnectionTimeout
+              + " seconds of idle connection timeout, requested "
+              + maxConnectionsPerHost + " connections per host and "
+              + idleConnectionTimeout + " seconds are ignored");
+    }
+
+    return sharedConnectionManager;
   }
 
   /**
    * Helper method returning a JSON String out of a resource belongining to a
    * ArcGIS ReST API instance (via a GET). If present, it sends authorixzation.
+   * The connection is taken from the data store pool, and goes back to it once
+   * the returned stream is closed.
    * 
    * @param url
    *          The endpoint of the resource
@@ -400,6 +1121,8 @@ public class ArcGISRestDataStore extends ContentDataStore {
       Map<String, Object> params) throws IOException {
 
     HttpClient client = new HttpClient();
+    client.setParams(this.clientParams);
+    client.setHttpConnectionManager(this.connectionManager);
 
     // Instanties the method based on the methType parameter
     HttpMethodBase meth;
@@ -445,10 +1168,12 @@ public class ArcGISRestDataStore extends ContentDataStore {
       // Executes the request (a POST, since the URL may get too long)
       int status = client.executeMethod(meth);
 
-      // If HTTP error, throws an exception
+      // If HTTP error, throws an exception (releasing the connection first)
       if (status != HttpStatus.SC_OK) {
+        String body = meth.getResponseBodyAsString();
+        meth.releaseConnection();
         throw new IOException("HTTP Status: " + status + " for URL: " + uri
-            + " response: " + meth.getResponseBodyAsString());
+            + " response: " + body);
       }
 
       // Retrieve the wait period is returned by the server
@@ -463,6 +1188,9 @@ public class ArcGISRestDataStore extends ContentDataStore {
         break;
       }
 
+      // The connection goes back to the pool while waiting
+      meth.releaseConnection();
+
       try {
         Thread.sleep(wait * 1000);
       } catch (InterruptedException e) {
@@ -486,9 +1214,32 @@ public class ArcGISRestDataStore extends ContentDataStore {
    */
   public static String InputStreamToString(InputStream istream)
       throws IOException {
-    String s = new String(IOUtils.readFully(istream, -1, true));
-    istream.close();
-    return s;
+    try {
+      return new String(IOUtils.readFully(istream, -1, true));
+    } finally {
+      istream.close();
+    }
+  }
+
+  /**
+   * Helper method to bind a JSON document as it is read (without copying it
+   * into a String first) and close the stream
+   * 
+   * @param istream
+   *          input stream of the document
+   * @param clazz
+   *          class to bind the document to
+   * @returns the bound document (null if the stream is empty)
+   * @throws IOException
+   */
+  public static <T> T readJSON(InputStream istream, Class<T> clazz)
+      throws IOException {
+    try (Reader reader = new InputStreamReader(istream,
+        StandardCharsets.UTF_8)) {
+      return GSON.fromJson(reader, clazz);
+    } catch (JsonIOException e) {
+      throw new IOException(e.getMessage(), e);
+    }
   }
 
 }
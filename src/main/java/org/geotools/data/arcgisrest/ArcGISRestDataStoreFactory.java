@@ -19,6 +19,7 @@
 package org.geotools.data.arcgisrest;
 
 import java.awt.RenderingHints.Key;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.MalformedURLException;
@@ -66,6 +67,62 @@ public class ArcGISRestDataStoreFactory implements DataStoreFactorySpi {
       Boolean.class,
       new SimpleInternationalString("is the data source an OpedData servive?"),
       true, false);
+  public static final Param MAXCONNECTIONSPERHOST_PARAM = new Param(
+      "maxConnectionsPerHost", Integer.class,
+      "Maximum number of HTTP connections kept open to a single host", false,
+      ArcGISRestDataStore.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+  public static final Param IDLECONNECTIONTIMEOUT_PARAM = new Param(
+      "idleConnectionTimeout", Integer.class,
+      "Seconds an idle HTTP connection is kept in the pool before being closed",
+      false, ArcGISRestDataStore.DEFAULT_IDLE_CONNECTION_TIMEOUT);
+  public static final Param SHAREDCONNECTIONPOOL_PARAM = new Param(
+      "sharedConnectionPool", Boolean.class,
+      "Use a pool of HTTP connections shared by all the data stores of the JVM (the settings of the first data store using it apply)",
+      false, false);
+  public static final Param PAGEFETCHTHREADS_PARAM = new Param(
+      "pageFetchThreads", Integer.class,
+      "Number of pages of a query requested concurrently (1 requests them one after the other)",
+      false, ArcGISRestDataStore.DEFAULT_PAGE_FETCH_THREADS);
+  public static final Param OBJECTIDPARTITIONING_PARAM = new Param(
+      "objectIdPartitioning", Boolean.class,
+      "Read features in batches of object IDs even when the layer supports pagination",
+      false, false);
+  public static final Param WIREFORMAT_PARAM = new Param("wireFormat",
+      String.class,
+      "Format features are requested in: auto (pbf when the layer supports it, geojson otherwise), geojson, json (Esri JSON) or pbf (Protocol Buffers); coordinates of json and pbf are quantized when the layer supports it",
+      false, ArcGISRestDataStore.FORMAT_AUTO);
+  public static final Param PIPELINEQUEUEDEPTH_PARAM = new Param(
+      "pipelineQueueDepth", Integer.class,
+      "Number of chunks a response is downloaded ahead of its parsing by a background thread (0 parses it while reading it from the connection)",
+      false, ArcGISRestDataStore.DEFAULT_PIPELINE_QUEUE_DEPTH);
+  public static final Param PIPELINEBUFFERSIZE_PARAM = new Param(
+      "pipelineBufferSize", Integer.class,
+      "Size in bytes of the chunks responses are downloaded in, when pipelineQueueDepth is greater than 0",
+      false, ArcGISRestDataStore.DEFAULT_PIPELINE_BUFFER_SIZE);
+  public static final Param METADATACACHEDIRECTORY_PARAM = new Param(
+      "metadataCacheDirectory", File.class,
+      "Directory the metadata of services are cached in, so that the data store can be set up without waiting on them (metadata are always downloaded if not set)",
+      false, null);
+  public static final Param TILECACHESIZE_PARAM = new Param("tileCacheSize",
+      Integer.class,
+      "Size in megabytes of the cache of the features of bounding box queries, split in tiles of a grid laid over the layer extent (0 disables the cache)",
+      false, ArcGISRestDataStore.DEFAULT_TILE_CACHE_SIZE);
+  public static final Param TILECACHETTL_PARAM = new Param("tileCacheTTL",
+      Integer.class,
+      "Time in seconds tiles and query extents are cached for (0 keeps them until evicted; the ones of layers with static data are always kept)",
+      false, ArcGISRestDataStore.DEFAULT_TILE_CACHE_TTL);
+  public static final Param MIRRORLAYERS_PARAM = new Param("mirrorLayers",
+      String.class,
+      "Comma-separated names of the layers downloaded whole the first time they are queried, and queried in memory afterwards",
+      false, null);
+  public static final Param MIRRORMAXFEATURES_PARAM = new Param(
+      "mirrorMaxFeatures", Integer.class,
+      "Layers with at most this number of features are mirrored too (0 mirrors only the layers listed in mirrorLayers)",
+      false, ArcGISRestDataStore.DEFAULT_MIRROR_MAX_FEATURES);
+  public static final Param MIRRORREFRESHINTERVAL_PARAM = new Param(
+      "mirrorRefreshInterval", Integer.class,
+      "Time in seconds between checks for changes of mirrored layers, which are downloaded again when their last edit date changed (0 never refreshes them)",
+      false, ArcGISRestDataStore.DEFAULT_MIRROR_REFRESH_INTERVAL);
 
   static {
     paramMetadata.add(NAMESPACE_PARAM);
@@ -73,6 +130,20 @@ public class ArcGISRestDataStoreFactory implements DataStoreFactorySpi {
     paramMetadata.add(ISOPENDATA_PARAM);
     paramMetadata.add(USER_PARAM);
     paramMetadata.add(PASSWORD_PARAM);
+    paramMetadata.add(MAXCONNECTIONSPERHOST_PARAM);
+    paramMetadata.add(IDLECONNECTIONTIMEOUT_PARAM);
+    paramMetadata.add(SHAREDCONNECTIONPOOL_PARAM);
+    paramMetadata.add(PAGEFETCHTHREADS_PARAM);
+    paramMetadata.add(OBJECTIDPARTITIONING_PARAM);
+    paramMetadata.add(WIREFORMAT_PARAM);
+    paramMetadata.add(PIPELINEQUEUEDEPTH_PARAM);
+    paramMetadata.add(PIPELINEBUFFERSIZE_PARAM);
+    paramMetadata.add(METADATACACHEDIRECTORY_PARAM);
+    paramMetadata.add(TILECACHESIZE_PARAM);
+    paramMetadata.add(TILECACHETTL_PARAM);
+    paramMetadata.add(MIRRORLAYERS_PARAM);
+    paramMetadata.add(MIRRORMAXFEATURES_PARAM);
+    paramMetadata.add(MIRRORREFRESHINTERVAL_PARAM);
   }
 
   @Override
@@ -84,11 +155,52 @@ public class ArcGISRestDataStoreFactory implements DataStoreFactorySpi {
   @Override
   public DataStore createDataStore(Map<String, Serializable> params)
       throws IOException {
-    return new ArcGISRestDataStore((String) params.get(NAMESPACE_PARAM.key),
+    ArcGISRestDataStore dataStore = new ArcGISRestDataStore(
+        (String) params.get(NAMESPACE_PARAM.key),
         (String) params.get(URL_PARAM.key),
         Boolean.parseBoolean(params.get(ISOPENDATA_PARAM.key).toString()),
         (String) params.get(USER_PARAM.key),
-        (String) params.get(PASSWORD_PARAM.key));
+        (String) params.get(PASSWORD_PARAM.key),
+        (Integer) lookUp(MAXCONNECTIONSPERHOST_PARAM, params),
+        (Integer) lookUp(IDLECONNECTIONTIMEOUT_PARAM, params),
+        (Boolean) lookUp(SHAREDCONNECTIONPOOL_PARAM, params),
+        (File) lookUp(METADATACACHEDIRECTORY_PARAM, params));
+
+    dataStore.setPageFetchThreads(
+        (Integer) lookUp(PAGEFETCHTHREADS_PARAM, params));
+    dataStore.setObjectIdPartitioning(
+        (Boolean) lookUp(OBJECTIDPARTITIONING_PARAM, params));
+    dataStore.setWireFormat((String) lookUp(WIREFORMAT_PARAM, params));
+    dataStore.setPipelineQueueDepth(
+        (Integer) lookUp(PIPELINEQUEUEDEPTH_PARAM, params));
+    dataStore.setPipelineBufferSize(
+        (Integer) lookUp(PIPELINEBUFFERSIZE_PARAM, params));
+    dataStore.setTileCacheSize((Integer) lookUp(TILECACHESIZE_PARAM, params));
+    dataStore.setTileCacheTTL((Integer) lookUp(TILECACHETTL_PARAM, params));
+    dataStore.setMirrorLayers((String) lookUp(MIRRORLAYERS_PARAM, params));
+    dataStore.setMirrorMaxFeatures(
+        (Integer) lookUp(MIRRORMAXFEATURES_PARAM, params));
+    dataStore.setMirrorRefreshInterval(
+        (Integer) lookUp(MIRRORREFRESHINTERVAL_PARAM, params));
+
+    return dataStore;
+  }
+
+  /**
+   * Helper method to return the value of an optional parameter, or its default
+   * value when it is not set
+   * 
+   * @param param
+   *          Parameter to look up
+   * @param params
+   *          Parameters the data store is created with
+   * @return the parameter value
+   * @throws IOException
+   */
+  protected static Object lookUp(Param param, Map<String, Serializable> params)
+      throws IOException {
+    Object value = param.lookUp(params);
+    return value != null ? value : param.sample;
   }
 
   @Override
@@ -0,0 +1,457 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Compact binary encoding of the features of a feature type, used to keep
+ * cached features outside the heap (in direct buffers) rather than as JTS
+ * geometries and feature objects. Features are decoded again when read.
+ *
+ * The encoding consists of the number of features, a dictionary of the
+ * strings (feature IDs and string values, each stored once), and the
+ * features: their ID as a dictionary index, followed by their attribute
+ * values laid out in the order and according to the bindings of the feature
+ * type. Geometries are written as their type and the packed ordinates of
+ * their coordinate sequences.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestFeatureCodec {
+
+  // Kinds of attribute values
+  protected static final byte KIND_GEOMETRY = 0;
+  protected static final byte KIND_STRING = 1;
+  protected static final byte KIND_INTEGER = 2;
+  protected static final byte KIND_LONG = 3;
+  protected static final byte KIND_DOUBLE = 4;
+  protected static final byte KIND_FLOAT = 5;
+  protected static final byte KIND_BOOLEAN = 6;
+  protected static final byte KIND_DATE = 7;
+  protected static final byte KIND_OTHER = 8;
+
+  // Markers preceding each attribute value: null, value of the attribute
+  // kind, and value of another class (stored as a string and converted back
+  // to the attribute binding)
+  protected static final byte VALUE_NULL = 0;
+  protected static final byte VALUE_TYPED = 1;
+  protected static final byte VALUE_STRING = 2;
+
+  // Geometry types
+  protected static final byte GEOMETRY_POINT = 1;
+  protected static final byte GEOMETRY_LINESTRING = 2;
+  protected static final byte GEOMETRY_POLYGON = 3;
+  protected static final byte GEOMETRY_MULTIPOINT = 4;
+  protected static final byte GEOMETRY_MULTILINESTRING = 5;
+  protected static final byte GEOMETRY_MULTIPOLYGON = 6;
+  protected static final byte GEOMETRY_COLLECTION = 7;
+
+  protected SimpleFeatureType featureType;
+  protected byte[] kinds;
+  protected Class<?>[] bindings;
+  protected GeometryFactory geometryFactory = new GeometryFactory();
+
+  /**
+   * Constructor
+   *
+   * @param featureTypeIn
+   *          type of the features encoded
+   */
+  public ArcGISRestFeatureCodec(SimpleFeatureType featureTypeIn) {
+    this.featureType = featureTypeIn;
+
+    List<AttributeDescriptor> descriptors = featureTypeIn
+        .getAttributeDescriptors();
+    this.kinds = new byte[descriptors.size()];
+    this.bindings = new Class<?>[descriptors.size()];
+    for (int i = 0; i < descriptors.size(); i++) {
+      this.bindings[i] = descriptors.get(i).getType().getBinding();
+      this.kinds[i] = composeKind(this.bindings[i]);
+    }
+  }
+
+  public SimpleFeatureType getFeatureType() {
+    return this.featureType;
+  }
+
+  /**
+   * Helper method to return the kind of the values of an attribute binding
+   *
+   * @param binding
+   *          the binding
+   * @return one of the KIND constants
+   */
+  protected static byte composeKind(Class<?> binding) {
+    if (Geometry.class.isAssignableFrom(binding)) {
+      return KIND_GEOMETRY;
+    } else if (String.class.equals(binding)) {
+      return KIND_STRING;
+    } else if (Integer.class.equals(binding) || Short.class.equals(binding)
+        || Byte.class.equals(binding)) {
+      return KIND_INTEGER;
+    } else if (Long.class.equals(binding)) {
+      return KIND_LONG;
+    } else if (Double.class.equals(binding)) {
+      return KIND_DOUBLE;
+    } else if (Float.class.equals(binding)) {
+      return KIND_FLOAT;
+    } else if (Boolean.class.equals(binding)) {
+      return KIND_BOOLEAN;
+    } else if (Date.class.equals(binding)) {
+      return KIND_DATE;
+    }
+    return KIND_OTHER;
+  }
+
+  /**
+   * Encodes features into a direct buffer, sized to the encoding
+   *
+   * @param features
+   *          features of the codec feature type
+   * @return the buffer, ready to be decoded
+   * @throws IOException
+   */
+  public ByteBuffer encode(List<SimpleFeature> features) throws IOException {
+
+    Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    List<String> strings = new ArrayList<String>();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(body);
+
+    for (SimpleFeature feature : features) {
+      out.writeInt(index(feature.getID(), dictionary, strings));
+      for (int i = 0; i < this.kinds.length; i++) {
+        this.writeValue(out, i, feature.getAttribute(i), dictionary, strings);
+      }
+    }
+    out.flush();
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    out = new DataOutputStream(header);
+    out.writeInt(features.size());
+    out.writeInt(strings.size());
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    out.flush();
+
+    ByteBuffer buffer = ByteBuffer
+        .allocateDirect(header.size() + body.size());
+    buffer.put(header.toByteArray());
+    buffer.put(body.toByteArray());
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Decodes the features of a buffer (its position is left untouched, so
+   * that a buffer can be decoded concurrently)
+   *
+   * @param buffer
+   *          the buffer as returned by encode
+   * @return the features
+   */
+  public List<SimpleFeature> decode(ByteBuffer buffer) {
+
+    ByteBuffer in = buffer.duplicate();
+    int count = in.getInt();
+    String[] strings = new String[in.getInt()];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[in.getInt()];
+      in.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>(count);
+    for (int n = 0; n < count; n++) {
+      String id = strings[in.getInt()];
+      Object[] values = new Object[this.kinds.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = this.readValue(in, i, strings);
+      }
+      features.add(SimpleFeatureBuilder.build(this.featureType, values, id));
+    }
+
+    return features;
+  }
+
+  /**
+   * Helper method to return the dictionary index of a string, adding it to
+   * the dictionary if it is not there yet
+   */
+  protected static int index(String string, Map<String, Integer> dictionary,
+      List<String> strings) {
+    Integer index = dictionary.get(string);
+    if (index == null) {
+      index = strings.size();
+      dictionary.put(string, index);
+      strings.add(string);
+    }
+    return index;
+  }
+
+  /**
+   * Helper method to write an attribute value
+   */
+  protected void writeValue(DataOutputStream out, int attribute, Object value,
+      Map<String, Integer> dictionary, List<String> strings)
+      throws IOException {
+
+    if (value == null) {
+      out.writeByte(VALUE_NULL);
+      return;
+    }
+
+    byte kind = this.kinds[attribute];
+    if (kind == KIND_GEOMETRY && value instanceof Geometry) {
+      out.writeByte(VALUE_TYPED);
+      this.writeGeometry(out, (Geometry) value);
+    } else if (kind == KIND_STRING && value instanceof String) {
+      out.writeByte(VALUE_TYPED);
+      out.writeInt(index((String) value, dictionary, strings));
+    } else if (kind == KIND_INTEGER && value instanceof Number) {
+      out.writeByte(VALUE_TYPED);
+      out.writeInt(((Number) value).intValue());
+    } else if (kind == KIND_LONG && value instanceof Number) {
+      out.writeByte(VALUE_TYPED);
+      out.writeLong(((Number) value).longValue());
+    } else if (kind == KIND_DOUBLE && value instanceof Number) {
+      out.writeByte(VALUE_TYPED);
+      out.writeDouble(((Number) value).doubleValue());
+    } else if (kind == KIND_FLOAT && value instanceof Number) {
+      out.writeByte(VALUE_TYPED);
+      out.writeFloat(((Number) value).floatValue());
+    } else if (kind == KIND_BOOLEAN && value instanceof Boolean) {
+      out.writeByte(VALUE_TYPED);
+      out.writeBoolean((Boolean) value);
+    } else if (kind == KIND_DATE && value instanceof Date) {
+      out.writeByte(VALUE_TYPED);
+      out.writeLong(((Date) value).getTime());
+    } else {
+      out.writeByte(VALUE_STRING);
+      out.writeInt(index(value.toString(), dictionary, strings));
+    }
+  }
+
+  /**
+   * Helper method to read an attribute value
+   */
+  protected Object readValue(ByteBuffer in, int attribute, String[] strings) {
+
+    byte marker = in.get();
+    if (marker == VALUE_NULL) {
+      return null;
+    }
+
+    if (marker == VALUE_STRING) {
+      String string = strings[in.getInt()];
+      Object value = Converters.convert(string, this.bindings[attribute]);
+      return value != null ? value : string;
+    }
+
+    switch (this.kinds[attribute]) {
+    case KIND_GEOMETRY:
+      return this.readGeometry(in);
+    case KIND_STRING:
+      return strings[in.getInt()];
+    case KIND_INTEGER:
+      int value = in.getInt();
+      if (Short.class.equals(this.bindings[attribute])) {
+        return (short) value;
+      } else if (Byte.class.equals(this.bindings[attribute])) {
+        return (byte) value;
+      }
+      return value;
+    case KIND_LONG:
+      return in.getLong();
+    case KIND_DOUBLE:
+      return in.getDouble();
+    case KIND_FLOAT:
+      return in.getFloat();
+    case KIND_BOOLEAN:
+      return in.get() != 0;
+    case KIND_DATE:
+      return new Date(in.getLong());
+    default:
+      throw new IllegalStateException(
+          "Unexpected value of attribute " + attribute);
+    }
+  }
+
+  /**
+   * Helper method to write a geometry
+   */
+  protected void writeGeometry(DataOutputStream out, Geometry geom)
+      throws IOException {
+
+    if (geom instanceof Point) {
+      out.writeByte(GEOMETRY_POINT);
+      writeCoordinates(out, ((Point) geom).getCoordinateSequence());
+    } else if (geom instanceof LineString) {
+      out.writeByte(GEOMETRY_LINESTRING);
+      writeCoordinates(out, ((LineString) geom).getCoordinateSequence());
+    } else if (geom instanceof Polygon) {
+      Polygon polygon = (Polygon) geom;
+      out.writeByte(GEOMETRY_POLYGON);
+      out.writeInt(polygon.isEmpty() ? 0 : polygon.getNumInteriorRing() + 1);
+      if (polygon.isEmpty() == false) {
+        writeCoordinates(out,
+            polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+          writeCoordinates(out,
+              polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+      }
+    } else {
+      if (geom instanceof MultiPoint) {
+        out.writeByte(GEOMETRY_MULTIPOINT);
+      } else if (geom instanceof MultiLineString) {
+        out.writeByte(GEOMETRY_MULTILINESTRING);
+      } else if (geom instanceof MultiPolygon) {
+        out.writeByte(GEOMETRY_MULTIPOLYGON);
+      } else {
+        out.writeByte(GEOMETRY_COLLECTION);
+      }
+      out.writeInt(geom.getNumGeometries());
+      for (int i = 0; i < geom.getNumGeometries(); i++) {
+        this.writeGeometry(out, geom.getGeometryN(i));
+      }
+    }
+  }
+
+  /**
+   * Helper method to write the packed ordinates of a coordinate sequence:
+   * its size, its dimension (2, or 3 when it has Z values), then the
+   * ordinates of each coordinate
+   */
+  protected static void writeCoordinates(DataOutputStream out,
+      CoordinateSequence seq) throws IOException {
+
+    boolean hasZ = false;
+    if (seq.getDimension() > 2) {
+      for (int i = 0; i < seq.size() && hasZ == false; i++) {
+        hasZ = Double.isNaN(seq.getOrdinate(i, CoordinateSequence.Z)) == false;
+      }
+    }
+
+    out.writeInt(seq.size());
+    out.writeByte(hasZ ? 3 : 2);
+    for (int i = 0; i < seq.size(); i++) {
+      out.writeDouble(seq.getOrdinate(i, CoordinateSequence.X));
+      out.writeDouble(seq.getOrdinate(i, CoordinateSequence.Y));
+      if (hasZ) {
+        out.writeDouble(seq.getOrdinate(i, CoordinateSequence.Z));
+      }
+    }
+  }
+
+  /**
+   * Helper method to read a geometry
+   */
+  protected Geometry readGeometry(ByteBuffer in) {
+
+    byte type = in.get();
+    switch (type) {
+    case GEOMETRY_POINT:
+      return this.geometryFactory.createPoint(this.geometryFactory
+          .getCoordinateSequenceFactory().create(this.readCoordinates(in)));
+    case GEOMETRY_LINESTRING:
+      return this.geometryFactory.createLineString(this.readCoordinates(in));
+    case GEOMETRY_POLYGON:
+      int rings = in.getInt();
+      if (rings == 0) {
+        return this.geometryFactory.createPolygon((LinearRing) null, null);
+      }
+      LinearRing shell = this.geometryFactory
+          .createLinearRing(this.readCoordinates(in));
+      LinearRing[] holes = new LinearRing[rings - 1];
+      for (int i = 0; i < holes.length; i++) {
+        holes[i] = this.geometryFactory
+            .createLinearRing(this.readCoordinates(in));
+      }
+      return this.geometryFactory.createPolygon(shell, holes);
+    default:
+      Geometry[] parts = new Geometry[in.getInt()];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = this.readGeometry(in);
+      }
+      if (type == GEOMETRY_MULTIPOINT) {
+        Point[] points = new Point[parts.length];
+        System.arraycopy(parts, 0, points, 0, parts.length);
+        return this.geometryFactory.createMultiPoint(points);
+      } else if (type == GEOMETRY_MULTILINESTRING) {
+        LineString[] lines = new LineString[parts.length];
+        System.arraycopy(parts, 0, lines, 0, parts.length);
+        return this.geometryFactory.createMultiLineString(lines);
+      } else if (type == GEOMETRY_MULTIPOLYGON) {
+        Polygon[] polygons = new Polygon[parts.length];
+        System.arraycopy(parts, 0, polygons, 0, parts.length);
+        return this.geometryFactory.createMultiPolygon(polygons);
+      }
+      return this.geometryFactory.createGeometryCollection(parts);
+    }
+  }
+
+  /**
+   * Helper method to read the packed ordinates of a coordinate sequence
+   */
+  protected Coordinate[] readCoordinates(ByteBuffer in) {
+
+    Coordinate[] coords = new Coordinate[in.getInt()];
+    boolean hasZ = in.get() == 3;
+    for (int i = 0; i < coords.length; i++) {
+      coords[i] = hasZ
+          ? new Coordinate(in.getDouble(), in.getDouble(), in.getDouble())
+          : new Coordinate(in.getDouble(), in.getDouble());
+    }
+    return coords;
+  }
+
+}
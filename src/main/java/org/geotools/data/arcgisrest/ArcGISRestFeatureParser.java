@@ -0,0 +1,52 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+
+/**
+ * Parser of the features returned by a query, whatever format they were
+ * requested in
+ *
+ * @author lmorandini
+ *
+ */
+public interface ArcGISRestFeatureParser extends SimpleFeatureIterator {
+
+  /**
+   * Reads the response up to its first feature. Since ArcGIS ReST API may
+   * return an error message instead of features, this case is handled by
+   * throwing an exception
+   *
+   * @throws IOException
+   */
+  public void parseFeatureCollection() throws IOException;
+
+  /**
+   * Returns whether the server signalled that more features match the query
+   * than the ones returned (which happens when its maximum record count is
+   * exceeded). It may be set only after all features have been read.
+   *
+   * @return true if the result set has been truncated
+   */
+  public boolean isExceededTransferLimit();
+
+}
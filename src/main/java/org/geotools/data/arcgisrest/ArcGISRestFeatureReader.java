@@ -24,11 +24,13 @@ import java.util.NoSuchElementException;
 import java.util.logging.Logger;
 
 import org.geotools.data.FeatureReader;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 /**
- * Feature reader of the GeoJSON features
+ * Feature reader of the GeoJSON (or Esri JSON, or PBF) features, either read
+ * from a single response, or from an iterator spanning several of them
  * 
  * @author lmorandini
  *
@@ -37,19 +39,97 @@ public class ArcGISRestFeatureReader
     implements FeatureReader<SimpleFeatureType, SimpleFeature> {
 
   protected SimpleFeatureType featureType;
-  protected GeoJSONParser parser;
+  protected SimpleFeatureIterator parser;
   protected Logger LOGGER;
 
   protected int featIndex = 0;
 
   public ArcGISRestFeatureReader(SimpleFeatureType featureTypeIn,
       InputStream iStream, Logger logger) throws IOException {
+    this(featureTypeIn, iStream, ArcGISRestDataStore.FORMAT_GEOJSON, logger);
+  }
+
+  public ArcGISRestFeatureReader(SimpleFeatureType featureTypeIn,
+      InputStream iStream, Object format, Logger logger) throws IOException {
     this.featureType = featureTypeIn;
     this.featIndex = 0;
     this.LOGGER = logger;
 
-    this.parser = new GeoJSONParser(iStream, featureTypeIn, logger);
-    this.parser.parseFeatureCollection();
+    this.parser = openParser(iStream, format, featureTypeIn, logger);
+  }
+
+  public ArcGISRestFeatureReader(SimpleFeatureType featureTypeIn,
+      SimpleFeatureIterator iterator, Logger logger) {
+    this.featureType = featureTypeIn;
+    this.featIndex = 0;
+    this.LOGGER = logger;
+    this.parser = iterator;
+  }
+
+  /**
+   * Returns a parser of the features in a response, according to the format
+   * they were requested in
+   * 
+   * @param iStream
+   *          the response
+   * @param format
+   *          the value of the format parameter of the request (GeoJSON if
+   *          null)
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param logger
+   *          the logger to use
+   * @return the parser (the feature collection is not parsed yet)
+   * @throws IOException
+   */
+  public static ArcGISRestFeatureParser createParser(InputStream iStream,
+      Object format, SimpleFeatureType featureTypeIn, Logger logger)
+      throws IOException {
+
+    if (ArcGISRestDataStore.FORMAT_JSON.equals(format)) {
+      return new EsriJSONParser(iStream, featureTypeIn, logger);
+    }
+    if (ArcGISRestDataStore.FORMAT_PBF.equals(format)) {
+      return new PBFParser(iStream, featureTypeIn, logger);
+    }
+
+    return new GeoJSONParser(iStream, featureTypeIn, logger);
+  }
+
+  /**
+   * Returns a parser of the features in a response, positioned on the first
+   * feature. The response is closed if it cannot be parsed (as for error
+   * messages), since its connection would not go back to the pool otherwise.
+   * 
+   * @param iStream
+   *          the response
+   * @param format
+   *          the value of the format parameter of the request (GeoJSON if
+   *          null)
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param logger
+   *          the logger to use
+   * @return the parser
+   * @throws IOException
+   */
+  public static ArcGISRestFeatureParser openParser(InputStream iStream,
+      Object format, SimpleFeatureType featureTypeIn, Logger logger)
+      throws IOException {
+
+    ArcGISRestFeatureParser featureParser = null;
+    try {
+      featureParser = createParser(iStream, format, featureTypeIn, logger);
+      featureParser.parseFeatureCollection();
+      return featureParser;
+    } catch (IOException | RuntimeException e) {
+      if (featureParser != null) {
+        featureParser.close();
+      } else {
+        iStream.close();
+      }
+      throw (e);
+    }
   }
 
   /**
@@ -23,38 +23,85 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.TreeMap;
 import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.xml.ws.http.HTTPException;
 
+import org.geotools.data.CollectionFeatureReader;
 import org.geotools.data.DefaultResourceInfo;
+import org.geotools.data.EmptyFeatureReader;
 import org.geotools.data.FeatureReader;
+import org.geotools.data.FilteringFeatureReader;
+import org.geotools.data.MaxFeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.ReTypingFeatureReader;
 import org.geotools.data.ResourceInfo;
 import org.geotools.data.arcgisrest.schema.catalog.Dataset;
 import org.geotools.data.arcgisrest.schema.webservice.Count;
 import org.geotools.data.arcgisrest.schema.webservice.Extent;
+import org.geotools.data.arcgisrest.schema.webservice.ObjectIds;
 import org.geotools.data.arcgisrest.schema.webservice.Webservice;
+import org.geotools.data.crs.ForceCoordinateSystemFeatureReader;
+import org.geotools.data.crs.ReprojectFeatureReader;
 import org.geotools.data.store.ContentDataStore;
 import org.geotools.data.store.ContentEntry;
 import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.factory.Hints;
+import org.geotools.feature.SchemaException;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.AverageVisitor;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.FeatureAttributeVisitor;
+import org.geotools.feature.visitor.GroupByVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.filter.FilterAttributeExtractor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
 import org.geotools.util.SimpleInternationalString;
+import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.filter.spatial.BBOX;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Source of features for the ArcGIS ReST API
@@ -99,6 +146,32 @@ public class ArcGISRestFeatureSource extends ContentFeatureSource {
   protected ArcGISRestDataStore dataStore;
   protected DefaultResourceInfo resInfo;
   protected String objectIdField;
+  protected Webservice webservice;
+  protected ArcGISRestFilterToSQL filterToSQL;
+
+  // Query parameters that determine the extent of the matching features
+  protected static final String[] BOUNDS_KEY_PARAMS = {
+      ArcGISRestDataStore.WHERE_PARAM, ArcGISRestDataStore.GEOMETRY_PARAM,
+      ArcGISRestDataStore.GEOMETRYTYPE_PARAM,
+      ArcGISRestDataStore.SPATIALREL_PARAM, ArcGISRestDataStore.INSR_PARAM,
+      ArcGISRestDataStore.OUTSR_PARAM };
+
+  // Request parameters that change from tile to tile
+  protected static final String[] TILE_SPATIAL_PARAMS = {
+      ArcGISRestDataStore.GEOMETRY_PARAM,
+      ArcGISRestDataStore.GEOMETRYTYPE_PARAM,
+      ArcGISRestDataStore.SPATIALREL_PARAM, ArcGISRestDataStore.INSR_PARAM };
+
+  // Least recently used cache of query extents, which expire as tiles do
+  protected Map<String, CachedBounds> boundsCache = Collections
+      .synchronizedMap(new LinkedHashMap<String, CachedBounds>(16, 0.75f,
+          true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<String, CachedBounds> eldest) {
+          return this.size() > ArcGISRestDataStore.BOUNDS_CACHE_SIZE;
+        }
+      });
 
   public ArcGISRestFeatureSource(ContentEntry entry, Query query)
       throws IOException {
@@ -110,56 +183,78 @@ public class ArcGISRestFeatureSource extends ContentFeatureSource {
   @Override
   protected SimpleFeatureType buildFeatureType() throws IOException {
 
-    // Extracts informaton about the type name (as per this.entry) from the API
-    Dataset ds = this.dataStore.getDataset(this.entry.getName());
-    Webservice ws = (new Gson())
-        .fromJson(
-            ArcGISRestDataStore.InputStreamToString(this.dataStore.retrieveJSON(
-                "GET", new URL(ds.getWebService().toString()),
-                ArcGISRestDataStore.DEFAULT_PARAMS)),
-            Webservice.class);
+    // The layer is described once per data store, out of the metadata
+    // retrieved when listing type names, and shared by its feature sources
+    ArcGISRestLayerDescriptor layer = this.dataStore
+        .getLayerDescriptor(this.entry.getName());
+    synchronized (layer) {
+      if (layer.isDescribed() == false) {
+        this.describeLayer(layer);
+      }
+    }
+
+    this.webservice = layer.getWebservice();
+    this.resInfo = layer.getResourceInfo();
+    this.objectIdField = layer.getObjectIdField();
+    this.schema = layer.getFeatureType();
+    this.filterToSQL = new ArcGISRestFilterToSQL(this.schema,
+        this.objectIdField);
+
+    return this.schema;
+  }
+
+  /**
+   * Helper method to derive the feature type, CRS, object ID field and
+   * resource information of a layer from its metadata
+   * 
+   * @param layer
+   *          the layer to describe
+   * @throws IOException
+   */
+  protected void describeLayer(ArcGISRestLayerDescriptor layer)
+      throws IOException {
 
+    Dataset ds = layer.getDataset();
+    Webservice ws = layer.getWebservice();
     if (ws == null) {
       throw new IOException("Type name " + entry.getName() + " not found");
     }
 
     // Sets the information about the resource
-    this.resInfo = new DefaultResourceInfo();
+    DefaultResourceInfo info = new DefaultResourceInfo();
     try {
-      this.resInfo
-          .setSchema(new URI(this.dataStore.getNamespace().toExternalForm()));
+      info.setSchema(new URI(this.dataStore.getNamespace().toExternalForm()));
     } catch (URISyntaxException e) {
       // Re-packages the exception to be compatible with method signature
       throw new IOException(e.getMessage(), e.fillInStackTrace());
     }
     try {
-      this.resInfo.setCRS(CRS.decode(
+      info.setCRS(CRS.decode(
           "EPSG:" + ws.getExtent().getSpatialReference().getLatestWkid()));
     } catch (FactoryException e) {
       // FIXME: this is not nice: exceptions should not be re-packaged
       throw new IOException(e.getMessage());
     }
 
-    this.resInfo.setKeywords(new HashSet(ds.getKeyword()));
+    info.setKeywords(new HashSet(ds.getKeyword()));
 
     // FIXME: the abstract of the feature type is not set
-    this.resInfo.setDescription(ds.getDescription());
+    info.setDescription(ds.getDescription());
 
-    this.resInfo.setTitle(ds.getTitle() != null ? ds.getTitle() : ws.getName());
-    this.resInfo.setName(ws.getName());
+    info.setTitle(ds.getTitle() != null ? ds.getTitle() : ws.getName());
+    info.setName(ws.getName());
     ReferencedEnvelope geoBbox = new ReferencedEnvelope(
         ws.getExtent().getXmin(), ws.getExtent().getXmax(),
-        ws.getExtent().getYmin(), ws.getExtent().getYmax(),
-        this.resInfo.getCRS());
-    this.resInfo.setBounds(geoBbox);
-    this.objectIdField = (ws.getObjectIdField() != null) ? ws.getObjectIdField()
+        ws.getExtent().getYmin(), ws.getExtent().getYmax(), info.getCRS());
+    info.setBounds(geoBbox);
+    String idField = (ws.getObjectIdField() != null) ? ws.getObjectIdField()
         : ws.getGlobalIdField();
 
     // Builds the feature type
     SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
-    builder.setCRS(this.resInfo.getCRS()); // NOTE: this has ot be done before
-                                           // other settings, lest the SRS is
-                                           // not set
+    builder.setCRS(info.getCRS()); // NOTE: this has ot be done before
+                                   // other settings, lest the SRS is
+                                   // not set
     builder.setName(this.entry.getName());
     // FIXME: the abstract of the feature type is not set
     builder.setDescription(ds.getDescription() != null
@@ -184,10 +279,10 @@ public class ArcGISRestFeatureSource extends ContentFeatureSource {
 
     builder.add(ArcGISRestDataStore.GEOMETRY_ATTR, clazz);
 
-    this.schema = builder.buildFeatureType();
-    this.schema.getUserData().put("serviceUrl", ds.getWebService());
+    SimpleFeatureType featureType = builder.buildFeatureType();
+    featureType.getUserData().put("serviceUrl", ds.getWebService());
 
-    return this.schema;
+    layer.describe(featureType, info.getCRS(), idField, info);
   }
 
   @Override
@@ -213,150 +308,2144 @@ public class ArcGISRestFeatureSource extends ContentFeatureSource {
     return this.entry.getName();
   }
 
-  // TODO: it shuold return the bounds of the query, if not null
+  /**
+   * Returns the layer extent for queries with no filter, or the extent of the
+   * features matching the query as computed by the server (if it can). When
+   * part of the filter is evaluated locally, the extent of the features
+   * matching the rest of the filter is returned, which contains the actual
+   * bounds.
+   */
   @Override
-  protected ReferencedEnvelope getBoundsInternal(Query arg0)
+  protected ReferencedEnvelope getBoundsInternal(Query query)
       throws IOException {
-    return this.getInfo().getBounds();
+
+    this.getSchema();
+    ArcGISRestLayerMirror mirror = this.getMirror();
+    if (mirror != null) {
+      return this.composeReprojectedBounds(query,
+          mirror.getBounds(query.getFilter()));
+    }
+
+    if (query.getFilter() == null || query.getFilter() == Filter.INCLUDE
+        || this.supportsQueryExtent() == false) {
+      return this.composeReprojectedBounds(query, this.getInfo().getBounds());
+    }
+
+    Map<String, Object> params = this.composeQueryParams(query);
+    Map<String, Object> key = new TreeMap<String, Object>();
+    for (String param : BOUNDS_KEY_PARAMS) {
+      if (params.get(param) != null) {
+        key.put(param, params.get(param));
+      }
+    }
+    String cacheKey = key.toString();
+
+    CachedBounds cached = this.boundsCache.get(cacheKey);
+    if (cached == null || cached.isExpired()) {
+      long ttl = this.composeCacheTTL();
+      cached = new CachedBounds(this.retrieveExtent(params),
+          ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+      this.boundsCache.put(cacheKey, cached);
+    }
+
+    return this.composeReprojectedBounds(query,
+        new ReferencedEnvelope(cached.bounds));
   }
 
-  @Override
-  protected int getCountInternal(Query query) throws IOException {
+  /**
+   * Helper method to return bounds in the CRS a query reprojects features to
+   * (if they are not in it already)
+   * 
+   * @param query
+   *          Query to return the bounds of
+   * @param bounds
+   *          the bounds
+   * @return the reprojected bounds
+   * @throws IOException
+   */
+  protected ReferencedEnvelope composeReprojectedBounds(Query query,
+      ReferencedEnvelope bounds) throws IOException {
 
-    Count cnt;
-    Map<String, Object> params = new HashMap<String, Object>(
-        ArcGISRestDataStore.DEFAULT_PARAMS);
-    params.put(ArcGISRestDataStore.COUNT_PARAM, true);
-    params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
-        this.composeExtent(this.getBoundsInternal(query)));
+    CoordinateReferenceSystem target = query.getCoordinateSystemReproject();
+    if (target == null || bounds == null
+        || bounds.getCoordinateReferenceSystem() == null
+        || CRS.equalsIgnoreMetadata(target,
+            bounds.getCoordinateReferenceSystem())) {
+      return bounds;
+    }
 
     try {
-      cnt = (new Gson()).fromJson(
-          ArcGISRestDataStore.InputStreamToString(this.dataStore
-              .retrieveJSON("POST", (new URL(this.composeQueryURL())), params)),
-          Count.class);
-    } catch (HTTPException e) {
+      return bounds.transform(target, true);
+    } catch (TransformException | FactoryException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Helper method to return how long tiles and query extents of the layer are
+   * cached for
+   * 
+   * @return time in milliseconds (0 if they do not expire, as for layers with
+   *         static data)
+   */
+  protected long composeCacheTTL() {
+    return (this.webservice != null
+        && Boolean.TRUE.equals(this.webservice.getHasStaticData())) ? 0
+            : this.dataStore.getTileCacheTTL() * 1000L;
+  }
+
+  /**
+   * Returns the extent of the features matching a query of the instance's
+   * dataset
+   * 
+   * @param params
+   *          Request parameters of the query
+   * @return the extent (empty if no features match)
+   * @throws IOException
+   */
+  protected ReferencedEnvelope retrieveExtent(Map<String, Object> params)
+      throws IOException {
+
+    Map<String, Object> extentParams = new HashMap<String, Object>(params);
+    extentParams.put(ArcGISRestDataStore.EXTENTONLY_PARAM, true);
+    extentParams.put(ArcGISRestDataStore.FORMAT_PARAM,
+        ArcGISRestDataStore.FORMAT_JSON);
+    extentParams.remove(ArcGISRestDataStore.ATTRIBUTES_PARAM);
+    extentParams.remove(ArcGISRestDataStore.ORDERBY_PARAM);
+
+    JsonElement json = (new JsonParser()).parse(ArcGISRestDataStore
+        .InputStreamToString(this.retrieveFeatures(extentParams)));
+    if (json == null || json.isJsonObject() == false
+        || json.getAsJsonObject().has(GeoJSONParser.ERROR)) {
       throw new IOException(
-          "Error " + e.getStatusCode() + " " + e.getMessage());
+          "Extent of type name " + entry.getName() + " could not be retrieved"
+              + (json != null && json.isJsonObject()
+                  ? ": " + json.getAsJsonObject().get(GeoJSONParser.ERROR)
+                  : ""));
+    }
+
+    // No matching features may come as no extent, or an extent of NaNs (in
+    // the output spatial reference, if any)
+    CoordinateReferenceSystem crs = this.getInfo().getCRS();
+    if (params.get(ArcGISRestDataStore.OUTSR_PARAM) != null) {
+      try {
+        crs = CRS.decode(
+            "EPSG:" + params.get(ArcGISRestDataStore.OUTSR_PARAM));
+      } catch (FactoryException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+    JsonElement extJson = json.getAsJsonObject()
+        .get(ArcGISRestDataStore.EXTENT_ATTR);
+    Extent ext = (extJson != null && extJson.isJsonObject())
+        ? ArcGISRestDataStore.GSON.fromJson(extJson, Extent.class) : null;
+    if (ext == null || ext.getXmin() == null || ext.getYmin() == null
+        || ext.getXmax() == null || ext.getYmax() == null
+        || ext.getXmin().isNaN() || ext.getYmin().isNaN()
+        || ext.getXmax().isNaN() || ext.getYmax().isNaN()) {
+      return new ReferencedEnvelope(crs);
     }
 
-    return cnt == null ? -1 : cnt.getCount();
+    return new ReferencedEnvelope(ext.getXmin(), ext.getXmax(),
+        ext.getYmin(), ext.getYmax(), crs);
   }
 
+  /**
+   * Filters are translated into where clauses, with the part that cannot be
+   * translated evaluated on the returned features
+   */
   @Override
-  protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(
-      Query query) throws IOException {
+  protected boolean canFilter() {
+    return true;
+  }
 
-    Map<String, Object> params = new HashMap<String, Object>(
-        ArcGISRestDataStore.DEFAULT_PARAMS);
-    InputStream result;
+  /**
+   * Sorting is sent to the server, provided results can be paged (otherwise
+   * features read in batches of object IDs would lose their order); sort
+   * orders with keys the server cannot take are applied locally instead
+   */
+  @Override
+  protected boolean canSort() {
+    return this.supportsOrderBy() && this.supportsPagination();
+  }
+
+  @Override
+  protected boolean canLimit() {
+    return this.supportsPagination();
+  }
 
-    params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
-        this.composeExtent(this.getBounds(query)));
+  @Override
+  protected boolean canOffset() {
+    return this.supportsPagination();
+  }
 
-    // TODO: currently it sets _only_ the BBOX query
-    params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
-        this.composeExtent(this.getBounds(query)));
+  /**
+   * Features are reprojected by the server (as an output spatial reference),
+   * falling back to reprojecting them here when the target CRS has no EPSG
+   * code
+   */
+  @Override
+  protected boolean canReproject() {
+    return true;
+  }
 
-    // Sets the atttributes to return
-    params.put(ArcGISRestDataStore.ATTRIBUTES_PARAM,
-        this.composeAttributes(query));
+  /**
+   * Features are read with the requested attributes only, since their type
+   * has to carry the CRS they are reprojected to
+   */
+  @Override
+  protected boolean canRetype() {
+    return true;
+  }
 
-    // Sets the outpout to GeoJSON
-    params.put(ArcGISRestDataStore.FORMAT_PARAM,
-        ArcGISRestDataStore.FORMAT_GEOJSON);
+  @Override
+  protected int getCountInternal(Query query) throws IOException {
 
-    // Executes the request
-    try {
-      result = this.dataStore.retrieveJSON("POST",
-          (new URL(this.composeQueryURL())), params);
-    } catch (HTTPException e) {
-      throw new IOException(
-          "Error " + e.getStatusCode() + " " + e.getMessage());
+    // Mirrored layers are counted in memory
+    this.getSchema();
+    ArcGISRestLayerMirror mirror = this.getMirror();
+    if (mirror != null) {
+      return Math.min(
+          Math.max(0, mirror.query(query.getFilter()).size()
+              - this.composeStartIndex(query)),
+          this.composeMaxFeatures(query));
     }
 
-    // Returns a reader for the result
-    return new ArcGISRestFeatureReader(this.schema, result,
-        this.dataStore.getLogger());
+    // If part of the filter is evaluated locally, the count is not known
+    // without reading the features
+    if (this.splitFilter(query.getFilter())[1] != Filter.INCLUDE) {
+      return -1;
+    }
+
+    // Offset and limit are applied to the count of all matching features
+    int count = this.retrieveCount(this.composeQueryParams(query));
+    if (count < 0) {
+      return count;
+    }
+
+    return Math.min(Math.max(0, count - this.composeStartIndex(query)),
+        this.composeMaxFeatures(query));
   }
 
   /**
-   * Helper method to return an extent as the API expects it
+   * Aggregates are computed by the server (as statistics or distinct values)
+   * when the whole query can be sent to it. Visitors are not handled (and
+   * features are scanned instead) otherwise, or when the layer is mirrored.
+   */
+  @Override
+  protected boolean handleVisitor(Query query, FeatureVisitor visitor)
+      throws IOException {
+
+    this.getSchema();
+    if (this.getMirror() != null || this.splitFilter(query.getFilter())[1] != Filter.INCLUDE
+        || query.isMaxFeaturesUnlimited() == false
+        || (query.getStartIndex() != null && query.getStartIndex() > 0)) {
+      return false;
+    }
+
+    Map<String, Object> params = this.composeQueryParams(query);
+    params.remove(ArcGISRestDataStore.ORDERBY_PARAM);
+
+    if (visitor instanceof CountVisitor) {
+      int count = this.retrieveCount(params);
+      if (count < 0) {
+        return false;
+      }
+      ((CountVisitor) visitor).setValue(count);
+      return true;
+    }
+
+    if (visitor instanceof UniqueVisitor) {
+      return this.supportsDistinct()
+          && this.handleUniqueVisitor(params, (UniqueVisitor) visitor);
+    }
+
+    if (visitor instanceof GroupByVisitor) {
+      return this.supportsStatistics()
+          && this.handleGroupByVisitor(params, (GroupByVisitor) visitor);
+    }
+
+    if (this.supportsStatistics() == false) {
+      return false;
+    }
+    String type = this.composeStatisticType(visitor);
+    AttributeDescriptor attr = this.composeStatisticField(visitor);
+    if (type == null || attr == null) {
+      return false;
+    }
+
+    List<JsonObject> results = this.retrieveStatistics(params, type,
+        attr.getLocalName(), null);
+    if (results == null || results.size() != 1) {
+      return false;
+    }
+
+    Object value = this.convertStatistic(
+        results.get(0).get(ArcGISRestDataStore.STATISTIC_FIELD), type,
+        attr.getType().getBinding());
+    if (value == null) {
+      return false;
+    }
+    if (visitor instanceof MinVisitor) {
+      ((MinVisitor) visitor).setValue(value);
+    } else if (visitor instanceof MaxVisitor) {
+      ((MaxVisitor) visitor).setValue(value);
+    } else if (visitor instanceof SumVisitor) {
+      ((SumVisitor) visitor).setValue(value);
+    } else {
+      ((AverageVisitor) visitor).setValue(value);
+    }
+
+    return true;
+  }
+
+  /**
+   * Computes the distinct values of an attribute with returnDistinctValues
    * 
-   * @param ext
-   *          Extent (as expressed in the JSON describing the layer)
+   * @param params
+   *          Request parameters of the query
+   * @param visitor
+   *          the visitor to set the result of
+   * @return true if the visitor has been handled
+   * @throws IOException
    */
-  protected String composeExtent(Extent ext) {
-    return (new StringJoiner(",")).add(ext.getXmin().toString())
-        .add(ext.getYmin().toString()).add(ext.getXmax().toString())
-        .add(ext.getYmax().toString()).toString();
+  protected boolean handleUniqueVisitor(Map<String, Object> params,
+      UniqueVisitor visitor) throws IOException {
+
+    AttributeDescriptor attr = this.composeStatisticField(visitor);
+    if (attr == null) {
+      return false;
+    }
+
+    Map<String, Object> distinctParams = new HashMap<String, Object>(params);
+    distinctParams.put(ArcGISRestDataStore.DISTINCT_PARAM, true);
+    distinctParams.put(ArcGISRestDataStore.ATTRIBUTES_PARAM,
+        attr.getLocalName());
+    List<JsonObject> results = this.retrieveStatistics(distinctParams, null,
+        null, null);
+    if (results == null) {
+      return false;
+    }
+
+    Set<Object> values = new LinkedHashSet<Object>();
+    results.forEach((result) -> values.add(this.convertValue(
+        result.get(attr.getLocalName()), attr.getType().getBinding())));
+    visitor.setValue(values);
+
+    return true;
   }
 
   /**
-   * Helper method to return an extent as the API expects it
+   * Computes an aggregate for each group of features as statistics grouped by
+   * fields
    * 
-   * @param ext
-   *          Extent (as expressed in the JSON describing the layer)
+   * @param params
+   *          Request parameters of the query
+   * @param visitor
+   *          the visitor to set the result of
+   * @return true if the visitor has been handled
+   * @throws IOException
    */
-  protected String composeExtent(ReferencedEnvelope env) {
-    Extent ext = new Extent();
-    ext.setXmin(env.getMinX());
-    ext.setXmax(env.getMaxX());
-    ext.setYmin(env.getMinY());
-    ext.setYmax(env.getMaxY());
-    return this.composeExtent(ext);
+  protected boolean handleGroupByVisitor(Map<String, Object> params,
+      GroupByVisitor visitor) throws IOException {
+
+    FeatureVisitor aggregate = visitor.getAggregateVisitor();
+    String type = this.composeStatisticType(aggregate);
+    AttributeDescriptor attr = (aggregate instanceof CountVisitor)
+        ? (this.objectIdField != null && this.objectIdField.isEmpty() == false
+            ? this.schema.getDescriptor(this.objectIdField) : null)
+        : this.composeStatisticField(aggregate);
+    if (type == null || attr == null) {
+      return false;
+    }
+
+    List<AttributeDescriptor> groupBy = new ArrayList<AttributeDescriptor>();
+    for (Expression expr : visitor.getGroupByAttributes()) {
+      AttributeDescriptor groupAttr = this.composeStatisticField(expr);
+      if (groupAttr == null) {
+        return false;
+      }
+      groupBy.add(groupAttr);
+    }
+
+    List<JsonObject> results = this.retrieveStatistics(params, type,
+        attr.getLocalName(), groupBy);
+    if (results == null) {
+      return false;
+    }
+
+    List<GroupByVisitor.GroupByRawResult> groups = new ArrayList<GroupByVisitor.GroupByRawResult>();
+    for (JsonObject result : results) {
+      List<Object> groupValues = new ArrayList<Object>();
+      groupBy.forEach((groupAttr) -> groupValues.add(this.convertValue(
+          result.get(groupAttr.getLocalName()),
+          groupAttr.getType().getBinding())));
+      groups.add(new GroupByVisitor.GroupByRawResult(groupValues,
+          this.convertStatistic(
+              result.get(ArcGISRestDataStore.STATISTIC_FIELD), type,
+              attr.getType().getBinding())));
+    }
+    visitor.setValue(groups);
+
+    return true;
   }
 
   /**
-   * Helper method to return an attribute list as the API expects it
+   * Executes a statistics (or distinct values) query, returning the
+   * attributes of the resulting records
    * 
-   * @param query
-   *          Query to build the attributes for
+   * @param params
+   *          Request parameters of the query
+   * @param type
+   *          Statistic type (null for distinct values)
+   * @param field
+   *          Field the statistic is computed on
+   * @param groupBy
+   *          Fields to group by (null if none)
+   * @return the attributes of the records, null if the result is truncated
+   * @throws IOException
    */
-  protected String composeAttributes(Query query) {
+  protected List<JsonObject> retrieveStatistics(Map<String, Object> params,
+      String type, String field, List<AttributeDescriptor> groupBy)
+      throws IOException {
 
-    StringJoiner joiner = new StringJoiner(",");
+    Map<String, Object> statParams = new HashMap<String, Object>(params);
+    statParams.put(ArcGISRestDataStore.FORMAT_PARAM,
+        ArcGISRestDataStore.FORMAT_JSON);
+    statParams.put(ArcGISRestDataStore.WITHGEOMETRY_PARAM, false);
 
-    // The Object ID is always in to ensure the GeoJSON is correctly processed
-    // by the parser,
-    // For instance, when the GeoJSON properties is null (i.e., only the
-    // geometry is
-    // returned), WMS GetMap requests return an empty image
-    joiner.add(this.objectIdField);
+    if (type != null) {
+      statParams.remove(ArcGISRestDataStore.ATTRIBUTES_PARAM);
+      statParams.put(ArcGISRestDataStore.OUTSTATISTICS_PARAM,
+          "[{\"statisticType\":\"" + type + "\",\"onStatisticField\":\""
+              + field + "\",\"outStatisticFieldName\":\""
+              + ArcGISRestDataStore.STATISTIC_FIELD + "\"}]");
+    }
+    if (groupBy != null && groupBy.isEmpty() == false) {
+      StringJoiner joiner = new StringJoiner(",");
+      groupBy.forEach((attr) -> joiner.add(attr.getLocalName()));
+      statParams.put(ArcGISRestDataStore.GROUPBY_PARAM, joiner.toString());
+    }
 
-    if (query.retrieveAllProperties()) {
-      Iterator<AttributeDescriptor> iter = this.schema.getAttributeDescriptors()
-          .iterator();
-      while (iter.hasNext()) {
-        AttributeDescriptor attr = iter.next();
-        // Skips ID and geometry field
-        if (!attr.getLocalName().equalsIgnoreCase(this.objectIdField)
-            && !attr.getLocalName().equalsIgnoreCase(
-                this.schema.getGeometryDescriptor().getLocalName())) {
-          joiner.add(iter.next().getLocalName());
-        }
-      }
-    } else {
-      for (String attr : query.getPropertyNames()) {
-        // Skips ID and geometry field
-        if (!attr.equalsIgnoreCase(this.objectIdField)
-            && !attr.equalsIgnoreCase(
-                this.schema.getGeometryDescriptor().getLocalName())) {
-          joiner.add(attr);
-        }
-      }
+    JsonElement json = (new JsonParser()).parse(ArcGISRestDataStore
+        .InputStreamToString(this.retrieveFeatures(statParams)));
+    if (json == null || json.isJsonObject() == false) {
+      throw new IOException("Statistics of type name " + entry.getName()
+          + " could not be retrieved");
+    }
+    JsonObject response = json.getAsJsonObject();
+    if (response.has(GeoJSONParser.ERROR)) {
+      throw new IOException("Statistics of type name " + entry.getName()
+          + " could not be retrieved: " + response.get(GeoJSONParser.ERROR));
     }
 
-    return joiner.toString();
+    // Truncated results are of no use for aggregates
+    if (response.has(GeoJSONParser.GEOJSON_EXCEEDEDTRANSFERLIMIT)
+        && response.get(GeoJSONParser.GEOJSON_EXCEEDEDTRANSFERLIMIT)
+            .getAsBoolean()) {
+      return null;
+    }
+
+    List<JsonObject> results = new ArrayList<JsonObject>();
+    if (response.has(GeoJSONParser.FEATURES)) {
+      response.getAsJsonArray(GeoJSONParser.FEATURES)
+          .forEach((feat) -> results.add(feat.getAsJsonObject()
+              .getAsJsonObject(ArcGISRestDataStore.ATTRIBUTES_ATTR)));
+    }
+
+    return results;
   }
 
   /**
-   * Compose the query URL of the instance's dataset
+   * Helper method to return the statistic type of an aggregate visitor
    * 
-   * @return query URL
+   * @param visitor
+   *          the visitor
+   * @return the statistic type, null if not supported
    */
-  protected String composeQueryURL() {
-    return this.schema.getUserData().get("serviceUrl") + "/query";
+  protected String composeStatisticType(FeatureVisitor visitor) {
+    if (visitor instanceof MinVisitor) {
+      return ArcGISRestDataStore.STATISTIC_MIN;
+    }
+    if (visitor instanceof MaxVisitor) {
+      return ArcGISRestDataStore.STATISTIC_MAX;
+    }
+    if (visitor instanceof SumVisitor) {
+      return ArcGISRestDataStore.STATISTIC_SUM;
+    }
+    if (visitor instanceof AverageVisitor) {
+      return ArcGISRestDataStore.STATISTIC_AVG;
+    }
+    if (visitor instanceof CountVisitor) {
+      return ArcGISRestDataStore.STATISTIC_COUNT;
+    }
+    return null;
+  }
+
+  /**
+   * Helper method to return the attribute an aggregate visitor is computed
+   * on
+   * 
+   * @param visitor
+   *          the visitor
+   * @return the attribute, null if the visitor is not on a single
+   *         (non-geometry) attribute
+   */
+  protected AttributeDescriptor composeStatisticField(FeatureVisitor visitor) {
+    if (!(visitor instanceof FeatureAttributeVisitor)) {
+      return null;
+    }
+    List<Expression> exprs = ((FeatureAttributeVisitor) visitor)
+        .getExpressions();
+    return (exprs != null && exprs.size() == 1)
+        ? this.composeStatisticField(exprs.get(0)) : null;
+  }
+
+  /**
+   * Helper method to return the attribute an expression refers to
+   * 
+   * @param expr
+   *          the expression
+   * @return the attribute, null if the expression is not a (non-geometry)
+   *         attribute
+   */
+  protected AttributeDescriptor composeStatisticField(Expression expr) {
+    if (!(expr instanceof PropertyName)) {
+      return null;
+    }
+    AttributeDescriptor attr = this.schema
+        .getDescriptor(((PropertyName) expr).getPropertyName());
+    return (attr == null || attr instanceof GeometryDescriptor) ? null : attr;
+  }
+
+  /**
+   * Helper method to convert a statistic returned by the server
+   * 
+   * @param value
+   *          the JSON value
+   * @param type
+   *          the statistic type
+   * @param binding
+   *          the binding of the attribute the statistic is computed on
+   * @return the converted value
+   */
+  protected Object convertStatistic(JsonElement value, String type,
+      Class<?> binding) {
+
+    if (value == null || value.isJsonNull()) {
+      return null;
+    }
+    if (ArcGISRestDataStore.STATISTIC_COUNT.equals(type)) {
+      return value.getAsInt();
+    }
+    if (ArcGISRestDataStore.STATISTIC_AVG.equals(type)) {
+      return value.getAsDouble();
+    }
+    if (ArcGISRestDataStore.STATISTIC_SUM.equals(type)) {
+      return (Double.class.equals(binding) || Float.class.equals(binding))
+          ? (Object) value.getAsDouble() : (Object) value.getAsLong();
+    }
+
+    return this.convertValue(value, binding);
+  }
+
+  /**
+   * Helper method to convert an attribute value returned by the server to
+   * the binding of the attribute (dates are returned as epoch milliseconds)
+   * 
+   * @param value
+   *          the JSON value
+   * @param binding
+   *          the binding of the attribute
+   * @return the converted value
+   */
+  protected Object convertValue(JsonElement value, Class<?> binding) {
+
+    if (value == null || value.isJsonNull()) {
+      return null;
+    }
+    if (value.isJsonPrimitive() == false) {
+      return value.toString();
+    }
+
+    JsonPrimitive prim = value.getAsJsonPrimitive();
+    if (Date.class.isAssignableFrom(binding) && prim.isNumber()) {
+      return new Date(prim.getAsLong());
+    }
+    Object raw = prim.isNumber() ? prim.getAsNumber()
+        : (prim.isBoolean() ? (Object) prim.getAsBoolean()
+            : prim.getAsString());
+    Object converted = Converters.convert(raw, binding);
+
+    return converted != null ? converted : raw;
+  }
+
+  /**
+   * Returns the number of features matching a query of the instance's dataset
+   * 
+   * @param params
+   *          Request parameters of the query
+   * @return number of features, -1 if unknown
+   * @throws IOException
+   */
+  protected int retrieveCount(Map<String, Object> params) throws IOException {
+
+    Map<String, Object> countParams = new HashMap<String, Object>(params);
+    countParams.put(ArcGISRestDataStore.COUNT_PARAM, true);
+    countParams.put(ArcGISRestDataStore.FORMAT_PARAM,
+        ArcGISRestDataStore.FORMAT_JSON);
+    countParams.remove(ArcGISRestDataStore.ATTRIBUTES_PARAM);
+    countParams.remove(ArcGISRestDataStore.ORDERBY_PARAM);
+
+    Count cnt = ArcGISRestDataStore
+        .readJSON(this.retrieveFeatures(countParams), Count.class);
+
+    return (cnt == null || cnt.getCount() == null) ? -1 : cnt.getCount();
+  }
+
+  @Override
+  protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(
+      Query query) throws IOException {
+
+    // Mirrored layers are queried in memory
+    ArcGISRestLayerMirror mirror = this.getMirror();
+    if (mirror != null) {
+      return this.composeMirrorReader(mirror, query);
+    }
+
+    Map<String, Object> params = this.composeQueryParams(query);
+    Filter residual = this.splitFilter(query.getFilter())[1];
+    CoordinateReferenceSystem outputCRS = params
+        .get(ArcGISRestDataStore.OUTSR_PARAM) != null
+            ? query.getCoordinateSystemReproject() : null;
+    SimpleFeatureType returnType = this.composeReadType(query, Filter.INCLUDE,
+        outputCRS);
+    int start = this.composeStartIndex(query);
+    int max = this.composeMaxFeatures(query);
+
+    if (max == 0) {
+      return this.composeReprojection(query, params,
+          new EmptyFeatureReader<SimpleFeatureType, SimpleFeature>(
+              returnType));
+    }
+
+    // Sort orders the server cannot take are applied here, to all the
+    // features matching the query, and so are offset and limit
+    if (this.canSort() && this.sortsLocally(query)) {
+      return this.composeReprojection(query, params,
+          this.composeSortedReader(query, params, residual, returnType,
+              this.composeReadType(query, residual, outputCRS)));
+    }
+
+    // Bounding box queries are read tile by tile when tiles are cached
+    if (residual == Filter.INCLUDE
+        && this.usesTileCache(query, params, returnType)) {
+      return this.composeReprojection(query, params,
+          this.composeTiledReader(query, params, returnType, start, max));
+    }
+
+    // Offset and limit are sent only when the whole filter is sent too
+    if (residual == Filter.INCLUDE) {
+      return this.composeReprojection(query, params,
+          this.composeReader(returnType, params, start, max));
+    }
+
+    // The part of the filter that cannot be sent is evaluated here, and so
+    // are offset and limit, before leaving out the attributes that were
+    // needed by the filter only
+    SimpleFeatureType featureType = this.composeReadType(query, residual,
+        outputCRS);
+    FeatureReader<SimpleFeatureType, SimpleFeature> reader = new FilteringFeatureReader<SimpleFeatureType, SimpleFeature>(
+        this.composeReader(featureType, params, 0, Integer.MAX_VALUE),
+        residual);
+    for (int i = 0; i < start && reader.hasNext(); i++) {
+      reader.next();
+    }
+    if (max < Integer.MAX_VALUE) {
+      reader = new MaxFeatureReader<SimpleFeatureType, SimpleFeature>(reader,
+          max);
+    }
+    if (featureType.equals(returnType) == false) {
+      reader = new ReTypingFeatureReader(reader, returnType);
+    }
+
+    return this.composeReprojection(query, params, reader);
+  }
+
+  /**
+   * Helper method to return a reader of the features of a query sorted
+   * locally: all the features matching the filter are read (in object ID
+   * order), sorted, and then offset and limit are applied
+   * 
+   * @param query
+   *          Query to read the features of
+   * @param params
+   *          Request parameters of the query (with no sort order)
+   * @param residual
+   *          Part of the filter evaluated on the returned features
+   * @param returnType
+   *          Type of the features returned
+   * @param featureType
+   *          Type of the features read (with the attributes to sort by)
+   * @return the feature reader
+   * @throws IOException
+   */
+  protected FeatureReader<SimpleFeatureType, SimpleFeature> composeSortedReader(
+      Query query, Map<String, Object> params, Filter residual,
+      SimpleFeatureType returnType, SimpleFeatureType featureType)
+      throws IOException {
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> reader = new FilteringFeatureReader<SimpleFeatureType, SimpleFeature>(
+        this.composeReader(featureType, params, 0, Integer.MAX_VALUE),
+        residual)) {
+      while (reader.hasNext()) {
+        features.add(reader.next());
+      }
+    }
+    features.sort(this.composeComparator(features, query.getSortBy()));
+
+    int start = Math.min(this.composeStartIndex(query), features.size());
+    int end = (int) Math.min((long) start + this.composeMaxFeatures(query),
+        features.size());
+
+    FeatureReader<SimpleFeatureType, SimpleFeature> reader = new CollectionFeatureReader(
+        features.subList(start, end), featureType);
+    if (featureType.equals(returnType) == false) {
+      reader = new ReTypingFeatureReader(reader, returnType);
+    }
+
+    return reader;
+  }
+
+  /**
+   * Returns the in-memory replica of the layer, if the layer is mirrored,
+   * downloading the layer the first time it is needed (layers that are not
+   * listed are mirrored only if they are small enough)
+   * 
+   * @return the mirror (null if the layer is read from the server)
+   * @throws IOException
+   */
+  protected ArcGISRestLayerMirror getMirror() throws IOException {
+
+    this.getSchema();
+    ArcGISRestLayerMirror mirror = this.dataStore
+        .getLayerMirror(this.entry.getName());
+    if (mirror == null || mirror.isRejected()) {
+      return null;
+    }
+    if (mirror.isLoaded()) {
+      return mirror;
+    }
+
+    synchronized (mirror) {
+      if (mirror.isLoaded() == false && mirror.isRejected() == false) {
+        if (this.dataStore.getMirrorLayers()
+            .contains(this.entry.getName().getLocalPart()) == false) {
+          int count = this.retrieveCount(
+              this.composeQueryParams(new Query(this.schema.getTypeName())));
+          if (count < 0 || count > this.dataStore.getMirrorMaxFeatures()) {
+            mirror.reject();
+            return null;
+          }
+        }
+
+        this.refreshMirror(mirror, this.webservice);
+        this.dataStore.scheduleMirrorRefresh(mirror, () -> {
+          try {
+            this.checkMirror(mirror);
+          } catch (IOException | RuntimeException e) {
+            this.dataStore.getLogger().log(Level.WARNING,
+                "Error during refresh of layer " + this.entry.getName() + " "
+                    + e.getMessage(),
+                e);
+          }
+        });
+      }
+    }
+
+    return mirror.isLoaded() ? mirror : null;
+  }
+
+  /**
+   * Helper method to download the layer again, if its last edit date changed
+   * since it was mirrored (or if the layer does not report it)
+   * 
+   * @param mirror
+   *          the mirror of the layer
+   * @throws IOException
+   */
+  protected void checkMirror(ArcGISRestLayerMirror mirror)
+      throws IOException {
+
+    // The metadata are downloaded, rather than taken from the metadata cache
+    Webservice ws = ArcGISRestDataStore.readJSON(
+        this.dataStore.retrieveJSON("GET",
+            new URL(this.schema.getUserData().get("serviceUrl").toString()),
+            ArcGISRestDataStore.DEFAULT_PARAMS),
+        Webservice.class);
+
+    Object version = this.composeMirrorVersion(ws);
+    if (version != null && version.equals(mirror.getVersion())) {
+      return;
+    }
+
+    this.refreshMirror(mirror, ws);
+  }
+
+  /**
+   * Helper method to download all the features of the layer into its mirror
+   * (with all the attributes, and their geometry as stored)
+   * 
+   * @param mirror
+   *          the mirror of the layer
+   * @param ws
+   *          the metadata of the layer
+   * @throws IOException
+   */
+  protected void refreshMirror(ArcGISRestLayerMirror mirror, Webservice ws)
+      throws IOException {
+
+    Map<String, Object> params = this
+        .composeQueryParams(new Query(this.schema.getTypeName()));
+    params.remove(ArcGISRestDataStore.QUANTIZATION_PARAM);
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> reader = this
+        .composeReader(this.schema, params, 0, Integer.MAX_VALUE)) {
+      while (reader.hasNext()) {
+        features.add(reader.next());
+      }
+    }
+
+    mirror.refresh(this.schema, features, this.composeMirrorVersion(ws));
+  }
+
+  /**
+   * Helper method to return the version of the layer a mirror is checked
+   * against
+   * 
+   * @param ws
+   *          the metadata of the layer
+   * @return the date of the last edit (null if the layer does not report it)
+   */
+  protected Object composeMirrorVersion(Webservice ws) {
+    return ws.getEditingInfo() != null ? ws.getEditingInfo().getLastEditDate()
+        : null;
+  }
+
+  /**
+   * Helper method to read the features of a query from the mirror of the
+   * layer, sorting them, and applying offset and limit, when the feature
+   * source is expected to
+   * 
+   * @param mirror
+   *          the mirror of the layer
+   * @param query
+   *          Query to read the features of
+   * @return the feature reader
+   * @throws IOException
+   */
+  protected FeatureReader<SimpleFeatureType, SimpleFeature> composeMirrorReader(
+      ArcGISRestLayerMirror mirror, Query query) throws IOException {
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>(
+        mirror.query(query.getFilter()));
+    if (this.canSort() && query.getSortBy() != null
+        && query.getSortBy().length > 0) {
+      features.sort(this.composeComparator(features, query.getSortBy()));
+    }
+
+    int start = Math.min(this.composeStartIndex(query), features.size());
+    int end = (int) Math.min((long) start + this.composeMaxFeatures(query),
+        features.size());
+    features = features.subList(start, end);
+
+    // Mirrored features are shared, hence copies are returned (retyping
+    // builds new features already)
+    SimpleFeatureType returnType = this.composeReadType(query, Filter.INCLUDE,
+        null);
+    boolean retype = returnType.equals(mirror.getFeatureType()) == false;
+    List<SimpleFeature> result = new ArrayList<SimpleFeature>(
+        features.size());
+    for (SimpleFeature feature : features) {
+      result.add(retype ? feature : SimpleFeatureBuilder.copy(feature));
+    }
+
+    FeatureReader<SimpleFeatureType, SimpleFeature> reader = new CollectionFeatureReader(
+        result, mirror.getFeatureType());
+    if (retype) {
+      reader = new ReTypingFeatureReader(reader, returnType);
+    }
+
+    return this.composeReprojection(query, new HashMap<String, Object>(),
+        reader);
+  }
+
+  /**
+   * Helper method to return the comparator of a sort order, the natural order
+   * being the order features were downloaded in (that is, by object ID)
+   * 
+   * @param features
+   *          the features to sort, in natural order
+   * @param sortBy
+   *          the sort order
+   * @return the comparator
+   */
+  protected Comparator<SimpleFeature> composeComparator(
+      List<SimpleFeature> features, SortBy[] sortBy) {
+
+    Map<String, Integer> positions = new HashMap<String, Integer>();
+    for (int i = 0; i < features.size(); i++) {
+      positions.put(features.get(i).getID(), i);
+    }
+
+    Comparator<SimpleFeature> comparator = null;
+    for (SortBy sort : sortBy) {
+      PropertyName prop = sort.getPropertyName();
+      Comparator<SimpleFeature> next = prop == null
+          ? Comparator
+              .comparing((SimpleFeature f) -> positions.get(f.getID()))
+          : (f1, f2) -> compareValues(prop.evaluate(f1), prop.evaluate(f2));
+      if (sort.getSortOrder() == SortOrder.DESCENDING) {
+        next = next.reversed();
+      }
+      comparator = comparator == null ? next : comparator.thenComparing(next);
+    }
+
+    return comparator;
+  }
+
+  /**
+   * Helper method to compare attribute values, nulls first
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  protected static int compareValues(Object value1, Object value2) {
+    if (value1 == null || value2 == null) {
+      return value1 == null ? (value2 == null ? 0 : -1) : 1;
+    }
+    if (value1 instanceof Number && value2 instanceof Number) {
+      return Double.compare(((Number) value1).doubleValue(),
+          ((Number) value2).doubleValue());
+    }
+    if (value1 instanceof Comparable
+        && value1.getClass().isInstance(value2)) {
+      return ((Comparable) value1).compareTo(value2);
+    }
+    return value1.toString().compareTo(value2.toString());
+  }
+
+  /**
+   * Returns whether the features of a query can be read from the tile cache:
+   * that is, when the tile cache is enabled and the query has only a bounding
+   * box filter, is not sorted, and its features keep their geometry as
+   * stored (no generalization, nor reprojection by the server)
+   * 
+   * @param query
+   *          Query to read the features of
+   * @param params
+   *          Request parameters of the query
+   * @param featureType
+   *          Type of the features read
+   * @return true if the features are read tile by tile
+   */
+  protected boolean usesTileCache(Query query, Map<String, Object> params,
+      SimpleFeatureType featureType) {
+
+    if (this.dataStore.getTileCache() == null
+        || this.objectIdField == null || this.objectIdField.isEmpty()
+        || featureType.getGeometryDescriptor() == null
+        || (query.getSortBy() != null && query.getSortBy().length > 0)) {
+      return false;
+    }
+
+    if (params.get(ArcGISRestDataStore.WHERE_PARAM) != null
+        || params.get(ArcGISRestDataStore.ORDERBY_PARAM) != null
+        || params.get(ArcGISRestDataStore.OUTSR_PARAM) != null
+        || params.get(ArcGISRestDataStore.MAXALLOWABLEOFFSET_PARAM) != null) {
+      return false;
+    }
+
+    return this.splitFilter(query.getFilter())[2] instanceof BBOX;
+  }
+
+  /**
+   * Helper method to read the features of a bounding box query from the tile
+   * cache: the bounding box is snapped to a grid laid over the layer extent,
+   * the tiles that are not cached are downloaded (and cached), and features
+   * straddling tiles are returned once
+   * 
+   * @param query
+   *          Query to read the features of
+   * @param params
+   *          Request parameters of the query
+   * @param featureType
+   *          Type of the features read
+   * @param start
+   *          Index of the first feature to return
+   * @param max
+   *          Maximum number of features to return
+   * @return the feature reader
+   * @throws IOException
+   */
+  protected FeatureReader<SimpleFeatureType, SimpleFeature> composeTiledReader(
+      Query query, Map<String, Object> params, SimpleFeatureType featureType,
+      int start, int max) throws IOException {
+
+    ArcGISRestTileCache cache = this.dataStore.getTileCache();
+    Geometry bboxGeom = this.filterToSQL
+        .getSpatialGeometry(this.splitFilter(query.getFilter())[2]);
+    Envelope bbox = bboxGeom.getEnvelopeInternal();
+    ReferencedEnvelope extent = this.getInfo().getBounds();
+    double tileSize = Math.max(extent.getWidth(), extent.getHeight())
+        / ArcGISRestDataStore.TILE_GRID_SIZE;
+
+    // Bounding boxes outside the layer extent (or layers with an empty
+    // extent) are not tiled
+    Envelope clipped = bbox.intersection(extent);
+    if (tileSize <= 0 || clipped.isNull()) {
+      return this.composeReader(featureType, params, start, max);
+    }
+
+    // Tiles are cached per combination of the other request parameters
+    Map<String, Object> variant = new TreeMap<String, Object>(params);
+    for (String param : TILE_SPATIAL_PARAMS) {
+      variant.remove(param);
+    }
+    String prefix = this.entry.getName() + variant.toString();
+
+    long ttl = this.composeCacheTTL();
+    int minCol = (int) Math
+        .floor((clipped.getMinX() - extent.getMinX()) / tileSize);
+    int maxCol = (int) Math
+        .floor((clipped.getMaxX() - extent.getMinX()) / tileSize);
+    int minRow = (int) Math
+        .floor((clipped.getMinY() - extent.getMinY()) / tileSize);
+    int maxRow = (int) Math
+        .floor((clipped.getMaxY() - extent.getMinY()) / tileSize);
+
+    // Bounding boxes spanning too many tiles are queried directly, rather
+    // than with as many sequential requests
+    if ((long) (maxCol - minCol + 1)
+        * (maxRow - minRow + 1) > ArcGISRestDataStore.TILE_MAX_PER_QUERY) {
+      return this.composeReader(featureType, params, start, max);
+    }
+
+    // Cached features are decoded anew for each query, hence can be returned
+    // as they are
+    ArcGISRestFeatureCodec codec = new ArcGISRestFeatureCodec(featureType);
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    Set<String> seen = new HashSet<String>();
+    for (int col = minCol; col <= maxCol; col++) {
+      for (int row = minRow; row <= maxRow; row++) {
+        String key = prefix + "/" + col + "," + row;
+        List<SimpleFeature> tile = cache.get(key);
+        if (tile == null) {
+          tile = this.retrieveTile(featureType, params,
+              new Envelope(extent.getMinX() + col * tileSize,
+                  extent.getMinX() + (col + 1) * tileSize,
+                  extent.getMinY() + row * tileSize,
+                  extent.getMinY() + (row + 1) * tileSize));
+          cache.put(key, codec, tile, ttl);
+        }
+
+        // The server returns the features whose geometry intersects the
+        // bounding box, hence so does the tile cache
+        for (SimpleFeature feature : tile) {
+          Geometry geom = (Geometry) feature.getDefaultGeometry();
+          if (geom != null && geom.getEnvelopeInternal().intersects(bbox)
+              && geom.intersects(bboxGeom) && seen.add(feature.getID())) {
+            features.add(feature);
+          }
+        }
+      }
+    }
+
+    FeatureReader<SimpleFeatureType, SimpleFeature> reader = new CollectionFeatureReader(
+        features, featureType);
+    for (int i = 0; i < start && reader.hasNext(); i++) {
+      reader.next();
+    }
+    if (max < Integer.MAX_VALUE) {
+      reader = new MaxFeatureReader<SimpleFeatureType, SimpleFeature>(reader,
+          max);
+    }
+
+    return reader;
+  }
+
+  /**
+   * Helper method to download the features of a tile
+   * 
+   * @param featureType
+   *          Type of the features read
+   * @param params
+   *          Request parameters of the query
+   * @param tile
+   *          Envelope of the tile
+   * @return the features whose envelope intersects the tile
+   * @throws IOException
+   */
+  protected List<SimpleFeature> retrieveTile(SimpleFeatureType featureType,
+      Map<String, Object> params, Envelope tile) throws IOException {
+
+    Map<String, Object> tileParams = new HashMap<String, Object>(params);
+    tileParams.put(ArcGISRestDataStore.GEOMETRY_PARAM,
+        ArcGISRestGeometryEncoder.encode(tile));
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    try (FeatureReader<SimpleFeatureType, SimpleFeature> reader = this
+        .composeReader(featureType, tileParams, 0, Integer.MAX_VALUE)) {
+      while (reader.hasNext()) {
+        features.add(reader.next());
+      }
+    }
+
+    return features;
+  }
+
+  /**
+   * Helper method to reproject the features of a query that have not been
+   * reprojected by the server, forcing their native CRS first if the query
+   * asks for it
+   * 
+   * @param query
+   *          Query to read the features of
+   * @param params
+   *          Request parameters of the query
+   * @param reader
+   *          Reader of the features as returned by the server
+   * @return the (reprojecting) feature reader
+   * @throws IOException
+   */
+  protected FeatureReader<SimpleFeatureType, SimpleFeature> composeReprojection(
+      Query query, Map<String, Object> params,
+      FeatureReader<SimpleFeatureType, SimpleFeature> reader)
+      throws IOException {
+
+    if (params.get(ArcGISRestDataStore.OUTSR_PARAM) != null
+        || reader.getFeatureType().getGeometryDescriptor() == null) {
+      return reader;
+    }
+
+    CoordinateReferenceSystem nativeCRS = this.schema
+        .getCoordinateReferenceSystem();
+    CoordinateReferenceSystem sourceCRS = query.getCoordinateSystem();
+    CoordinateReferenceSystem targetCRS = query
+        .getCoordinateSystemReproject();
+
+    try {
+      if (sourceCRS != null
+          && CRS.equalsIgnoreMetadata(sourceCRS, nativeCRS) == false) {
+        reader = new ForceCoordinateSystemFeatureReader(reader, sourceCRS);
+      } else {
+        sourceCRS = nativeCRS;
+      }
+      if (targetCRS != null && sourceCRS != null
+          && CRS.equalsIgnoreMetadata(targetCRS, sourceCRS) == false) {
+        reader = new ReprojectFeatureReader(reader, targetCRS);
+      }
+    } catch (SchemaException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+
+    return reader;
+  }
+
+  /**
+   * Returns whether the features of a query need their geometry: that is,
+   * when the geometry is requested, or when it may be needed to evaluate the
+   * filter locally
+   * 
+   * @param query
+   *          Query to read the features of
+   * @param residual
+   *          Part of the filter evaluated on the returned features
+   * @return true if the geometry has to be returned
+   */
+  protected boolean requiresGeometry(Query query, Filter residual) {
+
+    GeometryDescriptor geomDesc = this.schema.getGeometryDescriptor();
+    if (geomDesc == null || query.retrieveAllProperties()
+        || residual != Filter.INCLUDE) {
+      return true;
+    }
+
+    for (String name : query.getPropertyNames()) {
+      if (name.equals(geomDesc.getLocalName())) {
+        return true;
+      }
+    }
+
+    if (this.sortsLocally(query)) {
+      for (SortBy sort : query.getSortBy()) {
+        if (sort.getPropertyName() != null && sort.getPropertyName()
+            .getPropertyName().equals(geomDesc.getLocalName())) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the type of the features read for a query: it has the requested
+   * attributes only, unless the features are filtered or sorted locally (in
+   * which case the geometry is left out only when it is not required, so that
+   * parsers skip its coordinates), and the CRS features are reprojected to by
+   * the server
+   * 
+   * @param query
+   *          Query to read the features of
+   * @param residual
+   *          Part of the filter evaluated on the returned features
+   * @param outputCRS
+   *          CRS features are reprojected to by the server (null if none)
+   * @return the schema, or part of it
+   */
+  protected SimpleFeatureType composeReadType(Query query, Filter residual,
+      CoordinateReferenceSystem outputCRS) {
+
+    boolean localSort = this.sortsLocally(query);
+    SimpleFeatureType featureType = this.schema;
+
+    if (query.retrieveAllProperties() == false && residual == Filter.INCLUDE
+        && localSort == false) {
+      featureType = SimpleFeatureTypeBuilder.retype(this.schema,
+          query.getPropertyNames());
+    } else if (this.requiresGeometry(query, residual) == false) {
+      String geomName = this.schema.getGeometryDescriptor().getLocalName();
+      List<String> names = new ArrayList<String>();
+      for (AttributeDescriptor attr : this.schema.getAttributeDescriptors()) {
+        if (!attr.getLocalName().equals(geomName)) {
+          names.add(attr.getLocalName());
+        }
+      }
+      featureType = SimpleFeatureTypeBuilder.retype(this.schema,
+          names.toArray(new String[names.size()]));
+    }
+
+    if (outputCRS != null && featureType.getGeometryDescriptor() != null) {
+      featureType = SimpleFeatureTypeBuilder.retype(featureType, outputCRS);
+    }
+
+    return featureType;
+  }
+
+  /**
+   * Returns a reader of the features matching a query, choosing how to
+   * partition the requests according to the layer capabilities
+   * 
+   * @param featureType
+   *          Type of the features to read (the schema, or part of it)
+   * @param params
+   *          Request parameters of the query
+   * @param start
+   *          Offset of the first feature to return
+   * @param max
+   *          Maximum number of features to return
+   * @return the feature reader
+   * @throws IOException
+   */
+  protected FeatureReader<SimpleFeatureType, SimpleFeature> composeReader(
+      SimpleFeatureType featureType, Map<String, Object> params, int start,
+      int max) throws IOException {
+
+    // Layers that cannot be paged (or whose paging is slow) are read in
+    // batches of object IDs, unless features have to be sorted otherwise
+    Object orderBy = params.get(ArcGISRestDataStore.ORDERBY_PARAM);
+    if (this.usesObjectIdPartitioning() && (orderBy == null
+        || orderBy.equals(this.objectIdField + " ASC"))) {
+      return new ArcGISRestFeatureReader(featureType,
+          new ArcGISRestParallelFeatureIterator(this, featureType,
+              this.composeObjectIdBatches(params, start, max),
+              this.dataStore.getPageFetchThreads(),
+              ArcGISRestDataStore.PAGE_BUFFER_SIZE,
+              this.dataStore.getLogger()),
+          this.dataStore.getLogger());
+    }
+
+    // If the layer supports pagination, the whole result set is walked
+    // page by page, ordered by object ID (at least) to keep pages consistent
+    if (this.supportsPagination()) {
+      if (this.supportsOrderBy() && this.objectIdField != null
+          && this.objectIdField.isEmpty() == false) {
+        if (orderBy == null) {
+          params.put(ArcGISRestDataStore.ORDERBY_PARAM, this.objectIdField);
+        } else if (!orderBy.toString().startsWith(this.objectIdField + " ")) {
+          params.put(ArcGISRestDataStore.ORDERBY_PARAM,
+              orderBy + "," + this.objectIdField);
+        }
+      }
+
+      // With more than one fetch thread, the number of pages is computed
+      // upfront so that they can be requested concurrently
+      int pageSize = this.webservice.getMaxRecordCount();
+      if (this.dataStore.getPageFetchThreads() > 1) {
+        long end = Math.min((long) this.retrieveCount(params),
+            (long) start + max);
+        if (end - start > pageSize) {
+          List<Map<String, Object>> pages = new ArrayList<Map<String, Object>>();
+          for (long offset = start; offset < end; offset += pageSize) {
+            Map<String, Object> pageParams = new HashMap<String, Object>(
+                params);
+            pageParams.put(ArcGISRestDataStore.RESULTOFFSET_PARAM,
+                (int) offset);
+            pageParams.put(ArcGISRestDataStore.RESULTRECORDCOUNT_PARAM,
+                (int) Math.min(pageSize, end - offset));
+            pages.add(pageParams);
+          }
+          return new ArcGISRestFeatureReader(featureType,
+              new ArcGISRestParallelFeatureIterator(this, featureType, pages,
+                  this.dataStore.getPageFetchThreads(),
+                  ArcGISRestDataStore.PAGE_BUFFER_SIZE,
+                  this.dataStore.getLogger()),
+              this.dataStore.getLogger());
+        }
+      }
+
+      return new ArcGISRestFeatureReader(featureType,
+          new ArcGISRestPagingFeatureIterator(this, featureType, params,
+              pageSize, start, max, this.dataStore.getLogger()),
+          this.dataStore.getLogger());
+    }
+
+    // Returns a reader for the result
+    return new ArcGISRestFeatureReader(featureType,
+        this.retrieveFeatures(params),
+        params.get(ArcGISRestDataStore.FORMAT_PARAM),
+        this.dataStore.getLogger());
+  }
+
+  /**
+   * Returns a splittable source of the features matching a query, partitioned
+   * in batches of object IDs, which can feed parallel consumers (such as a
+   * parallel Stream). The spliterator has to be closed, to release the
+   * responses of the batches being read. Offset and maximum number of
+   * features are applied to the object IDs, hence they cannot be honoured
+   * when part of the filter is evaluated on the returned features (see
+   * getObjectIdStream).
+   * 
+   * @param query
+   *          Query to return the features of
+   * @return the spliterator
+   * @throws IOException
+   */
+  public ArcGISRestObjectIdSpliterator getObjectIdSpliterator(Query query)
+      throws IOException {
+
+    this.getSchema();
+    if (this.objectIdField == null || this.objectIdField.isEmpty()) {
+      throw new IOException(
+          "Type name " + entry.getName() + " has no object ID field");
+    }
+
+    Filter residual = this.splitFilter(query.getFilter())[1];
+    int start = query.getStartIndex() != null
+        ? Math.max(0, query.getStartIndex()) : 0;
+    int max = query.isMaxFeaturesUnlimited() ? Integer.MAX_VALUE
+        : Math.max(0, query.getMaxFeatures());
+    if (residual != Filter.INCLUDE && (start > 0 || max < Integer.MAX_VALUE)) {
+      throw new IOException("Offset and maximum number of features of type "
+          + entry.getName() + " cannot be applied to object ID batches, since "
+          + "part of the filter is evaluated locally");
+    }
+
+    // The features conform to what the server is asked to return
+    Map<String, Object> params = this.composeQueryParams(query);
+    CoordinateReferenceSystem outputCRS = params
+        .get(ArcGISRestDataStore.OUTSR_PARAM) != null
+            ? query.getCoordinateSystemReproject() : null;
+    SimpleFeatureType featureType = this.composeReadType(query, residual,
+        outputCRS);
+
+    ArcGISRestObjectIdSpliterator spliterator = new ArcGISRestObjectIdSpliterator(
+        this, featureType, this.composeObjectIdBatches(params, start, max),
+        this.composeObjectIdBatchSize(), this.dataStore.getLogger());
+    spliterator.setFilter(residual);
+
+    return spliterator;
+  }
+
+  /**
+   * Returns a stream of the features matching a query, read in batches of
+   * object IDs (in parallel, if requested). Closing the stream releases the
+   * responses of the batches being read, hence it should be closed (as in a
+   * try-with-resources statement) when it is not consumed to the end.
+   * 
+   * @param query
+   *          Query to return the features of
+   * @param parallel
+   *          whether the stream is parallel
+   * @return the stream
+   * @throws IOException
+   */
+  public Stream<SimpleFeature> getObjectIdStream(Query query,
+      boolean parallel) throws IOException {
+
+    // Offset and maximum number of features are applied to the stream when
+    // part of the filter is evaluated locally
+    Query batchQuery = query;
+    boolean residual = this.splitFilter(query.getFilter())[1] != Filter.INCLUDE;
+    if (residual) {
+      batchQuery = new Query(query);
+      batchQuery.setStartIndex(null);
+      batchQuery.setMaxFeatures(Query.DEFAULT_MAX);
+    }
+
+    ArcGISRestObjectIdSpliterator spliterator = this
+        .getObjectIdSpliterator(batchQuery);
+    Stream<SimpleFeature> stream = StreamSupport
+        .stream(spliterator, parallel).onClose(spliterator::close);
+    if (residual && query.getStartIndex() != null) {
+      stream = stream.skip(Math.max(0, query.getStartIndex()));
+    }
+    if (residual && query.isMaxFeaturesUnlimited() == false) {
+      stream = stream.limit(Math.max(0, query.getMaxFeatures()));
+    }
+
+    return stream;
+  }
+
+  /**
+   * Splits a filter in the part that can be sent as a where clause, the part
+   * that has to be evaluated on the returned features, and the spatial filter
+   * that can be sent as the query geometry
+   * 
+   * @param filter
+   *          the filter to split
+   * @return an array with the filter to send, the residual filter and the
+   *         spatial filter (null if none)
+   */
+  protected Filter[] splitFilter(Filter filter) {
+    Filter[] split = this.filterToSQL.splitFilter(filter);
+    Filter[] spatial = this.filterToSQL.splitSpatialFilter(split[1]);
+    return new Filter[] { split[0], spatial[1], spatial[0] };
+  }
+
+  /**
+   * Compose the request parameters of a query of the instance's dataset
+   * 
+   * @param query
+   *          Query to compose the parameters of
+   * @return request parameters
+   */
+  protected Map<String, Object> composeQueryParams(Query query)
+      throws IOException {
+
+    Map<String, Object> params = new HashMap<String, Object>(
+        ArcGISRestDataStore.DEFAULT_PARAMS);
+
+    // Sets the where clause of the part of the filter that can be sent
+    Filter[] split = this.splitFilter(query.getFilter());
+    if (split[0] != Filter.INCLUDE) {
+      params.put(ArcGISRestDataStore.WHERE_PARAM,
+          this.filterToSQL.encode(split[0]));
+    }
+
+    // Sets the query geometry, either from the spatial filter or the layer
+    // extent
+    if (split[2] != null) {
+      params.putAll(this.filterToSQL.encodeSpatialFilter(split[2]));
+      params.put(ArcGISRestDataStore.INSR_PARAM, this.webservice.getExtent()
+          .getSpatialReference().getLatestWkid());
+    } else {
+      params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
+          this.composeExtent(this.getInfo().getBounds()));
+    }
+
+    // Sets the sort order
+    String orderBy = this.canSort() ? this.composeOrderBy(query) : null;
+    if (orderBy != null) {
+      params.put(ArcGISRestDataStore.ORDERBY_PARAM, orderBy);
+    }
+
+    // Sets the atttributes to return, leaving out the geometry (the bulk of
+    // most responses) when it is not needed
+    params.put(ArcGISRestDataStore.ATTRIBUTES_PARAM,
+        this.composeAttributes(query, split[1]));
+    boolean withGeometry = this.requiresGeometry(query, split[1]);
+    if (withGeometry == false) {
+      params.put(ArcGISRestDataStore.WITHGEOMETRY_PARAM, "false");
+    }
+
+    // Sets the spatial reference geometries are reprojected to by the server,
+    // unless part of the filter is evaluated here (in the layer CRS), in which
+    // case features are reprojected after being filtered
+    Integer outputWkid = withGeometry && split[1] == Filter.INCLUDE
+        ? this.composeOutputWkid(query) : null;
+    if (outputWkid != null) {
+      params.put(ArcGISRestDataStore.OUTSR_PARAM, outputWkid);
+    }
+
+    // Sets the generalization of geometries asked for by the renderer (such
+    // as the size of a pixel), which is in the units of the layer CRS
+    Double distance = withGeometry && outputWkid == null
+        ? this.composeGeneralizationDistance(query) : null;
+    if (distance != null) {
+      params.put(ArcGISRestDataStore.MAXALLOWABLEOFFSET_PARAM, distance);
+      params.put(ArcGISRestDataStore.GEOMETRYPRECISION_PARAM,
+          this.composeGeometryPrecision(distance));
+    }
+
+    // Sets the output format, quantizing Esri JSON and PBF coordinates when
+    // possible (to the generalization distance, if any)
+    String format = this.composeFormat();
+    params.put(ArcGISRestDataStore.FORMAT_PARAM, format);
+    if (withGeometry && outputWkid == null
+        && ArcGISRestDataStore.FORMAT_GEOJSON.equals(format) == false
+        && this.supportsQuantization()) {
+      String quantization = distance != null
+          ? this.composeQuantizationParameters(
+              ArcGISRestDataStore.QUANTIZATION_MODE_VIEW,
+              this.composeMultiScaleTolerance(distance))
+          : this.composeQuantizationParameters();
+      if (quantization != null) {
+        params.put(ArcGISRestDataStore.QUANTIZATION_PARAM, quantization);
+      }
+    }
+
+    return params;
+  }
+
+  /**
+   * Helper method to return the WKID of the CRS a query reprojects features
+   * to, when the server can reproject them
+   * 
+   * @param query
+   *          Query to read the features of
+   * @return the EPSG code of the target CRS (null if features are not
+   *         reprojected, or are reprojected locally)
+   */
+  protected Integer composeOutputWkid(Query query) {
+
+    CoordinateReferenceSystem target = query.getCoordinateSystemReproject();
+    if (target == null || query.getCoordinateSystem() != null
+        || CRS.equalsIgnoreMetadata(target,
+            this.schema.getCoordinateReferenceSystem())) {
+      return null;
+    }
+
+    try {
+      Integer wkid = CRS.lookupEpsgCode(target, false);
+      return wkid != null ? wkid : CRS.lookupEpsgCode(target, true);
+    } catch (FactoryException e) {
+      this.dataStore.getLogger().log(Level.FINE, e.getMessage(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Geometries can be generalized by the server
+   */
+  @Override
+  protected void addHints(Set<Hints.Key> hints) {
+    hints.add(Hints.GEOMETRY_DISTANCE);
+    hints.add(Hints.GEOMETRY_GENERALIZATION);
+  }
+
+  /**
+   * Helper method to return the distance (in the units of the layer CRS)
+   * geometries of a query can be generalized by, as given by its hints
+   * 
+   * @param query
+   *          Query to read the features of
+   * @return the distance (null if geometries have to be returned as they
+   *         are)
+   */
+  protected Double composeGeneralizationDistance(Query query) {
+
+    Hints hints = query.getHints();
+    if (hints == null) {
+      return null;
+    }
+
+    Object distance = hints.get(Hints.GEOMETRY_DISTANCE);
+    if (distance == null) {
+      distance = hints.get(Hints.GEOMETRY_GENERALIZATION);
+    }
+
+    if (distance instanceof Number && ((Number) distance).doubleValue() > 0) {
+      return ((Number) distance).doubleValue();
+    }
+    return null;
+  }
+
+  /**
+   * Helper method to return the number of decimal places coordinates need
+   * to keep to be accurate to a distance
+   * 
+   * @param distance
+   *          the distance (in the units of the layer CRS)
+   * @return number of decimal places
+   */
+  protected int composeGeometryPrecision(double distance) {
+    return Math.max(0, (int) Math.ceil(-Math.log10(distance)));
+  }
+
+  /**
+   * Helper method to return the quantization tolerance of a generalization
+   * distance: when the layer keeps pre-generalized geometries for Web
+   * Mercator levels, the resolution of the coarsest level within the
+   * distance is used, so that the server can return them instead of
+   * generalizing geometries on the fly
+   * 
+   * @param distance
+   *          the distance (in the units of the layer CRS)
+   * @return the tolerance
+   */
+  protected double composeMultiScaleTolerance(double distance) {
+
+    if (this.supportsMultiScaleGeometry() == false) {
+      return distance;
+    }
+
+    double coarsest = 0;
+    for (Integer level : this.webservice.getMultiScaleGeometryInfo()
+        .getLevels()) {
+      if (level == null) {
+        continue;
+      }
+      double resolution = ArcGISRestDataStore.WEBMERCATOR_LEVEL0_RESOLUTION
+          / Math.pow(2, level);
+      if (resolution <= distance && resolution > coarsest) {
+        coarsest = resolution;
+      }
+    }
+
+    // Below the finest level geometries are generalized on the fly
+    return coarsest > 0 ? coarsest : distance;
+  }
+
+  /**
+   * Returns whether the layer keeps geometries generalized for the levels of
+   * the Web Mercator tiling scheme
+   * 
+   * @return true if multi-scale geometries are supported
+   */
+  protected boolean supportsMultiScaleGeometry() {
+
+    if (this.webservice == null
+        || Boolean.TRUE
+            .equals(this.webservice.getSupportsMultiScaleGeometry()) == false
+        || this.webservice.getMultiScaleGeometryInfo() == null
+        || this.webservice.getMultiScaleGeometryInfo().getLevels() == null
+        || this.webservice.getExtent() == null
+        || this.webservice.getExtent().getSpatialReference() == null) {
+      return false;
+    }
+
+    Integer wkid = this.webservice.getExtent().getSpatialReference()
+        .getLatestWkid();
+    if (wkid == null) {
+      wkid = this.webservice.getExtent().getSpatialReference().getWkid();
+    }
+    return wkid != null && (wkid == ArcGISRestDataStore.WKID_WEBMERCATOR
+        || wkid == ArcGISRestDataStore.WKID_WEBMERCATOR_ESRI);
+  }
+
+  /**
+   * Returns the IDs of the features matching a query of the instance's
+   * dataset, in ascending order
+   * 
+   * @param params
+   *          Request parameters of the query
+   * @return list of object IDs
+   * @throws IOException
+   */
+  protected List<Long> retrieveObjectIds(Map<String, Object> params)
+      throws IOException {
+
+    Map<String, Object> idsParams = new HashMap<String, Object>(params);
+    idsParams.put(ArcGISRestDataStore.IDSONLY_PARAM, true);
+    idsParams.put(ArcGISRestDataStore.FORMAT_PARAM,
+        ArcGISRestDataStore.FORMAT_JSON);
+    idsParams.remove(ArcGISRestDataStore.ATTRIBUTES_PARAM);
+    idsParams.remove(ArcGISRestDataStore.ORDERBY_PARAM);
+
+    ObjectIds ids = ArcGISRestDataStore
+        .readJSON(this.retrieveFeatures(idsParams), ObjectIds.class);
+    if (ids == null) {
+      throw new IOException("Object IDs of type name " + entry.getName()
+          + " could not be retrieved");
+    }
+
+    List<Long> oids = ids.getObjectIds() != null ? ids.getObjectIds()
+        : new ArrayList<Long>();
+    oids.sort(null);
+    return oids;
+  }
+
+  /**
+   * Splits a range of the features matching a query (in object ID order) in
+   * batches of object IDs, and returns the request parameters of each batch
+   * 
+   * @param params
+   *          Request parameters of the query
+   * @param start
+   *          Offset of the first feature of the range
+   * @param max
+   *          Maximum number of features in the range
+   * @return request parameters of the batches
+   * @throws IOException
+   */
+  protected List<Map<String, Object>> composeObjectIdBatches(
+      Map<String, Object> params, int start, int max) throws IOException {
+
+    List<Long> oids = this.retrieveObjectIds(params);
+    oids = oids.subList(Math.min(start, oids.size()),
+        (int) Math.min((long) start + max, oids.size()));
+    int batchSize = this.composeObjectIdBatchSize();
+    List<Map<String, Object>> batches = new ArrayList<Map<String, Object>>();
+
+    for (int i = 0; i < oids.size(); i += batchSize) {
+      StringJoiner joiner = new StringJoiner(",");
+      oids.subList(i, Math.min(i + batchSize, oids.size()))
+          .forEach((oid) -> joiner.add(oid.toString()));
+      Map<String, Object> batchParams = new HashMap<String, Object>(params);
+      batchParams.remove(ArcGISRestDataStore.ORDERBY_PARAM);
+      batchParams.put(ArcGISRestDataStore.OBJECTIDS_PARAM, joiner.toString());
+      batches.add(batchParams);
+    }
+
+    return batches;
+  }
+
+  /**
+   * Returns the number of object IDs requested in a batch
+   * 
+   * @return batch size
+   */
+  protected int composeObjectIdBatchSize() {
+    return (this.webservice != null
+        && this.webservice.getMaxRecordCount() != null
+        && this.webservice.getMaxRecordCount() > 0)
+            ? this.webservice.getMaxRecordCount()
+            : ArcGISRestDataStore.DEFAULT_OBJECTID_BATCH_SIZE;
+  }
+
+  /**
+   * Returns whether features are read in batches of object IDs, either
+   * because the layer cannot be paged or because the data store says so
+   * 
+   * @return true if object IDs partitioning is used
+   */
+  protected boolean usesObjectIdPartitioning() {
+    return this.objectIdField != null && this.objectIdField.isEmpty() == false
+        && (this.supportsPagination() == false
+            || this.dataStore.isObjectIdPartitioning());
+  }
+
+  /**
+   * Executes a query of the instance's dataset
+   * 
+   * @param params
+   *          Request parameters
+   * @return the response stream
+   * @throws IOException
+   */
+  protected InputStream retrieveFeatures(Map<String, Object> params)
+      throws IOException {
+    try {
+      return this.dataStore.pipeline(this.dataStore.retrieveJSON("POST",
+          (new URL(this.composeQueryURL())), params));
+    } catch (HTTPException e) {
+      throw new IOException(
+          "Error " + e.getStatusCode() + " " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns whether the dataset can be queried page by page
+   * 
+   * @return true if pagination is supported
+   */
+  protected boolean supportsPagination() {
+    return this.webservice != null
+        && this.webservice.getAdvancedQueryCapabilities() != null
+        && Boolean.TRUE.equals(this.webservice.getAdvancedQueryCapabilities()
+            .getSupportsPagination())
+        && this.webservice.getMaxRecordCount() != null
+        && this.webservice.getMaxRecordCount() > 0;
+  }
+
+  /**
+   * Returns whether the dataset can compute statistics
+   * 
+   * @return true if statistics are supported
+   */
+  protected boolean supportsStatistics() {
+    return this.webservice != null
+        && (Boolean.TRUE.equals(this.webservice.getSupportsStatistics())
+            || (this.webservice.getAdvancedQueryCapabilities() != null
+                && Boolean.TRUE.equals(this.webservice
+                    .getAdvancedQueryCapabilities().getSupportsStatistics())));
+  }
+
+  /**
+   * Returns whether the dataset can return distinct values
+   * 
+   * @return true if distinct values are supported
+   */
+  protected boolean supportsDistinct() {
+    return this.webservice != null
+        && this.webservice.getAdvancedQueryCapabilities() != null
+        && Boolean.TRUE.equals(this.webservice.getAdvancedQueryCapabilities()
+            .getSupportsDistinct());
+  }
+
+  /**
+   * Returns whether the dataset can return the extent of query results
+   * 
+   * @return true if query extents are supported
+   */
+  protected boolean supportsQueryExtent() {
+    return this.webservice != null
+        && this.webservice.getAdvancedQueryCapabilities() != null
+        && Boolean.TRUE.equals(this.webservice.getAdvancedQueryCapabilities()
+            .getSupportsReturningQueryExtent());
+  }
+
+  /**
+   * Returns whether the dataset can sort query results
+   * 
+   * @return true if ordering is supported
+   */
+  protected boolean supportsOrderBy() {
+    return this.webservice != null
+        && this.webservice.getAdvancedQueryCapabilities() != null
+        && Boolean.TRUE.equals(this.webservice.getAdvancedQueryCapabilities()
+            .getSupportsOrderBy());
+  }
+
+  /**
+   * Helper method to return the format features are requested in: PBF is
+   * used (when asked for or in auto mode) only if the layer supports it,
+   * GeoJSON otherwise
+   * 
+   * @return the value of the format parameter
+   */
+  protected String composeFormat() {
+
+    String format = this.dataStore.getWireFormat();
+    if (ArcGISRestDataStore.FORMAT_AUTO.equals(format)
+        || ArcGISRestDataStore.FORMAT_PBF.equals(format)) {
+      return this.supportsFormat(ArcGISRestDataStore.FORMAT_PBF)
+          ? ArcGISRestDataStore.FORMAT_PBF
+          : ArcGISRestDataStore.FORMAT_GEOJSON;
+    }
+
+    return format;
+  }
+
+  /**
+   * Helper method to return whether the layer lists a format among the ones
+   * its queries can return
+   * 
+   * @param format
+   *          the format
+   * @return true if the format is supported
+   */
+  protected boolean supportsFormat(String format) {
+
+    if (this.webservice == null
+        || this.webservice.getSupportedQueryFormats() == null) {
+      return false;
+    }
+
+    for (String supported : this.webservice.getSupportedQueryFormats()
+        .split(",")) {
+      if (supported.trim().equalsIgnoreCase(format)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns whether the dataset can quantize the coordinates of Esri JSON
+   * and PBF responses
+   * 
+   * @return true if quantization is supported
+   */
+  protected boolean supportsQuantization() {
+    return this.webservice != null && this.webservice.getExtent() != null
+        && Boolean.TRUE
+            .equals(this.webservice.getSupportsCoordinatesQuantization());
+  }
+
+  /**
+   * Helper method to return the quantization parameters of Esri JSON and PBF
+   * requests: coordinates are snapped to a grid over the layer extent, fine
+   * enough not to lose any significant precision
+   * 
+   * @return the quantization parameters (null if the extent is empty)
+   */
+  protected String composeQuantizationParameters() {
+
+    Extent ext = this.webservice.getExtent();
+    return this.composeQuantizationParameters(
+        ArcGISRestDataStore.QUANTIZATION_MODE_EDIT,
+        Math.max(ext.getXmax() - ext.getXmin(), ext.getYmax() - ext.getYmin())
+            / ArcGISRestDataStore.QUANTIZATION_GRID_SIZE);
+  }
+
+  /**
+   * Helper method to return quantization parameters over the layer extent
+   * 
+   * @param mode
+   *          either QUANTIZATION_MODE_EDIT (coordinates are snapped only) or
+   *          QUANTIZATION_MODE_VIEW (geometries are generalized too)
+   * @param tolerance
+   *          size of the cells of the grid coordinates are snapped to
+   * @return the quantization parameters (null if the tolerance is not
+   *         positive)
+   */
+  protected String composeQuantizationParameters(String mode,
+      double tolerance) {
+
+    Extent ext = this.webservice.getExtent();
+    if (!(tolerance > 0)) {
+      return null;
+    }
+
+    JsonObject sr = new JsonObject();
+    sr.addProperty("wkid", ext.getSpatialReference().getLatestWkid());
+    JsonObject extent = new JsonObject();
+    extent.addProperty("xmin", ext.getXmin());
+    extent.addProperty("ymin", ext.getYmin());
+    extent.addProperty("xmax", ext.getXmax());
+    extent.addProperty("ymax", ext.getYmax());
+    extent.add("spatialReference", sr);
+
+    JsonObject quantization = new JsonObject();
+    quantization.addProperty("mode", mode);
+    quantization.addProperty("originPosition",
+        ArcGISRestDataStore.QUANTIZATION_ORIGIN_UPPERLEFT);
+    quantization.addProperty("tolerance", tolerance);
+    quantization.add("extent", extent);
+
+    return quantization.toString();
+  }
+
+  /**
+   * Helper method to return an extent as the API expects it
+   * 
+   * @param ext
+   *          Extent (as expressed in the JSON describing the layer)
+   */
+  protected String composeExtent(Extent ext) {
+    return (new StringJoiner(",")).add(ext.getXmin().toString())
+        .add(ext.getYmin().toString()).add(ext.getXmax().toString())
+        .add(ext.getYmax().toString()).toString();
+  }
+
+  /**
+   * Helper method to return an extent as the API expects it
+   * 
+   * @param ext
+   *          Extent (as expressed in the JSON describing the layer)
+   */
+  protected String composeExtent(ReferencedEnvelope env) {
+    Extent ext = new Extent();
+    ext.setXmin(env.getMinX());
+    ext.setXmax(env.getMaxX());
+    ext.setYmin(env.getMinY());
+    ext.setYmax(env.getMaxY());
+    return this.composeExtent(ext);
+  }
+
+  /**
+   * Returns whether the features of a query are sorted locally rather than by
+   * the server: that is, when the layer cannot sort, or when any of the sort
+   * keys is the geometry or an attribute the layer does not have
+   * 
+   * @param query
+   *          Query to read the features of
+   * @return true if the features are sorted locally
+   */
+  protected boolean sortsLocally(Query query) {
+
+    if (query.getSortBy() == null || query.getSortBy().length == 0) {
+      return false;
+    }
+    if (this.canSort() == false) {
+      return true;
+    }
+
+    for (SortBy sort : query.getSortBy()) {
+      if (sort.getPropertyName() == null) {
+        continue;
+      }
+      AttributeDescriptor attr = this.schema
+          .getDescriptor(sort.getPropertyName().getPropertyName());
+      if (attr == null || attr instanceof GeometryDescriptor) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Helper method to return the sort order of a query as the API expects it.
+   * Natural order is the object ID order; sort orders the server cannot take
+   * are not sent.
+   * 
+   * @param query
+   *          Query to build the sort order for
+   * @return the order by fields, null if none
+   */
+  protected String composeOrderBy(Query query) {
+
+    if (query.getSortBy() == null || this.sortsLocally(query)) {
+      return null;
+    }
+
+    StringJoiner joiner = new StringJoiner(",");
+    for (SortBy sort : query.getSortBy()) {
+      String dir = SortOrder.DESCENDING.equals(sort.getSortOrder()) ? " DESC"
+          : " ASC";
+      if (sort.getPropertyName() == null) {
+        if (this.objectIdField != null && this.objectIdField.isEmpty() == false) {
+          joiner.add(this.objectIdField + dir);
+        }
+        continue;
+      }
+
+      joiner.add(this.schema
+          .getDescriptor(sort.getPropertyName().getPropertyName())
+          .getLocalName() + dir);
+    }
+
+    return joiner.length() > 0 ? joiner.toString() : null;
+  }
+
+  /**
+   * Helper method to return the offset of the first feature of a query
+   * 
+   * @param query
+   *          Query to return the offset of
+   * @return offset (0 if none, or if it cannot be sent)
+   */
+  protected int composeStartIndex(Query query) {
+    return (this.canOffset() && query.getStartIndex() != null)
+        ? Math.max(0, query.getStartIndex()) : 0;
+  }
+
+  /**
+   * Helper method to return the maximum number of features of a query
+   * 
+   * @param query
+   *          Query to return the maximum number of features of
+   * @return maximum number of features (Integer.MAX_VALUE if unlimited, or
+   *         if it cannot be sent)
+   */
+  protected int composeMaxFeatures(Query query) {
+    return (this.canLimit() && query.isMaxFeaturesUnlimited() == false)
+        ? Math.max(0, query.getMaxFeatures()) : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Helper method to return an attribute list as the API expects it
+   * 
+   * @param query
+   *          Query to build the attributes for
+   * @param residual
+   *          Part of the filter evaluated on the returned features, whose
+   *          attributes are requested too
+   */
+  protected String composeAttributes(Query query, Filter residual) {
+
+    StringJoiner joiner = new StringJoiner(",");
+
+    // The Object ID is always in to ensure the GeoJSON is correctly processed
+    // by the parser,
+    // For instance, when the GeoJSON properties is null (i.e., only the
+    // geometry is
+    // returned), WMS GetMap requests return an empty image
+    joiner.add(this.objectIdField);
+
+    if (query.retrieveAllProperties()) {
+      Iterator<AttributeDescriptor> iter = this.schema.getAttributeDescriptors()
+          .iterator();
+      while (iter.hasNext()) {
+        AttributeDescriptor attr = iter.next();
+        // Skips ID and geometry field
+        if (!attr.getLocalName().equalsIgnoreCase(this.objectIdField)
+            && !attr.getLocalName().equalsIgnoreCase(
+                this.schema.getGeometryDescriptor().getLocalName())) {
+          joiner.add(attr.getLocalName());
+        }
+      }
+    } else {
+      Set<String> attrs = new LinkedHashSet<String>(
+          Arrays.asList(query.getPropertyNames()));
+      if (this.sortsLocally(query)) {
+        for (SortBy sort : query.getSortBy()) {
+          if (sort.getPropertyName() != null && this.schema.getDescriptor(
+              sort.getPropertyName().getPropertyName()) != null) {
+            attrs.add(sort.getPropertyName().getPropertyName());
+          }
+        }
+      }
+      if (residual != null && residual != Filter.INCLUDE) {
+        FilterAttributeExtractor extractor = new FilterAttributeExtractor(
+            this.schema);
+        residual.accept(extractor, null);
+        for (String attr : extractor.getAttributeNameSet()) {
+          if (this.schema.getDescriptor(attr) != null) {
+            attrs.add(attr);
+          }
+        }
+      }
+      for (String attr : attrs) {
+        // Skips ID and geometry field
+        if (!attr.equalsIgnoreCase(this.objectIdField)
+            && !attr.equalsIgnoreCase(
+                this.schema.getGeometryDescriptor().getLocalName())) {
+          joiner.add(attr);
+        }
+      }
+    }
+
+    return joiner.toString();
+  }
+
+  /**
+   * Compose the query URL of the instance's dataset
+   * 
+   * @return query URL
+   */
+  protected String composeQueryURL() {
+    return this.schema.getUserData().get("serviceUrl") + "/query";
+  }
+
+  /**
+   * Extent of the features of a query, as cached
+   */
+  protected static class CachedBounds {
+
+    protected ReferencedEnvelope bounds;
+
+    // Time the extent expires at, in milliseconds (0 if it does not expire)
+    protected long expiry;
+
+    public CachedBounds(ReferencedEnvelope boundsIn, long expiryIn) {
+      this.bounds = boundsIn;
+      this.expiry = expiryIn;
+    }
+
+    /**
+     * Returns whether the extent has to be retrieved again
+     * 
+     * @return true if the extent has expired
+     */
+    public boolean isExpired() {
+      return this.expiry > 0 && System.currentTimeMillis() >= this.expiry;
+    }
   }
 
 }
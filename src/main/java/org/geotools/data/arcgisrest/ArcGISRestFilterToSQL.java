@@ -0,0 +1,863 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TimeZone;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.FilterCapabilities;
+import org.geotools.filter.visitor.PostPreProcessFilterSplittingVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.ExcludeFilter;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.FilterVisitor;
+import org.opengis.filter.Id;
+import org.opengis.filter.IncludeFilter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNil;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Add;
+import org.opengis.filter.expression.Divide;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.ExpressionVisitor;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.Multiply;
+import org.opengis.filter.expression.NilExpression;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.expression.Subtract;
+import org.opengis.filter.identity.Identifier;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.Beyond;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.DWithin;
+import org.opengis.filter.spatial.Disjoint;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Overlaps;
+import org.opengis.filter.spatial.Touches;
+import org.opengis.filter.spatial.Within;
+import org.opengis.filter.temporal.After;
+import org.opengis.filter.temporal.AnyInteracts;
+import org.opengis.filter.temporal.Before;
+import org.opengis.filter.temporal.Begins;
+import org.opengis.filter.temporal.BegunBy;
+import org.opengis.filter.temporal.During;
+import org.opengis.filter.temporal.EndedBy;
+import org.opengis.filter.temporal.Ends;
+import org.opengis.filter.temporal.Meets;
+import org.opengis.filter.temporal.MetBy;
+import org.opengis.filter.temporal.OverlappedBy;
+import org.opengis.filter.temporal.TContains;
+import org.opengis.filter.temporal.TEquals;
+import org.opengis.filter.temporal.TOverlaps;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Encodes OGC filters as the SQL where clause of ArcGIS ReST API queries. Only
+ * the filters in the capabilities returned by getCapabilities() can be
+ * encoded: filters should be split first, with the part that cannot be
+ * encoded evaluated on the returned features. One spatial filter can be taken
+ * out of that residual part and sent as the geometry of the query.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestFilterToSQL implements FilterVisitor, ExpressionVisitor {
+
+  // Where clauses of filters that select all and no features
+  public static final String WHERE_INCLUDE = "1=1";
+  public static final String WHERE_EXCLUDE = "1=0";
+
+  // Spatial relationships between the query geometry and the features
+  public static final String SPATIALREL_INTERSECTS = "esriSpatialRelIntersects";
+  public static final String SPATIALREL_CONTAINS = "esriSpatialRelContains";
+  public static final String SPATIALREL_WITHIN = "esriSpatialRelWithin";
+  public static final String SPATIALREL_ENVELOPEINTERSECTS = "esriSpatialRelEnvelopeIntersects";
+
+  protected static final FilterFactory FF = CommonFactoryFinder
+      .getFilterFactory(null);
+
+  protected static FilterCapabilities CAPABILITIES;
+  static {
+    CAPABILITIES = new FilterCapabilities();
+    CAPABILITIES.addAll(FilterCapabilities.LOGICAL_OPENGIS);
+    CAPABILITIES.addAll(FilterCapabilities.SIMPLE_COMPARISONS_OPENGIS);
+    CAPABILITIES.addType(PropertyIsNull.class);
+    CAPABILITIES.addType(PropertyIsBetween.class);
+    CAPABILITIES.addType(PropertyIsLike.class);
+    CAPABILITIES.addType(IncludeFilter.class);
+    CAPABILITIES.addType(ExcludeFilter.class);
+  }
+
+  // Type of the features the filters apply to
+  protected SimpleFeatureType featureType;
+
+  // Field holding the object ID (used to encode feature ID filters)
+  protected String objectIdField;
+
+  /**
+   * Constructor
+   *
+   * @param featureTypeIn
+   *          the feature type the filters apply to
+   * @param objectIdFieldIn
+   *          the object ID field (if null, feature ID filters are not encoded)
+   */
+  public ArcGISRestFilterToSQL(SimpleFeatureType featureTypeIn,
+      String objectIdFieldIn) {
+    this.featureType = featureTypeIn;
+    this.objectIdField = (objectIdFieldIn != null && objectIdFieldIn.isEmpty()) ? null
+        : objectIdFieldIn;
+  }
+
+  /**
+   * Returns the filters that can be encoded
+   *
+   * @return filter capabilities
+   */
+  public FilterCapabilities getCapabilities() {
+    FilterCapabilities caps = new FilterCapabilities();
+    caps.addAll(CAPABILITIES);
+    if (this.objectIdField != null) {
+      caps.addType(Id.class);
+    }
+    return caps;
+  }
+
+  /**
+   * Splits a filter in the part that can be encoded, and the part that has to
+   * be evaluated on the returned features
+   *
+   * @param filter
+   *          the filter to split
+   * @return an array with the filter to encode and the residual filter
+   */
+  public Filter[] splitFilter(Filter filter) {
+
+    if (filter == null || filter == Filter.INCLUDE) {
+      return new Filter[] { Filter.INCLUDE, Filter.INCLUDE };
+    }
+
+    PostPreProcessFilterSplittingVisitor splitter = new PostPreProcessFilterSplittingVisitor(
+        this.getCapabilities(), this.featureType, null);
+    filter.accept(splitter, null);
+
+    Filter pre = splitter.getFilterPre();
+    Filter post = splitter.getFilterPost();
+    return new Filter[] { pre != null ? pre : Filter.INCLUDE,
+        post != null ? post : Filter.INCLUDE };
+  }
+
+  /**
+   * Takes the first spatial filter that can be sent to the server out of the
+   * conjuncts of a (residual) filter. If the server cannot evaluate it exactly
+   * (as with a geometry that has to be approximated), the spatial filter is
+   * left in the residual filter too. BBOX filters are exact, since the
+   * envelope is sent as the query geometry.
+   *
+   * @param filter
+   *          the residual filter
+   * @return an array with the spatial filter to send (null if none) and the
+   *         new residual filter
+   */
+  public Filter[] splitSpatialFilter(Filter filter) {
+
+    List<Filter> conjuncts = (filter instanceof And)
+        ? ((And) filter).getChildren() : Collections.singletonList(filter);
+    List<Filter> residual = new ArrayList<Filter>();
+    Filter spatial = null;
+
+    for (Filter conjunct : conjuncts) {
+      if (spatial == null && this.getSpatialGeometry(conjunct) != null) {
+        spatial = conjunct;
+        if (conjunct instanceof BBOX == false && ArcGISRestGeometryEncoder
+            .isEncodable(this.getSpatialGeometry(conjunct)) == false) {
+          residual.add(conjunct);
+        }
+      } else {
+        residual.add(conjunct);
+      }
+    }
+
+    if (spatial == null) {
+      return new Filter[] { null, filter };
+    }
+
+    return new Filter[] { spatial, residual.isEmpty() ? Filter.INCLUDE
+        : (residual.size() == 1 ? residual.get(0) : FF.and(residual)) };
+  }
+
+  /**
+   * Returns the query parameters (geometry, geometry type and spatial
+   * relationship) of a spatial filter
+   *
+   * @param filter
+   *          the spatial filter, as returned by splitSpatialFilter()
+   * @return the query parameters
+   */
+  public Map<String, Object> encodeSpatialFilter(Filter filter) {
+
+    Map<String, Object> params = new HashMap<String, Object>();
+    Geometry geom = this.getSpatialGeometry(filter);
+    boolean swapped = ((BinarySpatialOperator) filter)
+        .getExpression1() instanceof Literal;
+
+    // Esri relationships are expressed as the query geometry compared to the
+    // features, hence Within and Contains are swapped
+    String rel;
+    if (filter instanceof Within) {
+      rel = swapped ? SPATIALREL_WITHIN : SPATIALREL_CONTAINS;
+    } else if (filter instanceof Contains) {
+      rel = swapped ? SPATIALREL_CONTAINS : SPATIALREL_WITHIN;
+    } else {
+      rel = SPATIALREL_INTERSECTS;
+    }
+
+    // BBOX filters are sent as their envelope, which the features have to
+    // intersect
+    if (filter instanceof BBOX) {
+      params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
+          ArcGISRestGeometryEncoder.encode(geom.getEnvelopeInternal()));
+      params.put(ArcGISRestDataStore.GEOMETRYTYPE_PARAM,
+          ArcGISRestGeometryEncoder.GEOMETRY_ENVELOPE);
+      params.put(ArcGISRestDataStore.SPATIALREL_PARAM, SPATIALREL_INTERSECTS);
+      return params;
+    }
+
+    // A larger query geometry returns more features, unless it has to be
+    // within the features: in that case only the envelope is checked
+    if (rel.equals(SPATIALREL_WITHIN)
+        && ArcGISRestGeometryEncoder.isEncodable(geom) == false) {
+      params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
+          ArcGISRestGeometryEncoder.encode(geom.getEnvelopeInternal()));
+      params.put(ArcGISRestDataStore.GEOMETRYTYPE_PARAM,
+          ArcGISRestGeometryEncoder.GEOMETRY_ENVELOPE);
+      params.put(ArcGISRestDataStore.SPATIALREL_PARAM,
+          SPATIALREL_ENVELOPEINTERSECTS);
+      return params;
+    }
+
+    Geometry approx = ArcGISRestGeometryEncoder.approximate(geom);
+    params.put(ArcGISRestDataStore.GEOMETRY_PARAM,
+        ArcGISRestGeometryEncoder.encode(approx));
+    params.put(ArcGISRestDataStore.GEOMETRYTYPE_PARAM,
+        ArcGISRestGeometryEncoder.getGeometryType(approx));
+    params.put(ArcGISRestDataStore.SPATIALREL_PARAM, rel);
+
+    return params;
+  }
+
+  /**
+   * Helper method to return the geometry a spatial filter compares the
+   * feature geometry to, if the filter can be sent to the server
+   *
+   * @param filter
+   *          the filter
+   * @return the geometry, null if the filter cannot be sent
+   */
+  protected Geometry getSpatialGeometry(Filter filter) {
+
+    if (!(filter instanceof BBOX || filter instanceof Intersects
+        || filter instanceof Contains || filter instanceof Within)) {
+      return null;
+    }
+
+    BinarySpatialOperator op = (BinarySpatialOperator) filter;
+    Expression prop = op.getExpression1();
+    Expression literal = op.getExpression2();
+    if (prop instanceof Literal) {
+      prop = op.getExpression2();
+      literal = op.getExpression1();
+    }
+    if (!(prop instanceof PropertyName) || !(literal instanceof Literal)) {
+      return null;
+    }
+
+    // The property has to be the (default) geometry of the features
+    String name = ((PropertyName) prop).getPropertyName();
+    if (name != null && name.isEmpty() == false && this.featureType != null
+        && (this.featureType.getGeometryDescriptor() == null
+            || !name.equals(this.featureType.getGeometryDescriptor()
+                .getLocalName()))) {
+      return null;
+    }
+
+    Geometry geom = literal.evaluate(null, Geometry.class);
+    return (geom != null && geom.isEmpty() == false
+        && (filter instanceof BBOX
+            || ArcGISRestGeometryEncoder.getGeometryType(geom) != null))
+                ? geom : null;
+  }
+
+  /**
+   * Encodes a filter as a where clause
+   *
+   * @param filter
+   *          the filter to encode (it has to be in the capabilities)
+   * @return the where clause
+   * @throws UnsupportedOperationException
+   *           if the filter cannot be encoded
+   */
+  public String encode(Filter filter) {
+    StringBuilder sql = new StringBuilder();
+    filter.accept(this, sql);
+    return sql.toString();
+  }
+
+  /**
+   * Helper method to return the binding of the property an expression refers
+   * to (if any)
+   *
+   * @param expr
+   *          the expression
+   * @return the binding, null if not a property of the feature type
+   */
+  protected Class<?> getBinding(Expression expr) {
+    if (expr instanceof PropertyName && this.featureType != null) {
+      AttributeDescriptor attr = this.featureType
+          .getDescriptor(((PropertyName) expr).getPropertyName());
+      return attr != null ? attr.getType().getBinding() : null;
+    }
+    return null;
+  }
+
+  /**
+   * Encodes an expression, converting literals to the binding of the property
+   * they are compared to
+   *
+   * @param expr
+   *          expression to encode
+   * @param binding
+   *          binding of the property compared to, or null
+   * @param sql
+   *          the clause to append the expression to
+   */
+  protected void encodeExpression(Expression expr, Class<?> binding,
+      StringBuilder sql) {
+    if (expr instanceof Literal && binding != null) {
+      Object value = expr.evaluate(null, binding);
+      this.encodeValue(value != null ? value : ((Literal) expr).getValue(),
+          sql);
+    } else {
+      expr.accept(this, sql);
+    }
+  }
+
+  /**
+   * Encodes a value as a SQL literal
+   *
+   * @param value
+   *          the value to encode
+   * @param sql
+   *          the clause to append the value to
+   */
+  protected void encodeValue(Object value, StringBuilder sql) {
+
+    if (value == null) {
+      sql.append("NULL");
+    } else if (value instanceof Number) {
+      sql.append(value.toString());
+    } else if (value instanceof Boolean) {
+      sql.append(((Boolean) value) ? "1" : "0");
+    } else if (value instanceof Date) {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      sql.append("timestamp '").append(format.format((Date) value))
+          .append("'");
+    } else {
+      sql.append("'").append(value.toString().replace("'", "''")).append("'");
+    }
+  }
+
+  /**
+   * Encodes a binary comparison
+   *
+   * @param filter
+   *          the comparison to encode
+   * @param operator
+   *          the SQL operator
+   * @param extraData
+   *          the clause to append the comparison to
+   */
+  protected Object encodeComparison(BinaryComparisonOperator filter,
+      String operator, Object extraData) {
+
+    StringBuilder sql = (StringBuilder) extraData;
+    Expression left = filter.getExpression1();
+    Expression right = filter.getExpression2();
+    Class<?> leftBinding = this.getBinding(left);
+    Class<?> rightBinding = this.getBinding(right);
+
+    // Case insensitive comparisons of strings are done in upper case
+    boolean upper = filter.isMatchingCase() == false
+        && (String.class.equals(leftBinding)
+            || String.class.equals(rightBinding));
+
+    if (upper) {
+      sql.append("UPPER(");
+    }
+    this.encodeExpression(left, rightBinding, sql);
+    sql.append(upper ? ") " : " ").append(operator)
+        .append(upper ? " UPPER(" : " ");
+    this.encodeExpression(right, leftBinding, sql);
+    if (upper) {
+      sql.append(")");
+    }
+
+    return sql;
+  }
+
+  /**
+   * Encodes a logical operator
+   *
+   * @param filter
+   *          the operator to encode
+   * @param operator
+   *          the SQL operator
+   * @param extraData
+   *          the clause to append the operator to
+   */
+  protected Object encodeLogical(BinaryLogicOperator filter, String operator,
+      Object extraData) {
+
+    StringBuilder sql = (StringBuilder) extraData;
+    sql.append("(");
+    boolean first = true;
+    for (Filter child : filter.getChildren()) {
+      if (first == false) {
+        sql.append(" ").append(operator).append(" ");
+      }
+      child.accept(this, sql);
+      first = false;
+    }
+    sql.append(")");
+
+    return sql;
+  }
+
+  /**
+   * Returns the property name all children of a disjunction compare to a
+   * literal for equality, if any, so that it can be encoded as IN
+   *
+   * @param filter
+   *          the disjunction
+   * @return the property name, null if the disjunction is not a list of values
+   */
+  protected PropertyName getInProperty(Or filter) {
+
+    String name = null;
+    PropertyName prop = null;
+    for (Filter child : filter.getChildren()) {
+      if (!(child instanceof PropertyIsEqualTo)
+          || ((PropertyIsEqualTo) child).isMatchingCase() == false) {
+        return null;
+      }
+      PropertyIsEqualTo equal = (PropertyIsEqualTo) child;
+      if (equal.getExpression1() instanceof PropertyName
+          && equal.getExpression2() instanceof Literal) {
+        prop = (PropertyName) equal.getExpression1();
+      } else if (equal.getExpression2() instanceof PropertyName
+          && equal.getExpression1() instanceof Literal) {
+        prop = (PropertyName) equal.getExpression2();
+      } else {
+        return null;
+      }
+      if (name != null && !name.equals(prop.getPropertyName())) {
+        return null;
+      }
+      name = prop.getPropertyName();
+    }
+
+    return prop;
+  }
+
+  @Override
+  public Object visitNullFilter(Object extraData) {
+    throw new UnsupportedOperationException("Null filter not supported");
+  }
+
+  @Override
+  public Object visit(ExcludeFilter filter, Object extraData) {
+    return ((StringBuilder) extraData).append(WHERE_EXCLUDE);
+  }
+
+  @Override
+  public Object visit(IncludeFilter filter, Object extraData) {
+    return ((StringBuilder) extraData).append(WHERE_INCLUDE);
+  }
+
+  @Override
+  public Object visit(And filter, Object extraData) {
+    return this.encodeLogical(filter, "AND", extraData);
+  }
+
+  /**
+   * Feature IDs are the object IDs of the features
+   */
+  @Override
+  public Object visit(Id filter, Object extraData) {
+
+    StringBuilder sql = (StringBuilder) extraData;
+    List<String> oids = new ArrayList<String>();
+    for (Identifier fid : filter.getIdentifiers()) {
+      String id = fid.getID().toString();
+      id = id.substring(id.lastIndexOf('.') + 1);
+      if (id.matches("-?\\d+")) {
+        oids.add(id);
+      }
+    }
+
+    if (this.objectIdField == null || oids.isEmpty()) {
+      return sql.append(WHERE_EXCLUDE);
+    }
+
+    return sql.append(this.objectIdField).append(" IN (")
+        .append(String.join(", ", oids)).append(")");
+  }
+
+  @Override
+  public Object visit(Not filter, Object extraData) {
+    StringBuilder sql = (StringBuilder) extraData;
+    sql.append("NOT (");
+    filter.getFilter().accept(this, sql);
+    return sql.append(")");
+  }
+
+  /**
+   * Disjunctions of equalities on the same property are encoded as IN
+   */
+  @Override
+  public Object visit(Or filter, Object extraData) {
+
+    PropertyName prop = this.getInProperty(filter);
+    if (prop == null || filter.getChildren().size() < 2) {
+      return this.encodeLogical(filter, "OR", extraData);
+    }
+
+    StringBuilder sql = (StringBuilder) extraData;
+    Class<?> binding = this.getBinding(prop);
+    StringJoiner values = new StringJoiner(", ", " IN (", ")");
+    for (Filter child : filter.getChildren()) {
+      PropertyIsEqualTo equal = (PropertyIsEqualTo) child;
+      Expression value = equal.getExpression1() instanceof Literal
+          ? equal.getExpression1() : equal.getExpression2();
+      StringBuilder valueSql = new StringBuilder();
+      this.encodeExpression(value, binding, valueSql);
+      values.add(valueSql);
+    }
+    prop.accept(this, sql);
+    return sql.append(values.toString());
+  }
+
+  @Override
+  public Object visit(PropertyIsBetween filter, Object extraData) {
+    StringBuilder sql = (StringBuilder) extraData;
+    Class<?> binding = this.getBinding(filter.getExpression());
+    filter.getExpression().accept(this, sql);
+    sql.append(" BETWEEN ");
+    this.encodeExpression(filter.getLowerBoundary(), binding, sql);
+    sql.append(" AND ");
+    this.encodeExpression(filter.getUpperBoundary(), binding, sql);
+    return sql;
+  }
+
+  @Override
+  public Object visit(PropertyIsEqualTo filter, Object extraData) {
+    return this.encodeComparison(filter, "=", extraData);
+  }
+
+  @Override
+  public Object visit(PropertyIsNotEqualTo filter, Object extraData) {
+    return this.encodeComparison(filter, "<>", extraData);
+  }
+
+  @Override
+  public Object visit(PropertyIsGreaterThan filter, Object extraData) {
+    return this.encodeComparison(filter, ">", extraData);
+  }
+
+  @Override
+  public Object visit(PropertyIsGreaterThanOrEqualTo filter,
+      Object extraData) {
+    return this.encodeComparison(filter, ">=", extraData);
+  }
+
+  @Override
+  public Object visit(PropertyIsLessThan filter, Object extraData) {
+    return this.encodeComparison(filter, "<", extraData);
+  }
+
+  @Override
+  public Object visit(PropertyIsLessThanOrEqualTo filter, Object extraData) {
+    return this.encodeComparison(filter, "<=", extraData);
+  }
+
+  /**
+   * The pattern is translated to SQL wildcards, escaping the SQL wildcards
+   * that are part of the pattern
+   */
+  @Override
+  public Object visit(PropertyIsLike filter, Object extraData) {
+
+    StringBuilder sql = (StringBuilder) extraData;
+    String pattern = filter.getLiteral();
+    StringBuilder like = new StringBuilder();
+    boolean escaped = false;
+    boolean escapeClause = false;
+
+    for (int i = 0; i < pattern.length(); i++) {
+      String c = pattern.substring(i, i + 1);
+      if (escaped == false && c.equals(filter.getEscape())) {
+        escaped = true;
+        continue;
+      }
+      if (escaped == false && c.equals(filter.getWildCard())) {
+        like.append("%");
+      } else if (escaped == false && c.equals(filter.getSingleChar())) {
+        like.append("_");
+      } else if (c.equals("%") || c.equals("_") || c.equals("\\")) {
+        like.append("\\").append(c);
+        escapeClause = true;
+      } else {
+        like.append(c);
+      }
+      escaped = false;
+    }
+
+    String value = like.toString().replace("'", "''");
+    if (filter.isMatchingCase() == false) {
+      sql.append("UPPER(");
+      filter.getExpression().accept(this, sql);
+      sql.append(") LIKE '").append(value.toUpperCase()).append("'");
+    } else {
+      filter.getExpression().accept(this, sql);
+      sql.append(" LIKE '").append(value).append("'");
+    }
+    if (escapeClause) {
+      sql.append(" ESCAPE '\\'");
+    }
+
+    return sql;
+  }
+
+  @Override
+  public Object visit(PropertyIsNull filter, Object extraData) {
+    StringBuilder sql = (StringBuilder) extraData;
+    filter.getExpression().accept(this, sql);
+    return sql.append(" IS NULL");
+  }
+
+  @Override
+  public Object visit(PropertyIsNil filter, Object extraData) {
+    throw new UnsupportedOperationException("Nil filter not supported");
+  }
+
+  @Override
+  public Object visit(BBOX filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Beyond filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Contains filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Crosses filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Disjoint filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(DWithin filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Equals filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Intersects filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Overlaps filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Touches filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(Within filter, Object extraData) {
+    throw new UnsupportedOperationException("Spatial filters not supported");
+  }
+
+  @Override
+  public Object visit(After after, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(AnyInteracts anyInteracts, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(Before before, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(Begins begins, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(BegunBy begunBy, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(During during, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(EndedBy endedBy, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(Ends ends, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(Meets meets, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(MetBy metBy, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(OverlappedBy overlappedBy, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(TContains contains, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(TEquals equals, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(TOverlaps contains, Object extraData) {
+    throw new UnsupportedOperationException("Temporal filters not supported");
+  }
+
+  @Override
+  public Object visit(NilExpression expression, Object extraData) {
+    return ((StringBuilder) extraData).append("NULL");
+  }
+
+  @Override
+  public Object visit(Add expression, Object extraData) {
+    throw new UnsupportedOperationException("Arithmetic not supported");
+  }
+
+  @Override
+  public Object visit(Divide expression, Object extraData) {
+    throw new UnsupportedOperationException("Arithmetic not supported");
+  }
+
+  @Override
+  public Object visit(Function expression, Object extraData) {
+    throw new UnsupportedOperationException("Functions not supported");
+  }
+
+  @Override
+  public Object visit(Literal expression, Object extraData) {
+    this.encodeValue(expression.getValue(), (StringBuilder) extraData);
+    return extraData;
+  }
+
+  @Override
+  public Object visit(Multiply expression, Object extraData) {
+    throw new UnsupportedOperationException("Arithmetic not supported");
+  }
+
+  @Override
+  public Object visit(PropertyName expression, Object extraData) {
+    return ((StringBuilder) extraData).append(expression.getPropertyName());
+  }
+
+  @Override
+  public Object visit(Subtract expression, Object extraData) {
+    throw new UnsupportedOperationException("Arithmetic not supported");
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.buffer.BufferParameters;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Encodes JTS geometries as the Esri JSON geometries taken by the geometry
+ * parameter of ArcGIS ReST API queries
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestGeometryEncoder {
+
+  // Esri geometry types
+  public static final String GEOMETRY_POINT = "esriGeometryPoint";
+  public static final String GEOMETRY_MULTIPOINT = "esriGeometryMultipoint";
+  public static final String GEOMETRY_POLYLINE = "esriGeometryPolyline";
+  public static final String GEOMETRY_POLYGON = "esriGeometryPolygon";
+  public static final String GEOMETRY_ENVELOPE = "esriGeometryEnvelope";
+
+  // Maximum number of vertices of a geometry sent to the server (larger
+  // geometries are approximated, lest the request body gets too large)
+  public static final int MAX_VERTICES = 1000;
+
+  // Maximum number of simplification rounds before resorting to the envelope
+  protected static final int MAX_SIMPLIFICATIONS = 10;
+
+  /**
+   * Returns the Esri type of a geometry
+   *
+   * @param geom
+   *          the geometry
+   * @return Esri geometry type, null if the geometry cannot be encoded
+   */
+  public static String getGeometryType(Geometry geom) {
+
+    if (geom instanceof Point) {
+      return GEOMETRY_POINT;
+    }
+    if (geom instanceof MultiPoint) {
+      return GEOMETRY_MULTIPOINT;
+    }
+    if (geom instanceof LineString || geom instanceof MultiLineString) {
+      return GEOMETRY_POLYLINE;
+    }
+    if (geom instanceof Polygon || geom instanceof MultiPolygon) {
+      return GEOMETRY_POLYGON;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns whether a geometry can be sent as it is
+   *
+   * @param geom
+   *          the geometry
+   * @return true if the geometry is small enough and of a supported type
+   */
+  public static boolean isEncodable(Geometry geom) {
+    return getGeometryType(geom) != null && geom.isEmpty() == false
+        && geom.getNumPoints() <= MAX_VERTICES;
+  }
+
+  /**
+   * Returns a geometry that covers the given one with at most MAX_VERTICES
+   * vertices. The geometry is simplified and then enlarged by the
+   * simplification tolerance, so that no part of the original geometry is
+   * lost; if that is not enough, the envelope of the geometry is returned.
+   *
+   * @param geom
+   *          the geometry to approximate
+   * @return the covering geometry
+   */
+  public static Geometry approximate(Geometry geom) {
+
+    if (isEncodable(geom)) {
+      return geom;
+    }
+
+    Envelope env = geom.getEnvelopeInternal();
+    if (geom.getDimension() > 0) {
+      double tolerance = Math.max(env.getWidth(), env.getHeight())
+          / MAX_VERTICES;
+      for (int i = 0; i < MAX_SIMPLIFICATIONS && tolerance > 0; i++) {
+        // With a single segment per quadrant, the buffer distance falls to
+        // cos(45) of the nominal distance at corners
+        Geometry approx = TopologyPreservingSimplifier
+            .simplify(geom, tolerance)
+            .buffer(tolerance * 1.5, 1, BufferParameters.CAP_SQUARE);
+        if (isEncodable(approx)) {
+          return approx;
+        }
+        tolerance *= 2;
+      }
+    }
+
+    return geom.getFactory().toGeometry(env);
+  }
+
+  /**
+   * Encodes a geometry as Esri JSON
+   *
+   * @param geom
+   *          the geometry to encode
+   * @return the Esri JSON geometry
+   * @throws IllegalArgumentException
+   *           if the geometry type is not supported
+   */
+  public static String encode(Geometry geom) {
+
+    StringBuilder json = new StringBuilder();
+
+    if (geom instanceof Point) {
+      Coordinate coord = geom.getCoordinate();
+      json.append("{\"x\":").append(coord.x).append(",\"y\":").append(coord.y)
+          .append("}");
+    } else if (geom instanceof MultiPoint) {
+      json.append("{\"points\":");
+      encodeCoordinates(geom.getCoordinates(), json);
+      json.append("}");
+    } else if (geom instanceof LineString
+        || geom instanceof MultiLineString) {
+      json.append("{\"paths\":[");
+      for (int i = 0; i < geom.getNumGeometries(); i++) {
+        if (i > 0) {
+          json.append(",");
+        }
+        encodeCoordinates(geom.getGeometryN(i).getCoordinates(), json);
+      }
+      json.append("]}");
+    } else if (geom instanceof Polygon || geom instanceof MultiPolygon) {
+      // Esri outer rings are clockwise, inner rings counter-clockwise
+      json.append("{\"rings\":[");
+      for (int i = 0; i < geom.getNumGeometries(); i++) {
+        Polygon poly = (Polygon) geom.getGeometryN(i);
+        if (i > 0) {
+          json.append(",");
+        }
+        encodeRing(poly.getExteriorRing().getCoordinates(), false, json);
+        for (int j = 0; j < poly.getNumInteriorRing(); j++) {
+          json.append(",");
+          encodeRing(poly.getInteriorRingN(j).getCoordinates(), true, json);
+        }
+      }
+      json.append("]}");
+    } else {
+      throw new IllegalArgumentException("Geometry type "
+          + geom.getGeometryType() + " cannot be encoded");
+    }
+
+    return json.toString();
+  }
+
+  /**
+   * Encodes an envelope as Esri JSON
+   *
+   * @param env
+   *          the envelope to encode
+   * @return the Esri JSON envelope
+   */
+  public static String encode(Envelope env) {
+    return (new StringBuilder()).append("{\"xmin\":").append(env.getMinX())
+        .append(",\"ymin\":").append(env.getMinY()).append(",\"xmax\":")
+        .append(env.getMaxX()).append(",\"ymax\":").append(env.getMaxY())
+        .append("}").toString();
+  }
+
+  /**
+   * Helper method to encode a polygon ring with the given orientation
+   *
+   * @param coords
+   *          the ring coordinates
+   * @param ccw
+   *          true if the ring has to be counter-clockwise
+   * @param json
+   *          the JSON to append the ring to
+   */
+  protected static void encodeRing(Coordinate[] coords, boolean ccw,
+      StringBuilder json) {
+
+    if (coords.length > 3 && CGAlgorithms.isCCW(coords) != ccw) {
+      Coordinate[] reversed = new Coordinate[coords.length];
+      for (int i = 0; i < coords.length; i++) {
+        reversed[i] = coords[coords.length - 1 - i];
+      }
+      coords = reversed;
+    }
+
+    encodeCoordinates(coords, json);
+  }
+
+  /**
+   * Helper method to encode a coordinate array
+   *
+   * @param coords
+   *          the coordinates
+   * @param json
+   *          the JSON to append the coordinates to
+   */
+  protected static void encodeCoordinates(Coordinate[] coords,
+      StringBuilder json) {
+
+    json.append("[");
+    for (int i = 0; i < coords.length; i++) {
+      if (i > 0) {
+        json.append(",");
+      }
+      json.append("[").append(coords[i].x).append(",").append(coords[i].y)
+          .append("]");
+    }
+    json.append("]");
+  }
+
+}
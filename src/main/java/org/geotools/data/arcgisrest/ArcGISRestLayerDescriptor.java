@@ -0,0 +1,116 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import org.geotools.data.DefaultResourceInfo;
+import org.geotools.data.arcgisrest.schema.catalog.Dataset;
+import org.geotools.data.arcgisrest.schema.webservice.Webservice;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Description of a layer shared by all the feature sources of a data store:
+ * the metadata retrieved when the type names are listed, and what is derived
+ * from them (feature type, CRS, object ID field and resource information) the
+ * first time a feature source of the layer is set up.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestLayerDescriptor {
+
+  protected Dataset dataset;
+  protected Webservice webservice;
+
+  // Derived from the metadata (null until the layer is described)
+  protected SimpleFeatureType featureType;
+  protected CoordinateReferenceSystem crs;
+  protected String objectIdField;
+  protected DefaultResourceInfo resourceInfo;
+
+  /**
+   * Constructor
+   *
+   * @param datasetIn
+   *          the catalog entry of the layer
+   * @param webserviceIn
+   *          the metadata of the layer
+   */
+  public ArcGISRestLayerDescriptor(Dataset datasetIn,
+      Webservice webserviceIn) {
+    this.dataset = datasetIn;
+    this.webservice = webserviceIn;
+  }
+
+  public Dataset getDataset() {
+    return this.dataset;
+  }
+
+  public Webservice getWebservice() {
+    return this.webservice;
+  }
+
+  /**
+   * Returns whether the feature type (and what goes with it) has been derived
+   * from the metadata
+   *
+   * @return true if the layer has been described
+   */
+  public synchronized boolean isDescribed() {
+    return this.featureType != null;
+  }
+
+  /**
+   * Sets what is derived from the metadata of the layer
+   *
+   * @param featureTypeIn
+   *          the feature type
+   * @param crsIn
+   *          the CRS of the layer
+   * @param objectIdFieldIn
+   *          the field identifying features
+   * @param resourceInfoIn
+   *          information about the layer
+   */
+  public synchronized void describe(SimpleFeatureType featureTypeIn,
+      CoordinateReferenceSystem crsIn, String objectIdFieldIn,
+      DefaultResourceInfo resourceInfoIn) {
+    this.featureType = featureTypeIn;
+    this.crs = crsIn;
+    this.objectIdField = objectIdFieldIn;
+    this.resourceInfo = resourceInfoIn;
+  }
+
+  public synchronized SimpleFeatureType getFeatureType() {
+    return this.featureType;
+  }
+
+  public synchronized CoordinateReferenceSystem getCRS() {
+    return this.crs;
+  }
+
+  public synchronized String getObjectIdField() {
+    return this.objectIdField;
+  }
+
+  public synchronized DefaultResourceInfo getResourceInfo() {
+    return this.resourceInfo;
+  }
+
+}
@@ -0,0 +1,371 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Converters;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.identity.Identifier;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * In-memory replica of a whole layer, queried instead of the server: features
+ * are indexed by envelope (in an STRtree), by ID and, on first use, by the
+ * values of the attributes compared for equality in filters.
+ *
+ * The replica is replaced as a whole when the layer is downloaded again, so
+ * that queries always run against a consistent set of features.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestLayerMirror {
+
+  /**
+   * Features of the layer as downloaded at a given time, with their indexes
+   */
+  protected static class Snapshot {
+    protected List<SimpleFeature> features;
+    protected Object version;
+    protected ReferencedEnvelope bounds;
+    protected STRtree spatialIndex = new STRtree();
+    protected List<Integer> withoutGeometry = new ArrayList<Integer>();
+    protected Map<String, Integer> idIndex = new HashMap<String, Integer>();
+    protected Map<String, Map<Object, List<Integer>>> attributeIndexes = new ConcurrentHashMap<String, Map<Object, List<Integer>>>();
+
+    protected Snapshot(SimpleFeatureType featureType,
+        List<SimpleFeature> featuresIn, Object versionIn) {
+      this.features = featuresIn;
+      this.version = versionIn;
+      this.bounds = new ReferencedEnvelope(
+          featureType.getCoordinateReferenceSystem());
+
+      for (int i = 0; i < featuresIn.size(); i++) {
+        SimpleFeature feature = featuresIn.get(i);
+        this.idIndex.put(feature.getID(), i);
+        Geometry geom = (Geometry) feature.getDefaultGeometry();
+        if (geom == null || geom.isEmpty()) {
+          this.withoutGeometry.add(i);
+        } else {
+          this.spatialIndex.insert(geom.getEnvelopeInternal(), i);
+          this.bounds.expandToInclude(geom.getEnvelopeInternal());
+        }
+      }
+
+      // The tree is built upfront, since building it on first query is not
+      // thread-safe
+      this.spatialIndex.build();
+    }
+  }
+
+  protected String name;
+  protected SimpleFeatureType featureType;
+
+  // Current features (null until the layer is downloaded), and whether the
+  // layer turned out to be too large to be mirrored
+  protected volatile Snapshot snapshot;
+  protected volatile boolean rejected = false;
+
+  // Scheduled refresh of the features (null if they are not refreshed)
+  protected ScheduledFuture<?> refresh;
+
+  /**
+   * Constructor
+   *
+   * @param nameIn
+   *          name of the layer
+   */
+  public ArcGISRestLayerMirror(String nameIn) {
+    this.name = nameIn;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Returns whether the features of the layer have been downloaded
+   *
+   * @return true if the mirror can be queried
+   */
+  public boolean isLoaded() {
+    return this.snapshot != null;
+  }
+
+  /**
+   * Returns whether the layer is not mirrored, because of its size
+   *
+   * @return true if the layer is read from the server
+   */
+  public boolean isRejected() {
+    return this.rejected;
+  }
+
+  /**
+   * Marks the layer as not mirrored
+   */
+  public void reject() {
+    this.rejected = true;
+  }
+
+  /**
+   * Returns the version of the layer the features were downloaded at
+   *
+   * @return the version (such as the date of the last edit), or null
+   */
+  public Object getVersion() {
+    Snapshot current = this.snapshot;
+    return current != null ? current.version : null;
+  }
+
+  /**
+   * Replaces the features of the layer
+   *
+   * @param featureTypeIn
+   *          type of the features (the whole schema of the layer)
+   * @param features
+   *          all the features of the layer
+   * @param version
+   *          version of the layer they were downloaded at (such as the date
+   *          of the last edit)
+   */
+  public void refresh(SimpleFeatureType featureTypeIn,
+      List<SimpleFeature> features, Object version) {
+    this.featureType = featureTypeIn;
+    this.snapshot = new Snapshot(featureTypeIn, features, version);
+  }
+
+  public SimpleFeatureType getFeatureType() {
+    return this.featureType;
+  }
+
+  public synchronized void setRefresh(ScheduledFuture<?> refreshIn) {
+    this.refresh = refreshIn;
+  }
+
+  /**
+   * Stops refreshing the features, and releases them
+   */
+  public synchronized void dispose() {
+    if (this.refresh != null) {
+      this.refresh.cancel(false);
+      this.refresh = null;
+    }
+    this.snapshot = null;
+  }
+
+  /**
+   * Returns the features matching a filter, in the order they were
+   * downloaded in (the returned features must not be modified)
+   *
+   * @param filter
+   *          the filter
+   * @return the matching features
+   */
+  public List<SimpleFeature> query(Filter filter) {
+
+    Snapshot current = this.snapshot;
+    if (current == null) {
+      return Collections.emptyList();
+    }
+
+    if (filter == null || filter == Filter.INCLUDE) {
+      return current.features;
+    }
+
+    List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+    List<Integer> candidates = this.composeCandidates(current, filter);
+    if (candidates == null) {
+      for (SimpleFeature feature : current.features) {
+        if (filter.evaluate(feature)) {
+          result.add(feature);
+        }
+      }
+      return result;
+    }
+
+    for (Integer index : candidates) {
+      SimpleFeature feature = current.features.get(index);
+      if (filter.evaluate(feature)) {
+        result.add(feature);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the extent of the features matching a filter
+   *
+   * @param filter
+   *          the filter
+   * @return the extent, in the CRS of the layer
+   */
+  public ReferencedEnvelope getBounds(Filter filter) {
+
+    Snapshot current = this.snapshot;
+    if (current == null) {
+      return null;
+    }
+
+    if (filter == null || filter == Filter.INCLUDE) {
+      return new ReferencedEnvelope(current.bounds);
+    }
+
+    ReferencedEnvelope bounds = new ReferencedEnvelope(
+        this.featureType.getCoordinateReferenceSystem());
+    for (SimpleFeature feature : this.query(filter)) {
+      Geometry geom = (Geometry) feature.getDefaultGeometry();
+      if (geom != null) {
+        bounds.expandToInclude(geom.getEnvelopeInternal());
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * Helper method to return the indexes (in ascending order) of the features
+   * that may match a filter, using the ID, attribute or spatial index
+   *
+   * @return the indexes, or null if all the features have to be evaluated
+   */
+  protected List<Integer> composeCandidates(Snapshot current, Filter filter) {
+
+    // Feature IDs
+    if (filter instanceof Id) {
+      List<Integer> candidates = new ArrayList<Integer>();
+      for (Identifier id : ((Id) filter).getIdentifiers()) {
+        Integer index = current.idIndex.get(id.getID().toString());
+        if (index != null) {
+          candidates.add(index);
+        }
+      }
+      Collections.sort(candidates);
+      return candidates;
+    }
+
+    // Equality of an attribute, possibly as part of a conjunction
+    List<Integer> candidates = this.composeAttributeCandidates(current,
+        filter);
+    if (candidates == null && filter instanceof And) {
+      for (Filter child : ((And) filter).getChildren()) {
+        candidates = this.composeAttributeCandidates(current, child);
+        if (candidates != null) {
+          break;
+        }
+      }
+    }
+    if (candidates != null) {
+      return candidates;
+    }
+
+    // Envelope the filter restricts geometries to, if any
+    Envelope env = (Envelope) filter
+        .accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+    if (env == null || env.isNull() || Double.isInfinite(env.getWidth())
+        || Double.isInfinite(env.getHeight())) {
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Integer> hits = current.spatialIndex.query(env);
+    candidates = new ArrayList<Integer>(hits);
+    candidates.addAll(current.withoutGeometry);
+    Collections.sort(candidates);
+    return candidates;
+  }
+
+  /**
+   * Helper method to return the indexes of the features whose attribute is
+   * equal to a literal, building the index of the attribute on first use
+   *
+   * @return the indexes, or null if the filter is not such a comparison
+   */
+  protected List<Integer> composeAttributeCandidates(Snapshot current,
+      Filter filter) {
+
+    if (filter instanceof PropertyIsEqualTo == false
+        || ((PropertyIsEqualTo) filter).isMatchingCase() == false) {
+      return null;
+    }
+
+    Expression expr1 = ((PropertyIsEqualTo) filter).getExpression1();
+    Expression expr2 = ((PropertyIsEqualTo) filter).getExpression2();
+    if (expr1 instanceof Literal && expr2 instanceof PropertyName) {
+      Expression swap = expr1;
+      expr1 = expr2;
+      expr2 = swap;
+    }
+    if (expr1 instanceof PropertyName == false
+        || expr2 instanceof Literal == false) {
+      return null;
+    }
+
+    String attribute = ((PropertyName) expr1).getPropertyName();
+    AttributeDescriptor descriptor = this.featureType
+        .getDescriptor(attribute);
+    if (descriptor == null) {
+      return null;
+    }
+    Class<?> binding = descriptor.getType().getBinding();
+    Object value = Converters.convert(((Literal) expr2).getValue(), binding);
+    if (value == null) {
+      return null;
+    }
+
+    Map<Object, List<Integer>> index = current.attributeIndexes
+        .computeIfAbsent(attribute, (key) -> {
+          Map<Object, List<Integer>> values = new HashMap<Object, List<Integer>>();
+          for (int i = 0; i < current.features.size(); i++) {
+            Object attrValue = Converters
+                .convert(current.features.get(i).getAttribute(key), binding);
+            if (attrValue != null) {
+              values.computeIfAbsent(attrValue,
+                  (v) -> new ArrayList<Integer>()).add(i);
+            }
+          }
+          return values;
+        });
+
+    List<Integer> candidates = index.get(value);
+    return candidates != null ? candidates
+        : Collections.<Integer> emptyList();
+  }
+
+}
@@ -0,0 +1,217 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.geometry.BoundingBox;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Feature whose geometry is built only when it is first accessed, out of the
+ * coordinates kept as they were parsed. Consumers that read attributes only
+ * (such as attribute-only outputs or unique values visitors) never pay for
+ * building JTS objects.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestLazyFeature extends SimpleFeatureImpl {
+
+  // Index of the geometry attribute (-1 if there is none)
+  protected int geometryIndex;
+
+  // Builds the geometry (null once it has been built, or replaced)
+  protected Supplier<Geometry> geometrySupplier;
+
+  /**
+   * Constructor
+   *
+   * @param values
+   *          the attribute values (the geometry one is set when accessed)
+   * @param featureType
+   *          the feature type
+   * @param id
+   *          the feature ID
+   * @param geometryIndexIn
+   *          index of the geometry attribute (-1 if there is none)
+   * @param geometrySupplierIn
+   *          builds the geometry (null if the feature has none)
+   */
+  public ArcGISRestLazyFeature(Object[] values, SimpleFeatureType featureType,
+      String id, int geometryIndexIn, Supplier<Geometry> geometrySupplierIn) {
+    super(values, featureType, new FeatureIdImpl(id), false);
+    this.geometryIndex = geometryIndexIn;
+    this.geometrySupplier = geometryIndexIn >= 0 ? geometrySupplierIn : null;
+  }
+
+  /**
+   * Returns whether the geometry has been built (or the feature has none)
+   *
+   * @return true if the geometry is in the attribute values
+   */
+  public boolean isGeometryBuilt() {
+    return this.geometrySupplier == null;
+  }
+
+  /**
+   * Helper method to build the geometry, if it has not been built yet
+   */
+  protected void materialize() {
+    if (this.geometrySupplier != null) {
+      this.values[this.geometryIndex] = this.geometrySupplier.get();
+      this.geometrySupplier = null;
+    }
+  }
+
+  @Override
+  public Object getAttribute(int index) throws IndexOutOfBoundsException {
+    if (index == this.geometryIndex) {
+      this.materialize();
+    }
+    return super.getAttribute(index);
+  }
+
+  @Override
+  public List<Object> getAttributes() {
+    this.materialize();
+    return super.getAttributes();
+  }
+
+  @Override
+  public Object getDefaultGeometry() {
+    this.materialize();
+    return super.getDefaultGeometry();
+  }
+
+  @Override
+  public GeometryAttribute getDefaultGeometryProperty() {
+    this.materialize();
+    return super.getDefaultGeometryProperty();
+  }
+
+  @Override
+  public BoundingBox getBounds() {
+    this.materialize();
+    return super.getBounds();
+  }
+
+  @Override
+  public Collection<Property> getProperties() {
+    this.materialize();
+    return super.getProperties();
+  }
+
+  @Override
+  public Collection<Property> getProperties(Name name) {
+    this.materialize();
+    return super.getProperties(name);
+  }
+
+  @Override
+  public Collection<Property> getProperties(String name) {
+    this.materialize();
+    return super.getProperties(name);
+  }
+
+  @Override
+  public Property getProperty(Name name) {
+    this.materialize();
+    return super.getProperty(name);
+  }
+
+  @Override
+  public Property getProperty(String name) {
+    this.materialize();
+    return super.getProperty(name);
+  }
+
+  @Override
+  public Collection<? extends Property> getValue() {
+    this.materialize();
+    return super.getValue();
+  }
+
+  /**
+   * Setting the geometry drops its parsed coordinates
+   */
+  @Override
+  public void setAttribute(int index, Object value)
+      throws IndexOutOfBoundsException {
+    if (index == this.geometryIndex) {
+      this.geometrySupplier = null;
+    }
+    super.setAttribute(index, value);
+  }
+
+  @Override
+  public void setAttributes(List<Object> values) {
+    this.geometrySupplier = null;
+    super.setAttributes(values);
+  }
+
+  @Override
+  public void setAttributes(Object[] values) {
+    this.geometrySupplier = null;
+    super.setAttributes(values);
+  }
+
+  @Override
+  public void setDefaultGeometry(Object geometry) {
+    this.geometrySupplier = null;
+    super.setDefaultGeometry(geometry);
+  }
+
+  @Override
+  public void setDefaultGeometryProperty(GeometryAttribute geometryAttribute) {
+    this.geometrySupplier = null;
+    super.setDefaultGeometryProperty(geometryAttribute);
+  }
+
+  @Override
+  public void setValue(Collection<Property> values) {
+    this.geometrySupplier = null;
+    super.setValue(values);
+  }
+
+  @Override
+  public int hashCode() {
+    this.materialize();
+    return super.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    this.materialize();
+    if (obj instanceof ArcGISRestLazyFeature) {
+      ((ArcGISRestLazyFeature) obj).materialize();
+    }
+    return super.equals(obj);
+  }
+
+}
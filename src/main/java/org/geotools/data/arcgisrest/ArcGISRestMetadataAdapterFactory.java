@@ -0,0 +1,253 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.geotools.data.arcgisrest.schema.catalog.Error_;
+import org.geotools.data.arcgisrest.schema.services.feature.Featureserver;
+import org.geotools.data.arcgisrest.schema.services.feature.Layer;
+import org.geotools.data.arcgisrest.schema.webservice.AdvancedQueryCapabilities;
+import org.geotools.data.arcgisrest.schema.webservice.EditingInfo;
+import org.geotools.data.arcgisrest.schema.webservice.Extent;
+import org.geotools.data.arcgisrest.schema.webservice.Field;
+import org.geotools.data.arcgisrest.schema.webservice.MultiScaleGeometryInfo;
+import org.geotools.data.arcgisrest.schema.webservice.Webservice;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Factory of the adapters binding service metadata as it is read: only the
+ * members the data store uses are bound, while the others (such as the
+ * drawing info, templates and types of layers, which make up most of their
+ * metadata) are skipped without being built. Error messages returned in
+ * place of metadata are thrown as syntax exceptions.
+ *
+ * Metadata are written as the reflective adapters would.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestMetadataAdapterFactory implements TypeAdapterFactory {
+
+  // Member holding the error message returned in place of a document
+  public static final String ERROR_MEMBER = "error";
+
+  /**
+   * Reader of the value of a member into the object being bound
+   */
+  protected interface MemberReader<T> {
+    void read(JsonReader in, T target) throws IOException;
+  }
+
+  /**
+   * Adapter binding the given members of an object, and skipping the others
+   */
+  protected static class MetadataAdapter<T> extends TypeAdapter<T> {
+
+    protected Supplier<T> constructor;
+    protected Map<String, MemberReader<T>> members;
+    protected TypeAdapter<Error_> errorAdapter;
+    protected TypeAdapter<T> delegate;
+
+    public MetadataAdapter(Supplier<T> constructorIn,
+        Map<String, MemberReader<T>> membersIn,
+        TypeAdapter<Error_> errorAdapterIn, TypeAdapter<T> delegateIn) {
+      this.constructor = constructorIn;
+      this.members = membersIn;
+      this.errorAdapter = errorAdapterIn;
+      this.delegate = delegateIn;
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+
+      T target = this.constructor.get();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+
+        if (ERROR_MEMBER.equals(name)) {
+          Error_ err = this.errorAdapter.read(in);
+          throw new JsonSyntaxException(err != null
+              ? "Error " + err.getCode() + " " + err.getMessage()
+              : "Error");
+        }
+
+        MemberReader<T> member = this.members.get(name);
+        if (member != null) {
+          member.read(in, target);
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+
+      return target;
+    }
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+      this.delegate.write(out, value);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+
+    if (type.getRawType() == Webservice.class) {
+      return (TypeAdapter<T>) this.createWebserviceAdapter(gson,
+          gson.getDelegateAdapter(this, TypeToken.get(Webservice.class)));
+    }
+    if (type.getRawType() == Featureserver.class) {
+      return (TypeAdapter<T>) this.createFeatureserverAdapter(gson,
+          gson.getDelegateAdapter(this, TypeToken.get(Featureserver.class)));
+    }
+
+    return null;
+  }
+
+  /**
+   * Helper method to create the adapter of layer metadata
+   *
+   * @param gson
+   *          the Gson instance the adapter is created for
+   * @param delegate
+   *          the reflective adapter
+   * @return the adapter
+   */
+  protected TypeAdapter<Webservice> createWebserviceAdapter(Gson gson,
+      TypeAdapter<Webservice> delegate) {
+
+    TypeAdapter<Double> doubles = gson.getAdapter(Double.class);
+    TypeAdapter<Integer> integers = gson.getAdapter(Integer.class);
+    TypeAdapter<Boolean> booleans = gson.getAdapter(Boolean.class);
+    TypeAdapter<String> strings = gson.getAdapter(String.class);
+    TypeAdapter<Extent> extents = gson.getAdapter(Extent.class);
+    TypeAdapter<List<Field>> fields = gson
+        .getAdapter(new TypeToken<List<Field>>() {
+        });
+    TypeAdapter<AdvancedQueryCapabilities> advancedCapabilities = gson
+        .getAdapter(AdvancedQueryCapabilities.class);
+    TypeAdapter<MultiScaleGeometryInfo> multiScaleInfos = gson
+        .getAdapter(MultiScaleGeometryInfo.class);
+    TypeAdapter<EditingInfo> editingInfos = gson.getAdapter(EditingInfo.class);
+
+    Map<String, MemberReader<Webservice>> members = new HashMap<String, MemberReader<Webservice>>();
+    members.put("currentVersion",
+        (in, ws) -> ws.setCurrentVersion(doubles.read(in)));
+    members.put("id", (in, ws) -> ws.setId(integers.read(in)));
+    members.put("name", (in, ws) -> ws.setName(strings.read(in)));
+    members.put("type", (in, ws) -> ws.setType(strings.read(in)));
+    members.put("serviceItemId",
+        (in, ws) -> ws.setServiceItemId(strings.read(in)));
+    members.put("editingInfo",
+        (in, ws) -> ws.setEditingInfo(editingInfos.read(in)));
+    members.put("description",
+        (in, ws) -> ws.setDescription(strings.read(in)));
+    members.put("displayField",
+        (in, ws) -> ws.setDisplayField(strings.read(in)));
+    members.put("geometryType",
+        (in, ws) -> ws.setGeometryType(strings.read(in)));
+    members.put("extent", (in, ws) -> ws.setExtent(extents.read(in)));
+    members.put("objectIdField",
+        (in, ws) -> ws.setObjectIdField(strings.read(in)));
+    members.put("globalIdField",
+        (in, ws) -> ws.setGlobalIdField(strings.read(in)));
+    members.put("fields", (in, ws) -> ws.setFields(fields.read(in)));
+    members.put("hasStaticData",
+        (in, ws) -> ws.setHasStaticData(booleans.read(in)));
+    members.put("capabilities",
+        (in, ws) -> ws.setCapabilities(strings.read(in)));
+    members.put("supportedQueryFormats",
+        (in, ws) -> ws.setSupportedQueryFormats(strings.read(in)));
+    members.put("maxRecordCount",
+        (in, ws) -> ws.setMaxRecordCount(integers.read(in)));
+    members.put("supportsStatistics",
+        (in, ws) -> ws.setSupportsStatistics(booleans.read(in)));
+    members.put("supportsAdvancedQueries",
+        (in, ws) -> ws.setSupportsAdvancedQueries(booleans.read(in)));
+    members.put("supportsCoordinatesQuantization",
+        (in, ws) -> ws.setSupportsCoordinatesQuantization(booleans.read(in)));
+    members.put("supportsMultiScaleGeometry",
+        (in, ws) -> ws.setSupportsMultiScaleGeometry(booleans.read(in)));
+    members.put("advancedQueryCapabilities",
+        (in, ws) -> ws
+            .setAdvancedQueryCapabilities(advancedCapabilities.read(in)));
+    members.put("multiScaleGeometryInfo",
+        (in, ws) -> ws.setMultiScaleGeometryInfo(multiScaleInfos.read(in)));
+
+    return new MetadataAdapter<Webservice>(Webservice::new, members,
+        gson.getAdapter(Error_.class), delegate);
+  }
+
+  /**
+   * Helper method to create the adapter of feature server metadata
+   *
+   * @param gson
+   *          the Gson instance the adapter is created for
+   * @param delegate
+   *          the reflective adapter
+   * @return the adapter
+   */
+  protected TypeAdapter<Featureserver> createFeatureserverAdapter(Gson gson,
+      TypeAdapter<Featureserver> delegate) {
+
+    TypeAdapter<Double> doubles = gson.getAdapter(Double.class);
+    TypeAdapter<Integer> integers = gson.getAdapter(Integer.class);
+    TypeAdapter<String> strings = gson.getAdapter(String.class);
+    TypeAdapter<List<Layer>> layers = gson
+        .getAdapter(new TypeToken<List<Layer>>() {
+        });
+
+    Map<String, MemberReader<Featureserver>> members = new HashMap<String, MemberReader<Featureserver>>();
+    members.put("currentVersion",
+        (in, fs) -> fs.setCurrentVersion(doubles.read(in)));
+    members.put("description",
+        (in, fs) -> fs.setDescription(strings.read(in)));
+    members.put("capabilities",
+        (in, fs) -> fs.setCapabilities(strings.read(in)));
+    members.put("supportedQueryFormats",
+        (in, fs) -> fs.setSupportedQueryFormats(strings.read(in)));
+    members.put("maxRecordCount",
+        (in, fs) -> fs.setMaxRecordCount(integers.read(in)));
+    members.put("layers", (in, fs) -> fs.setLayers(layers.read(in)));
+
+    return new MetadataAdapter<Featureserver>(Featureserver::new, members,
+        gson.getAdapter(Error_.class), delegate);
+  }
+
+}
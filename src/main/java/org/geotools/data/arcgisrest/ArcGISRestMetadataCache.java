@@ -0,0 +1,332 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.arcgisrest.schema.webservice.Webservice;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Persistent cache of service metadata, keyed by service URL. Metadata are
+ * kept on disk in the compact form they are bound to (that is, with the
+ * members used by the data store only), so that a data store can be set up
+ * without waiting on the network.
+ *
+ * Entries read from disk are returned right away, and revalidated in the
+ * background: the metadata are downloaded again and, if their version (the
+ * service item ID and last edit date of layers) has changed, they replace
+ * the cached ones. Entries are revalidated once for the lifetime of the
+ * cache.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestMetadataCache {
+
+  // Number of threads revalidating entries
+  public static final int REVALIDATION_THREADS = 4;
+
+  // Extension of the files entries are stored in
+  public static final String FILE_EXTENSION = ".json";
+
+  /**
+   * Loader of the metadata of a service
+   */
+  public interface Loader<T> {
+    T load() throws IOException;
+  }
+
+  protected Path directory;
+  protected Logger LOGGER;
+
+  // Entries read or stored since the cache was created, by key
+  protected Map<String, Object> entries = new ConcurrentHashMap<String, Object>();
+
+  // Keys of the entries that have been revalidated (or are being so)
+  protected Set<String> revalidated = ConcurrentHashMap.newKeySet();
+
+  protected ThreadPoolExecutor revalidator;
+
+  /**
+   * Constructor
+   *
+   * @param directoryIn
+   *          directory entries are stored in (created if it does not exist)
+   * @param loggerIn
+   *          the logger to use
+   * @throws IOException
+   */
+  public ArcGISRestMetadataCache(File directoryIn, Logger loggerIn)
+      throws IOException {
+
+    this.directory = directoryIn.toPath();
+    this.LOGGER = loggerIn;
+    Files.createDirectories(this.directory);
+
+    this.revalidator = new ThreadPoolExecutor(REVALIDATION_THREADS,
+        REVALIDATION_THREADS, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), (runnable) -> {
+          Thread thread = new Thread(runnable, "ArcGISRestMetadataCache");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.revalidator.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the directory entries are stored in
+   *
+   * @return the directory
+   */
+  public File getDirectory() {
+    return this.directory.toFile();
+  }
+
+  /**
+   * Returns the metadata of a service: cached metadata are returned right away
+   * (and revalidated in the background if they were read from disk), while
+   * metadata that are not cached are loaded and stored
+   *
+   * @param key
+   *          URL of the service
+   * @param clazz
+   *          class the metadata are bound to
+   * @param loader
+   *          loads the metadata from the service
+   * @return the metadata
+   * @throws IOException
+   */
+  public <T> T retrieve(String key, Class<T> clazz, Loader<T> loader)
+      throws IOException {
+
+    Object entry = this.entries.get(key);
+    if (clazz.isInstance(entry)) {
+      return clazz.cast(entry);
+    }
+
+    T stale = this.read(key, clazz);
+    if (stale != null) {
+      this.entries.put(key, stale);
+      this.revalidate(key, stale, loader);
+      return stale;
+    }
+
+    T fresh = loader.load();
+    if (fresh != null) {
+      this.revalidated.add(key);
+      this.store(key, fresh);
+    }
+    return fresh;
+  }
+
+  /**
+   * Helper method to download the metadata of a service again in the
+   * background, and store them if their version has changed
+   *
+   * @param key
+   *          URL of the service
+   * @param stale
+   *          the cached metadata
+   * @param loader
+   *          loads the metadata from the service
+   */
+  protected <T> void revalidate(String key, T stale, Loader<T> loader) {
+
+    if (this.revalidated.add(key) == false) {
+      return;
+    }
+
+    this.revalidator.execute(() -> {
+      try {
+        T fresh = loader.load();
+        if (fresh != null && Objects.equals(composeVersion(stale),
+            composeVersion(fresh)) == false) {
+          this.store(key, fresh);
+          LOGGER.log(Level.INFO, "Metadata of " + key + " have changed");
+        }
+      } catch (IOException | RuntimeException e) {
+        // The cached metadata are kept until the service can be reached
+        LOGGER.log(Level.FINE, "Metadata of " + key
+            + " could not be revalidated: " + e.getMessage(), e);
+      }
+    });
+  }
+
+  /**
+   * Helper method to return the version of metadata: the service item ID and
+   * last edit date of layers, or the whole metadata for layers without them
+   * and services (whose item ID does not change when layers are added)
+   *
+   * @param metadata
+   *          the metadata
+   * @return the version
+   */
+  protected static String composeVersion(Object metadata) {
+
+    String version = null;
+    if (metadata instanceof Webservice) {
+      Webservice ws = (Webservice) metadata;
+      if (ws.getServiceItemId() != null || (ws.getEditingInfo() != null
+          && ws.getEditingInfo().getLastEditDate() != null)) {
+        version = ws.getServiceItemId() + " "
+            + (ws.getEditingInfo() != null
+                ? ws.getEditingInfo().getLastEditDate() : null);
+      }
+    }
+
+    return version != null ? version
+        : ArcGISRestDataStore.GSON.toJson(metadata);
+  }
+
+  /**
+   * Stores the metadata of a service, both in memory and on disk (failing to
+   * write them is logged only, since they can be downloaded again)
+   *
+   * @param key
+   *          URL of the service
+   * @param metadata
+   *          the metadata
+   */
+  public void store(String key, Object metadata) {
+
+    this.entries.put(key, metadata);
+
+    Path file = this.composePath(key);
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(this.directory, null, FILE_EXTENSION);
+      try (Writer writer = Files.newBufferedWriter(tmp,
+          StandardCharsets.UTF_8)) {
+        ArcGISRestDataStore.GSON.toJson(metadata, writer);
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Metadata of " + key
+          + " could not be written to " + file + ": " + e.getMessage(), e);
+      if (tmp != null) {
+        tmp.toFile().delete();
+      }
+    }
+  }
+
+  /**
+   * Helper method to read the metadata of a service from disk
+   *
+   * @param key
+   *          URL of the service
+   * @param clazz
+   *          class the metadata are bound to
+   * @return the metadata (null if they are not cached, or cannot be read)
+   */
+  protected <T> T read(String key, Class<T> clazz) {
+
+    Path file = this.composePath(key);
+    if (Files.isRegularFile(file) == false) {
+      return null;
+    }
+
+    try (Reader reader = Files.newBufferedReader(file,
+        StandardCharsets.UTF_8)) {
+      return ArcGISRestDataStore.GSON.fromJson(reader, clazz);
+    } catch (IOException | JsonParseException e) {
+      // A damaged entry is dropped, and the metadata downloaded again
+      LOGGER.log(Level.WARNING, "Metadata of " + key
+          + " could not be read from " + file + ": " + e.getMessage(), e);
+      file.toFile().delete();
+      return null;
+    }
+  }
+
+  /**
+   * Removes all the entries, both in memory and on disk
+   *
+   * @throws IOException
+   */
+  public void clear() throws IOException {
+
+    this.entries.clear();
+    this.revalidated.clear();
+    File[] files = this.directory.toFile()
+        .listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+    if (files != null) {
+      for (File file : files) {
+        Files.deleteIfExists(file.toPath());
+      }
+    }
+  }
+
+  /**
+   * Stops revalidating entries
+   */
+  public void dispose() {
+    this.revalidator.shutdownNow();
+  }
+
+  /**
+   * Helper method to return the file the metadata of a service are stored in,
+   * named after the SHA-1 digest of its URL
+   *
+   * @param key
+   *          URL of the service
+   * @return the path of the file
+   */
+  protected Path composePath(String key) {
+
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1")
+          .digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder(digest.length * 2 + 5);
+      for (byte b : digest) {
+        name.append(Character.forDigit((b >> 4) & 0xF, 16))
+            .append(Character.forDigit(b & 0xF, 16));
+      }
+      return this.directory.resolve(name.append(FILE_EXTENSION).toString());
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-1 is available on every Java platform
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Splittable source of the features of a query partitioned into batches of
+ * object IDs. Splitting hands half of the remaining batches to the new
+ * spliterator, so that each consumer of a parallel stream requests its own
+ * batches, as in:
+ *
+ * <pre>
+ * StreamSupport.stream(featureSource.getObjectIdSpliterator(query), true)
+ * </pre>
+ *
+ * A batch is requested when the first of its features is consumed. Closing
+ * the spliterator closes the responses of the batches being read by it and by
+ * the spliterators split off it, hence consumers that may stop before the end
+ * (such as findFirst or limit) have to close it, as in:
+ *
+ * <pre>
+ * try (Stream&lt;SimpleFeature&gt; stream = StreamSupport.stream(spliterator, true)
+ *     .onClose(spliterator::close)) {
+ *   ...
+ * }
+ * </pre>
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestObjectIdSpliterator
+    implements Spliterator<SimpleFeature>, AutoCloseable {
+
+  protected ArcGISRestFeatureSource featureSource;
+  protected SimpleFeatureType featureType;
+  protected List<Map<String, Object>> batches;
+  protected int batchSize;
+  protected Logger LOGGER;
+
+  // Filter the features have to satisfy, on top of the request parameters
+  protected Filter filter = Filter.INCLUDE;
+
+  // Range of batches still to be read by this spliterator
+  protected int current;
+  protected int end;
+
+  // Batch being read
+  protected ArcGISRestFeatureParser batch;
+
+  // Batches being read by this spliterator and the ones split off it, and
+  // whether they have been closed
+  protected Set<ArcGISRestFeatureParser> openBatches;
+  protected AtomicBoolean closed;
+
+  /**
+   * Constructor
+   *
+   * @param featureSourceIn
+   *          the feature source to query
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param batchesIn
+   *          the request parameters of each batch
+   * @param batchSizeIn
+   *          the (maximum) number of object IDs per batch
+   * @param loggerIn
+   *          the logger to use
+   */
+  public ArcGISRestObjectIdSpliterator(ArcGISRestFeatureSource featureSourceIn,
+      SimpleFeatureType featureTypeIn, List<Map<String, Object>> batchesIn,
+      int batchSizeIn, Logger loggerIn) {
+    this(featureSourceIn, featureTypeIn, batchesIn, batchSizeIn, loggerIn, 0,
+        batchesIn.size(), ConcurrentHashMap.newKeySet(), new AtomicBoolean());
+  }
+
+  protected ArcGISRestObjectIdSpliterator(
+      ArcGISRestFeatureSource featureSourceIn, SimpleFeatureType featureTypeIn,
+      List<Map<String, Object>> batchesIn, int batchSizeIn, Logger loggerIn,
+      int start, int endIn, Set<ArcGISRestFeatureParser> openBatchesIn,
+      AtomicBoolean closedIn) {
+    this.featureSource = featureSourceIn;
+    this.featureType = featureTypeIn;
+    this.batches = batchesIn;
+    this.batchSize = batchSizeIn;
+    this.LOGGER = loggerIn;
+    this.current = start;
+    this.end = endIn;
+    this.openBatches = openBatchesIn;
+    this.closed = closedIn;
+  }
+
+  /**
+   * Sets the filter the features have to satisfy (for the part of a query
+   * filter that cannot be sent to the server)
+   *
+   * @param filterIn
+   *          the filter
+   */
+  public void setFilter(Filter filterIn) {
+    this.filter = filterIn != null ? filterIn : Filter.INCLUDE;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super SimpleFeature> action) {
+
+    try {
+      while (true) {
+        while (this.batch == null || this.batch.hasNext() == false) {
+
+          this.closeBatch();
+          if (this.current >= this.end || this.closed.get()) {
+            return false;
+          }
+
+          Map<String, Object> params = this.batches.get(this.current++);
+          this.batch = ArcGISRestFeatureReader.openParser(
+              this.featureSource.retrieveFeatures(params),
+              params.get(ArcGISRestDataStore.FORMAT_PARAM), this.featureType,
+              this.LOGGER);
+          this.openBatches.add(this.batch);
+        }
+
+        SimpleFeature feature = this.batch.next();
+        if (this.filter.evaluate(feature)) {
+          action.accept(feature);
+          return true;
+        }
+      }
+    } catch (IOException e) {
+      this.closeBatch();
+      throw new RuntimeException(e.getMessage(), e);
+    } catch (RuntimeException e) {
+      this.closeBatch();
+      throw (e);
+    }
+  }
+
+  /**
+   * Helper method to close the batch being read, if any
+   */
+  protected void closeBatch() {
+    if (this.batch != null) {
+      this.openBatches.remove(this.batch);
+      this.batch.close();
+      this.batch = null;
+    }
+  }
+
+  /**
+   * Closes the batches being read by this spliterator and by the ones split
+   * off it, which return no more features afterwards
+   */
+  @Override
+  public void close() {
+    this.closed.set(true);
+    for (ArcGISRestFeatureParser open : this.openBatches) {
+      if (this.openBatches.remove(open)) {
+        open.close();
+      }
+    }
+  }
+
+  /**
+   * Splits off the first half of the batches, unless a batch is being read
+   * (the split has to be a prefix of the features still to read)
+   */
+  @Override
+  public Spliterator<SimpleFeature> trySplit() {
+
+    int remaining = this.end - this.current;
+    if (this.batch != null || remaining < 2) {
+      return null;
+    }
+
+    int split = this.current + remaining / 2;
+    ArcGISRestObjectIdSpliterator prefix = new ArcGISRestObjectIdSpliterator(
+        this.featureSource, this.featureType, this.batches, this.batchSize,
+        this.LOGGER, this.current, split, this.openBatches, this.closed);
+    prefix.setFilter(this.filter);
+    this.current = split;
+    return prefix;
+  }
+
+  /**
+   * Returns an upper bound of the features not read yet
+   */
+  @Override
+  public long estimateSize() {
+    return (long) (this.end - this.current) * this.batchSize;
+  }
+
+  @Override
+  public int characteristics() {
+    return Spliterator.ORDERED | Spliterator.NONNULL;
+  }
+
+}
@@ -0,0 +1,345 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Iterator over the features of a query whose result set spans several pages.
+ * Pages are requested using resultOffset and resultRecordCount, and each page
+ * is streamed through a parser of the requested format. The request of the
+ * next page is sent in the background while the current page is parsed: as
+ * soon as the server says the page is truncated or, since servers usually
+ * say so only after the features, speculatively once half of the page has
+ * been read (the request is discarded if the page turns out to be the last
+ * one). Results that fit in half a page are hence requested only once.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestPagingFeatureIterator implements SimpleFeatureIterator {
+
+  protected ArcGISRestFeatureSource featureSource;
+  protected SimpleFeatureType featureType;
+  protected Map<String, Object> params;
+  protected Logger LOGGER;
+
+  // Number of features requested per page
+  protected int pageSize;
+
+  // Offset of the first feature to return, and maximum number of features
+  protected int start;
+  protected int maxFeatures;
+
+  // Offset of the page being read, number of features read from it, and
+  // number of features returned so far
+  protected int offset;
+  protected int pageCount = 0;
+  protected int returned = 0;
+
+  // Page being read
+  protected ArcGISRestFeatureParser page;
+
+  // Request of the next page (if already sent) and its offset
+  protected Future<InputStream> nextPage;
+  protected int nextOffset = -1;
+
+  /**
+   * Constructor: it sends the request of the first page
+   *
+   * @param featureSourceIn
+   *          the feature source to query
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param paramsIn
+   *          the query parameters (without paging parameters)
+   * @param pageSizeIn
+   *          the number of features requested per page
+   * @param loggerIn
+   *          the logger to use
+   * @throws IOException
+   */
+  public ArcGISRestPagingFeatureIterator(
+      ArcGISRestFeatureSource featureSourceIn, SimpleFeatureType featureTypeIn,
+      Map<String, Object> paramsIn, int pageSizeIn, Logger loggerIn)
+      throws IOException {
+    this(featureSourceIn, featureTypeIn, paramsIn, pageSizeIn, 0,
+        Integer.MAX_VALUE, loggerIn);
+  }
+
+  /**
+   * Constructor: it sends the request of the first page
+   *
+   * @param featureSourceIn
+   *          the feature source to query
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param paramsIn
+   *          the query parameters (without paging parameters)
+   * @param pageSizeIn
+   *          the number of features requested per page
+   * @param startIn
+   *          offset of the first feature to return
+   * @param maxFeaturesIn
+   *          maximum number of features to return
+   * @param loggerIn
+   *          the logger to use
+   * @throws IOException
+   */
+  public ArcGISRestPagingFeatureIterator(
+      ArcGISRestFeatureSource featureSourceIn, SimpleFeatureType featureTypeIn,
+      Map<String, Object> paramsIn, int pageSizeIn, int startIn,
+      int maxFeaturesIn, Logger loggerIn) throws IOException {
+
+    this.featureSource = featureSourceIn;
+    this.featureType = featureTypeIn;
+    this.params = paramsIn;
+    this.pageSize = pageSizeIn;
+    this.start = Math.max(0, startIn);
+    this.maxFeatures = Math.max(0, maxFeaturesIn);
+    this.offset = this.start;
+    this.LOGGER = loggerIn;
+
+    this.openPage(this.featureSource
+        .retrieveFeatures(this.composePageParams(this.offset)));
+  }
+
+  /**
+   * Returns the request parameters of the page starting at the given offset
+   *
+   * @param pageOffset
+   *          offset of the first feature of the page
+   * @return request parameters
+   */
+  protected Map<String, Object> composePageParams(int pageOffset) {
+    Map<String, Object> pageParams = new HashMap<String, Object>(this.params);
+    pageParams.put(ArcGISRestDataStore.RESULTOFFSET_PARAM, pageOffset);
+    pageParams.put(ArcGISRestDataStore.RESULTRECORDCOUNT_PARAM,
+        this.composePageSize(pageOffset));
+    return pageParams;
+  }
+
+  /**
+   * Returns the number of features to request in the page starting at the
+   * given offset (the last page may be shorter, to honour the maximum number
+   * of features)
+   *
+   * @param pageOffset
+   *          offset of the first feature of the page
+   * @return number of features to request
+   */
+  protected int composePageSize(int pageOffset) {
+    return Math.min(this.pageSize,
+        this.maxFeatures - (pageOffset - this.start));
+  }
+
+  /**
+   * Starts parsing a page and, if the server already says it is truncated,
+   * sends the request of the next one
+   *
+   * @param stream
+   *          the response containing the page
+   * @throws IOException
+   */
+  protected void openPage(InputStream stream) throws IOException {
+
+    this.pageCount = 0;
+    this.page = ArcGISRestFeatureReader.openParser(stream,
+        this.params.get(ArcGISRestDataStore.FORMAT_PARAM), this.featureType,
+        this.LOGGER);
+
+    if (this.page.isExceededTransferLimit()) {
+      this.prefetchPage();
+    }
+  }
+
+  /**
+   * Sends the request of the page following the one being read, unless it
+   * has been sent already or enough features will have been read by then
+   */
+  protected void prefetchPage() {
+    if (this.nextPage == null
+        && this.composePageSize(this.offset + this.pageSize) > 0) {
+      this.requestPage(this.offset + this.pageSize);
+    }
+  }
+
+  /**
+   * Sends the request of a page in the background
+   *
+   * @param pageOffset
+   *          offset of the first feature of the page
+   */
+  protected void requestPage(int pageOffset) {
+    final Map<String, Object> pageParams = this.composePageParams(pageOffset);
+    this.nextOffset = pageOffset;
+    this.nextPage = ((ArcGISRestDataStore) this.featureSource.getDataStore())
+        .getExecutor()
+        .submit(() -> this.featureSource.retrieveFeatures(pageParams));
+  }
+
+  /**
+   * Moves to the next page, if any
+   *
+   * @return true if there is another page to read
+   * @throws IOException
+   */
+  protected boolean nextPage() throws IOException {
+
+    this.page.close();
+    boolean truncated = this.page.isExceededTransferLimit();
+    this.page = null;
+
+    // Either the server says the page is truncated, or the page is full (some
+    // servers do not set the flag), unless enough features have been read
+    if (this.pageCount == 0 || this.returned >= this.maxFeatures
+        || (truncated == false
+            && this.pageCount < this.composePageSize(this.offset))) {
+      this.discardPage();
+      return false;
+    }
+
+    // The page may have had fewer features than requested, in which case the
+    // next page has to start elsewhere
+    this.offset += this.pageCount;
+    if (this.nextPage != null && this.nextOffset != this.offset) {
+      this.discardPage();
+    }
+    if (this.nextPage == null) {
+      this.requestPage(this.offset);
+    }
+
+    InputStream stream;
+    try {
+      stream = this.nextPage.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+          : new IOException(e.getCause());
+    } finally {
+      this.nextPage = null;
+    }
+
+    this.openPage(stream);
+    return true;
+  }
+
+  /**
+   * Discards the request of the next page, closing its response (if any) in
+   * the background
+   */
+  protected void discardPage() {
+
+    if (this.nextPage == null) {
+      return;
+    }
+
+    final Future<InputStream> discarded = this.nextPage;
+    this.nextPage = null;
+    ((ArcGISRestDataStore) this.featureSource.getDataStore()).getExecutor()
+        .submit(() -> {
+          try {
+            discarded.get().close();
+          } catch (Exception e) {
+            LOGGER.log(Level.FINE, e.getMessage(), e);
+          }
+        });
+  }
+
+  /**
+   * Checks whether there is another feature to read, moving to the next page
+   * if necessary
+   *
+   * @return true if there is another featuere to read, false otherwise
+   */
+  @Override
+  public boolean hasNext() {
+
+    try {
+      while (this.page != null) {
+        if (this.returned >= this.maxFeatures) {
+          this.close();
+          return false;
+        }
+        if (this.page.hasNext()) {
+          return true;
+        }
+        this.nextPage();
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+      throw new RuntimeException(e.getMessage(), e);
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the next feature, whatever page it is on
+   *
+   * @return the next feature
+   */
+  @Override
+  public SimpleFeature next() throws NoSuchElementException {
+
+    if (this.hasNext() != true) {
+      throw new NoSuchElementException();
+    }
+
+    SimpleFeature feature = this.page.next();
+    this.pageCount++;
+    this.returned++;
+
+    // Whether the page is truncated is usually known only after its last
+    // feature, hence the next page is requested once half of it is read
+    if (this.pageCount == Math.max(1, this.composePageSize(this.offset) / 2)) {
+      this.prefetchPage();
+    }
+
+    return feature;
+  }
+
+  /**
+   * Closes the page being read and discards the next one
+   */
+  @Override
+  public void close() {
+
+    if (this.page != null) {
+      this.page.close();
+      this.page = null;
+    }
+    this.discardPage();
+  }
+
+}
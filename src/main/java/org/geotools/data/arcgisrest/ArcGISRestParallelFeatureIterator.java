@@ -0,0 +1,234 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import sun.misc.IOUtils;
+
+/**
+ * Iterator over the features of a query split into several requests (such as
+ * pages), which are sent concurrently. At most a given number of requests are
+ * in flight at any time, and each one reads its response whole (releasing its
+ * connection) and parses it into a bounded buffer, from which features are
+ * returned in the order of the requests.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestParallelFeatureIterator
+    implements SimpleFeatureIterator {
+
+  // Marks the end of the features of a request
+  protected static final Object END = new Object();
+
+  protected ArcGISRestFeatureSource featureSource;
+  protected SimpleFeatureType featureType;
+  protected List<Map<String, Object>> requests;
+  protected Logger LOGGER;
+
+  // Maximum number of requests in flight, and size of their buffers
+  protected int threads;
+  protected int bufferSize;
+
+  // Buffers and tasks of the requests sent so far
+  protected List<BlockingQueue<Object>> buffers;
+  protected List<Future<?>> fetches;
+
+  // Index of the request being read, and next feature to return
+  protected int current = 0;
+  protected SimpleFeature nextFeature;
+  protected boolean closed = false;
+
+  /**
+   * Constructor: it sends the first requests
+   *
+   * @param featureSourceIn
+   *          the feature source to query
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param requestsIn
+   *          the parameters of each request, in the order features have to be
+   *          returned
+   * @param threadsIn
+   *          maximum number of requests in flight
+   * @param bufferSizeIn
+   *          maximum number of features buffered per request
+   * @param loggerIn
+   *          the logger to use
+   */
+  public ArcGISRestParallelFeatureIterator(
+      ArcGISRestFeatureSource featureSourceIn, SimpleFeatureType featureTypeIn,
+      List<Map<String, Object>> requestsIn, int threadsIn, int bufferSizeIn,
+      Logger loggerIn) {
+
+    this.featureSource = featureSourceIn;
+    this.featureType = featureTypeIn;
+    this.requests = requestsIn;
+    this.threads = Math.max(1, threadsIn);
+    this.bufferSize = Math.max(1, bufferSizeIn);
+    this.LOGGER = loggerIn;
+    this.buffers = new ArrayList<BlockingQueue<Object>>(requestsIn.size());
+    this.fetches = new ArrayList<Future<?>>(requestsIn.size());
+
+    for (int i = 0; i < this.threads && i < this.requests.size(); i++) {
+      this.fetch(i);
+    }
+  }
+
+  /**
+   * Sends a request in the background, its features going into its buffer
+   *
+   * @param index
+   *          index of the request to send
+   */
+  protected void fetch(final int index) {
+
+    final BlockingQueue<Object> buffer = new ArrayBlockingQueue<Object>(
+        this.bufferSize);
+    final Map<String, Object> params = this.requests.get(index);
+    this.buffers.add(buffer);
+
+    this.fetches.add(
+        ((ArcGISRestDataStore) this.featureSource.getDataStore()).getExecutor()
+            .submit(() -> {
+              ArcGISRestFeatureParser parser = null;
+              try {
+                // The response is read whole first, so that its connection
+                // goes back to the pool before waiting for room in the buffer
+                byte[] response;
+                InputStream istream = this.featureSource
+                    .retrieveFeatures(params);
+                try {
+                  response = IOUtils.readFully(istream, -1, true);
+                } finally {
+                  istream.close();
+                }
+
+                parser = ArcGISRestFeatureReader.createParser(
+                    new ByteArrayInputStream(response),
+                    params.get(ArcGISRestDataStore.FORMAT_PARAM),
+                    this.featureType, this.LOGGER);
+                parser.parseFeatureCollection();
+                while (parser.hasNext()) {
+                  buffer.put(parser.next());
+                }
+                buffer.put(END);
+              } catch (InterruptedException e) {
+                // The iterator has been closed
+              } catch (Exception e) {
+                buffer.clear();
+                buffer.offer(e);
+              } finally {
+                if (parser != null) {
+                  parser.close();
+                }
+              }
+            }));
+  }
+
+  /**
+   * Checks whether there is another feature to read, waiting for the request
+   * being read if necessary
+   *
+   * @return true if there is another featuere to read, false otherwise
+   */
+  @Override
+  public boolean hasNext() {
+
+    while (this.nextFeature == null && this.closed == false
+        && this.current < this.requests.size()) {
+
+      Object item;
+      try {
+        item = this.buffers.get(this.current).take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.close();
+        throw new RuntimeException(e.getMessage(), e);
+      }
+
+      if (item instanceof SimpleFeature) {
+        this.nextFeature = (SimpleFeature) item;
+      } else if (item == END) {
+        // Moves to the next request, sending a new one in its place
+        this.buffers.set(this.current, null);
+        this.current++;
+        if (this.fetches.size() < this.requests.size()) {
+          this.fetch(this.fetches.size());
+        }
+      } else {
+        Exception e = (Exception) item;
+        LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        this.close();
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+
+    return this.nextFeature != null;
+  }
+
+  /**
+   * Returns the next feature, in the order of the requests
+   *
+   * @return the next feature
+   */
+  @Override
+  public SimpleFeature next() throws NoSuchElementException {
+
+    if (this.hasNext() != true) {
+      throw new NoSuchElementException();
+    }
+
+    SimpleFeature feature = this.nextFeature;
+    this.nextFeature = null;
+    return feature;
+  }
+
+  /**
+   * Stops the requests still in flight
+   */
+  @Override
+  public void close() {
+
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+    this.fetches.forEach((fetch) -> fetch.cancel(true));
+    this.buffers.clear();
+  }
+
+}
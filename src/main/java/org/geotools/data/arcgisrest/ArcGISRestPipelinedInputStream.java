@@ -0,0 +1,328 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Input stream decoupling the download of a response from its parsing: a
+ * background task drains the response into a bounded queue of chunks, which
+ * the parser reads from. This way the connection is read at network speed
+ * while features are being decoded (and consumed), and a slow consumer does
+ * not stall the socket until the queue is full.
+ *
+ * Chunks are direct buffers taken from a pool shared by all the streams with
+ * the same chunk size, and returned to it once they have been read.
+ *
+ * The response, and the chunks that have not been read, belong to the
+ * download task: closing the stream just stops it, and the task closes the
+ * response and returns the chunks to their pool when it ends.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestPipelinedInputStream extends InputStream {
+
+  // Marks the end of the response
+  protected static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  // Maximum number of idle chunks kept by each pool
+  protected static final int POOL_SIZE = 64;
+
+  // Pools of idle chunks by chunk size
+  protected static final Map<Integer, ConcurrentLinkedQueue<ByteBuffer>> pools = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>>();
+
+  protected InputStream source;
+  protected Logger LOGGER;
+  protected int bufferSize;
+
+  // Chunks downloaded and not read yet, the task downloading them, and
+  // whether the task has started and ended
+  protected BlockingQueue<ByteBuffer> chunks;
+  protected Future<?> download;
+  protected AtomicBoolean started = new AtomicBoolean(false);
+  protected boolean finished = false;
+
+  // Error raised by the download, thrown by the next read
+  protected volatile IOException error;
+
+  // Chunk being read
+  protected ByteBuffer chunk;
+  protected boolean ended = false;
+  protected volatile boolean closed = false;
+
+  /**
+   * Constructor: it starts the download
+   *
+   * @param sourceIn
+   *          the response to download
+   * @param executor
+   *          the executor to run the download in
+   * @param queueDepth
+   *          maximum number of chunks downloaded ahead of the parser
+   * @param bufferSizeIn
+   *          size in bytes of each chunk
+   * @param loggerIn
+   *          the logger to use
+   */
+  public ArcGISRestPipelinedInputStream(InputStream sourceIn,
+      ExecutorService executor, int queueDepth, int bufferSizeIn,
+      Logger loggerIn) {
+
+    this.source = sourceIn;
+    this.LOGGER = loggerIn;
+    this.bufferSize = bufferSizeIn;
+    this.chunks = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, queueDepth));
+    this.download = executor.submit(() -> {
+      this.drain();
+    });
+  }
+
+  /**
+   * Helper method to read the response into chunks until its end, or until
+   * the stream is closed
+   */
+  protected void drain() {
+
+    // The stream may have been closed before the download started
+    if (this.started.compareAndSet(false, true) == false) {
+      return;
+    }
+
+    ReadableByteChannel channel = Channels.newChannel(this.source);
+    ByteBuffer buffer = null;
+
+    try {
+      try {
+        while (this.closed == false) {
+          buffer = acquire(this.bufferSize);
+
+          // Fills the chunk with what has been received so far, without
+          // waiting for more data once something has been read
+          int n;
+          do {
+            n = channel.read(buffer);
+          } while (n >= 0 && buffer.hasRemaining()
+              && (buffer.position() == 0 || this.source.available() > 0));
+
+          buffer.flip();
+          if (buffer.hasRemaining()) {
+            this.chunks.put(buffer);
+            buffer = null;
+          }
+          if (n < 0) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        this.error = e;
+      }
+      this.chunks.put(END);
+    } catch (InterruptedException e) {
+      // The stream has been closed
+    } finally {
+      if (buffer != null) {
+        release(buffer);
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, e.getMessage(), e);
+      }
+      this.finish();
+    }
+  }
+
+  /**
+   * Helper method to mark the download as ended, returning the chunks that
+   * will not be read to their pool if the stream has been closed
+   */
+  protected synchronized void finish() {
+    this.finished = true;
+    if (this.closed) {
+      this.releaseChunks();
+    }
+  }
+
+  /**
+   * Helper method to return the chunks that have not been read to their pool
+   */
+  protected void releaseChunks() {
+    ByteBuffer buffer;
+    while ((buffer = this.chunks.poll()) != null) {
+      if (buffer != END) {
+        release(buffer);
+      }
+    }
+  }
+
+  /**
+   * Helper method to move to the next chunk, waiting for it to be downloaded
+   * if necessary
+   *
+   * @return false if the end of the response has been reached
+   * @throws IOException
+   */
+  protected boolean nextChunk() throws IOException {
+
+    if (this.chunk != null) {
+      release(this.chunk);
+      this.chunk = null;
+    }
+    if (this.ended) {
+      return false;
+    }
+
+    try {
+      ByteBuffer next = this.chunks.take();
+      if (next == END) {
+        this.ended = true;
+        if (this.error != null) {
+          throw this.error;
+        }
+        return false;
+      }
+      this.chunk = next;
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+
+    while (this.chunk == null || this.chunk.hasRemaining() == false) {
+      if (this.closed || this.nextChunk() == false) {
+        return -1;
+      }
+    }
+
+    return this.chunk.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+
+    if (len == 0) {
+      return 0;
+    }
+    while (this.chunk == null || this.chunk.hasRemaining() == false) {
+      if (this.closed || this.nextChunk() == false) {
+        return -1;
+      }
+    }
+
+    int n = Math.min(len, this.chunk.remaining());
+    this.chunk.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return this.chunk != null ? this.chunk.remaining() : 0;
+  }
+
+  /**
+   * Stops the download, which closes the response and returns the chunks that
+   * have not been read to their pool (or does so here, if the download has
+   * ended or has not started)
+   */
+  @Override
+  public void close() throws IOException {
+
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      if (this.finished) {
+        this.releaseChunks();
+      }
+    }
+
+    if (this.chunk != null) {
+      release(this.chunk);
+      this.chunk = null;
+    }
+
+    if (this.started.compareAndSet(false, true)) {
+      try {
+        this.source.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, e.getMessage(), e);
+      }
+    } else {
+      this.download.cancel(true);
+    }
+  }
+
+  /**
+   * Helper method to take an idle chunk from the pool of its size, allocating
+   * it if there is none
+   *
+   * @param size
+   *          size of the chunk
+   * @return the (cleared) chunk
+   */
+  protected static ByteBuffer acquire(int size) {
+
+    ConcurrentLinkedQueue<ByteBuffer> pool = pools.get(size);
+    ByteBuffer buffer = pool != null ? pool.poll() : null;
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Helper method to return a chunk to the pool of its size, unless the pool
+   * is full
+   *
+   * @param buffer
+   *          the chunk
+   */
+  protected static void release(ByteBuffer buffer) {
+
+    ConcurrentLinkedQueue<ByteBuffer> pool = pools.computeIfAbsent(
+        buffer.capacity(), (size) -> new ConcurrentLinkedQueue<ByteBuffer>());
+    if (pool.size() < POOL_SIZE) {
+      pool.offer(buffer);
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Cache of the features of map tiles: the features of a query envelope are
+ * requested per tile of a fixed grid laid over the layer extent, and kept by
+ * tile so that panning over the same areas requests the missing tiles only.
+ *
+ * Features are kept encoded (see ArcGISRestFeatureCodec) in direct buffers,
+ * outside the heap, and decoded when their tile is read. Tiles are evicted in
+ * least recently used order once the size of their encoded features exceeds
+ * the size of the cache, or once they expire.
+ *
+ * @author lmorandini
+ *
+ */
+public class ArcGISRestTileCache {
+
+  /**
+   * Encoded features of a tile
+   */
+  protected static class Tile {
+    protected ArcGISRestFeatureCodec codec;
+    protected ByteBuffer features;
+    protected long size;
+    protected long expiry;
+
+    protected Tile(ArcGISRestFeatureCodec codecIn, ByteBuffer featuresIn,
+        long expiryIn) {
+      this.codec = codecIn;
+      this.features = featuresIn;
+      this.size = featuresIn.capacity();
+      this.expiry = expiryIn;
+    }
+  }
+
+  // Maximum size in bytes of the encoded features, and their current size
+  protected long maxSize;
+  protected long size = 0;
+
+  // Tiles in least recently used order
+  protected LinkedHashMap<String, Tile> tiles = new LinkedHashMap<String, Tile>(
+      16, 0.75f, true);
+
+  /**
+   * Constructor
+   *
+   * @param maxSizeIn
+   *          maximum size in bytes of the encoded features
+   */
+  public ArcGISRestTileCache(long maxSizeIn) {
+    this.maxSize = maxSizeIn;
+  }
+
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  /**
+   * Returns the size in bytes of the cached (encoded) features
+   *
+   * @return the size
+   */
+  public synchronized long getSize() {
+    return this.size;
+  }
+
+  /**
+   * Returns the number of cached tiles
+   *
+   * @return the number of tiles
+   */
+  public synchronized int getTileCount() {
+    return this.tiles.size();
+  }
+
+  /**
+   * Returns the features of a tile, unless it is not cached or has expired
+   *
+   * @param key
+   *          key of the tile
+   * @return the features (decoded anew on each call), or null
+   */
+  public List<SimpleFeature> get(String key) {
+
+    Tile tile;
+    synchronized (this) {
+      tile = this.tiles.get(key);
+      if (tile == null) {
+        return null;
+      }
+
+      if (tile.expiry > 0 && tile.expiry <= System.currentTimeMillis()) {
+        this.tiles.remove(key);
+        this.size -= tile.size;
+        return null;
+      }
+    }
+
+    return tile.codec.decode(tile.features);
+  }
+
+  /**
+   * Caches the features of a tile, evicting the least recently used tiles if
+   * the cache is full (tiles larger than the cache are not cached)
+   *
+   * @param key
+   *          key of the tile
+   * @param codec
+   *          codec of the feature type of the features
+   * @param features
+   *          the features of the tile
+   * @param ttl
+   *          time in milliseconds the tile is valid for (0 if it does not
+   *          expire)
+   * @throws IOException
+   */
+  public void put(String key, ArcGISRestFeatureCodec codec,
+      List<SimpleFeature> features, long ttl) throws IOException {
+
+    Tile tile = new Tile(codec, codec.encode(features),
+        ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+    if (tile.size > this.maxSize) {
+      return;
+    }
+
+    synchronized (this) {
+      this.store(key, tile);
+    }
+  }
+
+  /**
+   * Helper method to add a tile, evicting the least recently used tiles if
+   * the cache is full
+   */
+  protected void store(String key, Tile tile) {
+
+    Tile previous = this.tiles.put(key, tile);
+    if (previous != null) {
+      this.size -= previous.size;
+    }
+    this.size += tile.size;
+
+    Iterator<Map.Entry<String, Tile>> iter = this.tiles.entrySet()
+        .iterator();
+    while (this.size > this.maxSize && iter.hasNext()) {
+      Map.Entry<String, Tile> eldest = iter.next();
+      this.size -= eldest.getValue().size;
+      iter.remove();
+    }
+  }
+
+  /**
+   * Removes all the tiles
+   */
+  public synchronized void clear() {
+    this.tiles.clear();
+    this.size = 0;
+  }
+
+}
@@ -0,0 +1,628 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonToken;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Esri JSON (f=json) parsing of the features returned by a query, using a
+ * streaming parser. Coordinates quantized by the server (as requested with
+ * quantizationParameters) are transformed back using the transform of the
+ * response.
+ *
+ * @author lmorandini
+ *
+ */
+public class EsriJSONParser extends GeoJSONParser {
+
+  /**
+   * Esri JSON format constants
+   */
+  static public final String OBJECTIDFIELDNAME = "objectIdFieldName";
+  static public final String EXCEEDEDTRANSFERLIMIT = "exceededTransferLimit";
+  static public final String TRANSFORM = "transform";
+  static public final String TRANSFORM_ORIGIN = "originPosition";
+  static public final String TRANSFORM_ORIGIN_UPPERLEFT = "upperLeft";
+  static public final String TRANSFORM_SCALE = "scale";
+  static public final String TRANSFORM_TRANSLATE = "translate";
+  static public final String FEATURE_ATTRIBUTES = "attributes";
+  static public final String GEOMETRY_X = "x";
+  static public final String GEOMETRY_Y = "y";
+  static public final String GEOMETRY_POINTS = "points";
+  static public final String GEOMETRY_PATHS = "paths";
+  static public final String GEOMETRY_RINGS = "rings";
+
+  // Name of the object ID field, whose value is used as feature ID
+  protected String objectIdField;
+
+  // Whether coordinates are quantized and, if so, the transform that turns
+  // them into map coordinates
+  protected boolean quantized = false;
+  protected boolean upperLeft = true;
+  protected double scaleX = 1;
+  protected double scaleY = 1;
+  protected double translateX = 0;
+  protected double translateY = 0;
+
+  /**
+   * Constructor
+   *
+   * @param iStream
+   *          the stream to read features from
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param loggerIn
+   *          the logger to use
+   * @throws UnsupportedEncodingException
+   */
+  public EsriJSONParser(InputStream iStream, SimpleFeatureType featureTypeIn,
+      Logger loggerIn) throws UnsupportedEncodingException {
+    super(iStream, featureTypeIn, loggerIn);
+  }
+
+  /**
+   * Reads the members of the response up to the features array. Since ArcGIS
+   * ReST API may return an error message, this case is handled by throwing an
+   * exception
+   *
+   * @throws IOException
+   */
+  @Override
+  public void parseFeatureCollection() throws IOException {
+
+    this.reader.beginObject();
+
+    while (this.reader.hasNext()) {
+
+      switch (this.reader.nextName()) {
+
+      case ERROR:
+        throw this.parseError();
+
+      case OBJECTIDFIELDNAME:
+        this.objectIdField = this.reader.nextString();
+        break;
+
+      case EXCEEDEDTRANSFERLIMIT:
+        this.exceededTransferLimit = this.reader.nextBoolean();
+        break;
+
+      case TRANSFORM:
+        this.parseTransform();
+        break;
+
+      case FEATURES:
+        this.reader.beginArray();
+        this.inFeatureCollection = true;
+        return;
+
+      default:
+        // Fields, spatial reference and geometry type are known already
+        this.reader.skipValue();
+      }
+    }
+
+    this.reader.endObject();
+    this.inFeatureCollection = false;
+  }
+
+  /**
+   * Parses the members of the response that follow the features array
+   *
+   * @throws IOException
+   */
+  @Override
+  protected void parseFeatureCollectionTrailer() throws IOException {
+
+    while (this.reader.hasNext()) {
+      if (EXCEEDEDTRANSFERLIMIT.equals(this.reader.nextName())) {
+        this.exceededTransferLimit = this.reader.nextBoolean();
+      } else {
+        this.reader.skipValue();
+      }
+    }
+    this.reader.endObject();
+  }
+
+  /**
+   * Parses the transform of quantized coordinates
+   *
+   * @throws IOException
+   */
+  protected void parseTransform() throws IOException {
+
+    this.reader.beginObject();
+    while (this.reader.hasNext()) {
+      switch (this.reader.nextName()) {
+
+      case TRANSFORM_ORIGIN:
+        this.upperLeft = TRANSFORM_ORIGIN_UPPERLEFT
+            .equalsIgnoreCase(this.reader.nextString());
+        break;
+
+      case TRANSFORM_SCALE:
+        double[] scale = this.parseNumbers();
+        this.scaleX = scale[0];
+        this.scaleY = scale[1];
+        break;
+
+      case TRANSFORM_TRANSLATE:
+        double[] translate = this.parseNumbers();
+        this.translateX = translate[0];
+        this.translateY = translate[1];
+        break;
+
+      default:
+        this.reader.skipValue();
+      }
+    }
+    this.reader.endObject();
+
+    this.quantized = true;
+  }
+
+  /**
+   * Helper method to parse the first two numbers of an array
+   *
+   * @return the numbers
+   * @throws IOException
+   */
+  protected double[] parseNumbers() throws IOException {
+
+    double[] numbers = new double[2];
+    int i = 0;
+
+    this.reader.beginArray();
+    while (this.reader.hasNext()) {
+      if (i < numbers.length) {
+        numbers[i++] = this.reader.nextDouble();
+      } else {
+        this.reader.skipValue();
+      }
+    }
+    this.reader.endArray();
+
+    return numbers;
+  }
+
+  /**
+   * Returns whether coordinates are quantized
+   *
+   * @return true if coordinates are quantized
+   */
+  public boolean isQuantized() {
+    return this.quantized;
+  }
+
+  /**
+   * Parses an Esri JSON feature that conforms to the given FeatureType
+   *
+   * @return the parsed feature
+   */
+  @Override
+  public SimpleFeature parseFeature() {
+
+    Geometry geom = null;
+    String id = null;
+    Object[] values = this.composeValues();
+
+    try {
+      this.reader.beginObject();
+
+      while (this.reader.hasNext()) {
+
+        switch (this.reader.nextName()) {
+
+        case FEATURE_ATTRIBUTES:
+          id = this.parseFeatureAttributes(values);
+          break;
+
+        case FEATURE_GEOMETRY:
+          // Coordinates are not parsed when the geometry is not an attribute
+          if (this.decoder.getGeometryIndex() < 0) {
+            this.reader.skipValue();
+          } else {
+            geom = this.parseGeometry();
+          }
+          break;
+
+        default:
+          this.reader.skipValue();
+        }
+      }
+
+      this.reader.endObject();
+
+    } catch (IOException | IllegalStateException e) {
+      throw (new NoSuchElementException(e.getMessage()));
+    }
+
+    return this.buildFeature(id, geom, values);
+  }
+
+  /**
+   * Parses the attributes of an Esri JSON feature into the values of the
+   * attributes of the feature type, returning its object ID (which is the
+   * feature ID, hence it is read even when it is not an attribute of the
+   * feature type)
+   *
+   * @param values
+   *          the attribute values, as returned by composeValues
+   * @return the object ID (null if missing)
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected String parseFeatureAttributes(Object[] values)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    String id = null;
+
+    if (this.reader.peek() == JsonToken.NULL) {
+      this.reader.nextNull();
+      return id;
+    }
+
+    this.reader.beginObject();
+
+    while (this.reader.hasNext()) {
+      String name = this.reader.nextName();
+      int index = this.decoder.getIndex(name);
+      boolean objectId = name.equals(this.objectIdField);
+
+      if (index >= 0) {
+        values[index] = this.decoder.decode(this.reader, index);
+        if (objectId && values[index] != null) {
+          id = values[index].toString();
+        }
+      } else if (objectId && this.reader.peek() != JsonToken.NULL) {
+        id = this.reader.nextString();
+      } else {
+        this.reader.skipValue();
+      }
+    }
+
+    this.reader.endObject();
+    return id;
+  }
+
+  /**
+   * Parses a geometry in Esri JSON format, whose type is given by its members:
+   * points are returned as Point, paths as MultiLineString, and rings as
+   * MultiPolygon
+   *
+   * @return the geometry (null if the geometry is null or empty)
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  @Override
+  public Geometry parseGeometry()
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    if (this.reader.peek() == JsonToken.NULL) {
+      this.reader.nextNull();
+      return null;
+    }
+
+    this.ordinates.clear();
+    this.partEnds.clear();
+    Geometry geom = null;
+    double x = Double.NaN;
+    double y = Double.NaN;
+
+    this.reader.beginObject();
+
+    while (this.reader.hasNext()) {
+
+      switch (this.reader.nextName()) {
+
+      case GEOMETRY_X:
+        x = this.parseOrdinate();
+        break;
+
+      case GEOMETRY_Y:
+        y = this.parseOrdinate();
+        break;
+
+      case GEOMETRY_POINTS:
+        this.parsePositions();
+        geom = this.geometryFactory.createMultiPoint(
+            this.ordinates.toSequence(0, this.ordinates.size()));
+        break;
+
+      case GEOMETRY_PATHS:
+        this.parseParts();
+        LineString[] lines = new LineString[this.partEnds.size()];
+        for (int i = 0; i < lines.length; i++) {
+          lines[i] = this.geometryFactory.createLineString(
+              this.ordinates.toSequence(this.composePartStart(i),
+                  this.partEnds.get(i)));
+        }
+        geom = this.geometryFactory.createMultiLineString(lines);
+        break;
+
+      case GEOMETRY_RINGS:
+        this.parseParts();
+        geom = this.buildPolygons();
+        break;
+
+      default:
+        // Spatial reference, hasZ, hasM and the like
+        this.reader.skipValue();
+      }
+    }
+
+    this.reader.endObject();
+
+    if (geom == null && Double.isNaN(x) == false
+        && Double.isNaN(y) == false) {
+      this.ordinates.add(this.transformX(x));
+      this.ordinates.add(this.transformY(y));
+      geom = this.geometryFactory
+          .createPoint(this.ordinates.toSequence(0, 2));
+    }
+
+    return geom;
+  }
+
+  /**
+   * Helper method to parse an ordinate of a point, which may be null or
+   * "NaN" for empty points
+   *
+   * @return the ordinate (NaN if empty)
+   * @throws IOException
+   */
+  protected double parseOrdinate() throws IOException {
+
+    switch (this.reader.peek()) {
+    case NUMBER:
+      return this.reader.nextDouble();
+    case NULL:
+      this.reader.nextNull();
+      return Double.NaN;
+    default:
+      this.reader.skipValue();
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Parses an array of positions into the ordinates buffer. Quantized
+   * positions after the first one are offsets from the previous one.
+   *
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected void parsePositions()
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    double gridX = 0;
+    double gridY = 0;
+
+    this.reader.beginArray();
+    while (this.reader.hasNext()) {
+      this.reader.beginArray();
+      double x = this.reader.nextDouble();
+      double y = this.reader.nextDouble();
+
+      // Z and M are not requested (returnZ and returnM), hence only X and Y
+      // are kept
+      while (this.reader.peek() != JsonToken.END_ARRAY) {
+        this.reader.skipValue();
+      }
+      this.reader.endArray();
+
+      if (this.quantized) {
+        gridX += x;
+        gridY += y;
+        this.ordinates.add(this.transformX(gridX));
+        this.ordinates.add(this.transformY(gridY));
+      } else {
+        this.ordinates.add(x);
+        this.ordinates.add(y);
+      }
+    }
+    this.reader.endArray();
+  }
+
+  /**
+   * Parses an array of paths or rings into the ordinates buffer, recording
+   * where each of them ends
+   *
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected void parseParts()
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    this.reader.beginArray();
+    while (this.reader.hasNext()) {
+      this.parsePositions();
+      this.partEnds.add(this.ordinates.size());
+    }
+    this.reader.endArray();
+  }
+
+  /**
+   * Builds a multi-polygon out of the rings in the ordinates buffer
+   *
+   * @return the multi-polygon
+   */
+  protected Geometry buildPolygons() {
+    return buildPolygons(this.geometryFactory, this.ordinates, this.partEnds);
+  }
+
+  /**
+   * Builds a multi-polygon out of Esri rings. Esri outer rings are
+   * clockwise, and they are followed by their (counter clockwise) holes.
+   *
+   * @param geomFactory
+   *          the factory to build the multi-polygon with
+   * @param ordinates
+   *          the ordinates of the rings
+   * @param partEnds
+   *          the offsets in the ordinates where the rings end
+   * @return the multi-polygon
+   */
+  protected static Geometry buildPolygons(GeometryFactory geomFactory,
+      OrdinateBuffer ordinates, OffsetBuffer partEnds) {
+
+    List<Polygon> polys = new ArrayList<Polygon>();
+    LinearRing shell = null;
+    List<LinearRing> holes = new ArrayList<LinearRing>();
+
+    for (int i = 0; i < partEnds.size(); i++) {
+      int from = i == 0 ? 0 : partEnds.get(i - 1);
+      int to = partEnds.get(i);
+
+      // Rings with fewer than 4 positions once closed (such as the ones
+      // collapsed by quantization) are degenerate, and are skipped
+      if (countRingPositions(ordinates, from, to) < 4) {
+        continue;
+      }
+
+      LinearRing ring = geomFactory
+          .createLinearRing(ordinates.toRingSequence(from, to));
+      if (shell != null && computeSignedArea(ordinates, from, to) > 0) {
+        holes.add(ring);
+        continue;
+      }
+
+      if (shell != null) {
+        polys.add(geomFactory.createPolygon(shell,
+            holes.toArray(new LinearRing[holes.size()])));
+        holes.clear();
+      }
+      shell = ring;
+    }
+
+    if (shell != null) {
+      polys.add(geomFactory.createPolygon(shell,
+          holes.toArray(new LinearRing[holes.size()])));
+    }
+
+    return geomFactory
+        .createMultiPolygon(polys.toArray(new Polygon[polys.size()]));
+  }
+
+  /**
+   * Helper method to return the offset in the ordinates buffer where a part
+   * starts
+   *
+   * @param part
+   *          index of the part
+   * @return offset of its first ordinate
+   */
+  protected int composePartStart(int part) {
+    return part == 0 ? 0 : this.partEnds.get(part - 1);
+  }
+
+  /**
+   * Helper method to count the positions of a ring in an ordinates buffer,
+   * once closed
+   *
+   * @param ordinates
+   *          the ordinates buffer
+   * @param from
+   *          index of the first ordinate of the ring (inclusive)
+   * @param to
+   *          index of the last ordinate of the ring (exclusive)
+   * @return the number of positions
+   */
+  protected static int countRingPositions(OrdinateBuffer ordinates, int from,
+      int to) {
+
+    int positions = (to - from) / 2;
+    double[] values = ordinates.values;
+    if (positions > 0 && (values[from] != values[to - 2]
+        || values[from + 1] != values[to - 1])) {
+      positions++;
+    }
+
+    return positions;
+  }
+
+  /**
+   * Helper method to compute the signed area of a ring in an ordinates
+   * buffer (positive if the ring is counter-clockwise)
+   *
+   * @param ordinates
+   *          the ordinates buffer
+   * @param from
+   *          index of the first ordinate of the ring (inclusive)
+   * @param to
+   *          index of the last ordinate of the ring (exclusive)
+   * @return the signed area
+   */
+  protected static double computeSignedArea(OrdinateBuffer ordinates,
+      int from, int to) {
+
+    double[] values = ordinates.values;
+    double sum = 0;
+    for (int i = from; i < to - 2; i += 2) {
+      sum += values[i] * values[i + 3] - values[i + 2] * values[i + 1];
+    }
+    sum += values[to - 2] * values[from + 1] - values[from] * values[to - 1];
+
+    return sum / 2;
+  }
+
+  /**
+   * Helper method to transform a (quantized) X into a map X
+   *
+   * @param x
+   *          the X
+   * @return the map X
+   */
+  protected double transformX(double x) {
+    return this.quantized ? this.translateX + x * this.scaleX : x;
+  }
+
+  /**
+   * Helper method to transform a (quantized) Y into a map Y
+   *
+   * @param y
+   *          the Y
+   * @return the map Y
+   */
+  protected double transformY(double y) {
+    if (this.quantized == false) {
+      return y;
+    }
+    return this.upperLeft ? this.translateY - y * this.scaleY
+        : this.translateY + y * this.scaleY;
+  }
+
+}
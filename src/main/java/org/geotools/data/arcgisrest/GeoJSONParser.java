@@ -23,32 +23,33 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.FeatureFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
 
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.MalformedJsonException;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
-
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
-
-import org.geotools.geometry.jts.GeometryBuilder;
-import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.LinearRing;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
 
 import com.google.gson.JsonSyntaxException;
 
@@ -60,7 +61,7 @@ import org.geotools.data.arcgisrest.schema.catalog.Error_;
  * @author lmorandini
  *
  */
-public class GeoJSONParser implements SimpleFeatureIterator {
+public class GeoJSONParser implements ArcGISRestFeatureParser {
 
   /**
    * GeoJSON format constants
@@ -74,6 +75,7 @@ public class GeoJSONParser implements SimpleFeatureIterator {
   static public final String GEOJSON_TYPE_VALUE_FC = "FeatureCollection";
   static public final String GEOJSON_PROPERTIES = "properties";
   static public final String GEOJSON_TOTALFEATURES = "totalFeatures";
+  static public final String GEOJSON_EXCEEDEDTRANSFERLIMIT = "exceededTransferLimit";
   static public final String FEATURES = "features";
   static public final String CRS = "crs";
   static public final String CRS_TYPE = "type";
@@ -109,6 +111,25 @@ public class GeoJSONParser implements SimpleFeatureIterator {
   // Flag that shows whether the reader is in the middle of a feature collection
   protected boolean inFeatureCollection = false;
 
+  // Flag set when the server truncated the feature collection (ESRI extension)
+  protected boolean exceededTransferLimit = false;
+
+  // Ordinates of the geometry being parsed, offsets (in the ordinates)
+  // where its lines or rings end, and indexes (in the offsets) where the
+  // rings of its polygons end: all are reused across geometries
+  protected OrdinateBuffer ordinates = new OrdinateBuffer();
+  protected OffsetBuffer partEnds = new OffsetBuffer();
+  protected OffsetBuffer polygonEnds = new OffsetBuffer();
+
+  // Objects used to build geometries and features, created once per reader
+  protected GeometryFactory geometryFactory = new GeometryFactory();
+  protected FeatureFactory featureFactory = CommonFactoryFinder
+      .getFeatureFactory(null);
+
+  // Decoder of the properties into attribute values (compiled from the
+  // feature type on the first feature)
+  protected ArcGISRestAttributeDecoder decoder;
+
   /**
    * Constructor
    * 
@@ -160,9 +181,19 @@ public class GeoJSONParser implements SimpleFeatureIterator {
   public boolean hasNext() {
 
     try {
-      if (this.inFeatureCollection == true
-          && this.reader.peek() == JsonToken.BEGIN_OBJECT) {
-        return true;
+      if (this.inFeatureCollection == true) {
+        switch (this.reader.peek()) {
+        case BEGIN_OBJECT:
+          return true;
+        case END_ARRAY:
+          // The members after the features array may still carry properties
+          this.inFeatureCollection = false;
+          this.reader.endArray();
+          this.parseFeatureCollectionTrailer();
+          break;
+        default:
+          break;
+        }
       }
     } catch (IOException e) {
       LOGGER.log(Level.SEVERE, e.getMessage(), e);
@@ -194,6 +225,7 @@ public class GeoJSONParser implements SimpleFeatureIterator {
    * @return A simple feature collection iterator
    * @throws IOException
    */
+  @Override
   public void parseFeatureCollection() throws IOException {
 
     this.reader.beginObject();
@@ -207,12 +239,8 @@ public class GeoJSONParser implements SimpleFeatureIterator {
         throw this.parseError();
 
       case GEOJSON_PROPERTIES:
-        // TODO: ESRI extension to GeoJSON
-        this.reader.beginObject();
-        while (this.reader.hasNext()) {
-          this.reader.skipValue();
-        }
-        this.reader.endObject();
+        // ESRI extension to GeoJSON
+        this.parseFeatureCollectionProperties();
         break;
 
       case GEOJSON_TOTALFEATURES:
@@ -251,272 +279,224 @@ public class GeoJSONParser implements SimpleFeatureIterator {
   }
 
   /**
-   * Helper funciton to convert a List of double to an array of doubles
+   * Parses the properties of a feature collection, an ESRI extension to
+   * GeoJSON that tells whether the result set has been truncated
+   * 
+   * @throws IOException
    */
-  public static double[] listToArray(List<Double> coords) {
+  protected void parseFeatureCollectionProperties() throws IOException {
 
-    double[] arr = new double[coords.size()];
-    int i = 0;
-    for (Double d : coords) {
-      arr[i++] = d.doubleValue();
+    this.reader.beginObject();
+    while (this.reader.hasNext()) {
+      if (GEOJSON_EXCEEDEDTRANSFERLIMIT.equals(this.reader.nextName())) {
+        this.exceededTransferLimit = this.reader.nextBoolean();
+      } else {
+        this.reader.skipValue();
+      }
     }
-    return arr;
+    this.reader.endObject();
   }
 
   /**
-   * Utility methof that parses a Point GeoJSON coordinates array and adds them
-   * to coords
+   * Parses the members of the feature collection that follow the features
+   * array
    * 
-   * @param coords
-   *          List to add coordinates to
-   * @throws IOException,
-   *           JsonSyntaxException, IllegalStateException
+   * @throws IOException
    */
-  protected void parsePointCoordinates(List<Double> coords)
-      throws JsonSyntaxException, IOException, IllegalStateException {
+  protected void parseFeatureCollectionTrailer() throws IOException {
 
-    this.reader.beginArray();
-
-    // Reads the point/vertex coordinates
     while (this.reader.hasNext()) {
-
-      // Read X and Y
-      coords.add(this.reader.nextDouble());
-      coords.add(this.reader.nextDouble());
-
-      // TODO: for the time being it discards Z
-      if (this.reader.peek() == JsonToken.NUMBER) {
+      if (GEOJSON_PROPERTIES.equals(this.reader.nextName())) {
+        this.parseFeatureCollectionProperties();
+      } else {
         this.reader.skipValue();
       }
     }
-
-    this.reader.endArray();
+    this.reader.endObject();
   }
 
   /**
-   * Parses a GeoJSON coordinates array (it is an Array of point coordinates
-   * expressed as Array) and returns it a simple double arrays
+   * Returns whether the server signalled that more features match the query
+   * than the ones returned (which happens when its maximum record count is
+   * exceeded). It may be set only after all features have been read.
    * 
-   * @return array with coordinates
-   * @throws IOException,
-   *           JsonSyntaxException, IllegalStateException
+   * @return true if the result set has been truncated
    */
-  public double[] parseCoordinateArray()
-      throws JsonSyntaxException, IOException, IllegalStateException {
-
-    List<Double> coords = new ArrayList<Double>();
-
-    this.reader.beginArray();
-
-    while (this.reader.hasNext()) {
-      this.parsePointCoordinates(coords);
-    }
-
-    this.reader.endArray();
-
-    return GeoJSONParser.listToArray(coords);
+  @Override
+  public boolean isExceededTransferLimit() {
+    return this.exceededTransferLimit;
   }
 
   /**
-   * Parses a Point GeoJSON coordinates array and returns them in an array
+   * Parses a Geometry in GeoJSON format. Coordinates are read into primitive
+   * buffers and geometries are built on packed coordinate sequences, avoiding
+   * boxed ordinates and intermediate lists.
    * 
-   * @return array with coordinates
+   * @return the geometry (an empty point if null)
    * @throws IOException,
    *           JsonSyntaxException, IllegalStateException
    */
-  public double[] parsePointCoordinates()
+  public Geometry parseGeometry()
       throws JsonSyntaxException, IOException, IllegalStateException {
 
-    List<Double> coords = new ArrayList<Double>();
-    this.parsePointCoordinates(coords);
-    return GeoJSONParser.listToArray(coords);
+    return buildGeometry(this.geometryFactory, this.parseCoordinates(),
+        this.ordinates, this.partEnds, this.polygonEnds);
   }
 
   /**
-   * Parses a MultiPoint GeoJSON coordinates array and adds them to coords
+   * Parses a GeoJSON geometry into the ordinates buffers, without building
+   * it
    * 
-   * @return list of arrays with coordinates
+   * @return the geometry type (null if the geometry is null)
    * @throws IOException,
    *           JsonSyntaxException, IllegalStateException
    */
-  public List<double[]> parseMultiPointCoordinates()
+  protected String parseCoordinates()
       throws JsonSyntaxException, IOException, IllegalStateException {
 
-    List<double[]> points = new ArrayList<double[]>();
+    this.ordinates.clear();
+    this.partEnds.clear();
+    this.polygonEnds.clear();
 
-    this.reader.beginArray();
-    while (this.reader.hasNext()) {
-      points.add(this.parsePointCoordinates());
+    // If geometry is null, returns a null type
+    try {
+      if (this.reader.peek() == JsonToken.NULL) {
+        this.reader.nextNull();
+        throw (new MalformedJsonException(
+            "just here to avoid repeating the return statement"));
+      }
+    } catch (IllegalStateException | MalformedJsonException e) {
+      return null;
     }
-    this.reader.endArray();
 
-    return points;
+    this.reader.beginObject();
+
+    // Check the presence of feature type
+    if (!reader.nextName().equals(FEATURE_TYPE)) {
+      throw (new JsonSyntaxException("Geometry type expected"));
+    }
+
+    String type = reader.nextString();
+    this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
+
+    switch (type) {
+
+    case GEOMETRY_POINT:
+      this.parseOrdinates();
+      break;
+
+    case GEOMETRY_MULTIPOINT:
+    case GEOMETRY_LINE:
+      this.parseOrdinateArray();
+      break;
+
+    case GEOMETRY_MULTILINE:
+    case GEOMETRY_POLYGON:
+      this.parseOrdinateArrays();
+      break;
+
+    case GEOMETRY_MULTIPOLYGON:
+      // The rings of all polygons go in the same buffers, recording where
+      // the rings of each polygon end
+      this.reader.beginArray();
+      while (this.reader.hasNext()) {
+        this.parseOrdinateArrays();
+        this.polygonEnds.add(this.partEnds.size());
+      }
+      this.reader.endArray();
+      break;
+
+    default:
+      throw (new JsonSyntaxException("Unrecognized geometry type"));
+    }
+
+    this.reader.endObject();
+    return type;
   }
 
   /**
-   * Parses a Line GeoJSON coordinates array and adds them to coords
+   * Builds a geometry out of coordinates parsed into ordinates buffers.
+   * Geometries are built on packed coordinate sequences, avoiding boxed
+   * ordinates and intermediate lists.
    * 
-   * @return array with coordinates
-   * @throws IOException,
-   *           JsonSyntaxException, IllegalStateExceptionadds them to coords
+   * @param geomFactory
+   *          the factory to build the geometry with
+   * @param type
+   *          the GeoJSON geometry type (null for a null geometry)
+   * @param ordinates
+   *          the ordinates of all positions
+   * @param partEnds
+   *          where each line or ring ends in the ordinates
+   * @param polygonEnds
+   *          where the rings of each polygon of a multipolygon end
+   * @return the geometry (an empty point if null)
    */
-  public double[] parseLineStringCoordinates()
-      throws JsonSyntaxException, IOException, IllegalStateException {
-
-    return this.parseCoordinateArray();
+  protected static Geometry buildGeometry(GeometryFactory geomFactory,
+      String type, OrdinateBuffer ordinates, OffsetBuffer partEnds,
+      OffsetBuffer polygonEnds) {
+    return new GeometrySpan(geomFactory, type, ordinates, partEnds,
+        polygonEnds).get();
   }
 
   /**
-   * Parses a MultiLine GeoJSON coordinates array and adds them to coords
+   * Parses the coordinates of a position into the ordinates buffer
    * 
-   * @return list of arrays with coordinates
    * @throws IOException,
    *           JsonSyntaxException, IllegalStateException
    */
-  public List<double[]> parseMultiLineStringCoordinates()
+  protected void parseOrdinates()
       throws JsonSyntaxException, IOException, IllegalStateException {
 
-    List<double[]> lines = new ArrayList<double[]>();
-
     this.reader.beginArray();
-    while (this.reader.hasNext()) {
-      lines.add(this.parseLineStringCoordinates());
+    this.ordinates.add(this.reader.nextDouble());
+    this.ordinates.add(this.reader.nextDouble());
+
+    // Z is discarded, and positions with more ordinates than X, Y and Z are
+    // not valid GeoJSON (the service returns them only when M is requested,
+    // which it never is)
+    if (this.reader.peek() == JsonToken.NUMBER) {
+      this.reader.skipValue();
+      if (this.reader.peek() == JsonToken.NUMBER) {
+        throw (new IllegalStateException(
+            "Positions with more than three ordinates are not supported"));
+      }
     }
+
     this.reader.endArray();
-    return lines;
   }
 
   /**
-   * Parses a Polygon GeoJSON coordinates array and adds them to coords
+   * Parses an array of positions into the ordinates buffer
    * 
-   * @return list of arrays with coordinates
    * @throws IOException,
    *           JsonSyntaxException, IllegalStateException
    */
-  public List<double[]> parsePolygonCoordinates()
+  protected void parseOrdinateArray()
       throws JsonSyntaxException, IOException, IllegalStateException {
 
-    List<double[]> rings = new ArrayList<double[]>();
-
     this.reader.beginArray();
     while (this.reader.hasNext()) {
-      rings.add(this.parseLineStringCoordinates());
+      this.parseOrdinates();
     }
     this.reader.endArray();
-    return rings;
   }
 
   /**
-   * Parses a MultiPolygon GeoJSON coordinates array and adds them to coords
+   * Parses an array of arrays of positions (such as the rings of a polygon)
+   * into the ordinates buffer, recording where each array ends
    * 
-   * @return list of arrays with ring coordinates
    * @throws IOException,
    *           JsonSyntaxException, IllegalStateException
    */
-  public List<List<double[]>> parseMultiPolygonCoordinates()
+  protected void parseOrdinateArrays()
       throws JsonSyntaxException, IOException, IllegalStateException {
 
-    List<List<double[]>> polys = new ArrayList<List<double[]>>();
-
     this.reader.beginArray();
     while (this.reader.hasNext()) {
-      polys.add(this.parsePolygonCoordinates());
+      this.parseOrdinateArray();
+      this.partEnds.add(this.ordinates.size());
     }
     this.reader.endArray();
-    return polys;
-  }
-
-  /**
-   * Parses a Geometry in GeoJSON format
-   * 
-   * @return list of arrays with ring coordinates
-   * @throws IOException,
-   *           JsonSyntaxException, IllegalStateException
-   */
-  public Geometry parseGeometry()
-      throws JsonSyntaxException, IOException, IllegalStateException {
-
-    double[] coords;
-    GeometryBuilder builder = new GeometryBuilder();
-    GeometryFactory geomFactory = new GeometryFactory();
-
-    // If geometry is null, returns a null point
-    try {
-      if (this.reader.peek() == JsonToken.NULL) {
-        this.reader.nextNull();
-        throw (new MalformedJsonException(
-            "just here to avoid repeating the return statement"));
-      }
-    } catch (IllegalStateException | MalformedJsonException e) {
-      return builder.point();
-    }
-
-    this.reader.beginObject();
-
-    // Check the presence of feature type
-    if (!reader.nextName().equals(FEATURE_TYPE)) {
-      throw (new JsonSyntaxException("Geometry type expected"));
-    }
-
-    switch (reader.nextString()) {
-
-    case GEOMETRY_POINT:
-      this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
-      coords = this.parsePointCoordinates();
-      this.reader.endObject();
-      return (Geometry) builder.point(coords[0], coords[1]);
-
-    case GEOMETRY_MULTIPOINT:
-      this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
-      List<double[]> pointCoords = this.parseMultiPointCoordinates();
-      ;
-      Point[] points = new Point[pointCoords.size()];
-      for (int i = 0; i < pointCoords.size(); i++) {
-        points[i] = (Point) builder.point(pointCoords.get(i)[0],
-            pointCoords.get(i)[1]);
-      }
-      this.reader.endObject();
-      return (Geometry) new MultiPoint(points, geomFactory);
-
-    case GEOMETRY_LINE:
-      this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
-      coords = this.parseLineStringCoordinates();
-      this.reader.endObject();
-      return (Geometry) builder.lineString(coords);
-
-    case GEOMETRY_MULTILINE:
-      this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
-      List<double[]> lineArrays = this.parseMultiLineStringCoordinates();
-      LineString[] lines = new LineString[lineArrays.size()];
-      int i = 0;
-      for (double[] array : lineArrays) {
-        lines[i++] = builder.lineString(array);
-      }
-      this.reader.endObject();
-      return (Geometry) builder.multiLineString(lines);
-
-    case GEOMETRY_POLYGON:
-      this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
-      List<double[]> rings = this.parsePolygonCoordinates();
-      this.reader.endObject();
-      return (Geometry) builder.polygon(rings.get(0)); // FIXME: what about
-                                                       // holes?
-
-    case GEOMETRY_MULTIPOLYGON:
-      this.checkPropertyName(FEATURE_GEOMETRY_COORDINATES);
-      List<List<double[]>> polyArrays = this.parseMultiPolygonCoordinates();
-      Polygon[] polys = new Polygon[polyArrays.size()];
-      int j = 0;
-      for (List<double[]> array : polyArrays) {
-        polys[j++] = builder.polygon(array.get(0)); // FIXME: what about holes?
-      }
-      this.reader.endObject();
-      return (Geometry) builder.multiPolygon(polys);
-
-    default:
-      throw (new JsonSyntaxException("Unrecognized geometry type"));
-    }
-
   }
 
   /**
@@ -591,12 +571,9 @@ public class GeoJSONParser implements SimpleFeatureIterator {
    */
   public SimpleFeature parseFeature() {
 
-    Geometry geom = null;
-    String id = SimpleFeatureBuilder.createDefaultFeatureIdentifier(FEATURES)
-        .getID();
-    Map<String, Object> props = new HashMap<String, Object>();
-    List<Object> values = new ArrayList();
-    SimpleFeatureBuilder builder = new SimpleFeatureBuilder(this.featureType);
+    GeometrySpan geom = null;
+    String id = null;
+    Object[] values = this.composeValues();
 
     // Parses the feature
     try {
@@ -611,11 +588,19 @@ public class GeoJSONParser implements SimpleFeatureIterator {
           break;
 
         case FEATURE_GEOMETRY:
-          geom = this.parseGeometry();
+          // Coordinates are kept as parsed, and the geometry is built only
+          // if it is accessed (not at all if it is not an attribute)
+          if (this.decoder.getGeometryIndex() < 0) {
+            this.reader.skipValue();
+          } else {
+            geom = new GeometrySpan(this.geometryFactory,
+                this.parseCoordinates(), this.ordinates, this.partEnds,
+                this.polygonEnds);
+          }
           break;
 
         case FEATURE_PROPERTIES:
-          props = this.parseProperties();
+          this.parseAttributes(values);
           break;
 
         case FEATURE_ID:
@@ -634,20 +619,108 @@ public class GeoJSONParser implements SimpleFeatureIterator {
       throw (new NoSuchElementException(e.getMessage()));
     }
 
-    // Builds the feature, inserting the properties in the same
-    // order of the atterbiutes in the feature type
-    for (AttributeDescriptor attr : this.featureType
-        .getAttributeDescriptors()) {
+    return this.buildFeature(id, geom, values);
+  }
+
+  /**
+   * Returns a new array for the attribute values of a feature, compiling the
+   * properties decoder on first use (the array is owned by the feature built
+   * out of it)
+   * 
+   * @return the attribute values
+   */
+  protected Object[] composeValues() {
+
+    if (this.decoder == null) {
+      this.decoder = new ArcGISRestAttributeDecoder(this.featureType);
+    }
+
+    return new Object[this.decoder.getAttributeCount()];
+  }
+
+  /**
+   * Builds a feature out of its parsed parts
+   * 
+   * @param id
+   *          the feature ID (a default one is generated if null)
+   * @param geom
+   *          the feature geometry
+   * @param values
+   *          the attribute values, as returned by composeValues
+   * @return the feature
+   */
+  protected SimpleFeature buildFeature(String id, Geometry geom,
+      Object[] values) {
+
+    // The default ID is generated only when the feature has none
+    if (id == null) {
+      id = SimpleFeatureBuilder.createDefaultFeatureIdentifier(FEATURES)
+          .getID();
+    }
+
+    if (this.decoder.getGeometryIndex() >= 0) {
+      values[this.decoder.getGeometryIndex()] = geom;
+    }
+
+    return this.featureFactory.createSimpleFeature(values, this.featureType,
+        id);
+  }
+
+  /**
+   * Builds a feature whose geometry is built out of its parsed coordinates
+   * only when it is first accessed
+   * 
+   * @param id
+   *          the feature ID (a default one is generated if null)
+   * @param geom
+   *          the parsed coordinates of the feature geometry (null if the
+   *          feature has none)
+   * @param values
+   *          the attribute values, as returned by composeValues
+   * @return the feature
+   */
+  protected SimpleFeature buildFeature(String id, GeometrySpan geom,
+      Object[] values) {
+
+    if (id == null) {
+      id = SimpleFeatureBuilder.createDefaultFeatureIdentifier(FEATURES)
+          .getID();
+    }
+
+    return new ArcGISRestLazyFeature(values, this.featureType, id,
+        this.decoder.getGeometryIndex(), geom);
+  }
+
+  /**
+   * Parses a GeoJSON feature properties straight into the values of the
+   * attributes they correspond to, converted to the attribute bindings.
+   * Properties that are not attributes of the feature type are skipped.
+   * 
+   * @param values
+   *          the attribute values
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected void parseAttributes(Object[] values)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    if (this.reader.peek() == JsonToken.NULL) {
+      this.reader.nextNull();
+      return;
+    }
+
+    this.reader.beginObject();
 
-      if (this.featureType.getGeometryDescriptor().getLocalName()
-          .equals(attr.getLocalName())) {
-        builder.add(geom);
+    while (this.reader.hasNext()) {
+      int index = this.decoder.getIndex(this.reader.nextName());
+      if (index < 0) {
+        this.reader.skipValue();
       } else {
-        builder.add(props.get(attr.getLocalName()));
+        values[index] = this.decoder.decode(this.reader, index);
       }
     }
 
-    return builder.buildFeature(id);
+    this.reader.endObject();
   }
 
   /**
@@ -728,4 +801,273 @@ public class GeoJSONParser implements SimpleFeatureIterator {
       throw (new JsonSyntaxException("'" + expValue + "' value expected"));
     }
   }
+
+  /**
+   * Growable buffer of ordinates (X and Y interleaved), reused across
+   * geometries
+   */
+  protected static class OrdinateBuffer {
+
+    protected double[] values = new double[256];
+    protected int size = 0;
+
+    public void add(double value) {
+      if (this.size == this.values.length) {
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.values[this.size++] = value;
+    }
+
+    public int size() {
+      return this.size;
+    }
+
+    public void clear() {
+      this.size = 0;
+    }
+
+    /**
+     * Returns a copy of a range of ordinates
+     * 
+     * @param from
+     *          index of the first ordinate (inclusive)
+     * @param to
+     *          index of the last ordinate (exclusive)
+     * @return the ordinates
+     */
+    public double[] toArray(int from, int to) {
+      return Arrays.copyOfRange(this.values, from, to);
+    }
+
+    /**
+     * Returns a copy of a range of ordinates, closing it if the last position
+     * is not the same as the first one
+     * 
+     * @param from
+     *          index of the first ordinate (inclusive)
+     * @param to
+     *          index of the last ordinate (exclusive)
+     * @return the ordinates
+     */
+    public double[] toRingArray(int from, int to) {
+      if (to - from >= 2 && (this.values[from] != this.values[to - 2]
+          || this.values[from + 1] != this.values[to - 1])) {
+        double[] ring = Arrays.copyOfRange(this.values, from, to + 2);
+        ring[to - from] = this.values[from];
+        ring[to - from + 1] = this.values[from + 1];
+        return ring;
+      }
+      return this.toArray(from, to);
+    }
+
+    /**
+     * Returns a coordinate sequence with a copy of a range of ordinates
+     * 
+     * @param from
+     *          index of the first ordinate (inclusive)
+     * @param to
+     *          index of the last ordinate (exclusive)
+     * @return the coordinate sequence
+     */
+    public CoordinateSequence toSequence(int from, int to) {
+      return new PackedCoordinateSequence.Double(this.toArray(from, to), 2);
+    }
+
+    /**
+     * Returns a coordinate sequence with a copy of a range of ordinates,
+     * closing it if the last position is not the same as the first one
+     * 
+     * @param from
+     *          index of the first ordinate (inclusive)
+     * @param to
+     *          index of the last ordinate (exclusive)
+     * @return the coordinate sequence
+     */
+    public CoordinateSequence toRingSequence(int from, int to) {
+      return new PackedCoordinateSequence.Double(this.toRingArray(from, to),
+          2);
+    }
+  }
+
+  /**
+   * Growable buffer of offsets in the ordinates buffer, reused across
+   * geometries
+   */
+  protected static class OffsetBuffer {
+
+    protected int[] values = new int[16];
+    protected int size = 0;
+
+    public void add(int value) {
+      if (this.size == this.values.length) {
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.values[this.size++] = value;
+    }
+
+    public int get(int index) {
+      return this.values[index];
+    }
+
+    public int size() {
+      return this.size;
+    }
+
+    public void clear() {
+      this.size = 0;
+    }
+  }
+
+  /**
+   * Coordinates of a parsed geometry, copied once into an exact-size array
+   * per part (rings being closed), on which the geometry is built on demand
+   * without further copies. The geometry is meant to be built once, since
+   * the geometries built share the arrays.
+   */
+  protected static class GeometrySpan implements Supplier<Geometry> {
+
+    protected GeometryFactory geometryFactory;
+    protected String type;
+
+    // Ordinates of each line or ring (of the whole geometry for points,
+    // multipoints and lines), and where the rings of each polygon of a
+    // multipolygon end
+    protected double[][] parts;
+    protected int[] polygonEnds;
+
+    /**
+     * Constructor: it copies the coordinates, so that the buffers can be
+     * reused
+     * 
+     * @param geomFactory
+     *          the factory to build the geometry with
+     * @param typeIn
+     *          the GeoJSON geometry type (null for a null geometry)
+     * @param ordinates
+     *          the ordinates of all positions
+     * @param partEnds
+     *          where each line or ring ends in the ordinates
+     * @param polygonEndsIn
+     *          where the rings of each polygon of a multipolygon end
+     */
+    public GeometrySpan(GeometryFactory geomFactory, String typeIn,
+        OrdinateBuffer ordinates, OffsetBuffer partEnds,
+        OffsetBuffer polygonEndsIn) {
+      this.geometryFactory = geomFactory;
+      this.type = typeIn;
+      if (typeIn == null) {
+        return;
+      }
+
+      switch (typeIn) {
+
+      case GEOMETRY_POINT:
+        this.parts = new double[][] { ordinates.toArray(0, 2) };
+        break;
+
+      case GEOMETRY_MULTIPOINT:
+      case GEOMETRY_LINE:
+        this.parts = new double[][] { ordinates.toArray(0, ordinates.size()) };
+        break;
+
+      case GEOMETRY_MULTILINE:
+      case GEOMETRY_POLYGON:
+      case GEOMETRY_MULTIPOLYGON:
+        boolean rings = GEOMETRY_MULTILINE.equals(typeIn) == false;
+        this.parts = new double[partEnds.size()][];
+        for (int i = 0; i < this.parts.length; i++) {
+          int from = i == 0 ? 0 : partEnds.get(i - 1);
+          this.parts[i] = rings ? ordinates.toRingArray(from, partEnds.get(i))
+              : ordinates.toArray(from, partEnds.get(i));
+        }
+        this.polygonEnds = Arrays.copyOf(polygonEndsIn.values,
+            polygonEndsIn.size());
+        break;
+
+      default:
+        throw (new JsonSyntaxException("Unrecognized geometry type"));
+      }
+    }
+
+    /**
+     * Builds the geometry
+     * 
+     * @return the geometry (an empty point if null)
+     */
+    @Override
+    public Geometry get() {
+
+      if (this.type == null) {
+        return this.geometryFactory.createPoint((Coordinate) null);
+      }
+
+      switch (this.type) {
+
+      case GEOMETRY_POINT:
+        return this.geometryFactory.createPoint(this.composeSequence(0));
+
+      case GEOMETRY_MULTIPOINT:
+        return this.geometryFactory
+            .createMultiPoint(this.composeSequence(0));
+
+      case GEOMETRY_LINE:
+        return this.geometryFactory
+            .createLineString(this.composeSequence(0));
+
+      case GEOMETRY_MULTILINE:
+        LineString[] lines = new LineString[this.parts.length];
+        for (int i = 0; i < lines.length; i++) {
+          lines[i] = this.geometryFactory
+              .createLineString(this.composeSequence(i));
+        }
+        return this.geometryFactory.createMultiLineString(lines);
+
+      case GEOMETRY_POLYGON:
+        return this.buildPolygon(0, this.parts.length);
+
+      default:
+        Polygon[] polys = new Polygon[this.polygonEnds.length];
+        for (int i = 0; i < polys.length; i++) {
+          polys[i] = this.buildPolygon(i == 0 ? 0 : this.polygonEnds[i - 1],
+              this.polygonEnds[i]);
+        }
+        return this.geometryFactory.createMultiPolygon(polys);
+      }
+    }
+
+    /**
+     * Helper method to return a coordinate sequence over the ordinates of a
+     * part
+     */
+    protected CoordinateSequence composeSequence(int part) {
+      return new PackedCoordinateSequence.Double(this.parts[part], 2);
+    }
+
+    /**
+     * Helper method to build a polygon out of a range of rings, the first one
+     * being the shell and the others the holes
+     * 
+     * @param from
+     *          index of the first ring (inclusive)
+     * @param to
+     *          index of the last ring (exclusive)
+     * @return the polygon
+     */
+    protected Polygon buildPolygon(int from, int to) {
+
+      if (to <= from) {
+        return this.geometryFactory.createPolygon((LinearRing) null, null);
+      }
+
+      LinearRing shell = this.geometryFactory
+          .createLinearRing(this.composeSequence(from));
+      LinearRing[] holes = new LinearRing[to - from - 1];
+      for (int i = 0; i < holes.length; i++) {
+        holes[i] = this.geometryFactory
+            .createLinearRing(this.composeSequence(from + i + 1));
+      }
+
+      return this.geometryFactory.createPolygon(shell, holes);
+    }
+  }
 }
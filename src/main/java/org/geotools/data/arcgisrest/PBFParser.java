@@ -0,0 +1,812 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.arcgisrest.GeoJSONParser.OffsetBuffer;
+import org.geotools.data.arcgisrest.GeoJSONParser.OrdinateBuffer;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.FeatureFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Parsing of the features returned by a query as Protocol Buffers (f=pbf),
+ * following the FeatureCollectionPBuffer message of ArcGIS FeatureServer.
+ * Geometries are always quantized and delta-encoded; attribute values are
+ * typed, and listed in the order of the fields of the response.
+ *
+ * @author lmorandini
+ *
+ */
+public class PBFParser implements ArcGISRestFeatureParser {
+
+  /**
+   * Field numbers of the FeatureCollectionPBuffer messages
+   */
+  protected static final int COLLECTION_QUERYRESULT = 2;
+  protected static final int QUERYRESULT_FEATURERESULT = 1;
+  protected static final int RESULT_OBJECTIDFIELDNAME = 1;
+  protected static final int RESULT_GEOMETRYTYPE = 7;
+  protected static final int RESULT_EXCEEDEDTRANSFERLIMIT = 9;
+  protected static final int RESULT_HASZ = 10;
+  protected static final int RESULT_HASM = 11;
+  protected static final int RESULT_TRANSFORM = 12;
+  protected static final int RESULT_FIELDS = 13;
+  protected static final int RESULT_FEATURES = 15;
+  protected static final int TRANSFORM_ORIGIN = 1;
+  protected static final int TRANSFORM_SCALE = 2;
+  protected static final int TRANSFORM_TRANSLATE = 3;
+  protected static final int FIELD_NAME = 1;
+  protected static final int FEATURE_ATTRIBUTES = 1;
+  protected static final int FEATURE_GEOMETRY = 2;
+  protected static final int GEOMETRY_LENGTHS = 2;
+  protected static final int GEOMETRY_COORDS = 3;
+
+  /**
+   * Geometry types of the FeatureCollectionPBuffer messages
+   */
+  protected static final int GEOMETRY_POINT = 0;
+  protected static final int GEOMETRY_MULTIPOINT = 1;
+  protected static final int GEOMETRY_POLYLINE = 2;
+  protected static final int GEOMETRY_POLYGON = 3;
+
+  /**
+   * Protocol Buffers wire types
+   */
+  protected static final int WIRETYPE_VARINT = 0;
+  protected static final int WIRETYPE_FIXED64 = 1;
+  protected static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  protected static final int WIRETYPE_FIXED32 = 5;
+
+  protected Logger LOGGER;
+
+  // Response being read
+  protected InputStream stream;
+  protected ProtocolBufferReader reader;
+
+  // Type of the features to be read
+  protected SimpleFeatureType featureType;
+  protected ArcGISRestAttributeDecoder decoder;
+
+  // Objects used to build geometries and features
+  protected GeometryFactory geometryFactory = new GeometryFactory();
+  protected FeatureFactory featureFactory = CommonFactoryFinder
+      .getFeatureFactory(null);
+  protected OrdinateBuffer ordinates = new OrdinateBuffer();
+  protected OffsetBuffer partEnds = new OffsetBuffer();
+
+  // Description of the features of the response
+  protected String objectIdField;
+  protected int geometryType = GEOMETRY_POINT;
+  protected int stride = 2;
+  protected boolean upperLeft = true;
+  protected double scaleX = 1;
+  protected double scaleY = 1;
+  protected double translateX = 0;
+  protected double translateY = 0;
+
+  // Attribute index of each field of the response (-1 if not an attribute)
+  protected List<Integer> fieldIndexes = new ArrayList<Integer>();
+  protected List<String> fieldNames = new ArrayList<String>();
+  protected int objectIdPosition = -1;
+
+  // Flag set when the server truncated the result set
+  protected boolean exceededTransferLimit = false;
+
+  // Flag set when the reader is positioned on a feature
+  protected boolean featurePending = false;
+
+  /**
+   * Constructor
+   *
+   * @param iStream
+   *          the stream to read features from
+   * @param featureTypeIn
+   *          the feature type the features conform to
+   * @param loggerIn
+   *          the logger to use
+   */
+  public PBFParser(InputStream iStream, SimpleFeatureType featureTypeIn,
+      Logger loggerIn) {
+    this.stream = iStream;
+    this.featureType = featureTypeIn;
+    this.LOGGER = loggerIn;
+  }
+
+  /**
+   * Reads the response and its description of the features, up to the first
+   * feature. Error messages are returned as JSON, in which case an exception
+   * is thrown.
+   *
+   * @throws IOException
+   */
+  @Override
+  public void parseFeatureCollection() throws IOException {
+
+    // The response is read as it is parsed, peeking at its first byte to
+    // tell errors apart
+    PushbackInputStream in = new PushbackInputStream(this.stream, 1);
+    int first = in.read();
+    if (first >= 0) {
+      in.unread(first);
+    }
+
+    if (first == '{') {
+      try {
+        new GeoJSONParser(in, this.featureType, this.LOGGER)
+            .parseFeatureCollection();
+      } finally {
+        in.close();
+      }
+      throw new IOException("Unexpected JSON response");
+    }
+
+    this.reader = new ProtocolBufferReader(in);
+    this.decoder = new ArcGISRestAttributeDecoder(this.featureType);
+
+    // Moves into the feature result
+    if (this.reader.seek(COLLECTION_QUERYRESULT) == false
+        || this.reader.seek(QUERYRESULT_FEATURERESULT) == false) {
+      return;
+    }
+
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+
+      switch (tag >>> 3) {
+
+      case RESULT_OBJECTIDFIELDNAME:
+        this.objectIdField = this.reader.readString();
+        break;
+
+      case RESULT_GEOMETRYTYPE:
+        this.geometryType = (int) this.reader.readVarint();
+        break;
+
+      case RESULT_EXCEEDEDTRANSFERLIMIT:
+        this.exceededTransferLimit = this.reader.readVarint() != 0;
+        break;
+
+      case RESULT_HASZ:
+      case RESULT_HASM:
+        if (this.reader.readVarint() != 0) {
+          this.stride++;
+        }
+        break;
+
+      case RESULT_TRANSFORM:
+        this.parseTransform();
+        break;
+
+      case RESULT_FIELDS:
+        this.parseField();
+        break;
+
+      case RESULT_FEATURES:
+        // The object ID is the feature ID, hence it is read even when it is
+        // not an attribute of the feature type
+        if (this.objectIdField != null) {
+          this.objectIdPosition = this.fieldNames.indexOf(this.objectIdField);
+        }
+        this.featurePending = true;
+        return;
+
+      default:
+        this.reader.skip(tag & 7);
+      }
+    }
+  }
+
+  /**
+   * Parses the transform of quantized coordinates
+   *
+   * @throws IOException
+   */
+  protected void parseTransform() throws IOException {
+
+    long limit = this.reader.pushLimit();
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+
+      switch (tag >>> 3) {
+
+      case TRANSFORM_ORIGIN:
+        this.upperLeft = this.reader.readVarint() == 0;
+        break;
+
+      case TRANSFORM_SCALE:
+        double[] scale = this.parseXY();
+        this.scaleX = scale[0];
+        this.scaleY = scale[1];
+        break;
+
+      case TRANSFORM_TRANSLATE:
+        double[] translate = this.parseXY();
+        this.translateX = translate[0];
+        this.translateY = translate[1];
+        break;
+
+      default:
+        this.reader.skip(tag & 7);
+      }
+    }
+    this.reader.popLimit(limit);
+  }
+
+  /**
+   * Helper method to parse the X and Y of a Scale or Translate message
+   *
+   * @return X and Y
+   * @throws IOException
+   */
+  protected double[] parseXY() throws IOException {
+
+    double[] xy = new double[2];
+    long limit = this.reader.pushLimit();
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+      int field = tag >>> 3;
+      if ((field == 1 || field == 2) && (tag & 7) == WIRETYPE_FIXED64) {
+        xy[field - 1] = this.reader.readDouble();
+      } else {
+        this.reader.skip(tag & 7);
+      }
+    }
+    this.reader.popLimit(limit);
+
+    return xy;
+  }
+
+  /**
+   * Parses the description of a field, mapping it to its attribute
+   *
+   * @throws IOException
+   */
+  protected void parseField() throws IOException {
+
+    String name = null;
+    long limit = this.reader.pushLimit();
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+      if ((tag >>> 3) == FIELD_NAME) {
+        name = this.reader.readString();
+      } else {
+        this.reader.skip(tag & 7);
+      }
+    }
+    this.reader.popLimit(limit);
+
+    this.fieldNames.add(name);
+    this.fieldIndexes.add(name != null ? this.decoder.getIndex(name) : -1);
+  }
+
+  /**
+   * Checks whether there is another feature to read
+   *
+   * @return true if there is another featuere to read, false otherwise
+   */
+  @Override
+  public boolean hasNext() {
+
+    if (this.featurePending) {
+      return true;
+    }
+    if (this.reader == null) {
+      return false;
+    }
+
+    try {
+      while (this.reader.hasNext()) {
+        int tag = this.reader.readTag();
+        if ((tag >>> 3) == RESULT_FEATURES) {
+          this.featurePending = true;
+          return true;
+        }
+        if ((tag >>> 3) == RESULT_EXCEEDEDTRANSFERLIMIT) {
+          this.exceededTransferLimit = this.reader.readVarint() != 0;
+        } else {
+          this.reader.skip(tag & 7);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the next feature
+   *
+   * @return the next feature
+   */
+  @Override
+  public SimpleFeature next() throws NoSuchElementException {
+
+    if (this.hasNext() != true) {
+      throw new NoSuchElementException();
+    }
+
+    this.featurePending = false;
+    try {
+      return this.parseFeature();
+    } catch (IOException e) {
+      throw (new NoSuchElementException(e.getMessage()));
+    }
+  }
+
+  /**
+   * Parses a Feature message
+   *
+   * @return the feature
+   * @throws IOException
+   */
+  protected SimpleFeature parseFeature() throws IOException {
+
+    Object[] values = new Object[this.decoder.getAttributeCount()];
+    Geometry geom = null;
+    String id = null;
+    int field = 0;
+
+    long limit = this.reader.pushLimit();
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+
+      switch (tag >>> 3) {
+
+      case FEATURE_ATTRIBUTES:
+        Object value = this.parseValue();
+        int index = field < this.fieldIndexes.size()
+            ? this.fieldIndexes.get(field) : -1;
+        if (index >= 0) {
+          values[index] = this.decoder.convert(value, index);
+        }
+        if (field == this.objectIdPosition && value != null) {
+          id = index >= 0 && values[index] != null ? values[index].toString()
+              : value.toString();
+        }
+        field++;
+        break;
+
+      case FEATURE_GEOMETRY:
+        // Coordinates are not decoded when the geometry is not an attribute
+        if (this.decoder.getGeometryIndex() < 0) {
+          this.reader.skip(tag & 7);
+        } else {
+          geom = this.parseGeometry();
+        }
+        break;
+
+      default:
+        this.reader.skip(tag & 7);
+      }
+    }
+    this.reader.popLimit(limit);
+
+    if (id == null) {
+      id = SimpleFeatureBuilder
+          .createDefaultFeatureIdentifier(GeoJSONParser.FEATURES).getID();
+    }
+    if (this.decoder.getGeometryIndex() >= 0) {
+      values[this.decoder.getGeometryIndex()] = geom;
+    }
+
+    return this.featureFactory.createSimpleFeature(values, this.featureType,
+        id);
+  }
+
+  /**
+   * Parses a Value message
+   *
+   * @return the value (null if the value is not set)
+   * @throws IOException
+   */
+  protected Object parseValue() throws IOException {
+
+    Object value = null;
+    long limit = this.reader.pushLimit();
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+
+      switch (tag >>> 3) {
+      case 1:
+        value = this.reader.readString();
+        break;
+      case 2:
+        value = Float.intBitsToFloat(this.reader.readFixed32());
+        break;
+      case 3:
+        value = this.reader.readDouble();
+        break;
+      case 4:
+        value = (int) ProtocolBufferReader
+            .decodeZigZag(this.reader.readVarint());
+        break;
+      case 5:
+      case 6:
+      case 7:
+        value = this.reader.readVarint();
+        break;
+      case 8:
+        value = ProtocolBufferReader.decodeZigZag(this.reader.readVarint());
+        break;
+      case 9:
+        value = this.reader.readVarint() != 0;
+        break;
+      default:
+        this.reader.skip(tag & 7);
+      }
+    }
+    this.reader.popLimit(limit);
+
+    return value;
+  }
+
+  /**
+   * Parses a Geometry message: the number of points of each part, and the
+   * quantized coordinates, each one after the first of a part being an offset
+   * from the previous one
+   *
+   * @return the geometry (null if it has no coordinates)
+   * @throws IOException
+   */
+  protected Geometry parseGeometry() throws IOException {
+
+    this.ordinates.clear();
+    this.partEnds.clear();
+    List<Integer> lengths = new ArrayList<Integer>();
+    long[] coords = new long[0];
+    int nCoords = 0;
+
+    long limit = this.reader.pushLimit();
+    while (this.reader.hasNext()) {
+      int tag = this.reader.readTag();
+      int field = tag >>> 3;
+      boolean packed = (tag & 7) == WIRETYPE_LENGTH_DELIMITED;
+
+      if (field == GEOMETRY_LENGTHS || field == GEOMETRY_COORDS) {
+        long packedLimit = packed ? this.reader.pushLimit() : -1;
+        do {
+          long value = this.reader.readVarint();
+          if (field == GEOMETRY_LENGTHS) {
+            lengths.add((int) value);
+          } else {
+            if (nCoords == coords.length) {
+              coords = Arrays.copyOf(coords,
+                  Math.max(64, nCoords * 2));
+            }
+            coords[nCoords++] = ProtocolBufferReader.decodeZigZag(value);
+          }
+        } while (packed && this.reader.hasNext());
+        if (packed) {
+          this.reader.popLimit(packedLimit);
+        }
+      } else {
+        this.reader.skip(tag & 7);
+      }
+    }
+    this.reader.popLimit(limit);
+
+    if (nCoords < 2) {
+      return null;
+    }
+    if (lengths.isEmpty()) {
+      lengths.add(nCoords / this.stride);
+    }
+
+    // Coordinates are offsets within each part
+    int offset = 0;
+    for (int length : lengths) {
+      long x = 0;
+      long y = 0;
+      for (int i = 0; i < length && offset + 1 < nCoords; i++) {
+        x += coords[offset];
+        y += coords[offset + 1];
+        this.ordinates.add(this.translateX + x * this.scaleX);
+        this.ordinates.add(this.upperLeft ? this.translateY - y * this.scaleY
+            : this.translateY + y * this.scaleY);
+        offset += this.stride;
+      }
+      this.partEnds.add(this.ordinates.size());
+    }
+
+    switch (this.geometryType) {
+
+    case GEOMETRY_POINT:
+      return this.geometryFactory
+          .createPoint(this.ordinates.toSequence(0, 2));
+
+    case GEOMETRY_MULTIPOINT:
+      return this.geometryFactory.createMultiPoint(
+          this.ordinates.toSequence(0, this.ordinates.size()));
+
+    case GEOMETRY_POLYLINE:
+      LineString[] lines = new LineString[this.partEnds.size()];
+      for (int i = 0; i < lines.length; i++) {
+        lines[i] = this.geometryFactory.createLineString(
+            this.ordinates.toSequence(i == 0 ? 0 : this.partEnds.get(i - 1),
+                this.partEnds.get(i)));
+      }
+      return this.geometryFactory.createMultiLineString(lines);
+
+    case GEOMETRY_POLYGON:
+      return EsriJSONParser.buildPolygons(this.geometryFactory,
+          this.ordinates, this.partEnds);
+
+    default:
+      this.LOGGER.log(Level.WARNING,
+          "Unsupported geometry type " + this.geometryType);
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether the server signalled that more features match the query
+   * than the ones returned
+   *
+   * @return true if the result set has been truncated
+   */
+  @Override
+  public boolean isExceededTransferLimit() {
+    return this.exceededTransferLimit;
+  }
+
+  /**
+   * Closes the response
+   */
+  @Override
+  public void close() {
+    try {
+      this.stream.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Reader of the Protocol Buffers wire format over a stream, read through a
+   * small buffer as the message is parsed. Embedded messages are read by
+   * pushing their end as the limit of the reader, and popping it afterwards.
+   */
+  protected static class ProtocolBufferReader {
+
+    protected static final int BUFFER_SIZE = 8192;
+
+    protected InputStream in;
+    protected byte[] buf = new byte[BUFFER_SIZE];
+    protected int bufPos = 0;
+    protected int bufLength = 0;
+
+    // Offset in the stream of the next byte, and of the end of the message
+    // being read (no limit until the first message is pushed)
+    protected long pos = 0;
+    protected long limit = Long.MAX_VALUE;
+
+    public ProtocolBufferReader(InputStream inStream) {
+      this.in = inStream;
+    }
+
+    /**
+     * Returns whether the message being read has more fields: at the top
+     * level, whether the stream has more bytes
+     */
+    public boolean hasNext() throws IOException {
+      if (this.pos >= this.limit) {
+        return false;
+      }
+      return this.limit != Long.MAX_VALUE || this.bufPos < this.bufLength
+          || this.fill();
+    }
+
+    public int readTag() throws IOException {
+      return (int) this.readVarint();
+    }
+
+    public long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = this.readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    public static long decodeZigZag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readFixed32() throws IOException {
+      this.require(4);
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+        value |= (this.readByte() & 0xFF) << (8 * i);
+      }
+      return value;
+    }
+
+    public long readFixed64() throws IOException {
+      this.require(8);
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value |= (long) (this.readByte() & 0xFF) << (8 * i);
+      }
+      return value;
+    }
+
+    public double readDouble() throws IOException {
+      return Double.longBitsToDouble(this.readFixed64());
+    }
+
+    public String readString() throws IOException {
+      int length = (int) this.readVarint();
+      this.require(length);
+
+      // Strings within the buffer are decoded in place
+      if (this.bufLength - this.bufPos >= length) {
+        String value = new String(this.buf, this.bufPos, length,
+            StandardCharsets.UTF_8);
+        this.bufPos += length;
+        this.pos += length;
+        return value;
+      }
+
+      byte[] bytes = new byte[length];
+      int off = 0;
+      while (off < length) {
+        if (this.bufPos == this.bufLength && this.fill() == false) {
+          throw new IOException("Truncated message");
+        }
+        int n = Math.min(length - off, this.bufLength - this.bufPos);
+        System.arraycopy(this.buf, this.bufPos, bytes, off, n);
+        this.bufPos += n;
+        this.pos += n;
+        off += n;
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the length of an embedded message and makes its end the limit of
+     * the reader
+     *
+     * @return the previous limit, to be popped after the message is read
+     */
+    public long pushLimit() throws IOException {
+      int length = (int) this.readVarint();
+      this.require(length);
+      long previous = this.limit;
+      this.limit = this.pos + length;
+      return previous;
+    }
+
+    /**
+     * Skips what is left of the embedded message being read, and restores
+     * the previous limit
+     */
+    public void popLimit(long previous) throws IOException {
+      this.skipBytes(this.limit - this.pos);
+      this.limit = previous;
+    }
+
+    /**
+     * Moves into the first embedded message with the given field number
+     *
+     * @return false if there is no such field
+     */
+    public boolean seek(int field) throws IOException {
+      while (this.hasNext()) {
+        int tag = this.readTag();
+        if ((tag >>> 3) == field && (tag & 7) == WIRETYPE_LENGTH_DELIMITED) {
+          this.pushLimit();
+          return true;
+        }
+        this.skip(tag & 7);
+      }
+      return false;
+    }
+
+    public void skip(int wireType) throws IOException {
+      switch (wireType) {
+      case WIRETYPE_VARINT:
+        this.readVarint();
+        break;
+      case WIRETYPE_FIXED64:
+        this.require(8);
+        this.skipBytes(8);
+        break;
+      case WIRETYPE_LENGTH_DELIMITED:
+        int length = (int) this.readVarint();
+        this.require(length);
+        this.skipBytes(length);
+        break;
+      case WIRETYPE_FIXED32:
+        this.require(4);
+        this.skipBytes(4);
+        break;
+      default:
+        throw new IOException("Unsupported wire type " + wireType);
+      }
+    }
+
+    protected byte readByte() throws IOException {
+      if (this.pos >= this.limit
+          || (this.bufPos == this.bufLength && this.fill() == false)) {
+        throw new IOException("Truncated message");
+      }
+      this.pos++;
+      return this.buf[this.bufPos++];
+    }
+
+    protected void skipBytes(long length) throws IOException {
+      while (length > 0) {
+        if (this.bufPos == this.bufLength && this.fill() == false) {
+          throw new IOException("Truncated message");
+        }
+        int n = (int) Math.min(length, this.bufLength - this.bufPos);
+        this.bufPos += n;
+        this.pos += n;
+        length -= n;
+      }
+    }
+
+    protected void require(int length) throws IOException {
+      if (length < 0 || this.pos + length > this.limit) {
+        throw new IOException("Truncated message");
+      }
+    }
+
+    /**
+     * Helper method to read the next bytes of the stream into the buffer
+     *
+     * @return false if the end of the stream has been reached
+     */
+    protected boolean fill() throws IOException {
+      int n;
+      do {
+        n = this.in.read(this.buf, 0, this.buf.length);
+      } while (n == 0);
+      if (n < 0) {
+        return false;
+      }
+      this.bufPos = 0;
+      this.bufLength = n;
+      return true;
+    }
+  }
+
+}
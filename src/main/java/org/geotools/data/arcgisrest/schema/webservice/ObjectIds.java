@@ -0,0 +1,85 @@
+
+package org.geotools.data.arcgisrest.schema.webservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+public class ObjectIds {
+
+    /**
+     * 
+     */
+    @SerializedName("objectIdFieldName")
+    @Expose
+    private String objectIdFieldName;
+    /**
+     * 
+     */
+    @SerializedName("objectIds")
+    @Expose
+    private List<Long> objectIds = new ArrayList<Long>();
+
+    /**
+     * 
+     * @return
+     *     The objectIdFieldName
+     */
+    public String getObjectIdFieldName() {
+        return objectIdFieldName;
+    }
+
+    /**
+     * 
+     * @param objectIdFieldName
+     *     The objectIdFieldName
+     */
+    public void setObjectIdFieldName(String objectIdFieldName) {
+        this.objectIdFieldName = objectIdFieldName;
+    }
+
+    /**
+     * 
+     * @return
+     *     The objectIds
+     */
+    public List<Long> getObjectIds() {
+        return objectIds;
+    }
+
+    /**
+     * 
+     * @param objectIds
+     *     The objectIds
+     */
+    public void setObjectIds(List<Long> objectIds) {
+        this.objectIds = objectIds;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder().append(objectIdFieldName).append(objectIds).toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if ((other instanceof ObjectIds) == false) {
+            return false;
+        }
+        ObjectIds rhs = ((ObjectIds) other);
+        return new EqualsBuilder().append(objectIdFieldName, rhs.objectIdFieldName).append(objectIds, rhs.objectIds).isEquals();
+    }
+
+}
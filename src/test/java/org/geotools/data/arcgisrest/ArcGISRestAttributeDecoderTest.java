@@ -0,0 +1,87 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Date;
+
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.stream.JsonReader;
+import com.vividsolutions.jts.geom.Geometry;
+
+public class ArcGISRestAttributeDecoderTest {
+
+  ArcGISRestAttributeDecoder decoder;
+
+  @Before
+  public void setUp() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("jsonfeature");
+    builder.add("vint", Integer.class);
+    builder.add("vlong", Long.class);
+    builder.add("vfloat", Float.class);
+    builder.add("vstring", String.class);
+    builder.add("vdate", Date.class);
+    builder.add("geometry", Geometry.class);
+
+    this.decoder = new ArcGISRestAttributeDecoder(builder.buildFeatureType());
+  }
+
+  /**
+   * Helper method to decode a JSON value as the value of an attribute
+   */
+  protected Object decode(String json, String name) throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("[" + json + "]"));
+    reader.beginArray();
+    return this.decoder.decode(reader, this.decoder.getIndex(name));
+  }
+
+  @Test
+  public void indexes() throws Exception {
+
+    assertEquals(6, this.decoder.getAttributeCount());
+    assertEquals(0, this.decoder.getIndex("vint"));
+    assertEquals(4, this.decoder.getIndex("vdate"));
+    assertEquals(5, this.decoder.getGeometryIndex());
+    assertEquals(-1, this.decoder.getIndex("geometry"));
+    assertEquals(-1, this.decoder.getIndex("unknown"));
+  }
+
+  @Test
+  public void values() throws Exception {
+
+    assertEquals(Integer.valueOf(12), this.decode("12", "vint"));
+    assertEquals(Integer.valueOf(12), this.decode("12.7", "vint"));
+    assertEquals(Long.valueOf(3000000000L), this.decode("3000000000", "vlong"));
+    assertEquals(Float.valueOf(1.5f), this.decode("1.5", "vfloat"));
+    assertEquals("12", this.decode("12", "vstring"));
+    assertEquals("abc", this.decode("\"abc\"", "vstring"));
+    assertEquals(new Date(1312243200000L),
+        this.decode("1312243200000", "vdate"));
+    assertEquals(new Date(1312243200000L),
+        this.decode("\"2011-08-02T00:00:00.000Z\"", "vdate"));
+    assertNull(this.decode("null", "vint"));
+  }
+
+}
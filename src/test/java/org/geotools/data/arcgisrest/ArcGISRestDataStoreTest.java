@@ -17,23 +17,40 @@
 package org.geotools.data.arcgisrest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.NameImpl;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.util.UnsupportedImplementationException;
 import org.junit.After;
@@ -41,9 +58,14 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import java.io.IOException;
 import org.geotools.util.UnsupportedImplementationException;
 
@@ -206,6 +228,66 @@ public class ArcGISRestDataStoreTest {
         new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME2)));
   }
 
+  @Test
+  public void testConnectionPool() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+
+    assertTrue(this.dataStore
+        .getConnectionManager() instanceof MultiThreadedHttpConnectionManager);
+    assertEquals(ArcGISRestDataStore.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+        this.dataStore.getConnectionManager().getParams()
+            .getDefaultMaxConnectionsPerHost());
+
+    this.dataStore.dispose();
+  }
+
+  @Test
+  public void testLayerDescriptor() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    // The metadata retrieved when listing type names are not retrieved again,
+    // and the feature type is shared by feature sources
+    Name name = new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE,
+        TYPENAME1);
+    ArcGISRestFeatureSource src = new ArcGISRestFeatureSource(
+        this.dataStore.getEntry(name), new Query());
+    ArcGISRestFeatureSource src2 = new ArcGISRestFeatureSource(
+        this.dataStore.getEntry(name), new Query());
+    assertTrue(src.getSchema() == src2.getSchema());
+    assertEquals(CRS.decode("EPSG:3857"),
+        this.dataStore.getLayerDescriptor(name).getCRS());
+    assertEquals("OBJECTID",
+        this.dataStore.getLayerDescriptor(name).getObjectIdField());
+    verify(this.clientMock, times(2)).executeMethod(this.getMock);
+  }
+
   @Test
   public void testCreateFeatureSourceAndCountFeature() throws Exception {
 
@@ -265,6 +347,73 @@ public class ArcGISRestDataStoreTest {
     assertEquals(79, src.getCount(new Query()));
   }
 
+  @Test
+  public void testBBOXQuery() throws Exception {
+
+    ArcGISRestFeatureSource src = this.createLGASource();
+    this.mockQueries(ArcGISRestDataStoreFactoryTest
+        .readJSONAsStream("test-data/count.json"));
+
+    // A BBOX is evaluated exactly by the server, hence the count of the
+    // features of a bbox query is known
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    Query query = new Query(TYPENAME1, ff.bbox("geometry", 16000000,
+        -4500000, 16100000, -4400000, "EPSG:3857"));
+    assertEquals(Filter.INCLUDE, src.splitFilter(query.getFilter())[1]);
+    assertEquals(79, src.getCount(query));
+
+    ArgumentCaptor<NameValuePair[]> body = ArgumentCaptor
+        .forClass(NameValuePair[].class);
+    verify(this.postMock).setRequestBody(body.capture());
+    assertTrue(Arrays.asList(body.getValue())
+        .contains(new NameValuePair(ArcGISRestDataStore.SPATIALREL_PARAM,
+            ArcGISRestFilterToSQL.SPATIALREL_INTERSECTS)));
+  }
+
+  @Test
+  public void testTiledFeatures() throws Exception {
+
+    ArcGISRestFeatureSource src = this.createLGASource();
+    this.dataStore.setTileCacheSize(1);
+    this.mockQueries(ArcGISRestDataStoreFactoryTest
+        .readJSONAsStream("test-data/lgaFeatures.geo.json"));
+
+    // The bounding box lies within one tile, whose features are downloaded
+    // once and then read from the cache
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    Query query = new Query(TYPENAME1, ff.bbox("geometry", 16428028,
+        -4586582, 16428128, -4586482, "EPSG:3857"));
+    for (int i = 0; i < 2; i++) {
+      FeatureIterator<SimpleFeature> iter = src.getFeatures(query).features();
+      try {
+        assertTrue(iter.hasNext());
+        assertEquals("Wellington (S)", iter.next().getAttribute("LGA"));
+        assertFalse(iter.hasNext());
+      } finally {
+        iter.close();
+      }
+    }
+    assertEquals(1, this.dataStore.getTileCache().getTileCount());
+    verify(this.postMock, times(1)).setRequestBody(any(NameValuePair[].class));
+
+    // Bounding boxes spanning too many tiles are queried directly
+    this.mockQueries(ArcGISRestDataStoreFactoryTest
+        .readJSONAsStream("test-data/lgaFeatures.geo.json"));
+    query = new Query(TYPENAME1, ff.bbox("geometry", 15661191, -4742385,
+        16706777, -4022464, "EPSG:3857"));
+    FeatureIterator<SimpleFeature> iter = src.getFeatures(query).features();
+    try {
+      assertTrue(iter.hasNext());
+      iter.next();
+      assertTrue(iter.hasNext());
+      iter.next();
+      assertFalse(iter.hasNext());
+    } finally {
+      iter.close();
+    }
+    assertEquals(1, this.dataStore.getTileCache().getTileCount());
+  }
+
   @Test
   public void testFeatures() throws Exception {
 
@@ -323,6 +472,421 @@ public class ArcGISRestDataStoreTest {
     assertEquals(false, iter.hasNext());
   }
 
+  @Test
+  public void testFeaturesWithoutGeometry() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock).thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock)
+        .thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    FeatureSource<SimpleFeatureType, SimpleFeature> src = this.dataStore
+        .createFeatureSource(this.dataStore.getEntry(
+            new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME1)));
+    src.getSchema();
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(this.clientMock);
+
+    this.postMock = PowerMockito.mock(PostMethod.class);
+    PowerMockito.whenNew(PostMethod.class).withNoArguments()
+        .thenReturn(this.postMock);
+    when(this.clientMock.executeMethod(postMock)).thenReturn(HttpStatus.SC_OK);
+    when(this.postMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaFeatures.geo.json"));
+
+    // The geometry is neither requested nor parsed
+    FeatureIterator iter = src
+        .getFeatures(new Query(TYPENAME1, Filter.INCLUDE,
+            new String[] { "LGA" }))
+        .features();
+    assertTrue(iter.hasNext());
+    iter.next();
+    SimpleFeature sf = (SimpleFeature) iter.next();
+    assertEquals("Wellington (S)", sf.getAttribute("LGA"));
+    assertNull(sf.getDefaultGeometry());
+    assertFalse(iter.hasNext());
+    iter.close();
+
+    ArgumentCaptor<NameValuePair[]> body = ArgumentCaptor
+        .forClass(NameValuePair[].class);
+    verify(this.postMock).setRequestBody(body.capture());
+    assertTrue(Arrays.asList(body.getValue()).contains(
+        new NameValuePair(ArcGISRestDataStore.WITHGEOMETRY_PARAM, "false")));
+  }
+
+  @Test
+  public void testGeneralizedFeatures() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock).thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock)
+        .thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    ArcGISRestFeatureSource src = (ArcGISRestFeatureSource) this.dataStore
+        .createFeatureSource(this.dataStore.getEntry(
+            new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME1)));
+    src.getSchema();
+
+    assertTrue(src.getSupportedHints().contains(Hints.GEOMETRY_DISTANCE));
+
+    // Multi-scale levels (3 to 15) are used within their resolutions only
+    assertEquals(ArcGISRestDataStore.WEBMERCATOR_LEVEL0_RESOLUTION / 2048,
+        src.composeMultiScaleTolerance(100), 0.001);
+    assertEquals(1, src.composeMultiScaleTolerance(1), 0.001);
+
+    Query query = new Query(TYPENAME1);
+    query.setHints(new Hints(Hints.GEOMETRY_DISTANCE, 0.05));
+    Map<String, Object> params = src.composeQueryParams(query);
+    assertEquals(0.05, params.get(ArcGISRestDataStore.MAXALLOWABLEOFFSET_PARAM));
+    assertEquals(2, params.get(ArcGISRestDataStore.GEOMETRYPRECISION_PARAM));
+
+    params = src.composeQueryParams(new Query(TYPENAME1));
+    assertNull(params.get(ArcGISRestDataStore.MAXALLOWABLEOFFSET_PARAM));
+  }
+
+  @Test
+  public void testReprojectedFeatures() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock).thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock)
+        .thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    ArcGISRestFeatureSource src = (ArcGISRestFeatureSource) this.dataStore
+        .createFeatureSource(this.dataStore.getEntry(
+            new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME1)));
+    src.getSchema();
+
+    // Features are reprojected by the server, and generalization (in the
+    // units of the layer CRS) is not sent
+    Query query = new Query(TYPENAME1);
+    query.setCoordinateSystemReproject(CRS.decode("EPSG:4326"));
+    query.setHints(new Hints(Hints.GEOMETRY_DISTANCE, 0.05));
+    Map<String, Object> params = src.composeQueryParams(query);
+    assertEquals(4326, params.get(ArcGISRestDataStore.OUTSR_PARAM));
+    assertNull(params.get(ArcGISRestDataStore.MAXALLOWABLEOFFSET_PARAM));
+    assertNull(params.get(ArcGISRestDataStore.QUANTIZATION_PARAM));
+
+    SimpleFeatureType type = src.composeReadType(query, Filter.INCLUDE,
+        query.getCoordinateSystemReproject());
+    assertTrue(CRS.equalsIgnoreMetadata(CRS.decode("EPSG:4326"),
+        type.getCoordinateReferenceSystem()));
+
+    // Reprojecting to the layer CRS is a no-op
+    query.setCoordinateSystemReproject(CRS.decode("EPSG:3857"));
+    params = src.composeQueryParams(query);
+    assertNull(params.get(ArcGISRestDataStore.OUTSR_PARAM));
+  }
+
+  @Test
+  public void testReprojectedFilteredFeatures() throws Exception {
+
+    ArcGISRestFeatureSource src = this.createLGASource();
+    this.mockQueries(ArcGISRestDataStoreFactoryTest
+        .readJSONAsStream("test-data/lgaFeatures.geo.json"));
+
+    // The filter cannot be sent and is evaluated on the features in the
+    // layer CRS, hence they are reprojected after being filtered
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    Query query = new Query(TYPENAME1,
+        ff.greater(
+            ff.function("getX", ff.function("centroid", ff.property("geometry"))),
+            ff.literal(16400000)));
+    query.setCoordinateSystemReproject(CRS.decode("EPSG:4326", true));
+    assertNull(
+        src.composeQueryParams(query).get(ArcGISRestDataStore.OUTSR_PARAM));
+
+    FeatureCollection<SimpleFeatureType, SimpleFeature> fc = src
+        .getFeatures(query);
+    assertTrue(CRS.equalsIgnoreMetadata(CRS.decode("EPSG:4326", true),
+        fc.getSchema().getCoordinateReferenceSystem()));
+
+    FeatureIterator<SimpleFeature> iter = fc.features();
+    try {
+      assertTrue(iter.hasNext());
+      SimpleFeature sf = iter.next();
+      assertEquals("Wellington (S)", sf.getAttribute("LGA"));
+      assertEquals(147.5,
+          ((Geometry) sf.getDefaultGeometry()).getCentroid().getX(), 0.5);
+      assertFalse(iter.hasNext());
+    } finally {
+      iter.close();
+    }
+  }
+
+  @Test
+  public void testResidualAttributes() throws Exception {
+
+    ArcGISRestFeatureSource src = this.createLGASource();
+    this.mockQueries(ArcGISRestDataStoreFactoryTest
+        .readJSONAsStream("test-data/lgaFeatures.geo.json"));
+
+    // Attributes needed by the part of the filter that cannot be sent are
+    // requested too, but not returned
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    Query query = new Query(TYPENAME1,
+        ff.equals(
+            ff.function("strToUpperCase",
+                ff.property("Percent_Rural_land_use")),
+            ff.literal("41.60%")),
+        new String[] { "LGA" });
+    assertEquals("OBJECTID,LGA,Percent_Rural_land_use", src
+        .composeQueryParams(query).get(ArcGISRestDataStore.ATTRIBUTES_PARAM));
+
+    FeatureIterator<SimpleFeature> iter = src.getFeatures(query).features();
+    try {
+      assertTrue(iter.hasNext());
+      SimpleFeature sf = iter.next();
+      assertEquals("Wellington (S)", sf.getAttribute("LGA"));
+      assertNull(sf.getFeatureType().getDescriptor("Percent_Rural_land_use"));
+      assertFalse(iter.hasNext());
+    } finally {
+      iter.close();
+    }
+  }
+
+  @Test
+  public void testLocalSort() throws Exception {
+
+    ArcGISRestFeatureSource src = this.createLGASource();
+    this.mockQueries(
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaFeatures.geo.json"),
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaFeatures.geo.json"));
+
+    // Sort orders the server can take are sent
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    Query query = new Query(TYPENAME1);
+    query.setSortBy(
+        new SortBy[] { ff.sort("LGA", SortOrder.DESCENDING) });
+    assertFalse(src.sortsLocally(query));
+    assertEquals("LGA DESC",
+        src.composeQueryParams(query).get(ArcGISRestDataStore.ORDERBY_PARAM));
+
+    // Sort orders with a key the server cannot take are applied locally as a
+    // whole, and so are offset and limit
+    query = new Query(TYPENAME1, Filter.INCLUDE, new String[] { "geometry" });
+    query.setSortBy(new SortBy[] { ff.sort("LGA", SortOrder.DESCENDING),
+        ff.sort("geometry", SortOrder.ASCENDING) });
+    assertTrue(src.sortsLocally(query));
+    Map<String, Object> params = src.composeQueryParams(query);
+    assertNull(params.get(ArcGISRestDataStore.ORDERBY_PARAM));
+    assertEquals("OBJECTID,LGA",
+        params.get(ArcGISRestDataStore.ATTRIBUTES_PARAM));
+
+    List<String> lgas = new ArrayList<String>();
+    Query allQuery = new Query(query);
+    allQuery.setPropertyNames(Query.ALL_NAMES);
+    FeatureIterator<SimpleFeature> iter = src.getFeatures(allQuery)
+        .features();
+    try {
+      while (iter.hasNext()) {
+        lgas.add((String) iter.next().getAttribute("LGA"));
+      }
+    } finally {
+      iter.close();
+    }
+    assertEquals(Arrays.asList("Wellington (S)", "Alpine (S)"), lgas);
+
+    query.setStartIndex(1);
+    query.setMaxFeatures(1);
+    iter = src.getFeatures(query).features();
+    try {
+      assertTrue(iter.hasNext());
+      SimpleFeature sf = iter.next();
+      assertNull(sf.getFeatureType().getDescriptor("LGA"));
+      assertNotNull(sf.getDefaultGeometry());
+      assertFalse(iter.hasNext());
+    } finally {
+      iter.close();
+    }
+  }
+
+  @Test
+  public void testAggregates() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock).thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock)
+        .thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    FeatureSource<SimpleFeatureType, SimpleFeature> src = this.dataStore
+        .createFeatureSource(this.dataStore.getEntry(
+            new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME1)));
+    src.getSchema();
+
+    // Aggregates are computed by the server, one request each
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(this.clientMock);
+
+    this.postMock = PowerMockito.mock(PostMethod.class);
+    PowerMockito.whenNew(PostMethod.class).withNoArguments()
+        .thenReturn(this.postMock);
+    when(this.clientMock.executeMethod(postMock)).thenReturn(HttpStatus.SC_OK);
+    when(this.postMock.getResponseBodyAsStream())
+        .thenReturn(new ByteArrayInputStream(
+            "{\"features\":[{\"attributes\":{\"statisticValue\":22082}}]}"
+                .getBytes()))
+        .thenReturn(new ByteArrayInputStream(
+            ("{\"features\":[{\"attributes\":{\"LGA\":\"Alpine (S)\"}},"
+                + "{\"attributes\":{\"LGA\":\"Ararat (RC)\"}}]}").getBytes()));
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    MaxVisitor max = new MaxVisitor(ff.property("Area_of_LGA_sq_km"));
+    src.getFeatures(new Query()).accepts(max, null);
+    assertEquals(22082, max.getResult().getValue());
+
+    UniqueVisitor unique = new UniqueVisitor(ff.property("LGA"));
+    src.getFeatures(new Query()).accepts(unique, null);
+    assertEquals(2, unique.getResult().toSet().size());
+    assertTrue(unique.getResult().toSet().contains("Ararat (RC)"));
+  }
+
+  @Test
+  public void testBounds() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock).thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock)
+        .thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    FeatureSource<SimpleFeatureType, SimpleFeature> src = this.dataStore
+        .createFeatureSource(this.dataStore.getEntry(
+            new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME1)));
+    src.getSchema();
+
+    // Unfiltered queries return the layer extent without any request
+    assertEquals(src.getInfo().getBounds(), src.getBounds(new Query()));
+
+    // Filtered queries return the extent computed by the server, once
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(this.clientMock);
+
+    this.postMock = PowerMockito.mock(PostMethod.class);
+    PowerMockito.whenNew(PostMethod.class).withNoArguments()
+        .thenReturn(this.postMock);
+    when(this.clientMock.executeMethod(postMock)).thenReturn(HttpStatus.SC_OK);
+    byte[] extent = ("{\"extent\":{\"xmin\":16000000,\"ymin\":-4500000,\"xmax\":16100000,"
+        + "\"ymax\":-4400000,\"spatialReference\":{\"wkid\":102100,\"latestWkid\":3857}}}")
+            .getBytes();
+    when(this.postMock.getResponseBodyAsStream())
+        .thenReturn(new ByteArrayInputStream(extent))
+        .thenReturn(new ByteArrayInputStream(extent))
+        .thenReturn(new ByteArrayInputStream(extent));
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    Query query = new Query(TYPENAME1,
+        ff.equals(ff.property("LGA"), ff.literal("Alpine (S)")));
+    for (int i = 0; i < 2; i++) {
+      ReferencedEnvelope bounds = src.getBounds(query);
+      assertEquals(16000000, bounds.getMinX(), 1);
+      assertEquals(-4500000, bounds.getMinY(), 1);
+      assertEquals(16100000, bounds.getMaxX(), 1);
+      assertEquals(-4400000, bounds.getMaxY(), 1);
+      assertEquals(CRS.decode("EPSG:3857"),
+          bounds.getCoordinateReferenceSystem());
+    }
+    verify(this.clientMock, times(1)).executeMethod(this.postMock);
+
+    // Extents of layers with static data never expire, the others do as tiles
+    ArcGISRestFeatureSource arcSrc = (ArcGISRestFeatureSource) src;
+    assertEquals(0,
+        arcSrc.boundsCache.values().iterator().next().expiry);
+    arcSrc.webservice.setHasStaticData(false);
+    arcSrc.boundsCache.clear();
+    arcSrc.getBounds(query);
+    verify(this.clientMock, times(2)).executeMethod(this.postMock);
+    ArcGISRestFeatureSource.CachedBounds cached = arcSrc.boundsCache.values()
+        .iterator().next();
+    assertTrue(cached.expiry > System.currentTimeMillis());
+    arcSrc.getBounds(query);
+    verify(this.clientMock, times(2)).executeMethod(this.postMock);
+    cached.expiry = 1;
+    assertEquals(16000000, arcSrc.getBounds(query).getMinX(), 1);
+    verify(this.clientMock, times(3)).executeMethod(this.postMock);
+  }
+
   @Test
   public void testFeaturesWithDate() throws Exception {
 
@@ -375,4 +939,56 @@ public class ArcGISRestDataStoreTest {
       (new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX")).parse("2011-08-02T00:00:00.000Z"),
       sf.getAttribute("VERI_DATE"));
   }
+
+  /**
+   * Helper method to create the feature source of the LGA layer, with the
+   * catalog and the layer metadata mocked
+   */
+  protected ArcGISRestFeatureSource createLGASource() throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(clientMock).thenReturn(clientMock);
+    this.getMock = PowerMockito.mock(GetMethod.class);
+    PowerMockito.whenNew(GetMethod.class).withNoArguments().thenReturn(getMock)
+        .thenReturn(getMock);
+    when(clientMock.executeMethod(getMock)).thenReturn(HttpStatus.SC_OK)
+        .thenReturn(HttpStatus.SC_OK).thenReturn(HttpStatus.SC_OK);
+    when(getMock.getResponseBodyAsStream())
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/catalog.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"))
+        .thenReturn(ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"));
+
+    this.dataStore = (ArcGISRestDataStore) ArcGISRestDataStoreFactoryTest
+        .createDefaultOpenDataTestDataStore();
+    this.dataStore.createTypeNames();
+
+    ArcGISRestFeatureSource src = (ArcGISRestFeatureSource) this.dataStore
+        .createFeatureSource(this.dataStore.getEntry(
+            new NameImpl(ArcGISRestDataStoreFactoryTest.NAMESPACE, TYPENAME1)));
+    src.getSchema();
+    return src;
+  }
+
+  /**
+   * Helper method to mock the responses of the queries of features, in the
+   * order they are requested
+   */
+  protected void mockQueries(InputStream response, InputStream... responses)
+      throws Exception {
+
+    this.clientMock = PowerMockito.mock(HttpClient.class);
+    PowerMockito.whenNew(HttpClient.class).withNoArguments()
+        .thenReturn(this.clientMock);
+
+    this.postMock = PowerMockito.mock(PostMethod.class);
+    PowerMockito.whenNew(PostMethod.class).withNoArguments()
+        .thenReturn(this.postMock);
+    when(this.clientMock.executeMethod(postMock)).thenReturn(HttpStatus.SC_OK);
+    when(this.postMock.getResponseBodyAsStream()).thenReturn(response,
+        responses);
+  }
 }
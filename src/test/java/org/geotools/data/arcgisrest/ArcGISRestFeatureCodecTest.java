@@ -0,0 +1,100 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class ArcGISRestFeatureCodecTest {
+
+  @Test
+  public void roundTrip() throws Exception {
+
+    SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+    typeBuilder.setName("lga");
+    typeBuilder.add("geometry", MultiPolygon.class);
+    typeBuilder.add("name", String.class);
+    typeBuilder.add("population", Integer.class);
+    typeBuilder.add("area", Double.class);
+    typeBuilder.add("code", Short.class);
+    typeBuilder.add("updated", Date.class);
+    typeBuilder.add("metro", Boolean.class);
+    typeBuilder.add("density", BigDecimal.class);
+    SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+    WKTReader wkt = new WKTReader();
+    Geometry[] geoms = {
+        wkt.read("MULTIPOLYGON (((0 0, 10 0, 10 10, 0 10, 0 0),"
+            + " (2 2, 4 2, 4 4, 2 2)), ((20 20, 30 20, 30 30, 20 20)))"),
+        wkt.read("MULTIPOLYGON (((0 0 1, 1 0 2, 1 1 3, 0 0 1)))"),
+        null };
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    for (int i = 0; i < geoms.length; i++) {
+      features.add(SimpleFeatureBuilder.build(type,
+          new Object[] { geoms[i], i < 2 ? "Melbourne" : null, 4000000 + i,
+              123.5 * i, (short) i, new Date(1500000000000L + i),
+              i % 2 == 0, new BigDecimal("1.25") },
+          "lga." + i));
+    }
+
+    ArcGISRestFeatureCodec codec = new ArcGISRestFeatureCodec(type);
+    ByteBuffer buffer = codec.encode(features);
+    assertTrue(buffer.isDirect());
+
+    // Buffers can be decoded more than once
+    codec.decode(buffer);
+    List<SimpleFeature> decoded = codec.decode(buffer);
+    assertEquals(features.size(), decoded.size());
+    for (int i = 0; i < features.size(); i++) {
+      SimpleFeature expected = features.get(i);
+      SimpleFeature actual = decoded.get(i);
+      assertEquals(expected.getID(), actual.getID());
+      assertSame(type, actual.getFeatureType());
+      for (int j = 1; j < type.getAttributeCount(); j++) {
+        assertEquals(expected.getAttribute(j), actual.getAttribute(j));
+      }
+      if (geoms[i] == null) {
+        assertNull(actual.getDefaultGeometry());
+      } else {
+        assertTrue(geoms[i]
+            .equalsExact((Geometry) actual.getDefaultGeometry()));
+      }
+    }
+
+    // Z values are kept
+    assertEquals(3, ((Geometry) decoded.get(1).getDefaultGeometry())
+        .getCoordinates()[2].z, 0);
+  }
+
+}
@@ -17,17 +17,35 @@
 package org.geotools.data.arcgisrest;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.util.logging.Logging;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -105,4 +123,314 @@ public class ArcGISRestFeatureReaderTest {
     assertEquals("geometry",
         feat.getDefaultGeometryProperty().getName().getLocalPart());
   }
+
+  @Test
+  public void errorResponseClosed() throws Exception {
+
+    byte[] error = ArcGISRestDataStoreFactoryTest
+        .readJSONAsString("test-data/error.json").getBytes();
+
+    // The response is closed, whatever the format requested, so that its
+    // connection goes back to the pool
+    for (String format : new String[] { ArcGISRestDataStore.FORMAT_GEOJSON,
+        ArcGISRestDataStore.FORMAT_JSON, ArcGISRestDataStore.FORMAT_PBF }) {
+      final boolean[] closed = { false };
+      InputStream response = new ByteArrayInputStream(error) {
+        @Override
+        public void close() throws IOException {
+          closed[0] = true;
+          super.close();
+        }
+      };
+
+      try {
+        new ArcGISRestFeatureReader(this.fType, response, format, this.LOGGER);
+        fail("Error response parsed with format " + format);
+      } catch (IOException e) {
+        assertTrue(format, closed[0]);
+      }
+    }
+  }
+
+  @Test
+  public void pagedFeatures() throws Exception {
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    ArcGISRestDataStore dataStore = mock(ArcGISRestDataStore.class);
+    when(dataStore.getExecutor()).thenReturn(executor);
+    ArcGISRestFeatureSource src = mock(ArcGISRestFeatureSource.class);
+    when(src.getDataStore()).thenReturn(dataStore);
+
+    // The first page is truncated, the second one is the last one
+    when(src.retrieveFeatures(anyMap())).thenAnswer(new Answer<InputStream>() {
+      public InputStream answer(InvocationOnMock invocation) throws Throwable {
+        Map<String, Object> params = (Map<String, Object>) invocation
+            .getArguments()[0];
+        assertEquals(2,
+            params.get(ArcGISRestDataStore.RESULTRECORDCOUNT_PARAM));
+        switch ((Integer) params.get(ArcGISRestDataStore.RESULTOFFSET_PARAM)) {
+        case 0:
+          return new ByteArrayInputStream(
+              ("{\"type\":\"FeatureCollection\",\"properties\":{\"exceededTransferLimit\":true},\"features\":["
+                  + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":1}},"
+                  + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":2}}]}")
+                      .getBytes());
+        case 2:
+          return new ByteArrayInputStream(
+              ("{\"type\":\"FeatureCollection\",\"features\":["
+                  + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":3}}]}")
+                      .getBytes());
+        case 4:
+          // Requested while the second page is read, and then discarded
+          return new ByteArrayInputStream(
+              ("{\"type\":\"FeatureCollection\",\"features\":[]}")
+                  .getBytes());
+        default:
+          fail("Unexpected page request");
+          return null;
+        }
+      }
+    });
+
+    this.reader = new ArcGISRestFeatureReader(this.fType,
+        new ArcGISRestPagingFeatureIterator(src, this.fType,
+            new HashMap<String, Object>(), 2, this.LOGGER),
+        this.LOGGER);
+
+    for (int i = 1; i <= 3; i++) {
+      assertTrue(this.reader.hasNext());
+      assertEquals(i, this.reader.next().getAttribute("vint"));
+    }
+    assertFalse(this.reader.hasNext());
+    this.reader.close();
+    executor.shutdown();
+  }
+
+  @Test
+  public void pagedFeaturesTruncatedLast() throws Exception {
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    ArcGISRestDataStore dataStore = mock(ArcGISRestDataStore.class);
+    when(dataStore.getExecutor()).thenReturn(executor);
+    ArcGISRestFeatureSource src = mock(ArcGISRestFeatureSource.class);
+    when(src.getDataStore()).thenReturn(dataStore);
+
+    // As ArcGIS Server does, the truncation flag follows the features
+    when(src.retrieveFeatures(anyMap())).thenAnswer(new Answer<InputStream>() {
+      public InputStream answer(InvocationOnMock invocation) throws Throwable {
+        Map<String, Object> params = (Map<String, Object>) invocation
+            .getArguments()[0];
+        switch ((Integer) params.get(ArcGISRestDataStore.RESULTOFFSET_PARAM)) {
+        case 0:
+          return new ByteArrayInputStream(
+              ("{\"type\":\"FeatureCollection\",\"features\":["
+                  + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":1}},"
+                  + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":2}}],"
+                  + "\"properties\":{\"exceededTransferLimit\":true}}")
+                      .getBytes());
+        case 2:
+          return new ByteArrayInputStream(
+              ("{\"type\":\"FeatureCollection\",\"features\":["
+                  + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":3}}]}")
+                      .getBytes());
+        default:
+          return new ByteArrayInputStream(
+              ("{\"type\":\"FeatureCollection\",\"features\":[]}")
+                  .getBytes());
+        }
+      }
+    });
+
+    ArcGISRestPagingFeatureIterator iterator = new ArcGISRestPagingFeatureIterator(
+        src, this.fType, new HashMap<String, Object>(), 2, this.LOGGER);
+
+    // The second page is requested once half of the first one has been read,
+    // before the flag saying the first page is truncated is parsed
+    this.reader = new ArcGISRestFeatureReader(this.fType, iterator,
+        this.LOGGER);
+    assertNull(iterator.nextPage);
+    assertEquals(1, this.reader.next().getAttribute("vint"));
+    assertEquals(2, iterator.nextOffset);
+    verify(src, timeout(5000).times(2)).retrieveFeatures(anyMap());
+
+    for (int i = 2; i <= 3; i++) {
+      assertTrue(this.reader.hasNext());
+      assertEquals(i, this.reader.next().getAttribute("vint"));
+    }
+    assertFalse(this.reader.hasNext());
+    this.reader.close();
+    executor.shutdown();
+  }
+
+  @Test
+  public void pagedFeaturesWithLimit() throws Exception {
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    ArcGISRestDataStore dataStore = mock(ArcGISRestDataStore.class);
+    when(dataStore.getExecutor()).thenReturn(executor);
+    ArcGISRestFeatureSource src = mock(ArcGISRestFeatureSource.class);
+    when(src.getDataStore()).thenReturn(dataStore);
+
+    // Only the page holding the requested range is requested, even though the
+    // server says there are more features
+    when(src.retrieveFeatures(anyMap())).thenAnswer(new Answer<InputStream>() {
+      public InputStream answer(InvocationOnMock invocation) throws Throwable {
+        Map<String, Object> params = (Map<String, Object>) invocation
+            .getArguments()[0];
+        assertEquals(1, params.get(ArcGISRestDataStore.RESULTOFFSET_PARAM));
+        assertEquals(2,
+            params.get(ArcGISRestDataStore.RESULTRECORDCOUNT_PARAM));
+        return new ByteArrayInputStream(
+            ("{\"type\":\"FeatureCollection\",\"properties\":{\"exceededTransferLimit\":true},\"features\":["
+                + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":2}},"
+                + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":3}}]}")
+                    .getBytes());
+      }
+    });
+
+    this.reader = new ArcGISRestFeatureReader(this.fType,
+        new ArcGISRestPagingFeatureIterator(src, this.fType,
+            new HashMap<String, Object>(), 2, 1, 2, this.LOGGER),
+        this.LOGGER);
+
+    for (int i = 2; i <= 3; i++) {
+      assertTrue(this.reader.hasNext());
+      assertEquals(i, this.reader.next().getAttribute("vint"));
+    }
+    assertFalse(this.reader.hasNext());
+    verify(src, times(1)).retrieveFeatures(anyMap());
+    this.reader.close();
+    executor.shutdown();
+  }
+
+  @Test
+  public void parallelFeatures() throws Exception {
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    ArcGISRestDataStore dataStore = mock(ArcGISRestDataStore.class);
+    when(dataStore.getExecutor()).thenReturn(executor);
+    ArcGISRestFeatureSource src = mock(ArcGISRestFeatureSource.class);
+    when(src.getDataStore()).thenReturn(dataStore);
+
+    // Each page holds two features, whose values follow the page order
+    when(src.retrieveFeatures(anyMap())).thenAnswer(new Answer<InputStream>() {
+      public InputStream answer(InvocationOnMock invocation) throws Throwable {
+        int offset = (Integer) ((Map<String, Object>) invocation
+            .getArguments()[0]).get(ArcGISRestDataStore.RESULTOFFSET_PARAM);
+        return new ByteArrayInputStream(
+            ("{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":"
+                + (offset + 1) + "}},"
+                + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":"
+                + (offset + 2) + "}}]}").getBytes());
+      }
+    });
+
+    List<Map<String, Object>> pages = new ArrayList<Map<String, Object>>();
+    for (int offset = 0; offset < 8; offset += 2) {
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put(ArcGISRestDataStore.RESULTOFFSET_PARAM, offset);
+      pages.add(params);
+    }
+
+    this.reader = new ArcGISRestFeatureReader(this.fType,
+        new ArcGISRestParallelFeatureIterator(src, this.fType, pages, 3, 1,
+            this.LOGGER),
+        this.LOGGER);
+
+    for (int i = 1; i <= 8; i++) {
+      assertTrue(this.reader.hasNext());
+      assertEquals(i, this.reader.next().getAttribute("vint"));
+    }
+    assertFalse(this.reader.hasNext());
+    this.reader.close();
+    executor.shutdown();
+  }
+
+  @Test
+  public void objectIdBatches() throws Exception {
+
+    ArcGISRestFeatureSource src = mock(ArcGISRestFeatureSource.class);
+
+    // Each batch returns one feature per object ID
+    when(src.retrieveFeatures(anyMap())).thenAnswer(new Answer<InputStream>() {
+      public InputStream answer(InvocationOnMock invocation) throws Throwable {
+        StringBuilder json = new StringBuilder(
+            "{\"type\":\"FeatureCollection\",\"features\":[");
+        String[] oids = ((String) ((Map<String, Object>) invocation
+            .getArguments()[0]).get(ArcGISRestDataStore.OBJECTIDS_PARAM))
+                .split(",");
+        for (int i = 0; i < oids.length; i++) {
+          json.append(i > 0 ? "," : "").append(
+              "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":")
+              .append(oids[i]).append("}}");
+        }
+        return new ByteArrayInputStream(json.append("]}").toString().getBytes());
+      }
+    });
+
+    List<Map<String, Object>> batches = new ArrayList<Map<String, Object>>();
+    for (String oids : new String[] { "1,2", "3,4", "5,6", "7" }) {
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put(ArcGISRestDataStore.OBJECTIDS_PARAM, oids);
+      batches.add(params);
+    }
+
+    Spliterator<SimpleFeature> suffix = new ArcGISRestObjectIdSpliterator(src,
+        this.fType, batches, 2, this.LOGGER);
+    assertEquals(8, suffix.estimateSize());
+    Spliterator<SimpleFeature> prefix = suffix.trySplit();
+    assertNotNull(prefix);
+    assertEquals(4, prefix.estimateSize());
+
+    final List<Object> values = new ArrayList<Object>();
+    prefix.forEachRemaining((feat) -> values.add(feat.getAttribute("vint")));
+    suffix.forEachRemaining((feat) -> values.add(feat.getAttribute("vint")));
+    assertEquals("[1, 2, 3, 4, 5, 6, 7]", values.toString());
+  }
+
+  @Test
+  public void objectIdBatchesClosed() throws Exception {
+
+    ArcGISRestFeatureSource src = mock(ArcGISRestFeatureSource.class);
+    final List<Boolean> closed = new ArrayList<Boolean>();
+
+    // Each batch returns two features, and records when it is closed
+    when(src.retrieveFeatures(anyMap())).thenAnswer(new Answer<InputStream>() {
+      public InputStream answer(InvocationOnMock invocation) throws Throwable {
+        final int index = closed.size();
+        closed.add(false);
+        return new ByteArrayInputStream(
+            ("{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":1}},"
+                + "{\"type\":\"Feature\",\"geometry\":null,\"properties\":{\"vint\":2}}]}")
+                    .getBytes()) {
+          @Override
+          public void close() throws IOException {
+            closed.set(index, true);
+            super.close();
+          }
+        };
+      }
+    });
+
+    List<Map<String, Object>> batches = new ArrayList<Map<String, Object>>();
+    for (String oids : new String[] { "1,2", "3,4" }) {
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put(ArcGISRestDataStore.OBJECTIDS_PARAM, oids);
+      batches.add(params);
+    }
+
+    // A consumer stopping in the middle of a batch releases it on close
+    ArcGISRestObjectIdSpliterator spliterator = new ArcGISRestObjectIdSpliterator(
+        src, this.fType, batches, 2, this.LOGGER);
+    try (Stream<SimpleFeature> stream = StreamSupport
+        .stream(spliterator, false).onClose(spliterator::close)) {
+      assertEquals(1, stream.findFirst().get().getAttribute("vint"));
+      assertEquals("[false]", closed.toString());
+    }
+    assertEquals("[true]", closed.toString());
+    assertFalse(spliterator.tryAdvance((feat) -> fail()));
+  }
+
 }
@@ -0,0 +1,214 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class ArcGISRestFilterToSQLTest {
+
+  private static final FilterFactory2 FF = CommonFactoryFinder
+      .getFilterFactory2();
+
+  ArcGISRestFilterToSQL encoder;
+
+  @Before
+  public void setUp() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("jsonfeature");
+    builder.add("OBJECTID", String.class);
+    builder.add("vint", Integer.class);
+    builder.add("vstring", String.class);
+    builder.add("vdate", Date.class);
+    builder.add("geometry", Geometry.class);
+
+    this.encoder = new ArcGISRestFilterToSQL(builder.buildFeatureType(),
+        "OBJECTID");
+  }
+
+  @Test
+  public void comparisons() throws Exception {
+
+    assertEquals("vint = 3",
+        this.encoder.encode(FF.equals(FF.property("vint"), FF.literal(3))));
+    assertEquals("vint >= 3", this.encoder.encode(
+        FF.greaterOrEqual(FF.property("vint"), FF.literal("3"))));
+    assertEquals("vstring <> 'O''Neil'", this.encoder.encode(
+        FF.notEqual(FF.property("vstring"), FF.literal("O'Neil"))));
+    assertEquals("UPPER(vstring) = UPPER('abc')", this.encoder.encode(
+        FF.equal(FF.property("vstring"), FF.literal("abc"), false)));
+    assertEquals("vdate < timestamp '1970-01-02 00:00:00'",
+        this.encoder.encode(FF.less(FF.property("vdate"),
+            FF.literal(new Date(24 * 3600 * 1000L)))));
+    assertEquals("vint BETWEEN 1 AND 5", this.encoder.encode(
+        FF.between(FF.property("vint"), FF.literal(1), FF.literal(5))));
+    assertEquals("vstring IS NULL",
+        this.encoder.encode(FF.isNull(FF.property("vstring"))));
+  }
+
+  @Test
+  public void logicalOperators() throws Exception {
+
+    assertEquals("(vint > 1 AND NOT (vstring = 'a'))",
+        this.encoder.encode(FF.and(FF.greater(FF.property("vint"), FF.literal(1)),
+            FF.not(FF.equals(FF.property("vstring"), FF.literal("a"))))));
+    assertEquals("vint IN (1, 2, 3)",
+        this.encoder.encode(
+            FF.or(Arrays.asList(FF.equals(FF.property("vint"), FF.literal(1)),
+                FF.equals(FF.property("vint"), FF.literal(2)),
+                FF.equals(FF.literal(3), FF.property("vint"))))));
+    assertEquals("(vint = 1 OR vstring = 'a')",
+        this.encoder.encode(FF.or(FF.equals(FF.property("vint"), FF.literal(1)),
+            FF.equals(FF.property("vstring"), FF.literal("a")))));
+  }
+
+  @Test
+  public void like() throws Exception {
+
+    assertEquals("vstring LIKE 'ab%c_'", this.encoder.encode(
+        FF.like(FF.property("vstring"), "ab*c.", "*", ".", "!")));
+    assertEquals("vstring LIKE '50\\%%' ESCAPE '\\'", this.encoder.encode(
+        FF.like(FF.property("vstring"), "50%*", "*", ".", "!")));
+    assertEquals("vstring LIKE 'a*%'", this.encoder.encode(
+        FF.like(FF.property("vstring"), "a!**", "*", ".", "!")));
+    assertEquals("UPPER(vstring) LIKE 'AB%'", this.encoder.encode(
+        FF.like(FF.property("vstring"), "ab*", "*", ".", "!", false)));
+  }
+
+  @Test
+  public void featureIds() throws Exception {
+
+    Set<FeatureId> fids = new HashSet<FeatureId>();
+    fids.add(FF.featureId("jsonfeature.12"));
+    assertEquals("OBJECTID IN (12)", this.encoder.encode(FF.id(fids)));
+
+    fids.clear();
+    fids.add(FF.featureId("jsonfeature.fid-abc"));
+    assertEquals(ArcGISRestFilterToSQL.WHERE_EXCLUDE,
+        this.encoder.encode(FF.id(fids)));
+  }
+
+  @Test
+  public void splitFilter() throws Exception {
+
+    Filter attr = FF.equals(FF.property("vint"), FF.literal(3));
+    Filter spatial = FF.bbox("geometry", 0, 0, 1, 1, null);
+    Filter[] split = this.encoder.splitFilter(FF.and(attr, spatial));
+
+    assertEquals(attr, split[0]);
+    assertEquals(spatial, split[1]);
+
+    split = this.encoder.splitFilter(Filter.INCLUDE);
+    assertEquals(Filter.INCLUDE, split[0]);
+    assertEquals(Filter.INCLUDE, split[1]);
+
+    split = this.encoder.splitFilter(attr);
+    assertEquals(attr, split[0]);
+    assertEquals(Filter.INCLUDE, split[1]);
+  }
+
+  @Test
+  public void spatialFilters() throws Exception {
+
+    Geometry square = (new WKTReader())
+        .read("POLYGON((0 0, 1 0, 1 1, 0 1, 0 0))");
+    Filter attr = FF.equals(FF.property("vint"), FF.literal(3));
+    Filter intersects = FF.intersects(FF.property("geometry"),
+        FF.literal(square));
+    Filter[] split = this.encoder.splitSpatialFilter(FF.and(attr, intersects));
+
+    assertEquals(intersects, split[0]);
+    assertEquals(attr, split[1]);
+
+    Map<String, Object> params = this.encoder.encodeSpatialFilter(split[0]);
+    assertEquals("{\"rings\":[[[0.0,0.0],[0.0,1.0],[1.0,1.0],[1.0,0.0],[0.0,0.0]]]}",
+        params.get(ArcGISRestDataStore.GEOMETRY_PARAM));
+    assertEquals(ArcGISRestGeometryEncoder.GEOMETRY_POLYGON,
+        params.get(ArcGISRestDataStore.GEOMETRYTYPE_PARAM));
+    assertEquals(ArcGISRestFilterToSQL.SPATIALREL_INTERSECTS,
+        params.get(ArcGISRestDataStore.SPATIALREL_PARAM));
+
+    // Features within the geometry are those the geometry contains
+    params = this.encoder.encodeSpatialFilter(
+        FF.within(FF.property("geometry"), FF.literal(square)));
+    assertEquals(ArcGISRestFilterToSQL.SPATIALREL_CONTAINS,
+        params.get(ArcGISRestDataStore.SPATIALREL_PARAM));
+
+    // BBOX is sent as an envelope the features intersect, and is not
+    // checked again on the returned features
+    Filter bbox = FF.bbox("geometry", 0, 0, 1, 1, null);
+    split = this.encoder.splitSpatialFilter(bbox);
+    assertEquals(bbox, split[0]);
+    assertEquals(Filter.INCLUDE, split[1]);
+    split = this.encoder.splitSpatialFilter(FF.and(attr, bbox));
+    assertEquals(bbox, split[0]);
+    assertEquals(attr, split[1]);
+    params = this.encoder.encodeSpatialFilter(bbox);
+    assertEquals("{\"xmin\":0.0,\"ymin\":0.0,\"xmax\":1.0,\"ymax\":1.0}",
+        params.get(ArcGISRestDataStore.GEOMETRY_PARAM));
+    assertEquals(ArcGISRestGeometryEncoder.GEOMETRY_ENVELOPE,
+        params.get(ArcGISRestDataStore.GEOMETRYTYPE_PARAM));
+    assertEquals(ArcGISRestFilterToSQL.SPATIALREL_INTERSECTS,
+        params.get(ArcGISRestDataStore.SPATIALREL_PARAM));
+
+    // Filters on other properties are not sent
+    split = this.encoder.splitSpatialFilter(
+        FF.intersects(FF.property("vstring"), FF.literal(square)));
+    assertNull(split[0]);
+  }
+
+  @Test
+  public void largeGeometries() throws Exception {
+
+    Geometry circle = (new GeometryFactory())
+        .createPoint(new Coordinate(0, 0)).buffer(10, 1250);
+    assertTrue(circle.getNumPoints() > ArcGISRestGeometryEncoder.MAX_VERTICES);
+
+    Geometry approx = ArcGISRestGeometryEncoder.approximate(circle);
+    assertTrue(ArcGISRestGeometryEncoder.isEncodable(approx));
+    assertTrue(approx.covers(circle));
+
+    // The approximated filter is evaluated on the returned features too
+    Filter intersects = FF.intersects(FF.property("geometry"),
+        FF.literal(circle));
+    Filter[] split = this.encoder.splitSpatialFilter(intersects);
+    assertEquals(intersects, split[0]);
+    assertEquals(intersects, split[1]);
+  }
+
+}
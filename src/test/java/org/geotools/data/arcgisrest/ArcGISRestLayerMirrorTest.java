@@ -0,0 +1,117 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class ArcGISRestLayerMirrorTest {
+
+  private static final FilterFactory2 FF = CommonFactoryFinder
+      .getFilterFactory2();
+
+  /**
+   * Helper method to create a grid of 10 by 10 point features, whose
+   * "column" attribute is their X
+   */
+  protected static ArcGISRestLayerMirror createMirror() {
+    SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+    typeBuilder.setName("grid");
+    typeBuilder.add("column", Integer.class);
+    typeBuilder.add("geometry", Point.class);
+    SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+    GeometryFactory geomFactory = new GeometryFactory();
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    for (int i = 0; i < 100; i++) {
+      features.add(SimpleFeatureBuilder.build(type,
+          new Object[] { i % 10,
+              geomFactory.createPoint(new Coordinate(i % 10, i / 10)) },
+          String.valueOf(i)));
+    }
+
+    ArcGISRestLayerMirror mirror = new ArcGISRestLayerMirror("grid");
+    mirror.refresh(type, features, 1L);
+    return mirror;
+  }
+
+  @Test
+  public void query() throws Exception {
+
+    ArcGISRestLayerMirror mirror = createMirror();
+    assertTrue(mirror.isLoaded());
+    assertEquals(1L, mirror.getVersion());
+    assertEquals(100, mirror.query(Filter.INCLUDE).size());
+
+    // Spatial index
+    List<SimpleFeature> features = mirror
+        .query(FF.bbox("geometry", 1.5, 1.5, 3.5, 2.5, null));
+    assertEquals(2, features.size());
+    assertEquals("22", features.get(0).getID());
+    assertEquals("23", features.get(1).getID());
+
+    // Attribute index, possibly combined with other filters
+    assertEquals(10,
+        mirror.query(FF.equals(FF.property("column"), FF.literal("3")))
+            .size());
+    assertEquals(5,
+        mirror.query(FF.and(FF.equals(FF.property("column"), FF.literal(3)),
+            FF.bbox("geometry", 0, 0, 9, 4, null))).size());
+
+    // ID index
+    features = mirror.query(FF.id(Collections.singleton(FF.featureId("42"))));
+    assertEquals(1, features.size());
+    assertEquals(2, features.get(0).getAttribute("column"));
+
+    // Other filters are evaluated on all the features
+    assertEquals(30, mirror
+        .query(FF.less(FF.property("column"), FF.literal(3))).size());
+  }
+
+  @Test
+  public void bounds() throws Exception {
+
+    ArcGISRestLayerMirror mirror = createMirror();
+    assertEquals(new ReferencedEnvelope(0, 9, 0, 9, null),
+        mirror.getBounds(Filter.INCLUDE));
+    assertEquals(new ReferencedEnvelope(3, 3, 0, 9, null),
+        mirror.getBounds(FF.equals(FF.property("column"), FF.literal(3))));
+
+    mirror.dispose();
+    assertFalse(mirror.isLoaded());
+    assertEquals(0, mirror.query(Filter.INCLUDE).size());
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import org.geotools.data.arcgisrest.schema.services.feature.Featureserver;
+import org.geotools.data.arcgisrest.schema.webservice.Webservice;
+import org.junit.Test;
+
+import com.google.gson.JsonSyntaxException;
+
+public class ArcGISRestMetadataAdapterFactoryTest {
+
+  @Test
+  public void webservice() throws Exception {
+
+    Webservice ws = ArcGISRestDataStore.readJSON(
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"),
+        Webservice.class);
+
+    assertEquals(10.41, ws.getCurrentVersion(), 0.001);
+    assertEquals("esriGeometryPolygon", ws.getGeometryType());
+    assertEquals("OBJECTID", ws.getObjectIdField());
+    assertEquals(415, ws.getFields().size());
+    assertEquals(2000, ws.getMaxRecordCount().intValue());
+    assertEquals(3857, ws.getExtent().getSpatialReference().getLatestWkid()
+        .intValue());
+    assertTrue(ws.getAdvancedQueryCapabilities().getSupportsPagination());
+
+    // Members that are not used are skipped
+    assertNull(ws.getDrawingInfo());
+    assertTrue(ws.getTemplates().isEmpty());
+    assertTrue(ws.getTypes().isEmpty());
+  }
+
+  @Test
+  public void featureserver() throws Exception {
+
+    Featureserver fs = ArcGISRestDataStore.readJSON(
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/FeatureServerAirport.json"),
+        Featureserver.class);
+
+    assertEquals(10.41, fs.getCurrentVersion(), 0.001);
+    assertEquals(2, fs.getLayers().size());
+  }
+
+  @Test
+  public void empty() throws Exception {
+
+    assertNull(ArcGISRestDataStore.readJSON(
+        new ByteArrayInputStream(new byte[0]), Webservice.class));
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void error() throws Exception {
+
+    ArcGISRestDataStore.readJSON(
+        ArcGISRestDataStoreFactoryTest.readJSONAsStream("test-data/error.json"),
+        Webservice.class);
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.geotools.data.arcgisrest.schema.webservice.EditingInfo;
+import org.geotools.data.arcgisrest.schema.webservice.Webservice;
+import org.geotools.util.logging.Logging;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArcGISRestMetadataCacheTest {
+
+  private static final Logger LOGGER = Logging
+      .getLogger("org.geotools.data.arcgisrest");
+
+  private static final String URL = "http://example.com/arcgis/rest/services/LGA/FeatureServer/0";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Helper method to read the metadata of a layer, with the given last edit
+   * date
+   */
+  protected static Webservice readWebservice(long lastEditDate)
+      throws IOException {
+    Webservice ws = ArcGISRestDataStore.readJSON(
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/lgaDataset.json"),
+        Webservice.class);
+    EditingInfo info = new EditingInfo();
+    info.setLastEditDate(lastEditDate);
+    ws.setEditingInfo(info);
+    return ws;
+  }
+
+  @Test
+  public void retrieve() throws Exception {
+
+    AtomicInteger loads = new AtomicInteger();
+
+    // Metadata that are not cached are loaded, and kept in memory
+    ArcGISRestMetadataCache cache = new ArcGISRestMetadataCache(
+        this.folder.getRoot(), LOGGER);
+    Webservice ws = cache.retrieve(URL, Webservice.class, () -> {
+      loads.incrementAndGet();
+      return readWebservice(1);
+    });
+    assertEquals(415, ws.getFields().size());
+    assertSame(ws, cache.retrieve(URL, Webservice.class, () -> {
+      loads.incrementAndGet();
+      return readWebservice(1);
+    }));
+    assertEquals(1, loads.get());
+    cache.dispose();
+
+    // Metadata stored on disk are returned right away by another cache
+    cache = new ArcGISRestMetadataCache(this.folder.getRoot(), LOGGER);
+    ws = cache.retrieve(URL, Webservice.class, () -> {
+      loads.incrementAndGet();
+      return readWebservice(2);
+    });
+    assertEquals(415, ws.getFields().size());
+    assertEquals("esriGeometryPolygon", ws.getGeometryType());
+    assertEquals(1, ((Number) ws.getEditingInfo().getLastEditDate()).intValue());
+
+    // ...and revalidated in the background, replacing them as they changed
+    cache.revalidator.shutdown();
+    assertTrue(cache.revalidator.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(2, loads.get());
+    ws = cache.retrieve(URL, Webservice.class, () -> {
+      throw new IOException("Not expected");
+    });
+    assertEquals(2, ((Number) ws.getEditingInfo().getLastEditDate()).intValue());
+  }
+
+  @Test
+  public void unreachable() throws Exception {
+
+    ArcGISRestMetadataCache cache = new ArcGISRestMetadataCache(
+        this.folder.getRoot(), LOGGER);
+    cache.store(URL, readWebservice(1));
+    cache.dispose();
+
+    // Cached metadata are kept when the service cannot be reached
+    cache = new ArcGISRestMetadataCache(this.folder.getRoot(), LOGGER);
+    Webservice ws = cache.retrieve(URL, Webservice.class, () -> {
+      throw new IOException("Connection refused");
+    });
+    cache.revalidator.shutdown();
+    assertTrue(cache.revalidator.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, ((Number) ws.getEditingInfo().getLastEditDate()).intValue());
+    assertEquals(1, this.folder.getRoot().list().length);
+
+    cache.clear();
+    assertEquals(0, this.folder.getRoot().list().length);
+  }
+
+}
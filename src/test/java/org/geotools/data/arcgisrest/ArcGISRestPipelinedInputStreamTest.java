@@ -0,0 +1,190 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.util.logging.Logging;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+public class ArcGISRestPipelinedInputStreamTest {
+
+  private static final Logger LOGGER = Logging
+      .getLogger("org.geotools.data.arcgisrest");
+
+  ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    this.executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Helper method to read a stream until its end
+   */
+  protected static byte[] readAll(InputStream stream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[100];
+    int n;
+    while ((n = stream.read(buf, 0, buf.length)) >= 0) {
+      out.write(buf, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void content() throws Exception {
+
+    byte[] content = ArcGISRestDataStoreFactoryTest
+        .readJSONAsString("test-data/bicycleFeatures.geo.json").getBytes();
+
+    // Chunks are smaller than the content, and the queue shorter than them
+    InputStream stream = new ArcGISRestPipelinedInputStream(
+        new ByteArrayInputStream(content), this.executor, 2, 1024, LOGGER);
+    assertArrayEquals(content, readAll(stream));
+    assertEquals(-1, stream.read());
+    stream.close();
+  }
+
+  @Test
+  public void features() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("pipelined");
+    builder.add("geometry", Geometry.class);
+
+    GeoJSONParser parser = new GeoJSONParser(
+        new ArcGISRestPipelinedInputStream(
+            ArcGISRestDataStoreFactoryTest
+                .readJSONAsStream("test-data/bicycleFeatures.geo.json"),
+            this.executor, 4, 1024, LOGGER),
+        builder.buildFeatureType(), LOGGER);
+    parser.parseFeatureCollection();
+
+    int count = 0;
+    while (parser.hasNext()) {
+      parser.next();
+      count++;
+    }
+    parser.close();
+
+    assertEquals(92, count);
+  }
+
+  @Test(expected = IOException.class)
+  public void error() throws Exception {
+
+    InputStream source = new InputStream() {
+      int count = 0;
+
+      @Override
+      public int read() throws IOException {
+        if (this.count++ > 3000) {
+          throw new IOException("Connection reset");
+        }
+        return 'a';
+      }
+    };
+
+    // The download error is thrown once the chunks read before it are parsed
+    readAll(new ArcGISRestPipelinedInputStream(source, this.executor, 2, 1024,
+        LOGGER));
+  }
+
+  @Test
+  public void close() throws Exception {
+
+    // An endless response is no longer read once the stream is closed, and
+    // is closed once by the download
+    AtomicInteger closes = new AtomicInteger();
+    InputStream source = new InputStream() {
+      @Override
+      public int read() {
+        return 'a';
+      }
+
+      @Override
+      public void close() {
+        closes.incrementAndGet();
+      }
+    };
+
+    InputStream stream = new ArcGISRestPipelinedInputStream(source,
+        this.executor, 2, 1024, LOGGER);
+    assertEquals('a', stream.read());
+    stream.close();
+    stream.close();
+    assertEquals(-1, stream.read());
+
+    this.executor.shutdown();
+    assertTrue(this.executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, closes.get());
+  }
+
+  @Test
+  public void closeBeforeDownload() throws Exception {
+
+    // The response is closed even if the download never starts
+    AtomicInteger closes = new AtomicInteger();
+    InputStream source = new ByteArrayInputStream(new byte[10]) {
+      @Override
+      public void close() {
+        closes.incrementAndGet();
+      }
+    };
+
+    ExecutorService idle = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch blocked = new CountDownLatch(1);
+      idle.submit(() -> {
+        blocked.await();
+        return null;
+      });
+      InputStream stream = new ArcGISRestPipelinedInputStream(source, idle, 2,
+          1024, LOGGER);
+      stream.close();
+      blocked.countDown();
+    } finally {
+      idle.shutdown();
+      assertTrue(idle.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1, closes.get());
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class ArcGISRestTileCacheTest {
+
+  protected static final SimpleFeatureType TYPE;
+  static {
+    SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+    typeBuilder.setName("tile");
+    typeBuilder.add("geometry", Point.class);
+    typeBuilder.add("name", String.class);
+    TYPE = typeBuilder.buildFeatureType();
+  }
+
+  protected static final ArcGISRestFeatureCodec CODEC = new ArcGISRestFeatureCodec(
+      TYPE);
+
+  /**
+   * Helper method to create the given number of point features
+   */
+  protected static List<SimpleFeature> createFeatures(int n) {
+
+    GeometryFactory geomFactory = new GeometryFactory();
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+    for (int i = 0; i < n; i++) {
+      features.add(SimpleFeatureBuilder.build(TYPE,
+          new Object[] { geomFactory.createPoint(new Coordinate(i, i)),
+              "feature" + i },
+          String.valueOf(i)));
+    }
+    return features;
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+
+    long tileSize = CODEC.encode(createFeatures(10)).capacity();
+    ArcGISRestTileCache cache = new ArcGISRestTileCache(tileSize * 2);
+
+    cache.put("a", CODEC, createFeatures(10), 0);
+    cache.put("b", CODEC, createFeatures(10), 0);
+    assertEquals(2, cache.getTileCount());
+    assertEquals(tileSize * 2, cache.getSize());
+
+    // Tiles are decoded anew on each read
+    assertEquals(10, cache.get("a").size());
+    assertNotSame(cache.get("a").get(0), cache.get("a").get(0));
+    assertEquals(createFeatures(10).get(3), cache.get("a").get(3));
+
+    // The least recently used tile is evicted once the cache is full
+    assertNotNull(cache.get("a"));
+    cache.put("c", CODEC, createFeatures(10), 0);
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(tileSize * 2, cache.getSize());
+
+    // Tiles larger than the cache are not cached
+    cache.put("d", CODEC, createFeatures(30), 0);
+    assertNull(cache.get("d"));
+    assertEquals(2, cache.getTileCount());
+
+    cache.clear();
+    assertEquals(0, cache.getTileCount());
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void expires() throws Exception {
+
+    ArcGISRestTileCache cache = new ArcGISRestTileCache(1024 * 1024);
+    cache.put("expiring", CODEC, createFeatures(5), 50);
+    cache.put("static", CODEC, createFeatures(5), 0);
+    assertEquals(5, cache.get("expiring").size());
+
+    Thread.sleep(100);
+    assertNull(cache.get("expiring"));
+    assertEquals(5, cache.get("static").size());
+    assertEquals(1, cache.getTileCount());
+    assertEquals(CODEC.encode(createFeatures(5)).capacity(), cache.getSize());
+  }
+
+}
@@ -0,0 +1,182 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.util.logging.Logging;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class EsriJSONParserTest {
+
+  private static final Logger LOGGER = Logging
+      .getLogger("org.geotools.data.arcgisrest");
+
+  SimpleFeatureType fType;
+
+  @Before
+  public void setUp() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("jsonfeature");
+    builder.add("OBJECTID", Integer.class);
+    builder.add("vstring", String.class);
+    builder.add("geometry", Geometry.class);
+
+    this.fType = builder.buildFeatureType();
+  }
+
+  /**
+   * Helper method to return a parser positioned on the first feature
+   */
+  protected EsriJSONParser parse(String json) throws Exception {
+    EsriJSONParser parser = new EsriJSONParser(
+        new ByteArrayInputStream(json.getBytes()), this.fType, LOGGER);
+    parser.parseFeatureCollection();
+    return parser;
+  }
+
+  @Test
+  public void features() throws Exception {
+
+    EsriJSONParser parser = this.parse(
+        "{\"objectIdFieldName\":\"OBJECTID\",\"geometryType\":\"esriGeometryPoint\","
+            + "\"spatialReference\":{\"wkid\":4326},\"fields\":[],\"features\":["
+            + "{\"attributes\":{\"OBJECTID\":12,\"vstring\":\"a\"},\"geometry\":{\"x\":1.5,\"y\":2.5}},"
+            + "{\"attributes\":{\"OBJECTID\":13,\"vstring\":null},\"geometry\":null}],"
+            + "\"exceededTransferLimit\":true}");
+
+    assertTrue(parser.hasNext());
+    SimpleFeature feat = parser.next();
+    assertEquals("12", feat.getID());
+    assertEquals(12, feat.getAttribute("OBJECTID"));
+    assertEquals("a", feat.getAttribute("vstring"));
+    assertEquals(1.5, ((Point) feat.getDefaultGeometry()).getX(), 0.001);
+    assertEquals(2.5, ((Point) feat.getDefaultGeometry()).getY(), 0.001);
+
+    assertTrue(parser.hasNext());
+    feat = parser.next();
+    assertEquals("13", feat.getID());
+    assertNull(feat.getDefaultGeometry());
+
+    assertFalse(parser.hasNext());
+    assertTrue(parser.isExceededTransferLimit());
+    assertFalse(parser.isQuantized());
+  }
+
+  @Test
+  public void objectIdNotInType() throws Exception {
+
+    // The object ID is the feature ID, even when it is not an attribute
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("jsonfeature");
+    builder.add("vstring", String.class);
+    this.fType = builder.buildFeatureType();
+
+    EsriJSONParser parser = this.parse(
+        "{\"objectIdFieldName\":\"OBJECTID\",\"features\":["
+            + "{\"attributes\":{\"OBJECTID\":12,\"vstring\":\"a\"}},"
+            + "{\"attributes\":{\"vstring\":\"b\",\"OBJECTID\":13}}]}");
+
+    SimpleFeature feat = parser.next();
+    assertEquals("12", feat.getID());
+    assertEquals("a", feat.getAttribute("vstring"));
+    feat = parser.next();
+    assertEquals("13", feat.getID());
+    assertEquals("b", feat.getAttribute("vstring"));
+    assertFalse(parser.hasNext());
+  }
+
+  @Test
+  public void rings() throws Exception {
+
+    EsriJSONParser parser = this.parse("{\"features\":[{\"attributes\":{},"
+        + "\"geometry\":{\"rings\":[[[0,0],[0,10],[10,10],[10,0],[0,0]],"
+        + "[[2,2],[4,2],[4,4],[2,4],[2,2]],"
+        + "[[20,20],[20,30],[30,30],[30,20],[20,20]]]}}]}");
+
+    Geometry geom = (Geometry) parser.next().getDefaultGeometry();
+    assertTrue(geom instanceof MultiPolygon);
+    assertEquals(2, geom.getNumGeometries());
+    assertEquals(1, ((Polygon) geom.getGeometryN(0)).getNumInteriorRing());
+    assertEquals(0, ((Polygon) geom.getGeometryN(1)).getNumInteriorRing());
+    assertEquals(196.0, geom.getArea(), 0.001);
+  }
+
+  @Test
+  public void degenerateRings() throws Exception {
+
+    // Rings collapsed to fewer than 4 positions (once closed) are skipped,
+    // whether they are shells or holes
+    EsriJSONParser parser = this.parse("{\"features\":[{\"attributes\":{},"
+        + "\"geometry\":{\"rings\":[[[50,50],[50,60],[50,50]],"
+        + "[[0,0],[0,10],[10,10],[10,0]],[[2,2],[4,2],[2,2]],"
+        + "[[20,20],[20,30]]]}}]}");
+
+    Geometry geom = (Geometry) parser.next().getDefaultGeometry();
+    assertEquals(1, geom.getNumGeometries());
+    assertEquals(0, ((Polygon) geom.getGeometryN(0)).getNumInteriorRing());
+    assertEquals(100.0, geom.getArea(), 0.001);
+  }
+
+  @Test
+  public void quantizedPaths() throws Exception {
+
+    EsriJSONParser parser = this.parse(
+        "{\"transform\":{\"originPosition\":\"upperLeft\",\"scale\":[0.5,0.5,0,0],"
+            + "\"translate\":[100,200,0,0]},\"features\":[{\"attributes\":{},"
+            + "\"geometry\":{\"paths\":[[[2,4],[2,0],[0,-2]],[[0,0],[2,2]]]}}]}");
+
+    assertTrue(parser.isQuantized());
+    Geometry geom = (Geometry) parser.next().getDefaultGeometry();
+    assertTrue(geom instanceof MultiLineString);
+    assertEquals(2, geom.getNumGeometries());
+
+    Coordinate[] coords = geom.getGeometryN(0).getCoordinates();
+    assertEquals(new Coordinate(101, 198), coords[0]);
+    assertEquals(new Coordinate(102, 198), coords[1]);
+    assertEquals(new Coordinate(102, 199), coords[2]);
+
+    // Each path starts from absolute coordinates
+    coords = geom.getGeometryN(1).getCoordinates();
+    assertEquals(new Coordinate(100, 200), coords[0]);
+    assertEquals(new Coordinate(101, 199), coords[1]);
+  }
+
+  @Test(expected = IOException.class)
+  public void error() throws Exception {
+    this.parse(ArcGISRestDataStoreFactoryTest
+        .readJSONAsString("test-data/error.json"));
+  }
+
+}
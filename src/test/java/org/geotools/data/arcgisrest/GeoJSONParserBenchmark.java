@@ -0,0 +1,471 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.GeometryBuilder;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonToken;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Micro-benchmark of GeoJSON parsing, reporting the bytes allocated per feature
+ * by the list-based coordinate parsing (the one parseGeometry used to do) and
+ * by the buffer-based one, and the number of features per second parsed out of
+ * a feature collection of the size of bicycleFeatures.geo.json, both with a
+ * feature builder and a property map per feature (the way parseFeature used to
+ * build features) and with the parser as it is. It is not a unit test, run it with:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:... org.geotools.data.arcgisrest.GeoJSONParserBenchmark
+ * </pre>
+ *
+ * @author lmorandini
+ *
+ */
+public class GeoJSONParserBenchmark {
+
+  private static final Logger LOGGER = Logging
+      .getLogger("org.geotools.data.arcgisrest");
+
+  protected static final int FEATURES = 2000;
+  protected static final int VERTICES = 200;
+  protected static final int ROUNDS = 5;
+  protected static final long ROUND_MILLIS = 2000;
+
+  // The list-based coordinate parsing below is the one the parser used to do
+  // with boxed ordinates, kept as the baseline of the measurements
+
+  /**
+   * Helper method to convert a List of double to an array of doubles
+   */
+  protected static double[] listToArray(List<Double> coords) {
+
+    double[] arr = new double[coords.size()];
+    int i = 0;
+    for (Double d : coords) {
+      arr[i++] = d.doubleValue();
+    }
+    return arr;
+  }
+
+  /**
+   * Utility method that parses a Point GeoJSON coordinates array and adds them
+   * to coords
+   * 
+   * @param coords
+   *          List to add coordinates to
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static void parsePointCoordinates(
+      GeoJSONParser parser, List<Double> coords)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    parser.reader.beginArray();
+
+    // Reads the point/vertex coordinates
+    while (parser.reader.hasNext()) {
+
+      // Read X and Y
+      coords.add(parser.reader.nextDouble());
+      coords.add(parser.reader.nextDouble());
+
+      // TODO: for the time being it discards Z
+      if (parser.reader.peek() == JsonToken.NUMBER) {
+        parser.reader.skipValue();
+      }
+    }
+
+    parser.reader.endArray();
+  }
+
+  /**
+   * Parses a GeoJSON coordinates array (it is an Array of point coordinates
+   * expressed as Array) and returns it a simple double arrays
+   * 
+   * @return array with coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static double[] parseCoordinateArray(GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    List<Double> coords = new ArrayList<Double>();
+
+    parser.reader.beginArray();
+
+    while (parser.reader.hasNext()) {
+      parsePointCoordinates(parser, coords);
+    }
+
+    parser.reader.endArray();
+
+    return listToArray(coords);
+  }
+
+  /**
+   * Parses a Point GeoJSON coordinates array and returns them in an array
+   * 
+   * @return array with coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static double[] parsePointCoordinates(GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    List<Double> coords = new ArrayList<Double>();
+    parsePointCoordinates(parser, coords);
+    return listToArray(coords);
+  }
+
+  /**
+   * Parses a MultiPoint GeoJSON coordinates array and adds them to coords
+   * 
+   * @return list of arrays with coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static List<double[]> parseMultiPointCoordinates(
+      GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    List<double[]> points = new ArrayList<double[]>();
+
+    parser.reader.beginArray();
+    while (parser.reader.hasNext()) {
+      points.add(parsePointCoordinates(parser));
+    }
+    parser.reader.endArray();
+
+    return points;
+  }
+
+  /**
+   * Parses a Line GeoJSON coordinates array and adds them to coords
+   * 
+   * @return array with coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateExceptionadds them to coords
+   */
+  protected static double[] parseLineStringCoordinates(GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    return parseCoordinateArray(parser);
+  }
+
+  /**
+   * Parses a MultiLine GeoJSON coordinates array and adds them to coords
+   * 
+   * @return list of arrays with coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static List<double[]> parseMultiLineStringCoordinates(
+      GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    List<double[]> lines = new ArrayList<double[]>();
+
+    parser.reader.beginArray();
+    while (parser.reader.hasNext()) {
+      lines.add(parseLineStringCoordinates(parser));
+    }
+    parser.reader.endArray();
+    return lines;
+  }
+
+  /**
+   * Parses a Polygon GeoJSON coordinates array and adds them to coords
+   * 
+   * @return list of arrays with coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static List<double[]> parsePolygonCoordinates(GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    List<double[]> rings = new ArrayList<double[]>();
+
+    parser.reader.beginArray();
+    while (parser.reader.hasNext()) {
+      rings.add(parseLineStringCoordinates(parser));
+    }
+    parser.reader.endArray();
+    return rings;
+  }
+
+  /**
+   * Parses a MultiPolygon GeoJSON coordinates array and adds them to coords
+   * 
+   * @return list of arrays with ring coordinates
+   * @throws IOException,
+   *           JsonSyntaxException, IllegalStateException
+   */
+  protected static List<List<double[]>> parseMultiPolygonCoordinates(
+      GeoJSONParser parser)
+      throws JsonSyntaxException, IOException, IllegalStateException {
+
+    List<List<double[]>> polys = new ArrayList<List<double[]>>();
+
+    parser.reader.beginArray();
+    while (parser.reader.hasNext()) {
+      polys.add(parsePolygonCoordinates(parser));
+    }
+    parser.reader.endArray();
+    return polys;
+  }
+
+  /**
+   * Parses geometries the way parseGeometry did before coordinates were read
+   * into primitive buffers (polygons only)
+   */
+  protected static Geometry parseLegacyGeometry(GeoJSONParser parser)
+      throws IOException {
+
+    GeometryBuilder builder = new GeometryBuilder();
+    parser.reader.beginObject();
+    parser.reader.nextName();
+    parser.reader.nextString();
+    parser.reader.nextName();
+
+    Geometry geom;
+    List<List<double[]>> polys = parseMultiPolygonCoordinates(parser);
+    Polygon[] polygons = new Polygon[polys.size()];
+    int i = 0;
+    for (List<double[]> rings : polys) {
+      polygons[i++] = builder.polygon(rings.get(0));
+    }
+    geom = builder.multiPolygon(polygons);
+
+    parser.reader.endObject();
+    return geom;
+  }
+
+  /**
+   * Returns a JSON array of multi-polygons with VERTICES vertices each
+   */
+  protected static byte[] composeGeometries() {
+
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < FEATURES; i++) {
+      if (i > 0) {
+        json.append(",");
+      }
+      json.append("{\"type\":\"MultiPolygon\",\"coordinates\":[[[");
+      for (int j = 0; j < VERTICES; j++) {
+        double angle = 2 * Math.PI * (j % (VERTICES - 1)) / (VERTICES - 1);
+        json.append(j > 0 ? "," : "").append("[")
+            .append(144.9 + i * 0.01 + Math.cos(angle) * 0.001).append(",")
+            .append(-37.8 + Math.sin(angle) * 0.001).append("]");
+      }
+      json.append("]]]}");
+    }
+
+    return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the bytes allocated per feature when parsing all geometries
+   */
+  protected static long measure(byte[] json, boolean legacy)
+      throws IOException {
+
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    GeoJSONParser parser = new GeoJSONParser(new ByteArrayInputStream(json),
+        null, LOGGER);
+    long before = bean.getThreadAllocatedBytes(thread);
+    parser.reader.beginArray();
+    while (parser.reader.hasNext()) {
+      if (legacy) {
+        parseLegacyGeometry(parser);
+      } else {
+        parser.parseGeometry();
+      }
+    }
+    parser.reader.endArray();
+    long allocated = bean.getThreadAllocatedBytes(thread) - before;
+    parser.close();
+
+    return allocated / FEATURES;
+  }
+
+  /**
+   * Returns the feature type of the bicycle paths test data
+   */
+  protected static SimpleFeatureType composeBicycleType() {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("bicycle");
+    builder.add("OBJECTID", Integer.class);
+    for (String name : new String[] { "NETWORK", "TYPE", "STATUS",
+        "LOCAL_NAME", "LOCAL_TYPE" }) {
+      builder.add(name, String.class);
+    }
+    builder.add("RD_NUM", Integer.class);
+    for (String name : new String[] { "NAME", "SIDE", "FACILITY_L",
+        "SURFACE_L" }) {
+      builder.add(name, String.class);
+    }
+    builder.add("WIDTH_LEFT", Integer.class);
+    builder.add("FACILITY_R", String.class);
+    builder.add("SURFACE_R", String.class);
+    builder.add("WIDTH_RIGH", Integer.class);
+    builder.add("LIGHTING", String.class);
+    builder.add("VERI_DATE", Date.class);
+    builder.add("geometry", Geometry.class);
+
+    return builder.buildFeatureType();
+  }
+
+  /**
+   * Parses a feature the way parseFeature did before the feature builder and
+   * property map were dropped: a new builder and a new property map per
+   * feature, with the geometry built as soon as it is parsed
+   */
+  protected static SimpleFeature parseLegacyFeature(GeoJSONParser parser) {
+
+    Geometry geom = null;
+    String id = SimpleFeatureBuilder
+        .createDefaultFeatureIdentifier(GeoJSONParser.FEATURES).getID();
+    Map<String, Object> props = new HashMap<String, Object>();
+    SimpleFeatureBuilder builder = new SimpleFeatureBuilder(
+        parser.featureType);
+
+    try {
+      parser.reader.beginObject();
+
+      while (parser.reader.hasNext()) {
+
+        switch (parser.reader.nextName()) {
+
+        case GeoJSONParser.FEATURE_TYPE:
+          parser.checkPropertyValue(GeoJSONParser.FEATURE_TYPE_VALUE);
+          break;
+
+        case GeoJSONParser.FEATURE_GEOMETRY:
+          geom = parser.parseGeometry();
+          break;
+
+        case GeoJSONParser.FEATURE_PROPERTIES:
+          props = parser.parseProperties();
+          break;
+
+        case GeoJSONParser.FEATURE_ID:
+          id = parser.reader.nextString();
+          break;
+
+        default:
+          parser.reader.skipValue();
+        }
+      }
+
+      parser.reader.endObject();
+
+    } catch (IOException | IllegalStateException e) {
+      throw (new NoSuchElementException(e.getMessage()));
+    }
+
+    for (AttributeDescriptor attr : parser.featureType
+        .getAttributeDescriptors()) {
+
+      if (parser.featureType.getGeometryDescriptor().getLocalName()
+          .equals(attr.getLocalName())) {
+        builder.add(geom);
+      } else {
+        builder.add(props.get(attr.getLocalName()));
+      }
+    }
+
+    return builder.buildFeature(id);
+  }
+
+  /**
+   * Returns the features per second parsed out of a feature collection
+   */
+  protected static double measureThroughput(byte[] json,
+      SimpleFeatureType type, boolean legacy) throws IOException {
+
+    long features = 0;
+    long start = System.nanoTime();
+    long end = start + ROUND_MILLIS * 1000000L;
+    long now;
+
+    do {
+      GeoJSONParser parser = new GeoJSONParser(new ByteArrayInputStream(json),
+          type, LOGGER);
+      parser.parseFeatureCollection();
+      while (parser.hasNext()) {
+        if (legacy) {
+          parseLegacyFeature(parser);
+        } else {
+          parser.next();
+        }
+        features++;
+      }
+      parser.close();
+      now = System.nanoTime();
+    } while (now < end);
+
+    return features * 1e9 / (now - start);
+  }
+
+  public static void main(String[] args) throws IOException {
+
+    byte[] json = composeGeometries();
+    byte[] bicycles = Files.readAllBytes(Paths.get(
+        ArcGISRestDataStoreFactoryTest.class
+            .getResource("test-data/bicycleFeatures.geo.json").getFile()));
+    SimpleFeatureType bicycleType = composeBicycleType();
+
+    for (int i = 0; i < ROUNDS; i++) {
+      System.out.println(String.format(
+          "Round %d: lists %d bytes/feature, buffers %d bytes/feature",
+          i, measure(json, true), measure(json, false)));
+      System.out.println(String.format(
+          "Round %d: builder %.0f features/s, parser %.0f features/s", i,
+          measureThroughput(bicycles, bicycleType, true),
+          measureThroughput(bicycles, bicycleType, false)));
+    }
+  }
+
+}
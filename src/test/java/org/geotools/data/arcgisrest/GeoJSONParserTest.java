@@ -21,8 +21,6 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.logging.Logger;
@@ -41,6 +39,7 @@ import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
 
 public class GeoJSONParserTest {
 
@@ -65,24 +64,44 @@ public class GeoJSONParserTest {
     this.fType = builder.buildFeatureType();
   }
 
+  /**
+   * Helper method to return a parser over a JSON string
+   */
+  protected GeoJSONParser createParser(String jsonIn) {
+    return new GeoJSONParser(new ByteArrayInputStream(jsonIn.getBytes()),
+        this.fType, null);
+  }
+
+  /**
+   * Helper method to parse the coordinates of a geometry into the parser
+   * buffers and return them as copied into a geometry span
+   */
+  protected GeoJSONParser.GeometrySpan parseSpan(String type,
+      String coordinates) throws Exception {
+
+    GeoJSONParser parser = this.createParser("{\"type\": \"" + type
+        + "\", \"coordinates\": " + coordinates + "}");
+    return new GeoJSONParser.GeometrySpan(parser.geometryFactory,
+        parser.parseCoordinates(), parser.ordinates, parser.partEnds,
+        parser.polygonEnds);
+  }
+
   @Test
   public void parsePointCoordinateList() throws Exception {
 
-    List<Double> coordList = new ArrayList<Double>();
-
-    (new GeoJSONParser(new ByteArrayInputStream("[1.0, 2.0]".getBytes()),
-        this.fType, null)).parsePointCoordinates(coordList);
+    GeoJSONParser parser = this.createParser("[1.0, 2.0]");
+    parser.parseOrdinates();
     double[] expCoords = { 1.0f, 2.0f };
 
-    assertArrayEquals(expCoords, GeoJSONParser.listToArray(coordList), 0.1f);
+    assertArrayEquals(expCoords,
+        parser.ordinates.toArray(0, parser.ordinates.size()), 0.1f);
   }
 
   @Test
   public void parsePointCoordinateArray() throws Exception {
 
-    double[] coords = (new GeoJSONParser(
-        new ByteArrayInputStream("[1.0, 2.0]".getBytes()), this.fType, null))
-            .parsePointCoordinates();
+    double[] coords = this.parseSpan(GeoJSONParser.GEOMETRY_POINT,
+        "[1.0, 2.0]").parts[0];
     double[] expCoords = { 1.0f, 2.0f };
 
     assertArrayEquals(expCoords, coords, 0.1f);
@@ -91,142 +110,142 @@ public class GeoJSONParserTest {
   @Test(expected = MalformedJsonException.class)
   public void parseInvalidPointCoordinate1() throws Exception {
 
-    List<Double> coordList = new ArrayList<Double>();
-
-    (new GeoJSONParser(new ByteArrayInputStream("[1.0 2.0]".getBytes()),
-        this.fType, null)).parsePointCoordinates(coordList);
+    this.createParser("[1.0 2.0]").parseOrdinates();
   }
 
   @Test(expected = IllegalStateException.class)
   public void parseInvalidPointCoordinate2() throws Exception {
 
-    List<Double> coordList = new ArrayList<Double>();
-
-    (new GeoJSONParser(
-        new ByteArrayInputStream("[1.0, 2.0, 3.0, 4.0]".getBytes()), this.fType,
-        null)).parsePointCoordinates(coordList);
+    // Positions with M (or more) ordinates are rejected
+    this.createParser("[1.0, 2.0, 3.0, 4.0]").parseOrdinates();
   }
 
   @Test
   public void parse3DCoordinatesArray() throws Exception {
 
-    double[] coords = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[102.0, 0.0, 100.0], [103.0, 1.0, 200.0], [104.0, 0.0, 300.0], [105.0, 1.0, 400.0]]"
-            .getBytes()),
-        this.fType, null)).parseCoordinateArray();
+    GeoJSONParser parser = this.createParser(
+        "[[102.0, 0.0, 100.0], [103.0, 1.0, 200.0], [104.0, 0.0, 300.0], [105.0, 1.0, 400.0]]");
+    parser.parseOrdinateArray();
     double[] expCoords = { 102.0f, 0.0f, 103.0f, 1.0f, 104.0f, 0.0f, 105.0f,
         1.0f };
 
-    assertArrayEquals(expCoords, coords, 0.1f);
+    assertArrayEquals(expCoords,
+        parser.ordinates.toArray(0, parser.ordinates.size()), 0.1f);
   }
 
   @Test(expected = MalformedJsonException.class)
   public void parseIncorrectCoordinatesArray1() throws Exception {
 
-    double[] coords = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[102.0, 0.0], [103.0, 1.0], [104.0, 0.0 [104.5, 0.5]], [105.0, 1.0]]"
-            .getBytes()),
-        this.fType, null)).parseCoordinateArray();
+    this.createParser(
+        "[[102.0, 0.0], [103.0, 1.0], [104.0, 0.0 [104.5, 0.5]], [105.0, 1.0]]")
+        .parseOrdinateArray();
   }
 
   @Test
   public void parseMultiPoint() throws Exception {
 
-    List<double[]> coords = (new GeoJSONParser(
-        new ByteArrayInputStream(
-            "[[10, 40], [40, 30], [20, 20], [30, 10]]".getBytes()),
-        this.fType, null)).parseMultiPointCoordinates();
-    double[] expCoords1 = { 10.0f, 40.0f };
-    double[] expCoords2 = { 40.0f, 30.0f };
-    double[] expCoords3 = { 20.0f, 20.0f };
-    double[] expCoords4 = { 30.0f, 10.0f, };
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_MULTIPOINT,
+        "[[10, 40], [40, 30], [20, 20], [30, 10]]");
+    double[] expCoords = { 10.0f, 40.0f, 40.0f, 30.0f, 20.0f, 20.0f, 30.0f,
+        10.0f };
 
-    assertArrayEquals(expCoords1, coords.get(0), 0.1f);
-    assertArrayEquals(expCoords2, coords.get(1), 0.1f);
-    assertArrayEquals(expCoords3, coords.get(2), 0.1f);
-    assertArrayEquals(expCoords4, coords.get(3), 0.1f);
+    assertEquals(1, span.parts.length);
+    assertArrayEquals(expCoords, span.parts[0], 0.1f);
+    assertEquals(4, span.get().getNumGeometries());
   }
 
   @Test
   public void parseLineString() throws Exception {
 
-    double[] coords = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [105.0, 1.0]]"
-            .getBytes()),
-        this.fType, null)).parseLineStringCoordinates();
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_LINE,
+        "[[100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [105.0, 1.0]]");
     double[] expCoords = { 100.0f, 0.0f, 101.0f, 0.0f, 101.0f, 1.0f, 100.0f,
         1.0f, 105.0f, 1.0f };
 
-    assertArrayEquals(expCoords, coords, 0.1f);
+    assertArrayEquals(expCoords, span.parts[0], 0.1f);
   }
 
   @Test
   public void parseMultiLineString() throws Exception {
 
-    List<double[]> lines = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[[10, 10], [20, 20], [10, 40]], [[40, 40], [30, 30], [40, 20], [30, 10]]]"
-            .getBytes()),
-        this.fType, null)).parseMultiLineStringCoordinates();
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_MULTILINE,
+        "[[[10, 10], [20, 20], [10, 40]], [[40, 40], [30, 30], [40, 20], [30, 10]]]");
     double[] expLine1 = { 10.0f, 10.0f, 20.0f, 20.0f, 10.0f, 40.0f };
     double[] expLine2 = { 40.0f, 40.0f, 30.0f, 30.0f, 40.0f, 20.0f, 30.0f,
         10.0f };
 
-    assertArrayEquals(expLine1, lines.get(0), 0.1f);
-    assertArrayEquals(expLine2, lines.get(1), 0.1f);
+    assertEquals(2, span.parts.length);
+    assertArrayEquals(expLine1, span.parts[0], 0.1f);
+    assertArrayEquals(expLine2, span.parts[1], 0.1f);
   }
 
   @Test
   public void parsePolygon() throws Exception {
 
-    List<double[]> rings = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ]]"
-            .getBytes()),
-        this.fType, null)).parsePolygonCoordinates();
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_POLYGON,
+        "[[ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ]]");
     double[] expCoords = { 100.0f, 0.0f, 101.0f, 0.0f, 101.0f, 1.0f, 100.0f,
         1.0f, 100.0f, 0.0f };
 
-    assertArrayEquals(expCoords, rings.get(0), 0.1f);
+    assertEquals(1, span.parts.length);
+    assertArrayEquals(expCoords, span.parts[0], 0.1f);
   }
 
   @Test
   public void parsePolygonWithHoles() throws Exception {
 
-    List<double[]> rings = (new GeoJSONParser(new ByteArrayInputStream(
-        "[ [[35, 10], [45, 45], [15, 40], [10, 20], [35, 10]], [[20, 30], [35, 35], [30, 20], [20, 30]] ]"
-            .getBytes()),
-        this.fType, null)).parsePolygonCoordinates();
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_POLYGON,
+        "[ [[35, 10], [45, 45], [15, 40], [10, 20], [35, 10]], [[20, 30], [35, 35], [30, 20], [20, 30]] ]");
     double[] expRing1 = { 35.0f, 10.0f, 45.0f, 45.0f, 15.0f, 40.0f, 10.0f,
         20.0f, 35.0f, 10.0f };
     double[] expRing2 = { 20.0f, 30.0f, 35.0f, 35.0f, 30.0f, 20.0f, 20.0f,
         30.0f };
 
-    assertArrayEquals(expRing1, rings.get(0), 0.1f);
-    assertArrayEquals(expRing2, rings.get(1), 0.1f);
+    assertArrayEquals(expRing1, span.parts[0], 0.1f);
+    assertArrayEquals(expRing2, span.parts[1], 0.1f);
+  }
+
+  @Test
+  public void parseUnclosedPolygon() throws Exception {
+
+    // Rings are closed when copied into the span
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_POLYGON,
+        "[[ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0] ]]");
+    double[] expCoords = { 100.0f, 0.0f, 101.0f, 0.0f, 101.0f, 1.0f, 100.0f,
+        1.0f, 100.0f, 0.0f };
+
+    assertArrayEquals(expCoords, span.parts[0], 0.1f);
+    assertEquals(1, span.get().getArea(), 0.001);
   }
 
   @Test
   public void parseMultiPolygon() throws Exception {
 
-    List<List<double[]>> polys = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[ [[30, 20], [45, 40], [10, 40], [30, 20]]], [[[15, 5], [40, 10], [10, 20], [5, 10], [15, 5]] ]]"
-            .getBytes()),
-        this.fType, null)).parseMultiPolygonCoordinates();
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_MULTIPOLYGON,
+        "[[ [[30, 20], [45, 40], [10, 40], [30, 20]]], [[[15, 5], [40, 10], [10, 20], [5, 10], [15, 5]] ]]");
     double[] expPoly1 = { 30.0f, 20.0f, 45.0f, 40.0f, 10.0f, 40.0f, 30.0f,
         20.0f };
     double[] expPoly2 = { 15.0f, 5.0f, 40.0f, 10.0f, 10.0f, 20.0f, 5.0f, 10.0f,
         15.0f, 5.0f };
 
-    assertArrayEquals(expPoly1, polys.get(0).get(0), 0.1f);
-    assertArrayEquals(expPoly2, polys.get(1).get(0), 0.1f);
+    assertArrayEquals(new int[] { 1, 2 }, span.polygonEnds);
+    assertArrayEquals(expPoly1, span.parts[0], 0.1f);
+    assertArrayEquals(expPoly2, span.parts[1], 0.1f);
   }
 
   @Test
   public void parseMultiPolygonWithHoles() throws Exception {
 
-    List<List<double[]>> rings = (new GeoJSONParser(new ByteArrayInputStream(
-        "[[[[40, 40], [20, 45], [45, 30], [40, 40]]],[[[20, 35], [10, 30], [10, 10], [30, 5], [45, 20], [20, 35]],[[30, 20], [20, 15], [20, 25], [30, 20]]]]"
-            .getBytes()),
-        this.fType, null)).parseMultiPolygonCoordinates();
+    GeoJSONParser.GeometrySpan span = this.parseSpan(
+        GeoJSONParser.GEOMETRY_MULTIPOLYGON,
+        "[[[[40, 40], [20, 45], [45, 30], [40, 40]]],[[[20, 35], [10, 30], [10, 10], [30, 5], [45, 20], [20, 35]],[[30, 20], [20, 15], [20, 25], [30, 20]]]]");
     double[] expRing1 = { 40.0f, 40.0f, 20.0f, 45.0f, 45.0f, 30.0f, 40.0f,
         40.0f };
     double[] expRing2 = { 20.0f, 35.0f, 10.0f, 30.0f, 10.0f, 10.0f, 30.0f, 5.0f,
@@ -234,9 +253,10 @@ public class GeoJSONParserTest {
     double[] expRing3 = { 30.0f, 20.0f, 20.0f, 15.0f, 20.0f, 25.0f, 30.0f,
         20.0f };
 
-    assertArrayEquals(expRing1, rings.get(0).get(0), 0.1f);
-    assertArrayEquals(expRing2, rings.get(1).get(0), 0.1f);
-    assertArrayEquals(expRing3, rings.get(1).get(1), 0.1f);
+    assertArrayEquals(new int[] { 1, 3 }, span.polygonEnds);
+    assertArrayEquals(expRing1, span.parts[0], 0.1f);
+    assertArrayEquals(expRing2, span.parts[1], 0.1f);
+    assertArrayEquals(expRing3, span.parts[2], 0.1f);
   }
 
   @Test(expected = JsonSyntaxException.class)
@@ -324,6 +344,36 @@ public class GeoJSONParserTest {
     assertEquals(1.5f, ((MultiLineString) (geom)).getCentroid().getY(), 0.1f);
   }
 
+  @Test
+  public void parseGeometryPolygonWithHoles() throws Exception {
+
+    Geometry geom = (new GeoJSONParser(new ByteArrayInputStream(
+        "{ \"type\": \"Polygon\", \"coordinates\": [ [[35, 10], [45, 45], [15, 40], [10, 20], [35, 10]], [[20, 30], [35, 35], [30, 20], [20, 30]] ]}"
+            .getBytes()),
+        this.fType, null)).parseGeometry();
+
+    assertTrue(geom.getClass().getSimpleName().equals("Polygon"));
+    assertEquals(1, ((Polygon) (geom)).getNumInteriorRing());
+    assertEquals(4, ((Polygon) (geom)).getInteriorRingN(0).getNumPoints());
+    assertEquals(675.0f, geom.getArea(), 0.1f);
+  }
+
+  @Test
+  public void parseGeometryMultiPolygonWithHoles() throws Exception {
+
+    Geometry geom = (new GeoJSONParser(new ByteArrayInputStream(
+        "{ \"type\": \"MultiPolygon\", \"coordinates\": [[[[40, 40], [20, 45], [45, 30], [40, 40]]],[[[20, 35], [10, 30], [10, 10], [30, 5], [45, 20], [20, 35]],[[30, 20], [20, 15], [20, 25], [30, 20]]]]}"
+            .getBytes()),
+        this.fType, null)).parseGeometry();
+
+    assertTrue(geom.getClass().getSimpleName().equals("MultiPolygon"));
+    assertEquals(2, geom.getNumGeometries());
+    assertEquals(0,
+        ((Polygon) (geom.getGeometryN(0))).getNumInteriorRing());
+    assertEquals(1,
+        ((Polygon) (geom.getGeometryN(1))).getNumInteriorRing());
+  }
+
   @Test
   public void parsePropertiesNull() throws Exception {
 
@@ -396,6 +446,43 @@ public class GeoJSONParserTest {
     assertEquals(2.0f, ((Point) (feat.getDefaultGeometry())).getY(), 0.1f);
   }
 
+  @Test
+  public void parseFeatureLazyGeometry() throws Exception {
+
+    ArcGISRestLazyFeature feat = (ArcGISRestLazyFeature) (new GeoJSONParser(
+        new ByteArrayInputStream(
+            "{\"type\":\"Feature\", \"geometry\": {\"type\": \"MultiPolygon\", \"coordinates\": [[[[0, 0], [0, 10], [10, 10], [10, 0], [0, 0]]],[[[20, 20], [20, 30], [30, 30], [30, 20], [20, 20]],[[22, 22], [24, 22], [24, 24], [22, 24], [22, 22]]]]}, \"properties\":{\"vint\": 12}}"
+                .getBytes()),
+        this.fType, null)).parseFeature();
+
+    assertEquals(12, feat.getAttribute("vint"));
+    assertFalse(feat.isGeometryBuilt());
+
+    Geometry geom = (Geometry) feat.getDefaultGeometry();
+    assertTrue(feat.isGeometryBuilt());
+    assertEquals(2, geom.getNumGeometries());
+    assertEquals(1, ((Polygon) (geom.getGeometryN(1))).getNumInteriorRing());
+    assertEquals(196, geom.getArea(), 0.001);
+    assertSame(geom, feat.getAttribute("geometry"));
+  }
+
+  @Test
+  public void parseFeatureWithoutGeometryAttribute() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("jsonfeature");
+    builder.add("vint", Integer.class);
+
+    // Coordinates are skipped, and so are malformed ones
+    SimpleFeature feat = (new GeoJSONParser(new ByteArrayInputStream(
+        "{\"type\":\"Feature\", \"geometry\": {\"type\": \"Unknown\", \"coordinates\": [[1.0, 2.0]]}, \"properties\":{\"vint\": 12}}"
+            .getBytes()),
+        builder.buildFeatureType(), null)).parseFeature();
+
+    assertEquals(12, feat.getAttribute("vint"));
+    assertNull(feat.getDefaultGeometry());
+  }
+
   @Test
   public void parseFeatureNoPropertiesNoGeometry() throws Exception {
 
@@ -406,6 +493,37 @@ public class GeoJSONParserTest {
     assertTrue(true);
   }
 
+  @Test
+  public void parseFeaturesWithoutLeaks() throws Exception {
+
+    GeoJSONParser parser = (new GeoJSONParser(new ByteArrayInputStream(
+        "{\"type\":\"FeatureCollection\", \"features\":[{\"type\":\"Feature\", \"id\":\"f1\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [1.0, 2.0]}, \"properties\":{\"vstring\": \"value0\", \"vint\": 12, \"vboolean\": true}}, {\"type\":\"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [5.0, 6.0]}, \"properties\":{\"vint\": 7}}, {\"type\":\"Feature\", \"geometry\": null, \"properties\":null}]}"
+            .getBytes()),
+        this.fType, null));
+    parser.parseFeatureCollection();
+    SimpleFeature feat1 = parser.next();
+    SimpleFeature feat2 = parser.next();
+    SimpleFeature feat3 = parser.next();
+    assertFalse(parser.hasNext());
+
+    // Neither IDs nor values of a feature are carried over to the next ones
+    assertEquals("f1", feat1.getID());
+    assertNotEquals("f1", feat2.getID());
+    assertNotEquals(feat2.getID(), feat3.getID());
+    assertEquals(7, feat2.getAttribute("vint"));
+    assertNull(feat2.getAttribute("vstring"));
+    assertNull(feat2.getAttribute("vboolean"));
+    for (Object value : feat3.getAttributes()) {
+      assertTrue(value == null || ((Geometry) value).isEmpty());
+    }
+
+    // The features parsed before are not changed by the ones parsed after
+    assertEquals(1.0f, ((Point) (feat1.getDefaultGeometry())).getX(), 0.1f);
+    assertEquals("value0", feat1.getAttribute("vstring"));
+    assertEquals(12, feat1.getAttribute("vint"));
+    assertEquals(6.0f, ((Point) (feat2.getDefaultGeometry())).getY(), 0.1f);
+  }
+
   @Test(expected = NoSuchElementException.class)
   public void parseEmptyFeatureCollection() throws Exception {
 
@@ -0,0 +1,178 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2002-2016, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.arcgisrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.util.logging.Logging;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class PBFParserTest {
+
+  private static final Logger LOGGER = Logging
+      .getLogger("org.geotools.data.arcgisrest");
+
+  SimpleFeatureType fType;
+
+  @Before
+  public void setUp() throws Exception {
+
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("pbffeature");
+    builder.add("OBJECTID", Integer.class);
+    builder.add("name", String.class);
+    builder.add("area", Double.class);
+    builder.add("geometry", Geometry.class);
+
+    this.fType = builder.buildFeatureType();
+  }
+
+  @Test
+  public void features() throws Exception {
+
+    PBFParser parser = new PBFParser(
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/polygons.pbf"),
+        this.fType, LOGGER);
+    parser.parseFeatureCollection();
+
+    assertTrue(parser.hasNext());
+    SimpleFeature feat = parser.next();
+    assertEquals("7", feat.getID());
+    assertEquals(7, feat.getAttribute("OBJECTID"));
+    assertEquals("first", feat.getAttribute("name"));
+    assertEquals(96.0, feat.getAttribute("area"));
+
+    // Quantized coordinates are delta-encoded from the upper left corner
+    Geometry geom = (Geometry) feat.getDefaultGeometry();
+    assertTrue(geom instanceof MultiPolygon);
+    assertEquals(1, geom.getNumGeometries());
+    assertEquals(1, ((Polygon) geom.getGeometryN(0)).getNumInteriorRing());
+    assertEquals(96.0, geom.getArea(), 0.001);
+    assertEquals(new Coordinate(100, 200), geom.getCoordinates()[0]);
+    assertEquals(new Coordinate(110, 190), geom.getCoordinates()[2]);
+
+    assertTrue(parser.hasNext());
+    feat = parser.next();
+    assertEquals("8", feat.getID());
+    assertEquals("sécond", feat.getAttribute("name"));
+    assertNull(feat.getAttribute("area"));
+    assertNull(feat.getDefaultGeometry());
+
+    assertFalse(parser.hasNext());
+    assertTrue(parser.isExceededTransferLimit());
+    parser.close();
+  }
+
+  @Test
+  public void objectIdNotInType() throws Exception {
+
+    // The object ID is the feature ID, even when it is not an attribute
+    SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+    builder.setName("pbffeature");
+    builder.add("name", String.class);
+    this.fType = builder.buildFeatureType();
+
+    PBFParser parser = new PBFParser(
+        ArcGISRestDataStoreFactoryTest
+            .readJSONAsStream("test-data/polygons.pbf"),
+        this.fType, LOGGER);
+    parser.parseFeatureCollection();
+
+    SimpleFeature feat = parser.next();
+    assertEquals("7", feat.getID());
+    assertEquals("first", feat.getAttribute("name"));
+    assertEquals("8", parser.next().getID());
+    assertFalse(parser.hasNext());
+    parser.close();
+  }
+
+  @Test
+  public void streamed() throws Exception {
+
+    // The response is parsed as it is received, however it is split
+    final InputStream source = ArcGISRestDataStoreFactoryTest
+        .readJSONAsStream("test-data/polygons.pbf");
+    InputStream trickle = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return source.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return source.read(b, off, Math.min(len, 1));
+      }
+    };
+
+    PBFParser parser = new PBFParser(trickle, this.fType, LOGGER);
+    parser.parseFeatureCollection();
+    assertEquals("7", parser.next().getID());
+    SimpleFeature feat = parser.next();
+    assertEquals("8", feat.getID());
+    assertEquals("sécond", feat.getAttribute("name"));
+    assertFalse(parser.hasNext());
+    assertTrue(parser.isExceededTransferLimit());
+    parser.close();
+  }
+
+  @Test
+  public void empty() throws Exception {
+
+    PBFParser parser = new PBFParser(new ByteArrayInputStream(new byte[0]),
+        this.fType, LOGGER);
+    parser.parseFeatureCollection();
+
+    assertFalse(parser.hasNext());
+    assertFalse(parser.isExceededTransferLimit());
+  }
+
+  @Test(expected = IOException.class)
+  public void truncated() throws Exception {
+
+    // A collection whose query result is longer than the message
+    PBFParser parser = new PBFParser(
+        new ByteArrayInputStream(new byte[] { 0x12, 0x10, 0x0A }), this.fType,
+        LOGGER);
+    parser.parseFeatureCollection();
+  }
+
+  @Test(expected = IOException.class)
+  public void error() throws Exception {
+
+    PBFParser parser = new PBFParser(
+        ArcGISRestDataStoreFactoryTest.readJSONAsStream("test-data/error.json"),
+        this.fType, LOGGER);
+    parser.parseFeatureCollection();
+  }
+
+}